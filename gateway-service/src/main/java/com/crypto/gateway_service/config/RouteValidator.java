@@ -61,7 +61,8 @@ public class RouteValidator {
     public static final List<String> ADMIN_ENDPOINTS = List.of(
         "/identity-service/api/v1/admin",
         "/crawler-service/api/v1/admin",
-        "/analysis-service/api/v1/admin"
+        "/analysis-service/api/v1/admin",
+        "/market-service/api/v1/admin"
     );
 
     /**
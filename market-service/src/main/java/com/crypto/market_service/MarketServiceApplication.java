@@ -3,13 +3,21 @@ package com.crypto.market_service;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.discovery.EnableDiscoveryClient;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Profiles;
+
+import com.crypto.market_service.service.KlineBulkLoadRunner;
 
 @SpringBootApplication
 @EnableDiscoveryClient
 public class MarketServiceApplication {
 
 	public static void main(String[] args) {
-		SpringApplication.run(MarketServiceApplication.class, args);
+		ConfigurableApplicationContext context = SpringApplication.run(MarketServiceApplication.class, args);
+		if (context.getEnvironment().acceptsProfiles(Profiles.of(KlineBulkLoadRunner.PROFILE))) {
+			// Nạp xong thì đóng context, mã thoát lấy từ KlineBulkLoadRunner (ExitCodeGenerator)
+			System.exit(SpringApplication.exit(context));
+		}
 	}
 
 }
@@ -1,12 +1,10 @@
 package com.crypto.market_service.config;
 
-import com.crypto.market_service.service.RedisSubscriber;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SyncTaskExecutor;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
-import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
-import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 
 @Configuration
 public class RedisConfig {
@@ -14,26 +12,19 @@ public class RedisConfig {
     // Prefix cho các kênh dữ liệu. Ví dụ: market_data:btcusdt
     public static final String MARKET_TOPIC_PREFIX = "market_data:";
 
-    // Pattern để lắng nghe tất cả các kênh bắt đầu bằng prefix trên
+    // Pattern của mọi kênh, chỉ dùng khi app.redis.subscription-mode=pattern
     public static final String MARKET_TOPIC_PATTERN = "market_data:*";
 
     // 1. Container lắng nghe tin nhắn từ Redis
+    // Các kênh được RedisChannelSubscriptions thêm/bớt theo symbols ACTIVE và client đang xem,
+    // listener là RedisSubscriber nhận thẳng bytes (kline nhị phân hoặc JSON)
     @Bean
-    RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory,
-                                            MessageListenerAdapter listenerAdapter) {
+    RedisMessageListenerContainer container(RedisConnectionFactory connectionFactory) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
-
-        // QUAN TRỌNG: Sử dụng PatternTopic để nghe nhiều kênh cùng lúc
-        container.addMessageListener(listenerAdapter, new PatternTopic(MARKET_TOPIC_PATTERN));
-
+        // Gọi listener ngay trên thread nhận của Redis theo đúng thứ tự message;
+        // RedisSubscriber tự chia việc cho các stripe theo symbol
+        container.setTaskExecutor(new SyncTaskExecutor());
         return container;
     }
-
-    // 2. Bộ chuyển đổi: Khi có tin nhắn đến -> gọi hàm handleMessage của RedisSubscriber
-    @Bean
-    MessageListenerAdapter listenerAdapter(RedisSubscriber subscriber) {
-        // Hàm xử lý bên RedisSubscriber vẫn tên là "handleMessage"
-        return new MessageListenerAdapter(subscriber, "handleMessage");
-    }
 }
\ No newline at end of file
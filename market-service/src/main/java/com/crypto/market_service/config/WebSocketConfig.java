@@ -10,6 +10,12 @@ import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerCo
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // Kênh STOMP của từng symbol. Ví dụ: /topic/market/btcusdt
+    public static final String MARKET_TOPIC_PREFIX = "/topic/market/";
+
+    // Kênh STOMP sổ lệnh (top-N levels) của từng symbol. Ví dụ: /topic/depth/btcusdt
+    public static final String DEPTH_TOPIC_PREFIX = "/topic/depth/";
+
     @Override
     public void registerStompEndpoints(StompEndpointRegistry registry) {
         // Điểm cuối (Endpoint) để Frontend kết nối: ws://localhost:8080/market-service/ws
@@ -0,0 +1,107 @@
+package com.crypto.market_service.controllers;
+
+import com.crypto.market_service.dto.ApiResponse;
+import com.crypto.market_service.service.FrameJournal;
+import com.crypto.market_service.service.JournalReplayService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Xem và phát lại journal; phát lại đẩy dữ liệu lên Redis nên nằm dưới /api/v1/admin để gateway chỉ cho role ADMIN gọi
+ */
+@RestController
+@RequestMapping("/api/v1/admin/journal")
+@RequiredArgsConstructor
+public class JournalController {
+
+    private final FrameJournal journal;
+    private final JournalReplayService replayService;
+
+    /**
+     * GET /api/v1/admin/journal/segments - Danh sách file journal (giờ UTC yyyyMMddHH)
+     */
+    @GetMapping("/segments")
+    public ResponseEntity<ApiResponse<List<String>>> getSegments(
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to
+    ) {
+        try {
+            return ResponseEntity.ok(ApiResponse.<List<String>>builder()
+                    .success(true)
+                    .message("Journal segments retrieved")
+                    .data(fileNames(journal.segments(from, to)))
+                    .build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.<List<String>>builder()
+                    .success(false)
+                    .message(e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * POST /api/v1/admin/journal/replay?from=2026101614&to=2026101615&speed=1
+     * Phát lại journal qua luồng xử lý frame; speed <= 0 là nhanh nhất có thể
+     */
+    @PostMapping("/replay")
+    public ResponseEntity<ApiResponse<List<String>>> replay(
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(defaultValue = "1") double speed
+    ) {
+        try {
+            List<Path> segments = replayService.start(from, to, speed);
+            if (segments == null) {
+                return ResponseEntity.badRequest().body(ApiResponse.<List<String>>builder()
+                        .success(false)
+                        .message("A replay is already running")
+                        .build());
+            }
+            return ResponseEntity.ok(ApiResponse.<List<String>>builder()
+                    .success(true)
+                    .message("Replay started")
+                    .data(fileNames(segments))
+                    .build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.<List<String>>builder()
+                    .success(false)
+                    .message(e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * GET /api/v1/admin/journal/replay - Trạng thái lần phát lại hiện tại
+     */
+    @GetMapping("/replay")
+    public ResponseEntity<ApiResponse<Long>> getReplayStatus() {
+        return ResponseEntity.ok(ApiResponse.<Long>builder()
+                .success(true)
+                .message(replayService.isRunning() ? "Replay running" : "No replay running")
+                .data(replayService.getReplayedFrames())
+                .build());
+    }
+
+    /**
+     * DELETE /api/v1/admin/journal/replay - Dừng phát lại
+     */
+    @DeleteMapping("/replay")
+    public ResponseEntity<ApiResponse<Void>> stopReplay() {
+        replayService.stop();
+        return ResponseEntity.ok(ApiResponse.<Void>builder()
+                .success(true)
+                .message("Replay stop requested")
+                .build());
+    }
+
+    private static List<String> fileNames(List<Path> segments) {
+        return segments.stream()
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,44 @@
+package com.crypto.market_service.controllers;
+
+import com.crypto.market_service.dto.ApiResponse;
+import com.crypto.market_service.service.KlineService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Thao tác quản trị trên dữ liệu nến; gateway chỉ cho role ADMIN vào /market-service/api/v1/admin
+ */
+@RestController
+@RequestMapping("/api/v1/admin/klines")
+@RequiredArgsConstructor
+public class KlineAdminController {
+
+    private final KlineService klineService;
+
+    /**
+     * POST /api/v1/admin/klines/aggregates/refresh?from=2026-10-01T00:00&to=2026-10-02T00:00
+     * Dựng lại nến interval lớn từ nến 1m (VD: sau khi sửa dữ liệu 1m); bắt buộc from/to, tối đa 31 ngày
+     */
+    @PostMapping("/aggregates/refresh")
+    public ResponseEntity<ApiResponse<Void>> refreshAggregates(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to
+    ) {
+        try {
+            klineService.refreshAggregates(from, to);
+            return ResponseEntity.ok(ApiResponse.<Void>builder()
+                    .success(true)
+                    .message("Kline aggregates refreshed")
+                    .build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.<Void>builder()
+                    .success(false)
+                    .message(e.getMessage())
+                    .build());
+        }
+    }
+}
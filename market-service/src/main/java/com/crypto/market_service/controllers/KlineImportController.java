@@ -0,0 +1,64 @@
+package com.crypto.market_service.controllers;
+
+import com.crypto.market_service.dto.ApiResponse;
+import com.crypto.market_service.service.KlineBulkLoader;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Nạp nến lịch sử; nằm dưới /api/v1/admin để gateway chỉ cho role ADMIN gọi
+ */
+@RestController
+@RequestMapping("/api/v1/admin/klines/import")
+@RequiredArgsConstructor
+public class KlineImportController {
+
+    private final KlineBulkLoader loader;
+
+    /**
+     * POST /api/v1/admin/klines/import?path=2024&parallelism=8
+     * Nạp nền các file SYMBOL-INTERVAL-*.csv|zip trong thư mục con của app.bulk-load.import-root
+     * (trên máy chạy service); đường dẫn ra ngoài thư mục gốc bị từ chối
+     */
+    @PostMapping
+    public ResponseEntity<ApiResponse<List<String>>> startImport(
+            @RequestParam String path,
+            @RequestParam(defaultValue = "0") int parallelism
+    ) {
+        try {
+            List<String> symbols = loader.start(path, parallelism);
+            if (symbols == null) {
+                return ResponseEntity.badRequest().body(ApiResponse.<List<String>>builder()
+                        .success(false)
+                        .message("An import is already running")
+                        .build());
+            }
+            return ResponseEntity.ok(ApiResponse.<List<String>>builder()
+                    .success(true)
+                    .message("Import started")
+                    .data(symbols)
+                    .build());
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(ApiResponse.<List<String>>builder()
+                    .success(false)
+                    .message(e.getMessage())
+                    .build());
+        }
+    }
+
+    /**
+     * GET /api/v1/admin/klines/import - Tiến độ lần nạp hiện tại (hoặc gần nhất)
+     */
+    @GetMapping
+    public ResponseEntity<ApiResponse<KlineBulkLoader.Status>> getImportStatus() {
+        KlineBulkLoader.Status status = loader.status();
+        return ResponseEntity.ok(ApiResponse.<KlineBulkLoader.Status>builder()
+                .success(true)
+                .message(status.running() ? "Import running" : "No import running")
+                .data(status)
+                .build());
+    }
+}
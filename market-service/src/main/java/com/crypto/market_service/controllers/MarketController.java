@@ -1,7 +1,9 @@
 package com.crypto.market_service.controllers;
 
+import com.crypto.market_service.dto.OrderBookDTO;
 import com.crypto.market_service.entity.Kline;
 import com.crypto.market_service.service.KlineService;
+import com.crypto.market_service.service.OrderBookService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -14,6 +16,7 @@ import java.util.List;
 public class MarketController {
 
     private final KlineService klineService;
+    private final OrderBookService orderBookService;
 
     @GetMapping("/klines")
     public ResponseEntity<List<Kline>> getKlines(
@@ -25,4 +28,19 @@ public class MarketController {
         List<Kline> klines = klineService.getKlines(symbol, interval, limit);
         return ResponseEntity.ok(klines);
     }
-}
\ No newline at end of file
+
+    /**
+     * GET /api/v1/market/depth?symbol=BTCUSDT&limit=20 - Top-N levels của sổ lệnh
+     */
+    @GetMapping("/depth")
+    public ResponseEntity<OrderBookDTO> getDepth(
+            @RequestParam(name = "symbol") String symbol,
+            @RequestParam(name = "limit", defaultValue = "20") int limit
+    ) {
+        OrderBookDTO depth = orderBookService.getDepth(symbol, limit);
+        if (depth == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(depth);
+    }
+}
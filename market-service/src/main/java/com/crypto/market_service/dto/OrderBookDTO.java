@@ -0,0 +1,29 @@
+package com.crypto.market_service.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderBookDTO {
+    private String symbol;          // BTCUSDT
+    private Long lastUpdateId;      // updateId của diff cuối cùng đã áp dụng
+    private Long eventTime;         // E của diff cuối cùng (epoch millis)
+    private List<PriceLevel> bids;  // Giá giảm dần
+    private List<PriceLevel> asks;  // Giá tăng dần
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PriceLevel {
+        private BigDecimal price;
+        private BigDecimal quantity;
+    }
+}
@@ -6,18 +6,18 @@ import lombok.*;
 import java.math.BigDecimal;
 import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.time.ZoneOffset;
 
 @Entity
-@Table(name = "klines", indexes = {
-    @Index(name = "idx_kline_unique", columnList = "symbol, interval, openTime", unique = true)
-})
+// Schema do Flyway tạo (db/migration): hypertable TimescaleDB, khóa chính (symbol, interval, open_time)
+@Table(name = "klines")
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
 public class Kline {
 
+    // Vẫn tự sinh và không trùng, nhưng không còn là khóa chính của bảng; ghi DB đi qua upsert của KlinePersister
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -50,8 +50,14 @@ public class Kline {
     @Column(nullable = false, length = 5)
     private String interval; // 1m, 5m, 1h, 1d
 
-    // Helper convert timestamp -> LocalDateTime
+    // Helper convert timestamp -> LocalDateTime (giờ UTC, không phụ thuộc múi giờ của JVM:
+    // cột TIMESTAMP lưu giờ UTC để time_bucket chia nến trùng với Binance)
     public static LocalDateTime convertTime(long timestamp) {
-        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneOffset.UTC);
+    }
+
+    // Helper convert LocalDateTime (giờ UTC) -> timestamp
+    public static long toEpochMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
     }
 }
\ No newline at end of file
@@ -0,0 +1,81 @@
+package com.crypto.market_service.entity;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Các khung thời gian nến theo ký hiệu của Binance (1m, 5m, 1h, ...)
+ */
+@Getter
+public enum KlineInterval {
+    S1("1s", 1_000L, 1),
+    S5("5s", 5_000L, 2), // Không có trên Binance, dựng từ aggTrade
+    M1("1m", 60_000L, 3),
+    M3("3m", 3 * 60_000L, 4),
+    M5("5m", 5 * 60_000L, 5),
+    M15("15m", 15 * 60_000L, 6),
+    M30("30m", 30 * 60_000L, 7),
+    H1("1h", 3_600_000L, 8),
+    H2("2h", 2 * 3_600_000L, 9),
+    H4("4h", 4 * 3_600_000L, 10),
+    H6("6h", 6 * 3_600_000L, 11),
+    H8("8h", 8 * 3_600_000L, 12),
+    H12("12h", 12 * 3_600_000L, 13),
+    D1("1d", 86_400_000L, 14),
+    D3("3d", 3 * 86_400_000L, 15),
+    W1("1w", 7 * 86_400_000L, 16);
+
+    // 1970-01-01 là thứ Năm, nến tuần của Binance bắt đầu từ thứ Hai 00:00 UTC
+    private static final long WEEK_OFFSET_MS = 4 * 86_400_000L;
+
+    private static final Map<String, KlineInterval> BY_LABEL = new HashMap<>();
+    private static final KlineInterval[] BY_CODE = new KlineInterval[values().length + 1];
+    static {
+        for (KlineInterval interval : values()) {
+            BY_LABEL.put(interval.label, interval);
+            BY_CODE[interval.code] = interval;
+        }
+    }
+
+    private final String label;
+    private final long millis;
+    // Mã lưu trong cột interval_code của klines_compact: không được đổi hay dùng lại
+    private final int code;
+
+    KlineInterval(String label, long millis, int code) {
+        this.label = label;
+        this.millis = millis;
+        this.code = code;
+    }
+
+    /**
+     * openTime (epoch millis, UTC) của nến chứa thời điểm {@code time}
+     */
+    public long alignOpenTime(long time) {
+        long offset = this == W1 ? WEEK_OFFSET_MS : 0;
+        return time - Math.floorMod(time - offset, millis);
+    }
+
+    /**
+     * Nến dưới 1 phút (1s, 5s) chỉ được dựng từ aggTrade
+     */
+    public boolean isSubMinute() {
+        return millis < M1.millis;
+    }
+
+    /**
+     * @return interval tương ứng, hoặc null nếu không hỗ trợ (VD: 1M có độ dài thay đổi)
+     */
+    public static KlineInterval fromLabel(String label) {
+        return BY_LABEL.get(label);
+    }
+
+    /**
+     * @return interval có mã {@code code}, hoặc null nếu không có
+     */
+    public static KlineInterval fromCode(int code) {
+        return code > 0 && code < BY_CODE.length ? BY_CODE[code] : null;
+    }
+}
@@ -0,0 +1,17 @@
+package com.crypto.market_service.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Phát ra khi tập symbols ACTIVE thay đổi (bật/tắt, cập nhật, xóa symbol)
+ * Các thành phần ingest lắng nghe sự kiện này sau khi transaction commit
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ActiveSymbolsChangedEvent {
+    private final String symbol; // BTCUSDT
+    private final boolean active;
+}
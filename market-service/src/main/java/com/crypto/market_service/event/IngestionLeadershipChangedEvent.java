@@ -0,0 +1,16 @@
+package com.crypto.market_service.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Phát ra khi replica này giành được hoặc mất quyền ingest từ Binance
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class IngestionLeadershipChangedEvent {
+    private final boolean leader;
+    private final long fencingToken; // Token của lease vừa giành/vừa mất
+}
@@ -0,0 +1,110 @@
+package com.crypto.market_service.migration;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.Duration;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineAggregateRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * V3: continuous aggregate cho mỗi interval lớn hơn 1m (klines_3m ... klines_1w), dựng từ nến 1m.
+ *
+ * Viết bằng Java để danh sách interval lấy từ {@link KlineInterval} và để chạy ngoài transaction:
+ * view được tạo WITH DATA (materialize toàn bộ lịch sử ngay), việc TimescaleDB không cho làm trong transaction.
+ * time_bucket mặc định neo ở 2000-01-03 (thứ Hai), trùng với cách Binance chia nến 3d và 1w.
+ *
+ * open_time là TIMESTAMP (không múi giờ) chứa giờ UTC: {@link com.crypto.market_service.entity.Kline#convertTime}
+ * luôn đổi theo UTC chứ không theo múi giờ của JVM, nên time_bucket trên cột này chia nến đúng ranh giới UTC
+ * của Binance (nến 4h, 1d... không bị lệch theo múi giờ của server). Dữ liệu cũ được ghi khi JVM chạy ở múi giờ
+ * khác UTC được {@link KlineUtcMigration} (V6) đổi sang UTC rồi refresh lại các view này.
+ *
+ * Mỗi view có refresh policy: materialize lại phần bị thay đổi trong cửa sổ {@link #startOffset} gần nhất,
+ * bỏ nến cuối (đang mở, lấy theo real-time aggregate). Postgres không có TimescaleDB thì bỏ qua.
+ */
+@Component
+@Slf4j
+public class KlineAggregatesMigration implements JavaMigration {
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("3");
+    }
+
+    @Override
+    public String getDescription() {
+        return "kline continuous aggregates";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        Connection connection = context.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            if (!hasTimescale(statement)) {
+                log.warn("⚠️ timescaledb extension not installed, skipping kline continuous aggregates");
+                return;
+            }
+            for (KlineInterval interval : KlineAggregateRepository.AGGREGATED) {
+                String view = KlineAggregateRepository.viewName(interval);
+                String bucket = sqlInterval(interval.getMillis());
+                statement.execute("CREATE MATERIALIZED VIEW IF NOT EXISTS " + view
+                        + " WITH (timescaledb.continuous, timescaledb.materialized_only = false) AS"
+                        + " SELECT symbol, time_bucket(" + bucket + ", open_time) AS open_time,"
+                        + " first(open_price, open_time) AS open_price, max(high_price) AS high_price,"
+                        + " min(low_price) AS low_price, last(close_price, open_time) AS close_price,"
+                        + " sum(volume) AS volume"
+                        + " FROM klines WHERE \"interval\" = '" + KlineAggregateRepository.BASE_INTERVAL.getLabel() + "'"
+                        + " GROUP BY symbol, time_bucket(" + bucket + ", open_time)"
+                        + " WITH DATA");
+                statement.execute("SELECT add_continuous_aggregate_policy('" + view + "',"
+                        + " start_offset => " + sqlInterval(startOffset(interval)) + ","
+                        + " end_offset => " + bucket + ","
+                        + " schedule_interval => " + sqlInterval(scheduleInterval(interval)) + ","
+                        + " if_not_exists => true)");
+                log.info("📊 Created continuous aggregate {}", view);
+            }
+        }
+    }
+
+    /**
+     * Cửa sổ được refresh định kỳ: ít nhất 2 ngày (trùng khoảng backfill sau mất kết nối) và 3 nến
+     */
+    static long startOffset(KlineInterval interval) {
+        return Math.max(Duration.ofDays(2).toMillis(), 3 * interval.getMillis());
+    }
+
+    /**
+     * Refresh mỗi nến một lần, tối đa mỗi giờ (refresh chỉ tính lại phần dữ liệu đã thay đổi)
+     */
+    static long scheduleInterval(KlineInterval interval) {
+        return Math.min(interval.getMillis(), Duration.ofHours(1).toMillis());
+    }
+
+    private static boolean hasTimescale(Statement statement) throws Exception {
+        try (ResultSet rs = statement.executeQuery("SELECT 1 FROM pg_extension WHERE extname = 'timescaledb'")) {
+            return rs.next();
+        }
+    }
+
+    private static String sqlInterval(long millis) {
+        return "INTERVAL '" + millis / 1000 + " seconds'";
+    }
+}
@@ -0,0 +1,119 @@
+package com.crypto.market_service.migration;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineAggregateRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * V6: đổi open_time/close_time của các dòng klines có sẵn sang giờ UTC.
+ *
+ * Trước khi {@link com.crypto.market_service.entity.Kline#convertTime} cố định UTC, cột TIMESTAMP chứa giờ theo
+ * múi giờ của JVM đã ghi. Placeholder {@code klinesLegacyTimeZone} (spring.flyway.placeholders) là múi giờ đó;
+ * UTC (mặc định) thì không làm gì. Múi giờ không hợp lệ làm migration thất bại thay vì bỏ qua.
+ *
+ * Bảng được chép ra bảng tạm, đổi giờ, TRUNCATE rồi chèn lại trong một transaction: đổi cột phân vùng của
+ * hypertable có thể chuyển dòng sang chunk khác, và TRUNCATE xử lý được cả chunk đã nén. Sau đó các continuous
+ * aggregate của V3 (nếu có) được refresh lại toàn bộ, ngoài transaction như V3. Giờ địa phương bị lặp lại lúc
+ * lùi giờ DST đã chỉ còn một nến khi ghi, phần đó không khôi phục được.
+ */
+@Component
+@Slf4j
+public class KlineUtcMigration implements JavaMigration {
+
+    static final String ZONE_PLACEHOLDER = "klinesLegacyTimeZone";
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("6");
+    }
+
+    @Override
+    public String getDescription() {
+        return "klines open times to UTC";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return false;
+    }
+
+    @Override
+    public void migrate(Context context) throws Exception {
+        String zone = context.getConfiguration().getPlaceholders().getOrDefault(ZONE_PLACEHOLDER, "UTC");
+        ZoneId legacyZone = ZoneId.of(zone.trim());
+        if (legacyZone.normalized().equals(ZoneOffset.UTC)) {
+            log.info("🕒 klines were written in UTC, nothing to convert");
+            return;
+        }
+
+        Connection connection = context.getConnection();
+        int rows = convert(connection, legacyZone.getId());
+        log.info("🕒 Converted {} klines rows from {} to UTC", rows, legacyZone.getId());
+        if (rows > 0) {
+            refreshAggregates(connection);
+        }
+    }
+
+    private static int convert(Connection connection, String zone) throws Exception {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TEMP TABLE klines_utc ON COMMIT DROP AS SELECT * FROM klines");
+            int rows;
+            try (PreparedStatement update = connection.prepareStatement("UPDATE klines_utc SET"
+                    + " open_time = (open_time AT TIME ZONE ?) AT TIME ZONE 'UTC',"
+                    + " close_time = (close_time AT TIME ZONE ?) AT TIME ZONE 'UTC'")) {
+                update.setString(1, zone);
+                update.setString(2, zone);
+                rows = update.executeUpdate();
+            }
+            if (rows > 0) {
+                statement.execute("TRUNCATE klines");
+                statement.execute("INSERT INTO klines SELECT * FROM klines_utc");
+            }
+            connection.commit();
+            return rows;
+        } catch (Exception e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * View của V3 đã materialize từ giờ cũ; refresh_continuous_aggregate không chạy được trong transaction
+     */
+    private static void refreshAggregates(Connection connection) throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            for (KlineInterval interval : KlineAggregateRepository.AGGREGATED) {
+                String view = KlineAggregateRepository.viewName(interval);
+                try (ResultSet rs = statement.executeQuery("SELECT to_regclass('" + view + "') IS NOT NULL")) {
+                    if (!rs.next() || !rs.getBoolean(1)) {
+                        continue;
+                    }
+                }
+                statement.execute("CALL refresh_continuous_aggregate('" + view + "', NULL, NULL)");
+                log.info("📊 Refreshed continuous aggregate {}", view);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.crypto.market_service.repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đọc nến interval lớn từ continuous aggregate của TimescaleDB (klines_5m, klines_1h, ...),
+ * dựng từ nến 1m trong bảng klines (xem KlineAggregatesMigration).
+ *
+ * View là real-time aggregate: phần đã materialize cộng với nến 1m chưa materialize,
+ * nên nến đang mở của interval lớn cũng có mặt.
+ */
+@Repository
+@Slf4j
+@RequiredArgsConstructor
+public class KlineAggregateRepository {
+
+    public static final KlineInterval BASE_INTERVAL = KlineInterval.M1;
+
+    // Mọi interval lớn hơn 1m và chia hết cho nó
+    public static final List<KlineInterval> AGGREGATED = Arrays.stream(KlineInterval.values())
+            .filter(interval -> interval.getMillis() > BASE_INTERVAL.getMillis())
+            .toList();
+
+    private static final long RECHECK_INTERVAL_MS = 60_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // View đang có trong database; null = chưa kiểm tra
+    private volatile Set<KlineInterval> available;
+    private volatile long checkedAt;
+
+    public static String viewName(KlineInterval interval) {
+        return "klines_" + interval.getLabel();
+    }
+
+    /**
+     * Có continuous aggregate cho interval này không (Postgres không có TimescaleDB thì không có view nào)
+     */
+    public boolean supports(KlineInterval interval) {
+        Set<KlineInterval> views = available;
+        if (views == null || (views.isEmpty() && System.currentTimeMillis() - checkedAt >= RECHECK_INTERVAL_MS)) {
+            views = loadAvailable();
+        }
+        return views.contains(interval);
+    }
+
+    /**
+     * {@code limit} nến mới nhất của symbol, xếp từ Mới -> Cũ như KlineRepository
+     */
+    public List<Kline> findLatest(String symbol, KlineInterval interval, int limit) {
+        String sql = "SELECT symbol, open_time, open_price, high_price, low_price, close_price, volume FROM "
+                + viewName(interval) + " WHERE symbol = ? ORDER BY open_time DESC LIMIT ?";
+        return jdbcTemplate.query(sql, (rs, row) -> toKline(rs, interval), symbol, limit);
+    }
+
+    /**
+     * Materialize lại các view trong khoảng [from, to) của nến 1m, VD sau khi lấp khoảng trống dữ liệu.
+     * from/to null = không giới hạn. Không chạy được trong transaction.
+     */
+    public void refresh(LocalDateTime from, LocalDateTime to) {
+        for (KlineInterval interval : AGGREGATED) {
+            if (!supports(interval)) {
+                continue;
+            }
+            jdbcTemplate.update("CALL refresh_continuous_aggregate(?::regclass, ?::timestamp, ?::timestamp)",
+                    viewName(interval),
+                    from, to);
+        }
+    }
+
+    private synchronized Set<KlineInterval> loadAvailable() {
+        Set<KlineInterval> views = new HashSet<>();
+        try {
+            for (KlineInterval interval : AGGREGATED) {
+                if (jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, viewName(interval))) {
+                    views.add(interval);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Could not check kline aggregates: {}", e.getMessage());
+        }
+        available = Set.copyOf(views);
+        checkedAt = System.currentTimeMillis();
+        return available;
+    }
+
+    private static Kline toKline(ResultSet rs, KlineInterval interval) throws SQLException {
+        LocalDateTime openTime = rs.getObject("open_time", LocalDateTime.class);
+        return Kline.builder()
+                .symbol(rs.getString("symbol"))
+                .interval(interval.getLabel())
+                .openTime(openTime)
+                .closeTime(Kline.convertTime(Kline.toEpochMillis(openTime) + interval.getMillis() - 1))
+                .openPrice(rs.getBigDecimal("open_price"))
+                .highPrice(rs.getBigDecimal("high_price"))
+                .lowPrice(rs.getBigDecimal("low_price"))
+                .closePrice(rs.getBigDecimal("close_price"))
+                .volume(rs.getBigDecimal("volume"))
+                .build();
+    }
+}
@@ -0,0 +1,60 @@
+package com.crypto.market_service.repository;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Đọc nến từ bảng gọn klines_compact (xem V4__klines_compact.sql), đổi về {@link Kline} cho API
+ */
+@Repository
+@RequiredArgsConstructor
+public class KlineCompactRepository {
+
+    private static final String FIND_LATEST = "SELECT k.open_time, k.open_price, k.high_price, k.low_price,"
+            + " k.close_price, k.volume, k.volume_scale FROM klines_compact k JOIN trading_symbols s ON s.id = k.symbol_id"
+            + " WHERE s.symbol = ? AND k.interval_code = ? ORDER BY k.open_time DESC LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // standard | compact | dual: chỉ đọc từ bảng gọn khi nó là nơi lưu duy nhất
+    @Value("${app.persistence.storage:standard}")
+    private String storage;
+
+    public boolean isPrimary() {
+        return "compact".equalsIgnoreCase(storage.trim());
+    }
+
+    /**
+     * {@code limit} nến mới nhất của symbol, xếp từ Mới -> Cũ như KlineRepository
+     */
+    public List<Kline> findLatest(String symbol, KlineInterval interval, int limit) {
+        return jdbcTemplate.query(FIND_LATEST, (rs, row) -> toKline(rs, symbol, interval),
+                symbol, interval.getCode(), limit);
+    }
+
+    private static Kline toKline(ResultSet rs, String symbol, KlineInterval interval) throws SQLException {
+        long openTime = rs.getLong("open_time");
+        return Kline.builder()
+                .symbol(symbol)
+                .interval(interval.getLabel())
+                .openTime(Kline.convertTime(openTime))
+                .closeTime(Kline.convertTime(openTime + interval.getMillis() - 1))
+                .openPrice(ScaledDecimal.toBigDecimal(rs.getLong("open_price")))
+                .highPrice(ScaledDecimal.toBigDecimal(rs.getLong("high_price")))
+                .lowPrice(ScaledDecimal.toBigDecimal(rs.getLong("low_price")))
+                .closePrice(ScaledDecimal.toBigDecimal(rs.getLong("close_price")))
+                .volume(ScaledDecimal.toBigDecimal(rs.getLong("volume"), rs.getInt("volume_scale")))
+                .build();
+    }
+}
@@ -11,4 +11,6 @@ import java.util.Optional;
 public interface KlineRepository extends JpaRepository<Kline, Long> {
     Optional<Kline> findBySymbolAndIntervalAndOpenTime(String symbol, String interval, LocalDateTime openTime);
     List<Kline> findBySymbolAndIntervalOrderByCloseTimeDesc(String symbol, String interval, Pageable pageable);
+    Optional<Kline> findTopBySymbolAndIntervalOrderByOpenTimeDesc(String symbol, String interval);
+    List<Kline> findBySymbolAndIntervalAndOpenTimeBetween(String symbol, String interval, LocalDateTime from, LocalDateTime to);
 }
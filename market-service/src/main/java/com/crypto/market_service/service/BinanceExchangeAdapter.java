@@ -0,0 +1,66 @@
+package com.crypto.market_service.service;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Kết nối WebSocket combined-stream của Binance, mỗi shard là một BinanceStreamShard
+ */
+@Component
+@ConditionalOnProperty(name = "app.exchange.adapter", havingValue = "binance", matchIfMissing = true)
+public class BinanceExchangeAdapter implements ExchangeAdapter {
+
+    @Value("${app.binance.stream-url:wss://stream.binance.com:9443/stream?streams=}")
+    private String streamUrl;
+
+    @Value("${app.binance.reconnect.initial-backoff-ms:1000}")
+    private long initialBackoffMs;
+
+    @Value("${app.binance.reconnect.max-backoff-ms:60000}")
+    private long maxBackoffMs;
+
+    // Không nhận được message/pong nào trong khoảng này -> coi kết nối là chết
+    @Value("${app.binance.stale-timeout-ms:60000}")
+    private long staleTimeoutMs;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    // Dùng chung cho mọi shard
+    private ReconnectBackoff backoff;
+
+    @PostConstruct
+    void init() {
+        backoff = new ReconnectBackoff(initialBackoffMs, maxBackoffMs);
+    }
+
+    @Override
+    public String getName() {
+        return "binance";
+    }
+
+    @Override
+    public ExchangeConnection newConnection(int index,
+                                            IntFunction<List<String>> streamsForShard,
+                                            Consumer<TextMessage> messageHandler,
+                                            Consumer<List<String>> connectedListener,
+                                            ScheduledExecutorService supervisor) {
+        return new BinanceStreamShard(index, streamUrl, streamsForShard, messageHandler, connectedListener,
+                objectMapper, supervisor, backoff, metrics, staleTimeoutMs);
+    }
+}
@@ -0,0 +1,155 @@
+package com.crypto.market_service.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.config.RedisConfig;
+import com.crypto.market_service.config.WebSocketConfig;
+
+/**
+ * Định tuyến message combined-stream của Binance mà không parse JSON thành cây.
+ *
+ * Chỉ quét ký tự để tìm giá trị của field "stream", rồi tra bảng băm mở (open addressing)
+ * bằng chính vùng ký tự đó trong payload. Stream đã có trong bảng trả về StreamRoute đã tạo;
+ * StreamRoute mới chỉ được tạo ở lần đầu gặp một stream.
+ */
+@Component
+public class BinanceStreamRouter {
+
+    private static final String STREAM_FIELD = "\"stream\":\"";
+    private static final String KLINE_PREFIX = "kline_";
+
+    // Channel/topic của mỗi symbol được dùng chung cho mọi stream của symbol đó
+    private final Map<String, String> channelBySymbol = new ConcurrentHashMap<>();
+    private final Map<String, String> topicBySymbol = new ConcurrentHashMap<>();
+    private final Map<String, String> depthTopicBySymbol = new ConcurrentHashMap<>();
+
+    // Bảng băm chỉ ghi khi giữ lock; StreamRoute bất biến nên đọc không cần lock
+    private volatile StreamRoute[] table = new StreamRoute[1024];
+    private int size;
+
+    /**
+     * @return route của message, hoặc null nếu message không có field "stream"
+     */
+    public StreamRoute route(String payload) {
+        // Binance luôn đặt "stream" là field đầu tiên: {"stream":"btcusdt@kline_1m","data":{...}}
+        int start;
+        if (payload.startsWith(STREAM_FIELD, 1)) {
+            start = 1 + STREAM_FIELD.length();
+        } else {
+            int field = payload.indexOf(STREAM_FIELD);
+            if (field < 0) {
+                return null;
+            }
+            start = field + STREAM_FIELD.length();
+        }
+        int end = payload.indexOf('"', start);
+        if (end <= start) {
+            return null;
+        }
+        return lookup(payload, start, end - start);
+    }
+
+    /**
+     * Tra route theo tên stream đầy đủ (dùng ngoài luồng ingest, VD: khi tạo message nội bộ)
+     */
+    public StreamRoute routeOf(String stream) {
+        return lookup(stream, 0, stream.length());
+    }
+
+    private StreamRoute lookup(String source, int offset, int length) {
+        int hash = hash(source, offset, length);
+
+        StreamRoute[] current = table;
+        int mask = current.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            StreamRoute route = current[i];
+            if (route == null) {
+                break;
+            }
+            String stream = route.getStream();
+            if (stream.length() == length && source.regionMatches(offset, stream, 0, length)) {
+                return route;
+            }
+        }
+        return insert(source.substring(offset, offset + length), hash);
+    }
+
+    private synchronized StreamRoute insert(String stream, int hash) {
+        StreamRoute[] current = table;
+        int mask = current.length - 1;
+        int i = hash & mask;
+        for (; current[i] != null; i = (i + 1) & mask) {
+            if (current[i].getStream().equals(stream)) {
+                return current[i];
+            }
+        }
+
+        StreamRoute route = createRoute(stream);
+        if ((size + 1) * 2 > current.length) {
+            // Giữ load factor <= 0.5 để probe ngắn
+            StreamRoute[] resized = new StreamRoute[current.length * 2];
+            int resizedMask = resized.length - 1;
+            for (StreamRoute existing : current) {
+                if (existing != null) {
+                    String key = existing.getStream();
+                    int j = hash(key, 0, key.length()) & resizedMask;
+                    while (resized[j] != null) {
+                        j = (j + 1) & resizedMask;
+                    }
+                    resized[j] = existing;
+                }
+            }
+            int j = hash & resizedMask;
+            while (resized[j] != null) {
+                j = (j + 1) & resizedMask;
+            }
+            resized[j] = route;
+            table = resized;
+        } else {
+            current[i] = route;
+            table = current; // volatile write để công bố slot mới
+        }
+        size++;
+        return route;
+    }
+
+    private StreamRoute createRoute(String stream) {
+        int at = stream.indexOf('@');
+        String symbol = at > 0 ? stream.substring(0, at) : stream;
+        String type = at > 0 ? stream.substring(at + 1) : "";
+
+        StreamRoute.Kind kind;
+        String interval = null;
+        if (type.startsWith(KLINE_PREFIX)) {
+            kind = StreamRoute.Kind.KLINE;
+            interval = type.substring(KLINE_PREFIX.length());
+        } else if (type.equals("aggTrade")) {
+            kind = StreamRoute.Kind.AGG_TRADE;
+        } else if (type.startsWith("depth")) {
+            kind = StreamRoute.Kind.DEPTH;
+        } else {
+            kind = StreamRoute.Kind.OTHER;
+        }
+
+        String channel = channelBySymbol.computeIfAbsent(symbol, s -> RedisConfig.MARKET_TOPIC_PREFIX + s);
+        // Sổ lệnh có kênh STOMP riêng, tách khỏi luồng nến
+        String topic = kind == StreamRoute.Kind.DEPTH
+                ? depthTopicBySymbol.computeIfAbsent(symbol, s -> WebSocketConfig.DEPTH_TOPIC_PREFIX + s)
+                : topicBySymbol.computeIfAbsent(symbol, s -> WebSocketConfig.MARKET_TOPIC_PREFIX + s);
+        return new StreamRoute(stream, symbol, kind, interval, channel, topic);
+    }
+
+    /**
+     * Cùng công thức với String.hashCode() nhưng tính trên một vùng ký tự
+     */
+    private static int hash(String source, int offset, int length) {
+        int h = 0;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            h = 31 * h + source.charAt(i);
+        }
+        return h ^ (h >>> 16);
+    }
+}
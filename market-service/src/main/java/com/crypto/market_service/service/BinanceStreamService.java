@@ -3,25 +3,28 @@
 // ============================================
 package com.crypto.market_service.service;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
 import org.springframework.web.socket.TextMessage;
-import org.springframework.web.socket.WebSocketSession;
-import org.springframework.web.socket.client.WebSocketClient;
-import org.springframework.web.socket.client.standard.StandardWebSocketClient;
-import org.springframework.web.socket.handler.TextWebSocketHandler;
 
-import com.crypto.market_service.config.RedisConfig;
+import com.crypto.market_service.event.ActiveSymbolsChangedEvent;
+import com.crypto.market_service.event.IngestionLeadershipChangedEvent;
 import com.crypto.market_service.repository.TradingSymbolRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
@@ -31,110 +34,232 @@ public class BinanceStreamService {
     @Autowired
     private TradingSymbolRepository symbolRepository;
 
-    @Value("${app.binance.intervals}")
-    private List<String> intervals; // 1m,5m,15m,1h,4h,1d
+    // Số kết nối WebSocket song song, symbols được chia đều theo hash
+    @Value("${app.binance.shards:1}")
+    private int shardCount;
 
-    private static final String BASE_URL = "wss://stream.binance.com:9443/stream?streams=";
+    // Binance giới hạn 1024 streams trên một kết nối
+    @Value("${app.binance.max-streams-per-connection:1024}")
+    private int maxStreamsPerConnection;
 
     @Autowired
-    private StringRedisTemplate redisTemplate;
+    private RedisPublishPipeline publishPipeline;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private KlineCoalescer coalescer;
 
-    private WebSocketSession currentSession;
+    // Publisher của luồng phát lại journal (chỉ một thread phát lại tại một thời điểm)
+    private KlineCoalescer.Lane replayLane;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    private static final long TRADE_BAR_FLUSH_MS = 200;
+    private static final long COALESCE_FLUSH_MS = 100;
+
+    // Gửi ping và kiểm tra staleness theo chu kỳ này
+    @Value("${app.binance.ping-interval-ms:20000}")
+    private long pingIntervalMs;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    @Autowired
+    private KlineBackfillService backfillService;
+
+    @Autowired
+    private KlineRollupEngine rollupEngine;
+
+    @Autowired
+    private TradeBarAggregator tradeBars;
+
+    @Autowired
+    private OrderBookService orderBooks;
+
+    @Autowired
+    private FrameJournal journal;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
+
+    // Binance thật hoặc bộ giả lập, theo app.exchange.adapter
+    @Autowired
+    private ExchangeAdapter exchange;
+
+    private List<ExchangeConnection> shards;
+
+    // Supervisor lên lịch kết nối/kiểm tra sức khỏe cho mọi shard, không giữ thread nào chờ I/O
+    private ScheduledExecutorService supervisor;
 
     @PostConstruct
     public void connectToBinance() {
-        new Thread(this::establishConnection).start();
+        supervisor = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "binance-supervisor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayLane = coalescer.newLane(publishPipeline.sharedLane());
+
+        shards = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            // Luồng nhận của mỗi shard là producer duy nhất của ring riêng
+            KlineCoalescer.Lane lane = coalescer.newLane(publishPipeline.newLane("shard-" + i));
+            shards.add(exchange.newConnection(i, this::streamsForShard,
+                    message -> onFrame(message, lane), this::onShardConnected, supervisor));
+        }
+
+        supervisor.scheduleWithFixedDelay(() -> shards.forEach(ExchangeConnection::checkHealth),
+                pingIntervalMs, pingIntervalMs, TimeUnit.MILLISECONDS);
+
+        if (coalescer.isEnabled()) {
+            // Xả bản đang chờ của các stream không còn nhận frame (nếu không sẽ chờ tới frame kế tiếp của shard)
+            supervisor.scheduleAtFixedRate(() -> {
+                if (leaderElection.isLeader()) {
+                    coalescer.flushDue(System.currentTimeMillis());
+                }
+            }, COALESCE_FLUSH_MS, COALESCE_FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+
+        if (tradeBars.isEnabled()) {
+            supervisor.scheduleAtFixedRate(() -> {
+                if (leaderElection.isLeader()) {
+                    tradeBars.flushExpired(System.currentTimeMillis(), publishPipeline.sharedLane());
+                }
+            }, TRADE_BAR_FLUSH_MS, TRADE_BAR_FLUSH_MS, TimeUnit.MILLISECONDS);
+        }
+
+        log.info("⏳ Ingestion from {} ready with {} shard(s), waiting for leadership", exchange.getName(), shardCount);
     }
 
     /**
-     * Thiết lập kết nối WebSocket đến Binance
-     * Đọc danh sách symbols ACTIVE từ database
+     * Chỉ leader mở kết nối tới Binance; standby giữ sẵn mọi thứ khác và kết nối khi được bầu
      */
-    private void establishConnection() {
-        while (true) {
-            try {
-                // 1. Lấy danh sách symbols ACTIVE từ database
-                List<String> activeSymbols = symbolRepository.findByActiveTrue()
-                        .stream()
-                        .map(s -> s.getSymbol().toLowerCase())
-                        .collect(Collectors.toList());
-
-                if (activeSymbols.isEmpty()) {
-                    log.warn("⚠️ No active symbols found in database. Retrying in 10s...");
-                    Thread.sleep(10000);
-                    continue;
-                }
+    @EventListener
+    public void onLeadershipChanged(IngestionLeadershipChangedEvent event) {
+        if (event.isLeader()) {
+            log.info("🚀 Ingestion from {} started with {} shard(s), fencing token {}",
+                    exchange.getName(), shardCount, event.getFencingToken());
+            shards.forEach(ExchangeConnection::start);
+        } else {
+            log.info("🛑 Binance ingestion stopped, fencing token {} is no longer valid", event.getFencingToken());
+            shards.forEach(ExchangeConnection::stop);
+        }
+    }
 
-                // 2. Tạo stream URL
-                String streams = activeSymbols.stream()
-                        .flatMap(symbol -> intervals.stream()
-                                .map(interval -> symbol + "@kline_" + interval))
-                        .collect(Collectors.joining("/"));
-
-                String finalUrl = BASE_URL + streams;
-
-                log.info("🔗 Connecting to Binance with {} active symbols: {}", 
-                         activeSymbols.size(), activeSymbols);
-                log.debug("Stream URL: {}", finalUrl);
-
-                // 3. Kết nối WebSocket
-                WebSocketClient client = new StandardWebSocketClient();
-                currentSession = client.execute(new TextWebSocketHandler() {
-                    @Override
-                    protected void handleTextMessage(WebSocketSession session, TextMessage message) {
-                        handleBinanceMessage(message);
-                    }
-
-                    @Override
-                    public void afterConnectionEstablished(WebSocketSession session) {
-                        log.info("✅ Connected to Binance WebSocket");
-                    }
-
-                    @Override
-                    public void handleTransportError(WebSocketSession session, Throwable exception) {
-                        log.error("❌ WebSocket transport error", exception);
-                    }
-                }, finalUrl).get();
-
-                log.info("WebSocket connection established successfully");
-                
-                // Keep connection alive
-                while (currentSession != null && currentSession.isOpen()) {
-                    Thread.sleep(1000);
-                }
+    @PreDestroy
+    public void disconnect() {
+        shards.forEach(ExchangeConnection::stop);
+        supervisor.shutdownNow();
+    }
 
-            } catch (Exception e) {
-                log.error("❌ Connection failed, retrying in 5s...", e);
-                try {
-                    Thread.sleep(5000);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
-                }
+    /**
+     * Gán symbol vào shard theo hash ổn định (String.hashCode không đổi giữa các lần chạy)
+     */
+    static int shardOf(String symbol, int shardCount) {
+        return Math.floorMod(symbol.toLowerCase().hashCode(), shardCount);
+    }
+
+    /**
+     * Danh sách streams mà một shard phụ trách
+     */
+    private List<String> streamsForShard(int shardIndex) {
+        return streamsByShard().getOrDefault(shardIndex, List.of());
+    }
+
+    /**
+     * Chia streams của các symbols ACTIVE (database, hoặc do adapter cung cấp) theo shard
+     */
+    private Map<Integer, List<String>> streamsByShard() {
+        // Ở chế độ rollup chỉ cần stream 1m, các interval khác được dựng tại chỗ
+        List<String> intervals = rollupEngine.subscribedIntervals();
+        List<String> symbols = exchange.symbols();
+        if (symbols == null) {
+            symbols = symbolRepository.findByActiveTrue().stream().map(s -> s.getSymbol()).toList();
+        }
+        Map<Integer, List<String>> result = symbols.stream()
+                .map(String::toLowerCase)
+                .collect(Collectors.groupingBy(
+                        symbol -> shardOf(symbol, shardCount),
+                        Collectors.flatMapping(symbol -> streamsOf(symbol, intervals).stream(), Collectors.toList())));
+
+        result.replaceAll((shardIndex, streams) -> {
+            if (streams.size() > maxStreamsPerConnection) {
+                log.warn("⚠️ Shard {} has {} streams, exceeding the limit of {} per connection. " +
+                         "Increase app.binance.shards; extra streams are dropped.",
+                         shardIndex, streams.size(), maxStreamsPerConnection);
+                return streams.subList(0, maxStreamsPerConnection);
             }
+            return streams;
+        });
+        return result;
+    }
+
+    private List<String> streamsOf(String symbol, List<String> intervals) {
+        List<String> streams = new ArrayList<>(intervals.size() + 2);
+        for (String interval : intervals) {
+            streams.add(symbol + "@kline_" + interval);
+        }
+        if (tradeBars.isEnabled()) {
+            streams.add(symbol + "@aggTrade");
+        }
+        if (orderBooks.isEnabled()) {
+            streams.add(orderBooks.streamOf(symbol));
         }
+        return streams;
     }
 
     /**
-     * Xử lý tin nhắn từ Binance WebSocket
+     * Frame live từ một shard: ghi journal (nếu bật) rồi xử lý
      */
-    private void handleBinanceMessage(TextMessage message) {
+    private void onFrame(TextMessage message, KlineCoalescer.Lane lane) {
+        long now = System.currentTimeMillis();
+        journal.append(message.getPayload(), now);
+        lane.flushDue(now);
+        handleBinanceMessage(message, lane, now);
+    }
+
+    /**
+     * Xử lý frame phát lại từ journal, publish qua ring dùng chung
+     */
+    void handleBinanceMessage(TextMessage message) {
+        replayLane.flushDue(System.currentTimeMillis());
+        handleBinanceMessage(message, replayLane, -1);
+    }
+
+    /**
+     * Xử lý tin nhắn từ Binance WebSocket; mọi message ra Redis đi qua {@code publisher}
+     *
+     * @param receivedAt thời điểm nhận frame live, -1 với frame phát lại (không tính vào metrics)
+     */
+    private void handleBinanceMessage(TextMessage message, BiConsumer<StreamRoute, String> publisher, long receivedAt) {
+        // Leader cũ (VD: vừa qua GC pause dài) không được publish sau khi lease hết hạn
+        if (!leaderElection.isLeader()) {
+            return;
+        }
         try {
             String payload = message.getPayload();
-            JsonNode node = objectMapper.readTree(payload);
-            
-            if (!node.has("stream")) {
+            StreamRoute route = streamRouter.route(payload);
+
+            if (route == null) {
                 return;
             }
+            if (receivedAt > 0) {
+                metrics.countMessage(route);
+                metrics.recordLatency(MarketMetrics.LatencyStage.RECEIVE, MarketMetrics.eventTimeOf(payload), receivedAt);
+            }
 
-            String streamName = node.get("stream").asText();
-            String symbol = streamName.split("@")[0];
-
-            // Publish to Redis
-            String redisChannel = RedisConfig.MARKET_TOPIC_PREFIX + symbol;
-            redisTemplate.convertAndSend(redisChannel, payload);
+            switch (route.getKind()) {
+                case KLINE -> {
+                    // Publish to Redis
+                    publisher.accept(route, payload);
+                    rollupEngine.onKline(route, payload, publisher);
+                }
+                // Trade thô không đi qua Redis, chỉ các nến 1s/5s gom từ trade
+                case AGG_TRADE -> tradeBars.onTrade(route, payload, publisher);
+                // Diff sổ lệnh cập nhật sổ lệnh tại chỗ, chỉ top-N được gửi lên Redis
+                case DEPTH -> orderBooks.onDiff(route, payload, publisher);
+                default -> publisher.accept(route, payload);
+            }
 
         } catch (Exception e) {
             log.error("Error processing Binance message", e);
@@ -142,20 +267,52 @@ public class BinanceStreamService {
     }
 
     /**
-     * Reconnect khi có thay đổi symbols
-     * Gọi method này khi admin bật/tắt symbol
+     * Shard vừa kết nối (lại): lấp các nến bị lỡ, gồm cả các interval do rollup engine tạo
+     */
+    private void onShardConnected(List<String> streams) {
+        List<String> klineStreams = streams.stream()
+                .map(stream -> stream.substring(0, stream.indexOf('@')))
+                .distinct()
+                .flatMap(symbol -> rollupEngine.persistedIntervals().stream()
+                        .map(interval -> symbol + "@kline_" + interval))
+                .collect(Collectors.toList());
+        backfillService.backfillStreams(klineStreams);
+    }
+
+    /**
+     * Admin bật/tắt symbol -> chỉ SUBSCRIBE/UNSUBSCRIBE phần streams thay đổi,
+     * các symbols khác giữ nguyên kết nối và không bị mất dữ liệu
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onActiveSymbolsChanged(ActiveSymbolsChangedEvent event) {
+        log.info("Active symbols changed: {}", event);
+        refreshSubscriptions();
+    }
+
+    /**
+     * Đồng bộ streams của từng shard với danh sách symbols ACTIVE hiện tại
+     */
+    public void refreshSubscriptions() {
+        Map<Integer, List<String>> byShard = streamsByShard();
+        for (ExchangeConnection shard : shards) {
+            shard.updateStreams(byShard.getOrDefault(shard.getIndex(), List.of()));
+        }
+        if (orderBooks.isEnabled()) {
+            orderBooks.retain(byShard.values().stream()
+                    .flatMap(List::stream)
+                    .map(stream -> stream.substring(0, stream.indexOf('@')).toUpperCase())
+                    .collect(Collectors.toSet()));
+        }
+    }
+
+    /**
+     * Buộc tất cả shard đóng kết nối và kết nối lại từ đầu
+     * Chỉ dùng khi cần reset hoàn toàn, thay đổi symbols đi qua refreshSubscriptions()
      */
     public void reconnect() {
         log.info("🔄 Reconnecting to Binance with updated symbols...");
-        
-        if (currentSession != null && currentSession.isOpen()) {
-            try {
-                currentSession.close();
-            } catch (Exception e) {
-                log.warn("Error closing current session", e);
-            }
-        }
-        
-        // Connection sẽ tự động reconnect trong vòng lặp
+
+        // Mỗi shard tự kết nối lại trong vòng lặp của nó
+        shards.forEach(ExchangeConnection::reconnect);
     }
 }
\ No newline at end of file
@@ -0,0 +1,466 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Một kết nối WebSocket tới Binance, phụ trách một phần các symbols (shard).
+ * Mỗi shard tự giữ session và tự reconnect, nên một shard bị rớt không làm gián đoạn các shard khác.
+ *
+ * Vòng đời hoàn toàn theo sự kiện: việc kết nối lại được kích hoạt bởi afterConnectionClosed,
+ * lỗi transport hoặc kiểm tra staleness, và được lên lịch trên supervisor với exponential backoff.
+ */
+@Slf4j
+class BinanceStreamShard implements ExchangeConnection {
+
+    // Binance giới hạn 5 control messages/giây trên một kết nối
+    private static final long CONTROL_MESSAGE_INTERVAL_MS = 250;
+    private static final int MAX_PARAMS_PER_REQUEST = 200;
+
+    // Shard chưa có stream nào -> kiểm tra lại định kỳ (refresh cũng sẽ đánh thức shard)
+    private static final long IDLE_RECHECK_MS = 30000;
+
+    private final int index;
+    private final String baseUrl; // wss://stream.binance.com:9443/stream?streams=
+    private final IntFunction<List<String>> streamsForShard;
+    private final Consumer<TextMessage> messageHandler;
+    private final Consumer<List<String>> connectedListener;
+    private final ObjectMapper objectMapper;
+    private final ScheduledExecutorService supervisor;
+    private final ReconnectBackoff backoff;
+    private final MarketMetrics metrics;
+    private final long staleTimeoutMs;
+
+    private final WebSocketClient client = new StandardWebSocketClient();
+    private final Object lock = new Object();
+    private final AtomicLong requestId = new AtomicLong();
+
+    private volatile WebSocketSession currentSession;
+    private volatile long lastMessageAt;
+    private volatile boolean stopped;
+
+    // Các field dưới đây chỉ đổi khi giữ lock
+    private Set<String> subscribedStreams = new LinkedHashSet<>();
+    // SUBSCRIBE/UNSUBSCRIBE chờ gửi trên session hiện tại, mỗi CONTROL_MESSAGE_INTERVAL_MS một message
+    private final ArrayDeque<String> pendingControl = new ArrayDeque<>();
+    private ScheduledFuture<?> controlDrain;
+    private long nextControlAtNanos;
+    private ScheduledFuture<?> pendingConnect;
+    private boolean connecting;
+    private int attempts;
+    private long disconnectedAtNanos;
+
+    // Streams mong muốn theo lần refresh gần nhất, null nếu chưa refresh lần nào
+    private volatile Set<String> desiredStreams;
+
+    BinanceStreamShard(int index,
+                       String baseUrl,
+                       IntFunction<List<String>> streamsForShard,
+                       Consumer<TextMessage> messageHandler,
+                       Consumer<List<String>> connectedListener,
+                       ObjectMapper objectMapper,
+                       ScheduledExecutorService supervisor,
+                       ReconnectBackoff backoff,
+                       MarketMetrics metrics,
+                       long staleTimeoutMs) {
+        this.index = index;
+        this.baseUrl = baseUrl;
+        this.streamsForShard = streamsForShard;
+        this.messageHandler = messageHandler;
+        this.connectedListener = connectedListener;
+        this.objectMapper = objectMapper;
+        this.supervisor = supervisor;
+        this.backoff = backoff;
+        this.metrics = metrics;
+        this.staleTimeoutMs = staleTimeoutMs;
+    }
+
+    @Override
+    public void start() {
+        stopped = false;
+        scheduleConnect(0);
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        synchronized (lock) {
+            if (pendingConnect != null) {
+                pendingConnect.cancel(false);
+                pendingConnect = null;
+            }
+        }
+        closeSession(CloseStatus.GOING_AWAY);
+    }
+
+    private void scheduleConnect(long delayMs) {
+        synchronized (lock) {
+            if (stopped || connecting || pendingConnect != null || isOpen()) {
+                return;
+            }
+            pendingConnect = supervisor.schedule(this::connect, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Mở kết nối mới với danh sách streams đọc lại từ database; không block luồng supervisor
+     */
+    private void connect() {
+        synchronized (lock) {
+            pendingConnect = null;
+            if (stopped || connecting || isOpen()) {
+                return;
+            }
+            connecting = true;
+        }
+
+        List<String> streams;
+        try {
+            streams = streamsForShard.apply(index);
+        } catch (Exception e) {
+            connectFailed(e);
+            return;
+        }
+
+        if (streams.isEmpty()) {
+            log.debug("Shard {} has no streams assigned. Rechecking in {}ms", index, IDLE_RECHECK_MS);
+            synchronized (lock) {
+                connecting = false;
+            }
+            scheduleConnect(IDLE_RECHECK_MS);
+            return;
+        }
+
+        String finalUrl = baseUrl + String.join("/", streams);
+
+        log.info("🔗 Shard {} connecting to Binance with {} streams", index, streams.size());
+        log.debug("Shard {} stream URL: {}", index, finalUrl);
+
+        try {
+            client.execute(new ShardHandler(streams), finalUrl)
+                    .whenComplete((session, error) -> {
+                        if (error != null) {
+                            connectFailed(error);
+                        }
+                    });
+        } catch (Exception e) {
+            connectFailed(e);
+        }
+    }
+
+    private void connectFailed(Throwable error) {
+        long delay;
+        synchronized (lock) {
+            connecting = false;
+            delay = backoff.delayFor(attempts++);
+        }
+        log.error("❌ Shard {} connection failed, retrying in {}ms", index, delay, error);
+        scheduleConnect(delay);
+    }
+
+    private class ShardHandler extends TextWebSocketHandler {
+
+        private final List<String> streams;
+
+        ShardHandler(List<String> streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        public void afterConnectionEstablished(WebSocketSession session) {
+            long downtimeNanos = 0;
+            synchronized (lock) {
+                connecting = false;
+                if (stopped) {
+                    closeQuietly(session, CloseStatus.GOING_AWAY);
+                    return;
+                }
+                currentSession = session;
+                subscribedStreams = new LinkedHashSet<>(streams);
+                clearPendingControl();
+                lastMessageAt = System.currentTimeMillis();
+                attempts = 0;
+                if (disconnectedAtNanos != 0) {
+                    downtimeNanos = System.nanoTime() - disconnectedAtNanos;
+                    disconnectedAtNanos = 0;
+                }
+            }
+
+            if (downtimeNanos > 0) {
+                metrics.recordReconnect(index, downtimeNanos);
+                log.info("✅ Shard {} reconnected to Binance WebSocket after {}ms",
+                         index, TimeUnit.NANOSECONDS.toMillis(downtimeNanos));
+            } else {
+                log.info("✅ Shard {} connected to Binance WebSocket", index);
+            }
+
+            // Áp dụng thay đổi symbols đến trong lúc đang kết nối, rồi báo cho phần lấp dữ liệu
+            supervisor.execute(() -> {
+                synchronized (lock) {
+                    syncSubscriptions();
+                }
+                connectedListener.accept(streams);
+            });
+        }
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) {
+            lastMessageAt = System.currentTimeMillis();
+
+            // Phản hồi của SUBSCRIBE/UNSUBSCRIBE không có field "stream"
+            if (!message.getPayload().startsWith("{\"stream\"")) {
+                log.debug("Shard {} control response: {}", index, message.getPayload());
+                return;
+            }
+            messageHandler.accept(message);
+        }
+
+        @Override
+        protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+            lastMessageAt = System.currentTimeMillis();
+        }
+
+        @Override
+        public void handleTransportError(WebSocketSession session, Throwable exception) {
+            log.error("❌ Shard {} WebSocket transport error", index, exception);
+            // Đóng session -> afterConnectionClosed sẽ lên lịch kết nối lại
+            closeQuietly(session, CloseStatus.SERVER_ERROR);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+            onDisconnected(session, status);
+        }
+    }
+
+    private void onDisconnected(WebSocketSession session, CloseStatus status) {
+        long delay;
+        synchronized (lock) {
+            if (session != currentSession) {
+                return;
+            }
+            currentSession = null;
+            clearPendingControl();
+            if (disconnectedAtNanos == 0) {
+                disconnectedAtNanos = System.nanoTime();
+            }
+            if (stopped) {
+                return;
+            }
+            delay = backoff.delayFor(attempts++);
+        }
+
+        metrics.countDisconnect(index, String.valueOf(status.getCode()));
+        log.warn("Shard {} connection closed ({}), reconnecting in {}ms", index, status, delay);
+        scheduleConnect(delay);
+    }
+
+    /**
+     * Gọi định kỳ bởi supervisor: gửi ping, và đóng session nếu quá lâu không nhận được gì
+     */
+    @Override
+    public void checkHealth() {
+        WebSocketSession session = currentSession;
+        if (session == null || !session.isOpen()) {
+            return;
+        }
+
+        long silentMs = System.currentTimeMillis() - lastMessageAt;
+        if (silentMs > staleTimeoutMs) {
+            log.warn("⚠️ Shard {} received nothing for {}ms, closing stale connection", index, silentMs);
+            closeQuietly(session, CloseStatus.SESSION_NOT_RELIABLE);
+            return;
+        }
+
+        synchronized (lock) {
+            try {
+                session.sendMessage(new PingMessage());
+            } catch (Exception e) {
+                log.warn("Shard {} failed to send ping", index, e);
+            }
+        }
+    }
+
+    /**
+     * Cập nhật danh sách streams mong muốn và gửi SUBSCRIBE/UNSUBSCRIBE cho phần chênh lệch
+     * trên session đang mở. Các streams không đổi không bị gián đoạn.
+     */
+    @Override
+    public void updateStreams(List<String> streams) {
+        desiredStreams = new LinkedHashSet<>(streams);
+        synchronized (lock) {
+            syncSubscriptions();
+        }
+        if (!streams.isEmpty()) {
+            // Shard đang rảnh -> kết nối ngay thay vì chờ lần kiểm tra định kỳ
+            wakeUp();
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (lock) {
+            if (pendingConnect != null && attempts == 0) {
+                pendingConnect.cancel(false);
+                pendingConnect = null;
+            }
+        }
+        scheduleConnect(0);
+    }
+
+    private void syncSubscriptions() {
+        WebSocketSession session = currentSession;
+        Set<String> desired = desiredStreams;
+        if (session == null || !session.isOpen() || desired == null) {
+            return;
+        }
+
+        List<String> toUnsubscribe = new ArrayList<>();
+        for (String stream : subscribedStreams) {
+            if (!desired.contains(stream)) {
+                toUnsubscribe.add(stream);
+            }
+        }
+        List<String> toSubscribe = new ArrayList<>();
+        for (String stream : desired) {
+            if (!subscribedStreams.contains(stream)) {
+                toSubscribe.add(stream);
+            }
+        }
+
+        if (toUnsubscribe.isEmpty() && toSubscribe.isEmpty()) {
+            return;
+        }
+
+        try {
+            queueControl("UNSUBSCRIBE", toUnsubscribe);
+            toUnsubscribe.forEach(subscribedStreams::remove);
+
+            queueControl("SUBSCRIBE", toSubscribe);
+            subscribedStreams.addAll(toSubscribe);
+
+            log.info("🔄 Shard {} subscriptions updated: +{} -{} (total {}, {} control messages queued)",
+                     index, toSubscribe.size(), toUnsubscribe.size(), subscribedStreams.size(), pendingControl.size());
+        } catch (Exception e) {
+            log.error("❌ Shard {} failed to update subscriptions, forcing reconnect", index, e);
+            closeQuietly(session, CloseStatus.SERVER_ERROR);
+        }
+        scheduleControlDrain();
+    }
+
+    /**
+     * Xếp hàng các request, tối đa MAX_PARAMS_PER_REQUEST streams mỗi request; việc gửi được giãn cách
+     * trên supervisor nên người gọi (request admin, transaction event) không phải chờ
+     */
+    private void queueControl(String method, List<String> streams) throws Exception {
+        for (int from = 0; from < streams.size(); from += MAX_PARAMS_PER_REQUEST) {
+            List<String> chunk = streams.subList(from, Math.min(from + MAX_PARAMS_PER_REQUEST, streams.size()));
+
+            Map<String, Object> request = new LinkedHashMap<>();
+            request.put("method", method);
+            request.put("params", chunk);
+            request.put("id", requestId.incrementAndGet());
+            pendingControl.add(objectMapper.writeValueAsString(request));
+        }
+    }
+
+    private void scheduleControlDrain() {
+        if (pendingControl.isEmpty() || controlDrain != null) {
+            return;
+        }
+        long delayNanos = Math.max(0, nextControlAtNanos - System.nanoTime());
+        controlDrain = supervisor.schedule(this::sendNextControl, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Gửi một control message rồi hẹn lần gửi kế tiếp sau CONTROL_MESSAGE_INTERVAL_MS
+     */
+    private void sendNextControl() {
+        synchronized (lock) {
+            controlDrain = null;
+            WebSocketSession session = currentSession;
+            String request = pendingControl.poll();
+            if (request == null || session == null || !session.isOpen()) {
+                return;
+            }
+            try {
+                session.sendMessage(new TextMessage(request));
+                log.debug("Shard {} sent control message: {}", index, request);
+            } catch (Exception e) {
+                // Gửi thất bại -> đóng session, lần kết nối sau sẽ dùng danh sách mới từ database
+                log.error("❌ Shard {} failed to send control message, forcing reconnect", index, e);
+                closeQuietly(session, CloseStatus.SERVER_ERROR);
+                return;
+            }
+            nextControlAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONTROL_MESSAGE_INTERVAL_MS);
+            scheduleControlDrain();
+        }
+    }
+
+    /**
+     * Session mới đã mang đủ streams trong URL, các control message của session cũ không còn nghĩa
+     */
+    private void clearPendingControl() {
+        pendingControl.clear();
+        if (controlDrain != null) {
+            controlDrain.cancel(false);
+            controlDrain = null;
+        }
+    }
+
+    /**
+     * Đóng session hiện tại, shard sẽ tự kết nối lại với danh sách streams mới
+     */
+    @Override
+    public void reconnect() {
+        closeSession(CloseStatus.NORMAL);
+    }
+
+    private void closeSession(CloseStatus status) {
+        WebSocketSession session = currentSession;
+        if (session != null && session.isOpen()) {
+            closeQuietly(session, status);
+        }
+    }
+
+    private void closeQuietly(WebSocketSession session, CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (Exception e) {
+            log.warn("Error closing session of shard {}", index, e);
+        }
+    }
+
+    private boolean isOpen() {
+        WebSocketSession session = currentSession;
+        return session != null && session.isOpen();
+    }
+
+    @Override
+    public int getIndex() {
+        return index;
+    }
+}
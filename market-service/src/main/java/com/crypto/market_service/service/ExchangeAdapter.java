@@ -0,0 +1,40 @@
+package com.crypto.market_service.service;
+
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.springframework.web.socket.TextMessage;
+
+/**
+ * Nguồn dữ liệu thị trường cho BinanceStreamService, chọn bằng {@code app.exchange.adapter}.
+ *
+ * Mọi adapter phát frame theo định dạng combined-stream của Binance
+ * ({"stream":"btcusdt@kline_1m","data":{...}}), đó là định dạng chung của cả pipeline phía sau.
+ */
+public interface ExchangeAdapter {
+
+    String getName();
+
+    /**
+     * Tạo kết nối cho một shard, chưa mở cho tới khi gọi {@link ExchangeConnection#start()}
+     *
+     * @param streamsForShard   danh sách streams hiện tại của shard, đọc lại mỗi lần kết nối
+     * @param messageHandler    nhận từng frame
+     * @param connectedListener được gọi với danh sách streams sau mỗi lần kết nối (để lấp dữ liệu bị lỡ)
+     * @param supervisor        executor dùng chung để lên lịch kết nối lại
+     */
+    ExchangeConnection newConnection(int index,
+                                     IntFunction<List<String>> streamsForShard,
+                                     Consumer<TextMessage> messageHandler,
+                                     Consumer<List<String>> connectedListener,
+                                     ScheduledExecutorService supervisor);
+
+    /**
+     * Symbols do chính adapter cung cấp, null = dùng các symbols ACTIVE trong database
+     */
+    default List<String> symbols() {
+        return null;
+    }
+}
@@ -0,0 +1,31 @@
+package com.crypto.market_service.service;
+
+import java.util.List;
+
+/**
+ * Một kết nối stream tới sàn, phụ trách một shard symbols.
+ * Frame được giao cho message handler trên một luồng duy nhất của kết nối.
+ */
+public interface ExchangeConnection {
+
+    int getIndex();
+
+    void start();
+
+    void stop();
+
+    /**
+     * Gọi định kỳ bởi supervisor (ping, phát hiện kết nối chết)
+     */
+    void checkHealth();
+
+    /**
+     * Cập nhật streams mong muốn, chỉ phần chênh lệch bị ảnh hưởng
+     */
+    void updateStreams(List<String> streams);
+
+    /**
+     * Đóng và mở lại kết nối với danh sách streams mới nhất
+     */
+    void reconnect();
+}
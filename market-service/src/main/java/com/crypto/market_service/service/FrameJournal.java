@@ -0,0 +1,301 @@
+package com.crypto.market_service.service;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ghi nối tiếp (append-only) mọi frame thô nhận từ Binance vào file memory-mapped, mỗi giờ một file.
+ *
+ * Mỗi record: [int độ dài payload][long thời điểm nhận, epoch millis][payload UTF-8].
+ * Độ dài được ghi sau cùng nên người đọc không bao giờ thấy record ghi dở; độ dài 0 là hết dữ liệu.
+ * File được cấp sẵn {@code segment-size-mb}; nếu đầy trước khi hết giờ thì mở file tiếp theo
+ * trong cùng giờ (frames-2026101614-001.journal, ...).
+ *
+ * Dữ liệu nằm trong page cache ngay khi ghi nên không mất nếu process chết; force() định kỳ
+ * để giới hạn phần có thể mất khi cả máy sập.
+ *
+ * Các shard ghi song song không qua lock: mỗi luồng giành vùng của record bằng getAndAdd trên vị trí ghi
+ * của file rồi ghi bằng các lệnh put tuyệt đối. Record của các shard có thể xong không theo thứ tự, người đọc
+ * dừng ở record đầu tiên chưa ghi xong; thứ tự giữa các frame của cùng một stream (cùng shard) vẫn giữ nguyên.
+ * Chỉ việc mở file mới (hết giờ hoặc file đầy) đi qua lock.
+ */
+@Component
+@Slf4j
+public class FrameJournal {
+
+    static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+    static final String FILE_PREFIX = "frames-";
+    static final String FILE_SUFFIX = ".journal";
+
+    // Tên file theo giờ UTC, sắp xếp theo tên cũng là theo thời gian
+    static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH").withZone(ZoneOffset.UTC);
+
+    @Value("${app.binance.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.binance.journal.directory:./journal}")
+    private String directory;
+
+    @Value("${app.binance.journal.segment-size-mb:512}")
+    private int segmentSizeMb;
+
+    @Value("${app.binance.journal.flush-interval-ms:1000}")
+    private long flushIntervalMs;
+
+    // Xóa các file cũ hơn mốc này khi chuyển sang giờ mới, 0 = giữ lại tất cả
+    @Value("${app.binance.journal.retention-hours:48}")
+    private long retentionHours;
+
+    private Path root;
+    private ScheduledExecutorService flusher;
+
+    private volatile Segment current;
+
+    // Các field dưới đây chỉ truy cập khi giữ rollLock
+    private final Object rollLock = new Object();
+    private String segmentHour;
+    private int segmentPart;
+
+    private final ThreadLocal<byte[]> scratches = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Paths.get(directory);
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(root);
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "frame-journal-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("📼 Frame journal enabled in {}", root.toAbsolutePath());
+    }
+
+    @PreDestroy
+    void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        synchronized (rollLock) {
+            closeSegment();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Ghi một frame, gọi từ luồng nhận WebSocket của các shard
+     */
+    public void append(String payload, long receivedAtMillis) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int length = encode(payload);
+            byte[] bytes = scratches.get();
+            // Chừa thêm một int sau record cho độ dài 0 đánh dấu hết dữ liệu
+            int required = HEADER_BYTES + length + Integer.BYTES;
+            while (true) {
+                Segment segment = current;
+                if (segment != null && receivedAtMillis < segment.endMillis) {
+                    long start = segment.claimed.getAndAdd(HEADER_BYTES + length);
+                    if (start + required <= segment.capacity) {
+                        MappedByteBuffer buffer = segment.buffer;
+                        int at = (int) start;
+                        buffer.putLong(at + Integer.BYTES, receivedAtMillis);
+                        buffer.put(at + HEADER_BYTES, bytes, 0, length);
+                        // Độ dài ghi cuối cùng: record chỉ "tồn tại" khi đã ghi đủ
+                        buffer.putInt(at, length);
+                        return;
+                    }
+                }
+                // Hết giờ hoặc file đầy: một luồng mở file mới, các luồng khác thử lại trên file đó
+                roll(segment, receivedAtMillis, required);
+            }
+        } catch (Exception e) {
+            log.error("Error writing frame journal: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Các file journal có giờ trong [fromHour, toHour], theo thứ tự thời gian
+     *
+     * @param fromHour VD: 2026101614 (UTC), null = từ file đầu tiên
+     * @param toHour   null = tới file cuối cùng
+     */
+    public List<Path> segments(String fromHour, String toHour) throws IOException {
+        List<Path> result = new ArrayList<>();
+        if (!Files.isDirectory(root)) {
+            return result;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+            for (Path file : files) {
+                String hour = hourOf(file);
+                if ((fromHour == null || hour.compareTo(fromHour) >= 0)
+                        && (toHour == null || hour.compareTo(toHour) <= 0)) {
+                    result.add(file);
+                }
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Chuỗi ký tự -> UTF-8 trong mảng dùng lại của thread; frame của Binance là ASCII nên thường không cấp phát
+     */
+    private int encode(String payload) {
+        int length = payload.length();
+        byte[] scratch = scratches.get();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            scratches.set(scratch);
+        }
+        for (int i = 0; i < length; i++) {
+            char c = payload.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+                if (scratch.length < bytes.length) {
+                    scratch = new byte[bytes.length];
+                    scratches.set(scratch);
+                }
+                System.arraycopy(bytes, 0, scratch, 0, bytes.length);
+                return bytes.length;
+            }
+            scratch[i] = (byte) c;
+        }
+        return length;
+    }
+
+    /**
+     * Mở file mới thay cho {@code expected}; không làm gì nếu luồng khác đã làm trước
+     */
+    private void roll(Segment expected, long nowMillis, int required) throws IOException {
+        synchronized (rollLock) {
+            if (current != expected) {
+                return;
+            }
+            openSegment(nowMillis, required);
+        }
+    }
+
+    private void openSegment(long nowMillis, int required) throws IOException {
+        closeSegment();
+
+        Instant hourStart = Instant.ofEpochMilli(nowMillis).truncatedTo(ChronoUnit.HOURS);
+        String hour = HOUR_FORMAT.format(hourStart);
+        if (hour.equals(segmentHour)) {
+            segmentPart++;
+        } else {
+            segmentHour = hour;
+            segmentPart = 0;
+            deleteExpired(hourStart);
+        }
+        // Một MappedByteBuffer tối đa 2 GB
+        long size = Math.min(Math.max((long) segmentSizeMb << 20, required), Integer.MAX_VALUE);
+        Path file = root.resolve(String.format("%s%s-%03d%s", FILE_PREFIX, hour, segmentPart, FILE_SUFFIX));
+        while (Files.exists(file)) {
+            // Khởi động lại trong cùng giờ: không ghi đè file cũ
+            segmentPart++;
+            file = root.resolve(String.format("%s%s-%03d%s", FILE_PREFIX, hour, segmentPart, FILE_SUFFIX));
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.setLength(size); // sparse file, chỉ tốn đĩa cho phần đã ghi
+            // Vùng map vẫn dùng được sau khi đóng file
+            current = new Segment(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size),
+                    hourStart.plus(1, ChronoUnit.HOURS).toEpochMilli(), size);
+        }
+        log.info("📼 Journal segment {}", file.getFileName());
+    }
+
+    /**
+     * Luồng đang ghi dở vào file cũ vẫn ghi xong được: vùng map còn hiệu lực tới khi không còn ai giữ buffer
+     */
+    private void closeSegment() {
+        Segment segment = current;
+        if (segment != null) {
+            current = null;
+            segment.buffer.force();
+        }
+    }
+
+    private void flush() {
+        Segment segment = current;
+        if (segment != null) {
+            // force() không cần lock: chỉ đẩy các trang bẩn xuống đĩa
+            segment.buffer.force();
+        }
+    }
+
+    private void deleteExpired(Instant currentHour) {
+        if (retentionHours <= 0) {
+            return;
+        }
+        String oldestKept = HOUR_FORMAT.format(currentHour.minus(retentionHours, ChronoUnit.HOURS));
+        try {
+            for (Path file : segments(null, null)) {
+                if (hourOf(file).compareTo(oldestKept) < 0) {
+                    Files.deleteIfExists(file);
+                    log.info("🗑️ Deleted expired journal segment {}", file.getFileName());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ Could not clean up journal segments: {}", e.getMessage());
+        }
+    }
+
+    private static String hourOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(FILE_PREFIX.length(), FILE_PREFIX.length() + 10);
+    }
+
+    /**
+     * Một file đang ghi; {@code claimed} là vị trí ghi tiếp theo, có thể vượt {@code capacity} khi file đã đầy
+     */
+    private static final class Segment {
+        final MappedByteBuffer buffer;
+        final long endMillis;
+        final long capacity;
+        final AtomicLong claimed = new AtomicLong();
+
+        Segment(MappedByteBuffer buffer, long endMillis, long capacity) {
+            this.buffer = buffer;
+            this.endMillis = endMillis;
+            this.capacity = capacity;
+        }
+    }
+}
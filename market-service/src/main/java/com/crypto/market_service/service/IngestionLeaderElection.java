@@ -0,0 +1,234 @@
+package com.crypto.market_service.service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.event.IngestionLeadershipChangedEvent;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bầu một replica duy nhất làm nhiệm vụ ingest từ Binance bằng lease trên Redis.
+ *
+ * Replica giành lease bằng SET NX PX với giá trị "instanceId:fencingToken", trong đó fencing token
+ * tăng dần (INCR) qua mỗi lần đổi leader. Leader gia hạn mỗi ttl/3 bằng script chỉ thành công
+ * khi lease vẫn mang đúng token của mình; các replica khác là standby và thử giành lease cùng chu kỳ.
+ *
+ * Leader tự coi mình hết quyền khi quá hạn lease tính từ lần gia hạn thành công gần nhất,
+ * trừ một khoảng an toàn, kể cả khi không liên lạc được Redis. Failover chậm nhất khoảng
+ * lease-ttl + ttl/3 cộng thời gian kết nối tới Binance.
+ *
+ * {@link #isLeader()} được kiểm tra tại các điểm ghi ra ngoài, không chỉ lúc nhận frame:
+ * BinanceStreamService trước khi đưa frame vào ring, RedisPublishPipeline ngay trước mỗi batch
+ * PUBLISH/XADD (phần còn trong ring bị bỏ), KlinePersister trước mỗi lần xả (hàng chờ bị bỏ khi mất quyền).
+ * Một lệnh đã gửi đi trước hạn vẫn có thể tới Redis/DB sau khi leader mới bắt đầu; fencing token
+ * không được Redis hay DB kiểm tra, nó chỉ dùng để nhận diện nhiệm kỳ trong log và sự kiện.
+ */
+@Component
+@Slf4j
+public class IngestionLeaderElection {
+
+    static final String LEASE_KEY = "market_ingest:leader";
+    static final String FENCING_KEY = "market_ingest:fencing";
+
+    // Gia hạn khi lease vẫn mang đúng token của replica này
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('pexpire', KEYS[1], ARGV[2]) else return 0 end", Long.class);
+
+    private static final RedisScript<Long> RELEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('get', KEYS[1]) == ARGV[1] then " +
+            "return redis.call('del', KEYS[1]) else return 0 end", Long.class);
+
+    // Tắt để replica không bao giờ ingest (VD: profile bulk-load chỉ nạp CSV)
+    @Value("${app.binance.ingestion-enabled:true}")
+    private boolean ingestionEnabled;
+
+    // Tắt để mọi replica đều ingest (VD: chạy một instance không cần phối hợp, phát lại journal)
+    @Value("${app.binance.leader.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.binance.leader.lease-ttl-ms:10000}")
+    private long leaseTtlMs;
+
+    // Dừng sớm hơn hạn lease một khoảng để bù lệch đồng hồ và độ trễ tới Redis
+    @Value("${app.binance.leader.safety-margin-ms:1000}")
+    private long safetyMarginMs;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    private final String instanceId = instanceId();
+
+    private ScheduledExecutorService scheduler;
+    private boolean started;
+
+    // Chỉ đổi trên thread của scheduler
+    private String leaseValue;
+    private long fencingToken;
+
+    // System.nanoTime() mà sau đó replica không còn được coi là leader, 0 = không phải leader
+    private volatile long leaseDeadlineNanos;
+
+    /**
+     * Bắt đầu bầu chọn khi context đã sẵn sàng, để các listener đều nhận được sự kiện
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        metrics.registerLeaderGauge(this::isLeader);
+        if (!ingestionEnabled) {
+            log.info("⏸️ Ingestion disabled, this replica never takes the lease");
+            return;
+        }
+        if (!enabled) {
+            leaseDeadlineNanos = Long.MAX_VALUE;
+            log.info("👑 Leader election disabled, this replica ingests");
+            eventPublisher.publishEvent(new IngestionLeadershipChangedEvent(true, 0));
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ingest-leader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseTtlMs / 3);
+        scheduler.scheduleWithFixedDelay(this::tick, 0, period, TimeUnit.MILLISECONDS);
+        log.info("🗳️ Ingestion leader election started as {} (lease {} ms)", instanceId, leaseTtlMs);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (leaseValue != null) {
+            // Nhả lease ngay để standby không phải đợi hết TTL
+            try {
+                redisTemplate.execute(RELEASE_SCRIPT, List.of(LEASE_KEY), leaseValue);
+            } catch (Exception e) {
+                log.warn("⚠️ Could not release ingestion lease: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Replica này có đang giữ lease hợp lệ không (rẻ, gọi được trên mỗi message)
+     */
+    public boolean isLeader() {
+        long deadline = leaseDeadlineNanos;
+        return deadline != 0 && System.nanoTime() - deadline < 0;
+    }
+
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
+    private void tick() {
+        try {
+            if (leaseValue != null) {
+                renew();
+            } else {
+                tryAcquire();
+            }
+        } catch (Exception e) {
+            log.warn("⚠️ Ingestion lease check failed: {}", e.getMessage());
+        }
+        if (leaseValue != null && !isLeader()) {
+            // Không gia hạn được trước hạn (Redis lỗi, GC pause...) -> nhường quyền
+            demote("lease expired locally");
+        }
+    }
+
+    private void tryAcquire() {
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(LEASE_KEY))) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        long token = redisTemplate.opsForValue().increment(FENCING_KEY);
+        String value = instanceId + ":" + token;
+        Boolean acquired = redisTemplate.opsForValue()
+                .setIfAbsent(LEASE_KEY, value, Duration.ofMillis(leaseTtlMs));
+        if (!Boolean.TRUE.equals(acquired)) {
+            return;
+        }
+
+        leaseValue = value;
+        fencingToken = token;
+        extendDeadline(startNanos);
+        metrics.countLeadershipChange(true);
+        log.info("👑 Acquired ingestion leadership with fencing token {}", token);
+        eventPublisher.publishEvent(new IngestionLeadershipChangedEvent(true, token));
+    }
+
+    private void renew() {
+        long startNanos = System.nanoTime();
+        Long renewed = redisTemplate.execute(RENEW_SCRIPT, List.of(LEASE_KEY), leaseValue,
+                String.valueOf(leaseTtlMs));
+        if (renewed != null && renewed == 1L) {
+            extendDeadline(startNanos);
+        } else {
+            // Lease đã hết hạn và có thể đã thuộc replica khác
+            demote("lease lost");
+        }
+    }
+
+    /**
+     * Hạn tính từ lúc gửi lệnh (không phải lúc nhận trả lời), nên luôn sớm hơn hạn trên Redis
+     */
+    private void extendDeadline(long startNanos) {
+        long deadline = startNanos + TimeUnit.MILLISECONDS.toNanos(leaseTtlMs - safetyMarginMs);
+        leaseDeadlineNanos = deadline == 0 ? 1 : deadline;
+    }
+
+    private void demote(String reason) {
+        long token = fencingToken;
+        leaseDeadlineNanos = 0;
+        leaseValue = null;
+        metrics.countLeadershipChange(false);
+        log.warn("⚠️ Lost ingestion leadership (token {}): {}", token, reason);
+        eventPublisher.publishEvent(new IngestionLeadershipChangedEvent(false, token));
+    }
+
+    private static String instanceId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "unknown";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
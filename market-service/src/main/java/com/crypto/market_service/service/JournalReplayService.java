@@ -0,0 +1,158 @@
+package com.crypto.market_service.service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.TextMessage;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Phát lại các frame đã ghi trong FrameJournal qua đúng đường xử lý của frame live
+ * (BinanceStreamService.handleBinanceMessage), theo nhịp gốc nhân {@code speed} hoặc nhanh nhất có thể.
+ *
+ * Dùng để tạo tải lặp lại được, ghi lại vào DB phần dữ liệu bị lỡ sau sự cố,
+ * hoặc dựng lại một sự cố production trên máy local.
+ * Frame phát lại không được ghi lại vào journal, và như frame live chỉ được xử lý khi replica là leader:
+ * trên replica standby mọi frame bị bỏ qua. Chạy trên instance riêng với profile replay (không kết nối sàn,
+ * tắt bầu leader), hoặc gọi trên chính leader khi cố ý phát lại song song với dữ liệu live.
+ */
+@Service
+@Slf4j
+public class JournalReplayService {
+
+    @Autowired
+    private FrameJournal journal;
+
+    @Autowired
+    private BinanceStreamService streamService;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong replayedFrames = new AtomicLong();
+    private volatile boolean cancelled;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "journal-replay");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    void shutdown() {
+        cancelled = true;
+        executor.shutdownNow();
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public long getReplayedFrames() {
+        return replayedFrames.get();
+    }
+
+    /**
+     * Bắt đầu phát lại ở nền
+     *
+     * @param fromHour giờ UTC dạng yyyyMMddHH, null = từ file đầu tiên
+     * @param toHour   null = tới file cuối cùng
+     * @param speed    1 = nhịp gốc, N = nhanh gấp N lần, <= 0 = nhanh nhất có thể
+     * @return danh sách file sẽ phát lại, null nếu đang có một lần phát lại khác
+     */
+    public List<Path> start(String fromHour, String toHour, double speed) throws IOException {
+        List<Path> segments = journal.segments(fromHour, toHour);
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        cancelled = false;
+        replayedFrames.set(0);
+        executor.execute(() -> {
+            try {
+                replay(segments, speed);
+            } finally {
+                running.set(false);
+            }
+        });
+        return segments;
+    }
+
+    public void stop() {
+        cancelled = true;
+    }
+
+    /**
+     * Phát lại đồng bộ trên thread hiện tại
+     *
+     * @return số frame đã phát lại
+     */
+    public long replay(List<Path> segments, double speed) {
+        if (!leaderElection.isLeader()) {
+            log.warn("⚠️ This replica is not the ingestion leader, replayed frames will be dropped;"
+                     + " run the replay profile or call the leader");
+        }
+        log.info("⏪ Replaying {} journal segment(s) at {}", segments.size(), speed > 0 ? speed + "x" : "max speed");
+        long startNanos = System.nanoTime();
+        long firstReceivedAt = -1;
+        long frames = 0;
+        byte[] bytes = new byte[8192];
+
+        for (Path segment : segments) {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                log.error("❌ Cannot open journal segment {}: {}", segment.getFileName(), e.getMessage());
+                continue;
+            }
+
+            int position = 0;
+            while (!cancelled && position + FrameJournal.HEADER_BYTES <= buffer.limit()) {
+                int length = buffer.getInt(position);
+                if (length <= 0) {
+                    break; // Hết phần đã ghi của file
+                }
+                long receivedAt = buffer.getLong(position + Integer.BYTES);
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                buffer.get(position + FrameJournal.HEADER_BYTES, bytes, 0, length);
+                position += FrameJournal.HEADER_BYTES + length;
+
+                if (firstReceivedAt < 0) {
+                    firstReceivedAt = receivedAt;
+                }
+                if (speed > 0) {
+                    long due = startNanos + (long) ((receivedAt - firstReceivedAt) * 1_000_000L / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+
+                streamService.handleBinanceMessage(new TextMessage(new String(bytes, 0, length, StandardCharsets.UTF_8)));
+                frames++;
+                replayedFrames.incrementAndGet();
+            }
+        }
+
+        long elapsedMs = (System.nanoTime() - startNanos) / 1_000_000;
+        log.info("⏪ Replay {} after {} frames in {} ms", cancelled ? "stopped" : "finished", frames, elapsedMs);
+        return frames;
+    }
+}
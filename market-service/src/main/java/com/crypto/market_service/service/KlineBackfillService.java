@@ -0,0 +1,266 @@
+package com.crypto.market_service.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineRepository;
+import com.crypto.market_service.util.ScaledDecimal;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Phát hiện và lấp khoảng trống dữ liệu nến sau khi mất kết nối WebSocket.
+ *
+ * Ghi nhớ openTime của nến cuối cùng đã lưu cho mỗi (symbol, interval). Khi một shard
+ * kết nối lại, các nến đóng trong lúc mất kết nối được lấy từ REST API /api/v3/klines
+ * và ghi hàng loạt vào DB, song song giữa các symbols với số luồng giới hạn.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class KlineBackfillService {
+
+    static final int PAGE_LIMIT = 1000; // Binance trả tối đa 1000 nến mỗi request
+    private static final long AGG_TRADES_MAX_RANGE_MS = 3_600_000L;
+
+    private final KlineRepository klineRepository;
+
+    // KlinePersister cũng gọi lại recordPersisted: inject lazy để tránh vòng phụ thuộc
+    @Lazy
+    @Autowired
+    private KlinePersister persister;
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    // Có thể trỏ tới stub local khi test
+    @Value("${app.binance.rest-base-url:https://api.binance.com}")
+    private String restBaseUrl;
+
+    @Value("${app.binance.backfill.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.binance.backfill.parallelism:4}")
+    private int parallelism;
+
+    // Không lấp khoảng trống xa hơn mốc này (tránh kéo lại lịch sử dài sau khi tắt lâu)
+    @Value("${app.binance.backfill.max-lookback-hours:24}")
+    private long maxLookbackHours;
+
+    // openTime (epoch millis) của nến cuối cùng đã lưu, key: SYMBOL|interval
+    private final Map<String, Long> lastPersistedOpenTime = new ConcurrentHashMap<>();
+
+    // Symbols đang được backfill, tránh chạy trùng khi nhiều lần reconnect liên tiếp
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "kline-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gọi sau mỗi lần lưu nến để cập nhật mốc đã lưu
+     */
+    public void recordPersisted(String symbol, String interval, long openTime) {
+        lastPersistedOpenTime.merge(key(symbol, interval), openTime, Math::max);
+    }
+
+    /**
+     * Lên lịch backfill cho các streams kline của một shard vừa kết nối (lại)
+     *
+     * @param streams VD: ["btcusdt@kline_1m", "btcusdt@kline_5m", ...]
+     */
+    public void backfillStreams(List<String> streams) {
+        if (!enabled) {
+            return;
+        }
+
+        Map<String, List<String>> intervalsBySymbol = streams.stream()
+                .filter(stream -> stream.contains("@kline_"))
+                .collect(Collectors.groupingBy(
+                        stream -> stream.substring(0, stream.indexOf('@')).toUpperCase(),
+                        Collectors.mapping(stream -> stream.substring(stream.indexOf("@kline_") + 7),
+                                Collectors.toList())));
+
+        intervalsBySymbol.forEach((symbol, intervals) -> {
+            if (inFlight.add(symbol)) {
+                executor.execute(() -> {
+                    try {
+                        intervals.forEach(interval -> backfill(symbol, interval));
+                    } finally {
+                        inFlight.remove(symbol);
+                    }
+                });
+            }
+        });
+    }
+
+    private void backfill(String symbol, String interval) {
+        KlineInterval klineInterval = KlineInterval.fromLabel(interval);
+        if (klineInterval == null) {
+            return;
+        }
+
+        try {
+            Long last = lastPersistedOpenTime.get(key(symbol, interval));
+            if (last == null) {
+                last = klineRepository.findTopBySymbolAndIntervalOrderByOpenTimeDesc(symbol, interval)
+                        .map(k -> Kline.toEpochMillis(k.getOpenTime()))
+                        .orElse(null);
+            }
+            if (last == null) {
+                // Chưa từng lưu -> không có khoảng trống để lấp
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - last <= klineInterval.getMillis()) {
+                // Nến cuối cùng vẫn là nến hiện tại, stream live sẽ cập nhật tiếp
+                return;
+            }
+
+            // Lấy lại cả nến cuối đã lưu vì lúc mất kết nối nó có thể chưa đóng
+            long from = Math.max(last, now - maxLookbackHours * 3_600_000L);
+            int filled = 0;
+            while (from < now) {
+                List<Kline> page = fetchPage(symbol, interval, from);
+                if (page.isEmpty()) {
+                    break;
+                }
+                upsert(klineInterval, page, now);
+                filled += page.size();
+
+                long lastOpen = Kline.toEpochMillis(page.get(page.size() - 1).getOpenTime());
+                recordPersisted(symbol, interval, lastOpen);
+                if (page.size() < PAGE_LIMIT) {
+                    break;
+                }
+                from = lastOpen + klineInterval.getMillis();
+            }
+
+            if (filled > 0) {
+                log.info("🩹 Backfilled {} {} klines for {}", filled, interval, symbol);
+            }
+        } catch (Exception e) {
+            log.error("❌ Backfill failed for {} {}: {}", symbol, interval, e.getMessage());
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Các dòng thô của /api/v3/klines từ {@code startTime} (tối đa {@value #PAGE_LIMIT} dòng):
+     * [openTime, open, high, low, close, volume, closeTime, quoteVolume, trades, takerBuyVolume, takerBuyQuoteVolume, ...]
+     *
+     * @param endTime openTime lớn nhất cần lấy, -1 = không giới hạn
+     */
+    JsonNode fetchRows(String symbol, String interval, long startTime, long endTime) {
+        UriComponentsBuilder uri = UriComponentsBuilder.fromUriString(restBaseUrl)
+                .path("/api/v3/klines")
+                .queryParam("symbol", symbol)
+                .queryParam("interval", interval)
+                .queryParam("startTime", startTime)
+                .queryParam("limit", PAGE_LIMIT);
+        if (endTime >= 0) {
+            uri.queryParam("endTime", endTime);
+        }
+        return restTemplate.getForObject(uri.toUriString(), JsonNode.class);
+    }
+
+    /**
+     * firstTradeId ("f") của aggTrade đầu tiên từ {@code startTime} theo /api/v3/aggTrades, -1 nếu không có
+     * giao dịch nào. Binance chỉ nhận khoảng startTime..endTime dưới 1 giờ, nên chỉ tìm trong giờ đầu tiên.
+     */
+    long fetchFirstTradeId(String symbol, long startTime, long endTime) {
+        String uri = UriComponentsBuilder.fromUriString(restBaseUrl)
+                .path("/api/v3/aggTrades")
+                .queryParam("symbol", symbol)
+                .queryParam("startTime", startTime)
+                .queryParam("endTime", Math.min(endTime, startTime + AGG_TRADES_MAX_RANGE_MS - 1))
+                .queryParam("limit", 1)
+                .toUriString();
+        JsonNode trades = restTemplate.getForObject(uri, JsonNode.class);
+        return trades != null && trades.isArray() && !trades.isEmpty() ? trades.get(0).path("f").asLong(-1) : -1;
+    }
+
+    private List<Kline> fetchPage(String symbol, String interval, long startTime) {
+        JsonNode rows = fetchRows(symbol, interval, startTime, -1);
+        List<Kline> klines = new ArrayList<>();
+        if (rows == null || !rows.isArray()) {
+            return klines;
+        }
+
+        // [openTime, open, high, low, close, volume, closeTime, ...]
+        for (JsonNode row : rows) {
+            klines.add(Kline.builder()
+                    .symbol(symbol)
+                    .interval(interval)
+                    .openTime(Kline.convertTime(row.get(0).asLong()))
+                    .openPrice(new BigDecimal(row.get(1).asText()))
+                    .highPrice(new BigDecimal(row.get(2).asText()))
+                    .lowPrice(new BigDecimal(row.get(3).asText()))
+                    .closePrice(new BigDecimal(row.get(4).asText()))
+                    .volume(new BigDecimal(row.get(5).asText()))
+                    .closeTime(Kline.convertTime(row.get(6).asLong()))
+                    .build());
+        }
+        return klines;
+    }
+
+    /**
+     * Ghi một trang nến bằng upsert theo lô (INSERT ... ON CONFLICT) của {@link KlinePersister}.
+     * Dòng cuối của REST là nến hiện tại, chưa đóng: chỉ nến có closeTime trước {@code now} là đã đóng.
+     */
+    private void upsert(KlineInterval interval, List<Kline> page, long now) {
+        List<KlineFrame> frames = new ArrayList<>(page.size());
+        for (Kline kline : page) {
+            KlineFrame frame = new KlineFrame();
+            frame.symbol = kline.getSymbol();
+            frame.interval = interval;
+            frame.openTime = Kline.toEpochMillis(kline.getOpenTime());
+            frame.closed = frame.closeTime() < now;
+            frame.open = ScaledDecimal.fromBigDecimal(kline.getOpenPrice());
+            frame.high = ScaledDecimal.fromBigDecimal(kline.getHighPrice());
+            frame.low = ScaledDecimal.fromBigDecimal(kline.getLowPrice());
+            frame.close = ScaledDecimal.fromBigDecimal(kline.getClosePrice());
+            frame.setVolume(kline.getVolume());
+            frames.add(frame);
+        }
+        persister.write(frames);
+    }
+
+    private static String key(String symbol, String interval) {
+        return symbol + "|" + interval;
+    }
+}
@@ -0,0 +1,53 @@
+package com.crypto.market_service.service;
+
+import java.nio.file.Path;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.ExitCodeGenerator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chế độ dòng lệnh: nạp một thư mục rồi thoát, VD
+ * {@code java -jar market-service.jar --spring.profiles.active=docker,bulk-load
+ * --app.bulk-load.path=/data/klines --app.bulk-load.parallelism=8}.
+ *
+ * Profile bulk-load (application-bulk-load.yaml) tắt web server, Eureka và ingest, nên replica này không
+ * tranh lease hay mở kết nối tới sàn. MarketServiceApplication đóng context sau khi runner chạy xong;
+ * mã thoát khác 0 nếu có file lỗi.
+ */
+@Component
+@Profile(KlineBulkLoadRunner.PROFILE)
+@Slf4j
+public class KlineBulkLoadRunner implements ApplicationRunner, ExitCodeGenerator {
+
+    public static final String PROFILE = "bulk-load";
+
+    @Value("${app.bulk-load.path}")
+    private String path;
+
+    @Value("${app.bulk-load.parallelism:4}")
+    private int parallelism;
+
+    @Autowired
+    private KlineBulkLoader loader;
+
+    private volatile int exitCode;
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        KlineBulkLoader.Status status = loader.load(Path.of(path), parallelism);
+        exitCode = status.filesFailed() == 0 ? 0 : 1;
+        log.info("📦 Bulk load from {} done, exiting with code {}", path, exitCode);
+    }
+
+    @Override
+    public int getExitCode() {
+        return exitCode;
+    }
+}
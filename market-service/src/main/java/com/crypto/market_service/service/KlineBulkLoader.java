@@ -0,0 +1,438 @@
+package com.crypto.market_service.service;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipInputStream;
+
+import javax.sql.DataSource;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineAggregateRepository;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Nạp hàng loạt nến lịch sử từ file CSV theo định dạng dump của Binance (data.binance.vision):
+ * {@code SYMBOL-INTERVAL-*.csv} hoặc {@code .zip}, mỗi dòng
+ * {@code openTime,open,high,low,close,volume,closeTime,...}.
+ *
+ * Mỗi file được đẩy bằng COPY nhị phân (CopyManager của driver PostgreSQL) vào một bảng tạm,
+ * rồi gộp vào bảng đích bằng một câu INSERT ... SELECT ... ON CONFLICT; bảng tạm không ghi WAL và
+ * bị xóa khi commit. Mỗi file là một transaction, nên file lỗi có thể nạp lại mà không trùng dữ liệu.
+ * Các symbol chạy song song trên {@code parallelism} kết nối, các file của cùng một symbol chạy tuần tự.
+ *
+ * Bảng đích theo {@code app.persistence.storage} như {@link KlinePersister}.
+ */
+@Service
+@Slf4j
+public class KlineBulkLoader {
+
+    // Số micro giây từ 1970-01-01 tới 2000-01-01, mốc của timestamp nhị phân trong Postgres
+    private static final long PG_EPOCH_MICROS = 946_684_800_000_000L;
+    private static final byte[] COPY_HEADER = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+    static final short FIELDS = 12;
+
+    static final String CREATE_STAGING = "CREATE TEMP TABLE kline_staging ("
+            + " symbol TEXT, \"interval\" TEXT, interval_code SMALLINT, open_time_ms BIGINT,"
+            + " open_time TIMESTAMP, close_time TIMESTAMP, open_price BIGINT, high_price BIGINT,"
+            + " low_price BIGINT, close_price BIGINT, volume BIGINT, volume_scale SMALLINT) ON COMMIT DROP";
+    private static final String COPY_STAGING = "COPY kline_staging FROM STDIN (FORMAT binary)";
+
+    // Khối lượng được stage kèm scale như KlineFrame (giá trị lớn giữ ít chữ số lẻ hơn để vừa BIGINT).
+    // Dòng trùng trong cùng file (file chồng nhau) giữ bản khối lượng lớn nhất, vì ON CONFLICT
+    // không cho cập nhật một dòng hai lần trong một câu lệnh
+    static final String MERGE_STANDARD = "INSERT INTO klines (symbol, \"interval\", open_time, close_time,"
+            + " open_price, high_price, low_price, close_price, volume)"
+            + " SELECT DISTINCT ON (symbol, \"interval\", open_time) symbol, \"interval\", open_time, close_time,"
+            + " open_price * 0.00000001, high_price * 0.00000001, low_price * 0.00000001,"
+            + " close_price * 0.00000001, volume * power(10::numeric, -volume_scale)"
+            + " FROM kline_staging"
+            + " ORDER BY symbol, \"interval\", open_time, volume * power(10::numeric, -volume_scale) DESC"
+            + " ON CONFLICT (symbol, \"interval\", open_time) DO UPDATE SET"
+            + " close_time = EXCLUDED.close_time, open_price = EXCLUDED.open_price,"
+            + " high_price = EXCLUDED.high_price, low_price = EXCLUDED.low_price,"
+            + " close_price = EXCLUDED.close_price, volume = EXCLUDED.volume"
+            + " WHERE klines.volume IS NULL OR klines.volume <= EXCLUDED.volume";
+    static final String MERGE_COMPACT = "INSERT INTO klines_compact (symbol_id, interval_code, open_time,"
+            + " open_price, high_price, low_price, close_price, volume, volume_scale)"
+            + " SELECT DISTINCT ON (t.id, s.interval_code, s.open_time_ms) t.id, s.interval_code, s.open_time_ms,"
+            + " s.open_price, s.high_price, s.low_price, s.close_price, s.volume, s.volume_scale"
+            + " FROM kline_staging s JOIN trading_symbols t ON t.symbol = s.symbol"
+            + " ORDER BY t.id, s.interval_code, s.open_time_ms, s.volume * power(10::numeric, -s.volume_scale) DESC"
+            + " ON CONFLICT (symbol_id, interval_code, open_time) DO UPDATE SET"
+            + " open_price = EXCLUDED.open_price, high_price = EXCLUDED.high_price,"
+            + " low_price = EXCLUDED.low_price, close_price = EXCLUDED.close_price, volume = EXCLUDED.volume,"
+            + " volume_scale = EXCLUDED.volume_scale"
+            + " WHERE klines_compact.volume * power(10::numeric, -klines_compact.volume_scale)"
+            + " <= EXCLUDED.volume * power(10::numeric, -EXCLUDED.volume_scale)";
+
+    /**
+     * Tiến độ của lần nạp gần nhất
+     */
+    public record Status(boolean running, int filesTotal, int filesDone, int filesFailed, long rows, long elapsedMs) {
+    }
+
+    private record SourceFile(Path path, String symbol, KlineInterval interval) {
+    }
+
+    @Value("${app.persistence.storage:standard}")
+    private String storage;
+
+    @Value("${app.bulk-load.parallelism:4}")
+    private int defaultParallelism;
+
+    // Rows mỗi lần ghi vào luồng COPY được gom trong buffer này
+    @Value("${app.bulk-load.copy-buffer-bytes:1048576}")
+    private int copyBufferBytes;
+
+    // Thư mục gốc duy nhất mà API import được đọc, rỗng = tắt API import
+    @Value("${app.bulk-load.import-root:}")
+    private String importRoot;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private KlineAggregateRepository aggregateRepository;
+
+    private final AtomicInteger filesTotal = new AtomicInteger();
+    private final AtomicInteger filesDone = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+    private final AtomicLong rows = new AtomicLong();
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile boolean running;
+
+    /**
+     * Bắt đầu nạp nền mọi file trong thư mục {@code path} nằm dưới app.bulk-load.import-root
+     *
+     * @param path        đường dẫn tương đối tới import-root, hoặc tuyệt đối nhưng vẫn nằm trong nó
+     * @param parallelism số symbol nạp song song, <= 0 = app.bulk-load.parallelism
+     * @return các symbol sẽ được nạp, hoặc null nếu một lần nạp khác đang chạy
+     */
+    public synchronized List<String> start(String path, int parallelism) throws IOException {
+        if (running) {
+            return null;
+        }
+        Path dir = resolveImportDir(path);
+        Map<String, List<SourceFile>> bySymbol = scan(dir);
+        begin(bySymbol);
+        Thread thread = new Thread(() -> run(bySymbol, parallelism), "kline-bulk-load");
+        thread.setDaemon(true);
+        thread.start();
+        return new ArrayList<>(bySymbol.keySet());
+    }
+
+    /**
+     * Nạp mọi file trong {@code dir} trên thread gọi (dùng cho chế độ dòng lệnh)
+     */
+    public Status load(Path dir, int parallelism) throws IOException {
+        Map<String, List<SourceFile>> bySymbol;
+        synchronized (this) {
+            if (running) {
+                throw new IllegalStateException("A bulk load is already running");
+            }
+            bySymbol = scan(dir);
+            begin(bySymbol);
+        }
+        run(bySymbol, parallelism);
+        return status();
+    }
+
+    /**
+     * Thư mục cần nạp, đã theo symlink, chỉ khi nó nằm trong import-root
+     */
+    Path resolveImportDir(String path) throws IOException {
+        if (importRoot == null || importRoot.isBlank()) {
+            throw new IllegalStateException("Import is disabled: app.bulk-load.import-root is not set");
+        }
+        Path root = Path.of(importRoot.trim()).toRealPath();
+        Path dir = root.resolve(path).normalize();
+        if (!dir.startsWith(root) || !Files.isDirectory(dir) || !dir.toRealPath().startsWith(root)) {
+            throw new IllegalArgumentException("Path must be a directory under the import root");
+        }
+        return dir.toRealPath();
+    }
+
+    public Status status() {
+        long end = running ? System.currentTimeMillis() : finishedAt;
+        return new Status(running, filesTotal.get(), filesDone.get(), filesFailed.get(), rows.get(),
+                startedAt == 0 ? 0 : end - startedAt);
+    }
+
+    private void begin(Map<String, List<SourceFile>> bySymbol) {
+        running = true;
+        startedAt = System.currentTimeMillis();
+        filesTotal.set(bySymbol.values().stream().mapToInt(List::size).sum());
+        filesDone.set(0);
+        filesFailed.set(0);
+        rows.set(0);
+    }
+
+    private void run(Map<String, List<SourceFile>> bySymbol, int parallelism) {
+        int threads = Math.max(1, Math.min(parallelism > 0 ? parallelism : defaultParallelism, bySymbol.size()));
+        log.info("📦 Bulk loading {} files for {} symbols with {} connections",
+                 filesTotal.get(), bySymbol.size(), threads);
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "kline-bulk-load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Khoảng openTime (local) của nến 1m đã nạp, để materialize lại continuous aggregate
+        AtomicLong minBaseOpen = new AtomicLong(Long.MAX_VALUE);
+        AtomicLong maxBaseOpen = new AtomicLong(Long.MIN_VALUE);
+        try {
+            List<Future<?>> jobs = new ArrayList<>();
+            bySymbol.forEach((symbol, files) -> jobs.add(executor.submit(() -> {
+                for (SourceFile file : files) {
+                    loadFileQuietly(file, minBaseOpen, maxBaseOpen);
+                }
+            })));
+            for (Future<?> job : jobs) {
+                job.get();
+            }
+            refreshAggregates(minBaseOpen.get(), maxBaseOpen.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("❌ Bulk load failed: {}", e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            finishedAt = System.currentTimeMillis();
+            running = false;
+            Status status = status();
+            log.info("📦 Bulk load finished: {} rows from {}/{} files ({} failed) in {} ms",
+                     status.rows(), status.filesDone(), status.filesTotal(), status.filesFailed(), status.elapsedMs());
+        }
+    }
+
+    private void loadFileQuietly(SourceFile file, AtomicLong minBaseOpen, AtomicLong maxBaseOpen) {
+        try {
+            long[] range = loadFile(file);
+            if (file.interval() == KlineAggregateRepository.BASE_INTERVAL && range[0] <= range[1]) {
+                minBaseOpen.accumulateAndGet(range[0], Math::min);
+                maxBaseOpen.accumulateAndGet(range[1], Math::max);
+            }
+            filesDone.incrementAndGet();
+        } catch (Exception e) {
+            filesFailed.incrementAndGet();
+            log.error("❌ Failed to load {}: {}", file.path(), e.getMessage());
+        }
+    }
+
+    /**
+     * COPY một file vào bảng tạm rồi gộp vào bảng đích, trong một transaction
+     *
+     * @return [openTime nhỏ nhất, lớn nhất] (epoch millis) và số dòng đã nạp
+     */
+    private long[] loadFile(SourceFile file) throws Exception {
+        String mode = storage.trim().toLowerCase();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute(CREATE_STAGING);
+                long[] range = copy(connection.unwrap(PGConnection.class), file);
+                if (!"compact".equals(mode)) {
+                    statement.executeUpdate(MERGE_STANDARD);
+                }
+                if ("compact".equals(mode) || "dual".equals(mode)) {
+                    statement.executeUpdate(MERGE_COMPACT);
+                }
+                connection.commit();
+                rows.addAndGet(range[2]);
+                return range;
+            } catch (Exception e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private long[] copy(PGConnection connection, SourceFile file) throws IOException, SQLException {
+        byte[] symbol = file.symbol().getBytes(StandardCharsets.UTF_8);
+        byte[] interval = file.interval().getLabel().getBytes(StandardCharsets.UTF_8);
+        long minOpen = Long.MAX_VALUE;
+        long maxOpen = Long.MIN_VALUE;
+        long count = 0;
+
+        PGCopyOutputStream copy = new PGCopyOutputStream(connection, COPY_STAGING, copyBufferBytes);
+        // Luồng COPY chỉ được đóng (endCopy) khi đọc hết file; lỗi giữa chừng thì hủy COPY
+        try (BufferedReader reader = open(file.path())) {
+            DataOutputStream out = new DataOutputStream(copy);
+            writeHeader(out);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long openTime = writeRow(out, line, file.interval(), symbol, interval);
+                if (openTime < 0) {
+                    continue;
+                }
+                minOpen = Math.min(minOpen, openTime);
+                maxOpen = Math.max(maxOpen, openTime);
+                count++;
+            }
+            writeTrailer(out);
+            out.close();
+        } catch (IOException | RuntimeException e) {
+            if (copy.isActive()) {
+                try {
+                    copy.cancelCopy();
+                } catch (Exception ignored) {
+                    // Transaction sẽ bị rollback
+                }
+            }
+            throw e;
+        }
+        return new long[]{minOpen, maxOpen, count};
+    }
+
+    static void writeHeader(DataOutputStream out) throws IOException {
+        out.write(COPY_HEADER);
+        out.writeInt(0); // flags
+        out.writeInt(0); // header extension
+    }
+
+    static void writeTrailer(DataOutputStream out) throws IOException {
+        out.writeShort(-1);
+    }
+
+    /**
+     * Một dòng CSV thành một tuple COPY nhị phân theo đúng thứ tự cột của kline_staging; không cột nào NULL
+     *
+     * @return openTime (epoch millis) của dòng, -1 nếu là dòng tiêu đề (file futures) hoặc dòng trống
+     * @throws IOException nếu dòng thiếu cột
+     */
+    static long writeRow(DataOutputStream out, String line, KlineInterval klineInterval, byte[] symbol,
+                         byte[] interval) throws IOException {
+        if (line.isEmpty() || line.charAt(0) < '0' || line.charAt(0) > '9') {
+            return -1;
+        }
+        int c1 = line.indexOf(',');
+        int c2 = line.indexOf(',', c1 + 1);
+        int c3 = line.indexOf(',', c2 + 1);
+        int c4 = line.indexOf(',', c3 + 1);
+        int c5 = line.indexOf(',', c4 + 1);
+        // indexOf từ -1 + 1 quay về đầu dòng, nên phải kiểm tra từng dấu phẩy
+        if (c1 < 0 || c2 < 0 || c3 < 0 || c4 < 0 || c5 < 0) {
+            throw new IOException("Malformed line: " + line);
+        }
+        long openTime = Long.parseLong(line, 0, c1, 10);
+        if (openTime > 100_000_000_000_000L) {
+            openTime /= 1000; // Dump spot từ 2025 dùng micro giây
+        }
+
+        out.writeShort(FIELDS);
+        writeBytes(out, symbol);
+        writeBytes(out, interval);
+        out.writeInt(2);
+        out.writeShort(klineInterval.getCode());
+        writeLong(out, openTime);
+        writeLong(out, pgTimestamp(openTime));
+        writeLong(out, pgTimestamp(openTime + klineInterval.getMillis() - 1));
+        writeLong(out, ScaledDecimal.parse(line, c1 + 1));
+        writeLong(out, ScaledDecimal.parse(line, c2 + 1));
+        writeLong(out, ScaledDecimal.parse(line, c3 + 1));
+        writeLong(out, ScaledDecimal.parse(line, c4 + 1));
+        int volumeScale = ScaledDecimal.fittingScale(line, c5 + 1);
+        writeLong(out, ScaledDecimal.parse(line, c5 + 1, volumeScale));
+        out.writeInt(2);
+        out.writeShort(volumeScale);
+        return openTime;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeInt(8);
+        out.writeLong(value);
+    }
+
+    /**
+     * Timestamp nhị phân của Postgres (micro giây từ 2000-01-01) cho giờ UTC như {@link Kline#convertTime}
+     */
+    private static long pgTimestamp(long epochMillis) {
+        return epochMillis * 1000 - PG_EPOCH_MICROS;
+    }
+
+    private void refreshAggregates(long minOpen, long maxOpen) {
+        if (minOpen > maxOpen || "compact".equalsIgnoreCase(storage.trim())) {
+            return;
+        }
+        LocalDateTime from = Kline.convertTime(minOpen);
+        LocalDateTime to = Kline.convertTime(maxOpen + KlineAggregateRepository.BASE_INTERVAL.getMillis());
+        try {
+            log.info("📊 Refreshing kline aggregates for {} .. {}", from, to);
+            aggregateRepository.refresh(from, to);
+        } catch (Exception e) {
+            log.error("❌ Failed to refresh kline aggregates: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * SYMBOL-INTERVAL-*.csv|zip trong thư mục, gom theo symbol, mỗi symbol xếp file theo tên (theo thời gian)
+     */
+    private static Map<String, List<SourceFile>> scan(Path dir) throws IOException {
+        Map<String, List<SourceFile>> bySymbol = new TreeMap<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.sorted().forEach(path -> {
+                String name = path.getFileName().toString();
+                if (!name.endsWith(".csv") && !name.endsWith(".zip")) {
+                    return;
+                }
+                String[] parts = name.split("-");
+                KlineInterval interval = parts.length > 2 ? KlineInterval.fromLabel(parts[1]) : null;
+                if (interval == null) {
+                    log.warn("Skipping {}: expected SYMBOL-INTERVAL-*.csv", name);
+                    return;
+                }
+                String symbol = parts[0].toUpperCase();
+                bySymbol.computeIfAbsent(symbol, s -> new ArrayList<>()).add(new SourceFile(path, symbol, interval));
+            });
+        }
+        return bySymbol;
+    }
+
+    private static BufferedReader open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (path.getFileName().toString().endsWith(".zip")) {
+            ZipInputStream zip = new ZipInputStream(in);
+            if (zip.getNextEntry() == null) {
+                zip.close();
+                throw new IOException("Empty zip file");
+            }
+            in = zip;
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII), 1 << 16);
+    }
+}
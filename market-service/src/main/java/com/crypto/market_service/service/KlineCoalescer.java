@@ -0,0 +1,198 @@
+package com.crypto.market_service.service;
+
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.util.JsonFields;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gom các cập nhật của nến chưa đóng (k.x == false) trước khi publish, theo từng (symbol, interval).
+ *
+ * Trong mỗi cửa sổ {@code window-ms} chỉ publish nhiều nhất một cập nhật của nến đang mở: cập nhật đầu
+ * tiên (và cập nhật đầu tiên của mỗi nến mới) đi ngay, các cập nhật sau chỉ giữ bản mới nhất và được
+ * publish khi hết cửa sổ. Nến đã đóng
+ * (x == true) luôn đi ngay và thay thế bản đang chờ, nên trạng thái cuối cùng của mỗi nến không đổi.
+ *
+ * Mỗi shard có một {@link Lane} riêng, publish vào ring của shard: bản đang chờ và nến đóng của cùng
+ * một stream luôn đi chung một ring nên không bao giờ đảo thứ tự. Bản đang chờ được xả trước mỗi frame
+ * của shard và theo nhịp của supervisor ({@link #flushDue}), nên stream im lặng cũng không giữ bản chờ
+ * lâu hơn cửa sổ cộng một nhịp.
+ */
+@Component
+@Slf4j
+public class KlineCoalescer {
+
+    private static final String KLINE = "\"k\":";
+    private static final String OPEN_TIME = "\"t\":";
+    private static final String FINAL = "\"x\":";
+
+    // 0 = tắt, mọi cập nhật đi thẳng
+    @Value("${app.binance.coalesce.window-ms:1000}")
+    private long windowMs;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    private final List<Lane> lanes = new CopyOnWriteArrayList<>();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    @PostConstruct
+    void init() {
+        metrics.registerCoalescer(forwarded::sum, coalesced::sum);
+        if (windowMs > 0) {
+            log.info("🧮 Coalescing open kline updates in {} ms windows", windowMs);
+        }
+    }
+
+    boolean isEnabled() {
+        return windowMs > 0;
+    }
+
+    /**
+     * Bọc publisher của một shard. Mọi lần gọi vào lane được đồng bộ trên lane, nên luồng nhận của shard
+     * và supervisor dùng chung được ring một producer phía sau
+     */
+    Lane newLane(BiConsumer<StreamRoute, String> downstream) {
+        Lane lane = new Lane(downstream);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /**
+     * Publish các bản đang chờ đã hết cửa sổ của mọi lane; gọi theo nhịp từ supervisor
+     */
+    void flushDue(long now) {
+        for (Lane lane : lanes) {
+            lane.flushDue(now);
+        }
+    }
+
+    final class Lane implements BiConsumer<StreamRoute, String> {
+
+        private final BiConsumer<StreamRoute, String> downstream;
+        private final Map<StreamRoute, StreamState> states = new IdentityHashMap<>();
+
+        // Stream có bản đang chờ, sắp theo queuedAt (lastEmitAt của mỗi stream khác nhau)
+        private final PriorityQueue<StreamState> due = new PriorityQueue<>(Comparator.comparingLong(s -> s.queuedAt));
+
+        private Lane(BiConsumer<StreamRoute, String> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public synchronized void accept(StreamRoute route, String payload) {
+            if (windowMs <= 0 || route.getKind() != StreamRoute.Kind.KLINE) {
+                downstream.accept(route, payload);
+                return;
+            }
+
+            int k = payload.indexOf(KLINE);
+            long openTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, OPEN_TIME, k));
+            boolean closed = JsonFields.parseBoolean(payload, JsonFields.valueStart(payload, FINAL, k));
+            long now = System.currentTimeMillis();
+
+            StreamState state = states.get(route);
+            if (state == null) {
+                state = new StreamState(route);
+                states.put(route, state);
+            }
+
+            if (state.pending != null) {
+                if (state.pendingOpenTime != openTime) {
+                    // Nến trước chưa nhận được bản đóng (VD: mất kết nối): đẩy trạng thái cuối của nó đi trước
+                    emitPending(state, now);
+                } else if (closed) {
+                    // Bản đóng thay thế bản đang chờ của cùng nến
+                    state.pending = null;
+                    coalesced.increment();
+                }
+            }
+
+            // Cập nhật đầu tiên của một nến mới luôn đi ngay để biểu đồ mở nến kịp thời
+            boolean newCandle = openTime != state.openTime;
+            state.openTime = openTime;
+
+            if (closed || newCandle || now - state.lastEmitAt >= windowMs) {
+                if (state.pending != null) {
+                    state.pending = null;
+                    coalesced.increment();
+                }
+                state.lastEmitAt = now;
+                forwarded.increment();
+                downstream.accept(route, payload);
+                return;
+            }
+
+            if (state.pending == null) {
+                state.dueAt = state.lastEmitAt + windowMs;
+                // Đã nằm trong hàng đợi thì giữ khóa cũ (không muộn hơn dueAt), flushDue xếp lại sau
+                if (!state.queued) {
+                    state.queued = true;
+                    state.queuedAt = state.dueAt;
+                    due.add(state);
+                }
+            } else {
+                coalesced.increment();
+            }
+            state.pending = payload;
+            state.pendingOpenTime = openTime;
+        }
+
+        /**
+         * Publish các bản đang chờ đã hết cửa sổ; gọi trước mỗi frame của shard và từ supervisor
+         */
+        synchronized void flushDue(long now) {
+            StreamState state;
+            while ((state = due.peek()) != null && state.queuedAt <= now) {
+                due.poll();
+                if (state.pending == null) {
+                    state.queued = false;
+                } else if (state.dueAt <= now) {
+                    state.queued = false;
+                    emitPending(state, now);
+                } else {
+                    // Cửa sổ đã bắt đầu lại sau khi vào hàng đợi
+                    state.queuedAt = state.dueAt;
+                    due.add(state);
+                }
+            }
+        }
+
+        private void emitPending(StreamState state, long now) {
+            String payload = state.pending;
+            state.pending = null;
+            state.lastEmitAt = now;
+            forwarded.increment();
+            downstream.accept(state.route, payload);
+        }
+    }
+
+    private static final class StreamState {
+        final StreamRoute route;
+        String pending;
+        long pendingOpenTime;
+        long openTime = Long.MIN_VALUE; // openTime của cập nhật gần nhất
+        long lastEmitAt = Long.MIN_VALUE / 2;
+        long dueAt;
+        long queuedAt; // Khóa trong hàng đợi due, chỉ đổi khi không nằm trong hàng đợi
+        boolean queued; // Đang nằm trong hàng đợi due
+
+        StreamState(StreamRoute route) {
+            this.route = route;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.crypto.market_service.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.JsonFields;
+import com.crypto.market_service.util.ScaledDecimal;
+
+/**
+ * Định dạng nhị phân cố định của message kline nội bộ trên Redis (68 bytes, big-endian):
+ * <pre>
+ *  0  magic (0xB1)        1  flags (bit 0: nến đã đóng)   2  KlineInterval.code   3  scale của v (0..8)
+ *  4  int  symbolId (TradingSymbol.id)
+ *  8  long E  (epoch millis)   16 long t (openTime)
+ * 24  long o  32 long h  40 long l  48 long c   (nhân 10^8)   56 long v (nhân 10^scale)
+ * 64  int  n  (số trade)
+ * </pre>
+ * Byte 2 là mã cố định của interval chứ không phải thứ tự trong enum, nên thêm interval mới không
+ * làm replica đang chạy bản cũ đọc sai message.
+ * closeTime không được gửi vì luôn bằng openTime + độ dài interval - 1. Các field Binance không dùng
+ * (q, V, Q, B, f, L) bị bỏ. Byte đầu 0xB1 không bao giờ mở đầu một chuỗi UTF-8 hợp lệ, nên message
+ * JSON và nhị phân phân biệt được bằng byte đầu tiên.
+ */
+final class KlineCodec {
+
+    static final byte MAGIC = (byte) 0xB1;
+    static final int SIZE = 68;
+
+    private static final int FLAG_CLOSED = 1;
+
+    private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final String DATA = "\"data\":";
+    private static final String EVENT_TIME = "\"E\":";
+    private static final String KLINE = "\"k\":";
+    private static final String OPEN_TIME = "\"t\":";
+    private static final String OPEN = "\"o\":";
+    private static final String CLOSE = "\"c\":";
+    private static final String HIGH = "\"h\":";
+    private static final String LOW = "\"l\":";
+    private static final String VOLUME = "\"v\":";
+    private static final String TRADES = "\"n\":";
+    private static final String FINAL = "\"x\":";
+
+    private KlineCodec() {
+    }
+
+    static boolean isBinary(byte[] message) {
+        return message.length > 0 && message[0] == MAGIC;
+    }
+
+    /**
+     * symbolId của message nhị phân mà không giải mã phần còn lại, -1 nếu message quá ngắn
+     */
+    static int symbolIdOf(byte[] message) {
+        return message.length < SIZE ? -1 : (int) INT.get(message, 4);
+    }
+
+    /**
+     * Đọc kline từ payload JSON của Binance bằng cách quét ký tự (không tạo cây JSON)
+     *
+     * @return false nếu interval không hỗ trợ, payload không phải kline, thiếu field hoặc bị cắt, hoặc giá
+     *         không biểu diễn được bằng ScaledDecimal (message đó vẫn được gửi dạng JSON)
+     */
+    static boolean parseJson(String payload, StreamRoute route, KlineFrame into) {
+        KlineInterval interval = KlineInterval.fromLabel(route.getInterval());
+        int data = payload.indexOf(DATA);
+        int k = data < 0 ? -1 : payload.indexOf(KLINE, data);
+        if (interval == null || k < 0) {
+            return false;
+        }
+        int eventTime = JsonFields.valueStart(payload, EVENT_TIME, data);
+        int openTime = JsonFields.valueStart(payload, OPEN_TIME, k);
+        int open = JsonFields.valueStart(payload, OPEN, k);
+        int close = JsonFields.valueStart(payload, CLOSE, k);
+        int high = JsonFields.valueStart(payload, HIGH, k);
+        int low = JsonFields.valueStart(payload, LOW, k);
+        int volume = JsonFields.valueStart(payload, VOLUME, k);
+        int trades = JsonFields.valueStart(payload, TRADES, k);
+        int closed = JsonFields.valueStart(payload, FINAL, k);
+        if ((eventTime | openTime | open | close | high | low | volume | trades | closed) < 0) {
+            return false;
+        }
+        into.symbolId = -1;
+        into.symbol = route.getUpperSymbol();
+        into.streamSymbol = route.getSymbol();
+        into.topic = route.getTopic();
+        into.interval = interval;
+        try {
+            into.eventTime = JsonFields.parseLong(payload, eventTime);
+            into.openTime = JsonFields.parseLong(payload, openTime);
+            into.open = ScaledDecimal.parse(payload, open);
+            into.close = ScaledDecimal.parse(payload, close);
+            into.high = ScaledDecimal.parse(payload, high);
+            into.low = ScaledDecimal.parse(payload, low);
+            into.volumeScale = ScaledDecimal.fittingScale(payload, volume);
+            into.volume = ScaledDecimal.parse(payload, volume, into.volumeScale);
+            into.trades = (int) JsonFields.parseLong(payload, trades);
+            into.closed = JsonFields.parseBoolean(payload, closed);
+        } catch (ArithmeticException | IndexOutOfBoundsException e) {
+            // Giá trị quá lớn, hoặc payload bị cắt ngay sau tên field
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param frame phải có symbolId hợp lệ
+     */
+    static byte[] encode(KlineFrame frame) {
+        byte[] out = new byte[SIZE];
+        out[0] = MAGIC;
+        out[1] = (byte) (frame.closed ? FLAG_CLOSED : 0);
+        out[2] = (byte) frame.interval.getCode();
+        out[3] = (byte) frame.volumeScale;
+        INT.set(out, 4, frame.symbolId);
+        LONG.set(out, 8, frame.eventTime);
+        LONG.set(out, 16, frame.openTime);
+        LONG.set(out, 24, frame.open);
+        LONG.set(out, 32, frame.high);
+        LONG.set(out, 40, frame.low);
+        LONG.set(out, 48, frame.close);
+        LONG.set(out, 56, frame.volume);
+        INT.set(out, 64, frame.trades);
+        return out;
+    }
+
+    /**
+     * Giải mã vào {@code into}; symbol/topic do người gọi điền từ symbolId
+     *
+     * @return false nếu không phải message nhị phân hợp lệ
+     */
+    static boolean decode(byte[] message, KlineFrame into) {
+        if (message.length < SIZE || message[0] != MAGIC) {
+            return false;
+        }
+        KlineInterval interval = KlineInterval.fromCode(message[2]);
+        int volumeScale = message[3];
+        if (interval == null || volumeScale < 0 || volumeScale > ScaledDecimal.SCALE) {
+            return false;
+        }
+        into.closed = (message[1] & FLAG_CLOSED) != 0;
+        into.interval = interval;
+        into.volumeScale = volumeScale;
+        into.symbolId = (int) INT.get(message, 4);
+        into.eventTime = (long) LONG.get(message, 8);
+        into.openTime = (long) LONG.get(message, 16);
+        into.open = (long) LONG.get(message, 24);
+        into.high = (long) LONG.get(message, 32);
+        into.low = (long) LONG.get(message, 40);
+        into.close = (long) LONG.get(message, 48);
+        into.volume = (long) LONG.get(message, 56);
+        into.trades = (int) INT.get(message, 64);
+        return true;
+    }
+
+    /**
+     * Ghi lại dạng kline của Binance cho client STOMP (chỉ các field có trong định dạng nhị phân)
+     */
+    static String toJson(KlineFrame frame, StringBuilder sb) {
+        sb.setLength(0);
+        sb.append("{\"stream\":\"").append(frame.streamSymbol).append("@kline_").append(frame.interval.getLabel())
+          .append("\",\"data\":{\"e\":\"kline\",\"E\":").append(frame.eventTime)
+          .append(",\"s\":\"").append(frame.symbol)
+          .append("\",\"k\":{\"t\":").append(frame.openTime)
+          .append(",\"T\":").append(frame.closeTime())
+          .append(",\"s\":\"").append(frame.symbol)
+          .append("\",\"i\":\"").append(frame.interval.getLabel())
+          .append("\",\"o\":\"");
+        ScaledDecimal.appendTo(sb, frame.open).append("\",\"c\":\"");
+        ScaledDecimal.appendTo(sb, frame.close).append("\",\"h\":\"");
+        ScaledDecimal.appendTo(sb, frame.high).append("\",\"l\":\"");
+        ScaledDecimal.appendTo(sb, frame.low).append("\",\"v\":\"");
+        ScaledDecimal.appendTo(sb, frame.volume, frame.volumeScale).append("\",\"n\":").append(frame.trades)
+          .append(",\"x\":").append(frame.closed)
+          .append("}}}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,69 @@
+package com.crypto.market_service.service;
+
+import java.math.BigDecimal;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.ScaledDecimal;
+
+/**
+ * Một cập nhật kline đã giải mã, giá là long nhân 10^8 (ScaledDecimal). Khối lượng là long nhân
+ * 10^volumeScale: thường là 8, nhỏ hơn khi khối lượng quá lớn cho 10^8 (PEPE, SHIB ở nến 1h trở lên).
+ * Object được dùng lại giữa các message của cùng một thread.
+ */
+final class KlineFrame {
+
+    int symbolId = -1;   // TradingSymbol.id, -1 nếu không rõ
+    String symbol;       // BTCUSDT
+    String streamSymbol; // btcusdt
+    String topic;        // /topic/market/btcusdt
+    KlineInterval interval;
+    boolean closed;
+    long eventTime;
+    long openTime;
+    long open;
+    long high;
+    long low;
+    long close;
+    long volume;
+    int volumeScale = ScaledDecimal.SCALE;
+    int trades;
+
+    void copyFrom(KlineFrame other) {
+        symbolId = other.symbolId;
+        symbol = other.symbol;
+        streamSymbol = other.streamSymbol;
+        topic = other.topic;
+        interval = other.interval;
+        closed = other.closed;
+        eventTime = other.eventTime;
+        openTime = other.openTime;
+        open = other.open;
+        high = other.high;
+        low = other.low;
+        close = other.close;
+        volume = other.volume;
+        volumeScale = other.volumeScale;
+        trades = other.trades;
+    }
+
+    long closeTime() {
+        return openTime + interval.getMillis() - 1;
+    }
+
+    int compareVolume(KlineFrame other) {
+        return ScaledDecimal.compare(volume, volumeScale, other.volume, other.volumeScale);
+    }
+
+    BigDecimal volumeDecimal() {
+        return ScaledDecimal.toBigDecimal(volume, volumeScale);
+    }
+
+    /**
+     * @throws ArithmeticException nếu khối lượng không biểu diễn được chính xác
+     */
+    void setVolume(BigDecimal value) {
+        int scale = ScaledDecimal.fittingScale(value);
+        volume = ScaledDecimal.fromBigDecimal(value, scale);
+        volumeScale = scale;
+    }
+}
@@ -0,0 +1,528 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.event.IngestionLeadershipChangedEvent;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ghi kline vào database tách khỏi luồng đẩy real-time, theo batch.
+ *
+ * Nến đã đóng được ghi ngay ở lần xả kế tiếp. Nến đang mở chỉ cập nhật {@link OpenKlineCache}
+ * và được ghi theo checkpoint mỗi {@code open-checkpoint-ms} và khi tắt ứng dụng, thay vì
+ * UPDATE cùng một dòng cho mọi cập nhật (nến 1d nhận hàng nghìn cập nhật mỗi ngày).
+ *
+ * {@link #submit} chỉ chép frame vào hàng chờ theo (symbol, interval, openTime) rồi trả về ngay:
+ * cập nhật mới của cùng một nến thay bản đang chờ, nên hàng chờ chỉ lớn theo số nến chứ không theo
+ * số message. Thread "kline-persister" xả hàng chờ khi đủ {@code batch-size} nến hoặc mỗi
+ * {@code flush-interval-ms}, bằng một câu INSERT ... ON CONFLICT DO UPDATE nhiều dòng cho mỗi
+ * {@code batch-size} nến (thay cho SELECT + save của JPA cho từng message).
+ *
+ * {@code app.persistence.storage} chọn bảng đích: standard (klines), compact (klines_compact: id symbol,
+ * mã interval, epoch millis, giá nhân 10^8 và khối lượng kèm scale, ghi thẳng từ các long của {@link KlineFrame}) hoặc dual (cả hai,
+ * để chuyển dữ liệu dần sang bảng gọn).
+ *
+ * DB chậm hoặc lỗi thì phần chưa ghi được đưa lại hàng chờ và thử lại sau {@code retry-backoff-ms}.
+ * Mất kết nối/timeout được thử lại mãi; batch bị DB từ chối vì dữ liệu (VD: giá trị vượt kiểu cột)
+ * quá {@code max-retries} lần thì được chia đôi dần để ghi phần tốt, dòng lỗi bị bỏ và đếm vào
+ * market.persist.rejected, nên một dòng hỏng không chặn việc ghi DB mãi mãi. Hàng chờ đầy ({@code max-pending} nến) thì nến mới bị bỏ và đếm vào market.persist.dropped,
+ * không bao giờ chặn thread gửi WebSocket.
+ *
+ * Khi ghi từ Pub/Sub chỉ leader ghi DB: mất quyền leader thì hàng chờ và dấu bẩn của nến đang mở bị bỏ
+ * (đếm vào market.persist.dropped), và mỗi lần xả đều kiểm tra lại quyền leader ngay trước khi ghi.
+ * Nến đóng bị bỏ được leader mới lấp lại khi kết nối (backfill); một lần ghi đã bắt đầu trước khi mất
+ * quyền vẫn có thể đến DB sau đó, nhưng điều kiện khối lượng của upsert không cho nó ghi đè bản mới hơn.
+ */
+@Component
+@Slf4j
+public class KlinePersister {
+
+    // Postgres giới hạn 65535 tham số mỗi câu lệnh
+    private static final int COLUMNS = 9;
+    private static final int MAX_BATCH = 65535 / COLUMNS;
+
+    private static final String UPSERT_HEAD = "INSERT INTO klines (symbol, \"interval\", open_time, close_time,"
+            + " open_price, high_price, low_price, close_price, volume) VALUES ";
+    private static final String ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Khối lượng của một nến chỉ tăng dần: bản nhỏ hơn bản đã lưu là cập nhật cũ đến muộn
+    // (VD: redelivery từ consumer group), không được ghi đè
+    private static final String UPSERT_TAIL = " ON CONFLICT (symbol, \"interval\", open_time) DO UPDATE SET"
+            + " close_time = EXCLUDED.close_time, open_price = EXCLUDED.open_price,"
+            + " high_price = EXCLUDED.high_price, low_price = EXCLUDED.low_price,"
+            + " close_price = EXCLUDED.close_price, volume = EXCLUDED.volume"
+            + " WHERE klines.volume IS NULL OR klines.volume <= EXCLUDED.volume";
+
+    private static final String COMPACT_HEAD = "INSERT INTO klines_compact (symbol_id, interval_code, open_time,"
+            + " open_price, high_price, low_price, close_price, volume, volume_scale) VALUES ";
+    private static final String COMPACT_ROW = "(?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    // Hai dòng có thể khác volume_scale: so sánh khối lượng sau khi đưa về cùng đơn vị
+    private static final String COMPACT_TAIL = " ON CONFLICT (symbol_id, interval_code, open_time) DO UPDATE SET"
+            + " open_price = EXCLUDED.open_price, high_price = EXCLUDED.high_price,"
+            + " low_price = EXCLUDED.low_price, close_price = EXCLUDED.close_price, volume = EXCLUDED.volume,"
+            + " volume_scale = EXCLUDED.volume_scale"
+            + " WHERE klines_compact.volume * power(10::numeric, -klines_compact.volume_scale)"
+            + " <= EXCLUDED.volume * power(10::numeric, -EXCLUDED.volume_scale)";
+
+    private record CandleKey(String symbol, KlineInterval interval, long openTime) {
+    }
+
+    // standard | compact | dual
+    @Value("${app.persistence.storage:standard}")
+    private String storage;
+
+    @Value("${app.persistence.batch-size:500}")
+    private int batchSize;
+
+    @Value("${app.persistence.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    @Value("${app.persistence.max-pending:100000}")
+    private int maxPending;
+
+    @Value("${app.persistence.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${app.persistence.max-retries:3}")
+    private int maxRetries;
+
+    // 0 = ghi mọi cập nhật của nến đang mở như trước
+    @Value("${app.persistence.open-checkpoint-ms:60000}")
+    private long openCheckpointMs;
+
+    // Nến 1s/5s từ aggTrade chỉ để xem real-time, mặc định không ghi DB
+    @Value("${app.binance.trades.persist-bars:false}")
+    private boolean persistSubMinute;
+
+    @Autowired
+    private OpenKlineCache openKlines;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SymbolIdRegistry symbolIds;
+
+    @Autowired
+    private KlineBackfillService backfillService;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
+
+    // pubsub: hàng chờ chỉ nhận nến khi replica là leader | stream: nến đến từ consumer group, không phụ thuộc leader
+    @Value("${app.redis.persistence-transport:pubsub}")
+    private String persistenceTransport;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    // Giữ thứ tự thêm vào để nến cũ được ghi trước; chỉ truy cập khi giữ lock
+    private final Object lock = new Object();
+    private LinkedHashMap<CandleKey, KlineFrame> pending = new LinkedHashMap<>();
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private int rejectedFlushes; // chỉ dùng trên thread kline-persister
+    private volatile long lastDropWarnAt;
+
+    private boolean leaderOnly;
+    private boolean writesStandard;
+    private boolean writesCompact;
+    private String fullBatchSql;
+    private String fullCompactBatchSql;
+    private volatile long lastUnknownWarnAt;
+    private Thread thread;
+    private volatile boolean running;
+
+    @PostConstruct
+    void init() {
+        batchSize = Math.max(1, Math.min(batchSize, MAX_BATCH));
+        String mode = storage.trim().toLowerCase();
+        writesStandard = !"compact".equals(mode);
+        writesCompact = "compact".equals(mode) || "dual".equals(mode);
+        leaderOnly = !"stream".equalsIgnoreCase(persistenceTransport.trim());
+        fullBatchSql = upsertSql(UPSERT_HEAD, ROW, UPSERT_TAIL, batchSize);
+        fullCompactBatchSql = upsertSql(COMPACT_HEAD, COMPACT_ROW, COMPACT_TAIL, batchSize);
+        metrics.registerPersistQueue(this::pendingCount, dropped::sum, failed::sum, rejected::sum);
+        running = true;
+        thread = new Thread(this::run, "kline-persister");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("💾 Persisting klines ({}) in batches of up to {} rows every {} ms, open candles every {} ms",
+                 mode, batchSize, flushIntervalMs, openCheckpointMs);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(thread);
+        thread.join(10000);
+    }
+
+    /**
+     * Nhận một cập nhật kline trên mọi replica: cập nhật bộ nhớ, và nếu replica này ghi DB thì
+     * đưa nến đóng vào hàng chờ ngay còn nến đang mở để checkpoint
+     */
+    void record(KlineFrame frame, boolean persist) {
+        persist = persist && persists(frame.interval);
+        boolean deferOpen = persist && openCheckpointMs > 0;
+        KlineFrame displaced = openKlines.update(frame, deferOpen);
+        if (displaced != null) {
+            submit(displaced);
+        }
+        if (persist && (frame.closed || !deferOpen)) {
+            submit(frame);
+        }
+    }
+
+    /**
+     * Redis Streams: nến đang mở được để checkpoint thay vì ghi cùng batch
+     *
+     * @return true nếu frame đã được giữ lại để checkpoint
+     */
+    boolean deferIfOpen(KlineFrame frame) {
+        if (frame.closed || openCheckpointMs <= 0) {
+            return false;
+        }
+        record(frame, true);
+        return true;
+    }
+
+    /**
+     * Đưa một cập nhật vào hàng chờ ghi; không chặn, frame được chép nên caller dùng lại được ngay
+     */
+    void submit(KlineFrame frame) {
+        CandleKey key = new CandleKey(frame.symbol, frame.interval, frame.openTime);
+        boolean full;
+        synchronized (lock) {
+            KlineFrame queued = pending.get(key);
+            if (queued != null) {
+                if (frame.compareVolume(queued) >= 0) {
+                    queued.copyFrom(frame);
+                }
+                return;
+            }
+            if (pending.size() >= maxPending) {
+                full = true;
+            } else {
+                KlineFrame copy = new KlineFrame();
+                copy.copyFrom(frame);
+                pending.put(key, copy);
+                full = false;
+                if (pending.size() == batchSize) {
+                    // Đủ một batch: xả ngay, không chờ hết khoảng flush
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+        if (full) {
+            dropped.increment();
+            long now = System.currentTimeMillis();
+            if (now - lastDropWarnAt >= 10000) {
+                lastDropWarnAt = now;
+                log.warn("⚠️ Kline persistence queue full ({} candles), dropping updates", maxPending);
+            }
+        }
+    }
+
+    /**
+     * Ghi ngay trên thread gọi (Redis Streams: chỉ ACK sau khi ghi xong).
+     * Các frame cùng một nến được gộp, giữ bản có khối lượng lớn nhất. Batch bị DB từ chối được chia đôi
+     * ngay (consumer group đã giới hạn số lần giao lại), chỉ dòng lỗi bị bỏ.
+     *
+     * @throws RuntimeException nếu DB không dùng được (mất kết nối, timeout)
+     */
+    void write(List<KlineFrame> frames) {
+        LinkedHashMap<CandleKey, KlineFrame> unique = new LinkedHashMap<>(frames.size() * 2);
+        for (KlineFrame frame : frames) {
+            if (!persists(frame.interval)) {
+                continue;
+            }
+            unique.merge(new CandleKey(frame.symbol, frame.interval, frame.openTime), frame,
+                    (older, newer) -> newer.compareVolume(older) >= 0 ? newer : older);
+        }
+        List<KlineFrame> rows = new ArrayList<>(unique.values());
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<KlineFrame> batch = rows.subList(from, Math.min(rows.size(), from + batchSize));
+            try {
+                upsert(batch);
+            } catch (RuntimeException e) {
+                if (isTransient(e)) {
+                    throw e;
+                }
+                log.error("❌ Batch of {} kline updates rejected, isolating bad rows: {}", batch.size(), e.getMessage());
+                isolate(batch);
+            }
+        }
+    }
+
+    /**
+     * Leader cũ không được ghi nốt các nến đã nhận trước khi mất quyền
+     */
+    @EventListener
+    public void onLeadershipChanged(IngestionLeadershipChangedEvent event) {
+        if (!event.isLeader() && leaderOnly) {
+            discardPending(true, "lost ingestion leadership");
+        }
+    }
+
+    /**
+     * @param clearDirty bỏ cả dấu bẩn của nến đang mở (duyệt toàn bộ cache, chỉ làm khi vừa mất quyền)
+     */
+    private void discardPending(boolean clearDirty, String reason) {
+        int discarded;
+        synchronized (lock) {
+            discarded = pending.size();
+            pending = new LinkedHashMap<>();
+        }
+        if (clearDirty) {
+            discarded += openKlines.clearDirty();
+        }
+        if (discarded > 0) {
+            dropped.add(discarded);
+            log.warn("⚠️ Discarded {} unwritten kline updates: {}", discarded, reason);
+        }
+    }
+
+    boolean persists(KlineInterval interval) {
+        return persistSubMinute || !interval.isSubMinute();
+    }
+
+    private int pendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    private void run() {
+        long nextCheckpointAt = System.currentTimeMillis() + openCheckpointMs;
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(flushIntervalMs));
+            long now = System.currentTimeMillis();
+            if (openCheckpointMs > 0 && now >= nextCheckpointAt) {
+                openKlines.drainDirty(this::submit);
+                nextCheckpointAt = now + openCheckpointMs;
+            }
+            if (!flush() && running) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(retryBackoffMs));
+            }
+        }
+        // Checkpoint cuối cùng của các nến đang mở
+        openKlines.drainDirty(this::submit);
+        if (!flush()) {
+            log.error("❌ {} kline updates not persisted on shutdown", pendingCount());
+        }
+    }
+
+    /**
+     * @return false nếu DB lỗi, phần chưa ghi đã được đưa lại hàng chờ
+     */
+    private boolean flush() {
+        if (leaderOnly && !leaderElection.isLeader()) {
+            // Nến đang mở bị đánh dấu bẩn sau sự kiện mất quyền sẽ đến đây qua checkpoint
+            discardPending(false, "not the ingestion leader");
+            return true;
+        }
+        List<KlineFrame> rows;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return true;
+            }
+            rows = new ArrayList<>(pending.values());
+            pending = new LinkedHashMap<>();
+        }
+
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            List<KlineFrame> batch = rows.subList(from, Math.min(rows.size(), from + batchSize));
+            try {
+                upsert(batch);
+            } catch (RuntimeException e) {
+                failed.increment();
+                if (isTransient(e) || ++rejectedFlushes < maxRetries) {
+                    log.error("❌ Save DB Error, retrying {} kline updates: {}", rows.size() - from, e.getMessage());
+                    requeue(rows.subList(from, rows.size()));
+                    return false;
+                }
+                log.error("❌ Batch of {} kline updates rejected {} times, isolating bad rows: {}",
+                          batch.size(), rejectedFlushes, e.getMessage());
+                try {
+                    isolate(batch);
+                } catch (RuntimeException unavailable) {
+                    requeue(rows.subList(from, rows.size()));
+                    return false;
+                }
+            }
+            rejectedFlushes = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Chia đôi batch bị từ chối cho tới khi còn từng dòng lỗi: phần tốt được ghi, dòng lỗi bị bỏ.
+     * Mỗi tầng chia đôi ghi lại hai nửa, nên một dòng hỏng cần tối đa 2·⌈log2(batch)⌉ câu lệnh.
+     *
+     * @throws RuntimeException nếu DB không dùng được giữa chừng (phần đã ghi ghi lại cũng không sao)
+     */
+    private void isolate(List<KlineFrame> batch) {
+        if (batch.size() == 1) {
+            KlineFrame frame = batch.get(0);
+            rejected.increment();
+            log.error("❌ Dropping kline {} {} @ {} rejected by the database", frame.symbol,
+                      frame.interval.getLabel(), frame.openTime);
+            return;
+        }
+        int middle = batch.size() / 2;
+        writeOrIsolate(batch.subList(0, middle));
+        writeOrIsolate(batch.subList(middle, batch.size()));
+    }
+
+    private void writeOrIsolate(List<KlineFrame> part) {
+        try {
+            upsert(part);
+        } catch (RuntimeException e) {
+            if (isTransient(e)) {
+                throw e;
+            }
+            isolate(part);
+        }
+    }
+
+    /**
+     * DB không dùng được (mất kết nối, timeout, deadlock): thử lại nguyên batch, không tách dòng
+     */
+    private static boolean isTransient(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    /**
+     * Một câu lệnh cho cả batch trên mỗi bảng đích; các dòng phải khác (symbol, interval, openTime) đôi một
+     */
+    private void upsert(List<KlineFrame> batch) {
+        long start = System.nanoTime();
+        if (writesStandard) {
+            upsertStandard(batch);
+        }
+        if (writesCompact) {
+            upsertCompact(batch);
+        }
+        metrics.recordPersist(batch.size(), System.nanoTime() - start);
+
+        for (KlineFrame frame : batch) {
+            backfillService.recordPersisted(frame.symbol, frame.interval.getLabel(), frame.openTime);
+        }
+    }
+
+    private void upsertStandard(List<KlineFrame> batch) {
+        Object[] args = new Object[batch.size() * COLUMNS];
+        int i = 0;
+        for (KlineFrame frame : batch) {
+            args[i++] = frame.symbol;
+            args[i++] = frame.interval.getLabel();
+            // Bind LocalDateTime trực tiếp: Timestamp.valueOf đi qua múi giờ của JVM
+            args[i++] = Kline.convertTime(frame.openTime);
+            args[i++] = Kline.convertTime(frame.closeTime());
+            args[i++] = ScaledDecimal.toBigDecimal(frame.open);
+            args[i++] = ScaledDecimal.toBigDecimal(frame.high);
+            args[i++] = ScaledDecimal.toBigDecimal(frame.low);
+            args[i++] = ScaledDecimal.toBigDecimal(frame.close);
+            args[i++] = frame.volumeDecimal();
+        }
+        String sql = batch.size() == batchSize ? fullBatchSql : upsertSql(UPSERT_HEAD, ROW, UPSERT_TAIL, batch.size());
+        jdbcTemplate.update(sql, args);
+    }
+
+    /**
+     * Bind thẳng các long của frame, không tạo BigDecimal/Timestamp cho từng dòng
+     */
+    private void upsertCompact(List<KlineFrame> batch) {
+        int[] ids = new int[batch.size()];
+        int rows = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            KlineFrame frame = batch.get(i);
+            ids[i] = frame.symbolId >= 0 ? frame.symbolId : symbolIds.resolveId(frame.symbol);
+            if (ids[i] >= 0 && ids[i] <= Short.MAX_VALUE) {
+                rows++;
+            } else {
+                warnUnknownSymbol(frame.symbol);
+            }
+        }
+        if (rows == 0) {
+            return;
+        }
+        String sql = rows == batchSize ? fullCompactBatchSql : upsertSql(COMPACT_HEAD, COMPACT_ROW, COMPACT_TAIL, rows);
+        jdbcTemplate.update(sql, ps -> {
+            int p = 1;
+            for (int i = 0; i < batch.size(); i++) {
+                if (ids[i] < 0 || ids[i] > Short.MAX_VALUE) {
+                    continue;
+                }
+                KlineFrame frame = batch.get(i);
+                ps.setShort(p++, (short) ids[i]);
+                ps.setShort(p++, (short) frame.interval.getCode());
+                ps.setLong(p++, frame.openTime);
+                ps.setLong(p++, frame.open);
+                ps.setLong(p++, frame.high);
+                ps.setLong(p++, frame.low);
+                ps.setLong(p++, frame.close);
+                ps.setLong(p++, frame.volume);
+                ps.setShort(p++, (short) frame.volumeScale);
+            }
+        });
+    }
+
+    private void warnUnknownSymbol(String symbol) {
+        long now = System.currentTimeMillis();
+        if (now - lastUnknownWarnAt >= 10000) {
+            lastUnknownWarnAt = now;
+            log.warn("⚠️ No smallint symbol id for {}, not written to klines_compact", symbol);
+        }
+    }
+
+    private static String upsertSql(String head, String row, String tail, int rows) {
+        StringBuilder sql = new StringBuilder(head.length() + rows * (row.length() + 2) + tail.length());
+        sql.append(head);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(row);
+        }
+        return sql.append(tail).toString();
+    }
+
+    /**
+     * Đưa lại phần chưa ghi; bản mới hơn đã vào hàng chờ trong lúc ghi thì giữ bản mới
+     */
+    private void requeue(List<KlineFrame> rows) {
+        synchronized (lock) {
+            LinkedHashMap<CandleKey, KlineFrame> merged = new LinkedHashMap<>();
+            for (KlineFrame frame : rows) {
+                merged.put(new CandleKey(frame.symbol, frame.interval, frame.openTime), frame);
+            }
+            pending.forEach((key, frame) -> merged.merge(key, frame,
+                    (older, newer) -> newer.compareVolume(older) >= 0 ? newer : older));
+            pending = merged;
+        }
+    }
+}
@@ -0,0 +1,623 @@
+package com.crypto.market_service.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineRepository;
+import com.crypto.market_service.util.JsonFields;
+import com.crypto.market_service.util.ScaledDecimal;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Dựng nến khung lớn (5m, 15m, 1h, 4h, 1d, ...) từ stream 1m ngay trong process.
+ *
+ * Chế độ (app.binance.kline-source):
+ * - native: subscribe mọi interval từ Binance, engine không làm gì (mặc định)
+ * - rollup: chỉ subscribe 1m, các interval còn lại do engine tạo với cùng định dạng payload
+ * - shadow: subscribe mọi interval như native, engine tính song song và so sánh
+ *   nến đã đóng với nến của Binance để kiểm chứng trước khi chuyển sang rollup
+ *
+ * Chạy trên thread nhận của shard: payload được đọc bằng cách quét ký tự như {@link KlineCodec} vào một
+ * {@link MinuteBar} dùng lại theo thread, các tổng cộng dồn là long nhân 10^scale, payload đầu ra được ghi thẳng
+ * vào StringBuilder, nên mỗi cập nhật 1m không cấp phát theo số interval đích. Việc dựng lại phần đầu nến
+ * (từ REST API của Binance, hoặc từ DB nếu backfill bị tắt) chạy trên thread riêng; trong lúc đó nến khung lớn
+ * không được đẩy ra, trừ bản đóng nến (chờ tối đa app.binance.rollup-seed-wait-ms).
+ */
+@Component
+@Slf4j
+public class KlineRollupEngine {
+
+    public enum Mode { NATIVE, ROLLUP, SHADOW }
+
+    private static final String BASE_INTERVAL = "1m";
+
+    private static final String DATA = "\"data\":";
+    private static final String EVENT_TIME = "\"E\":";
+    private static final String KLINE = "\"k\":";
+
+    @Value("${app.binance.kline-source:native}")
+    private String source;
+
+    @Value("${app.binance.intervals}")
+    private List<String> intervals;
+
+    // Thời gian tối đa chờ dựng phần đầu nến khi nến đóng trước khi dựng xong
+    @Value("${app.binance.rollup-seed-wait-ms:5000}")
+    private long seedWaitMillis;
+
+    @Autowired
+    private KlineRepository klineRepository;
+
+    @Autowired
+    private KlineBackfillService backfillService;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    private Mode mode;
+    private final List<KlineInterval> targets = new ArrayList<>();
+
+    // Trạng thái nến đang dựng theo symbol (BTCUSDT), phần tử thứ i ứng với targets[i]
+    private final Map<String, RollupState[]> states = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(512));
+    private final ThreadLocal<MinuteBar> bars = ThreadLocal.withInitial(MinuteBar::new);
+
+    private final ExecutorService seeder = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "kline-rollup-seed");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PostConstruct
+    void init() {
+        mode = Mode.valueOf(source.trim().toUpperCase());
+        for (String label : intervals) {
+            if (BASE_INTERVAL.equals(label)) {
+                continue;
+            }
+            KlineInterval interval = KlineInterval.fromLabel(label);
+            if (interval == null) {
+                log.warn("⚠️ Interval {} cannot be rolled up from 1m, ignored", label);
+                continue;
+            }
+            targets.add(interval);
+        }
+        if (mode != Mode.NATIVE) {
+            log.info("🧮 Kline rollup engine running in {} mode for {}", mode, targets);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        seeder.shutdownNow();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Các interval cần subscribe từ Binance theo chế độ hiện tại
+     */
+    public List<String> subscribedIntervals() {
+        return mode == Mode.ROLLUP ? List.of(BASE_INTERVAL) : intervals;
+    }
+
+    /**
+     * Các interval cần được lấp khi có khoảng trống (gồm cả interval do engine tạo)
+     */
+    public List<String> persistedIntervals() {
+        return intervals;
+    }
+
+    /**
+     * Nhận một message kline từ Binance. Ở chế độ rollup, các nến khung lớn được đẩy ra qua
+     * {@code publisher} với route của stream tương ứng (VD: btcusdt@kline_5m).
+     */
+    public void onKline(StreamRoute route, String payload, BiConsumer<StreamRoute, String> publisher) {
+        if (mode == Mode.NATIVE) {
+            return;
+        }
+        try {
+            int data = payload.indexOf(DATA);
+            int k = data < 0 ? -1 : payload.indexOf(KLINE, data);
+            if (k < 0) {
+                return;
+            }
+            if (BASE_INTERVAL.equals(route.getInterval())) {
+                long eventTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, EVENT_TIME, data));
+                MinuteBar bar = bars.get();
+                bar.parse(payload, k);
+                rollUp(route, bar, eventTime, publisher);
+            } else if (mode == Mode.SHADOW) {
+                recordNative(route, payload, k);
+            }
+        } catch (Exception e) {
+            log.error("Rollup error for {}", route, e);
+        }
+    }
+
+    private void rollUp(StreamRoute route, MinuteBar bar, long eventTime, BiConsumer<StreamRoute, String> publisher) {
+        RollupState[] symbolStates = statesOf(route);
+        for (RollupState state : symbolStates) {
+            String derived;
+            Future<?> pending;
+            synchronized (state) {
+                if (state.apply(bar)) {
+                    // Bắt đầu giữa chừng (VD: vừa khởi động) -> dựng lại phần đầu nến từ các nến 1m trước đó
+                    long minuteOpen = bar.openTime;
+                    long bucket = state.bucketOpen;
+                    state.seedingBucket = bucket;
+                    state.seeding = seeder.submit(() -> seedFromHistory(route.getUpperSymbol(), state, bucket, minuteOpen));
+                }
+                boolean closed = state.closes(bar);
+                pending = state.seedingBucket == state.bucketOpen ? state.seeding : null;
+                if (pending != null && !closed) {
+                    // Chưa có phần đầu nến thì giá mở và khối lượng đều sai: giữ lại, bản cập nhật 1m sau sẽ đủ
+                    continue;
+                }
+                derived = pending == null ? finish(route, state, closed, eventTime) : null;
+            }
+            if (pending != null) {
+                // Nến đóng trước khi dựng xong phần đầu: chờ rồi mới đẩy bản cuối
+                awaitSeed(route.getUpperSymbol(), state, pending);
+                synchronized (state) {
+                    state.seedingBucket = -1;
+                    derived = finish(route, state, true, eventTime);
+                }
+            }
+            if (derived != null) {
+                publisher.accept(state.route, derived);
+            }
+        }
+    }
+
+    /**
+     * Payload của nến (null ở shadow mode: nến đã đóng được so sánh với nến của Binance). Gọi khi giữ lock của state.
+     */
+    private String finish(StreamRoute route, RollupState state, boolean closed, long eventTime) {
+        if (mode != Mode.SHADOW) {
+            return toPayload(route, state, closed, eventTime);
+        }
+        if (closed) {
+            state.rollupFinal = state.snapshot();
+            compare(route.getUpperSymbol(), state);
+        }
+        return null;
+    }
+
+    private void awaitSeed(String symbol, RollupState state, Future<?> pending) {
+        try {
+            pending.get(seedWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("⚠️ Seeding {} {} rollup took over {} ms, publishing the closed candle without history",
+                     symbol, state.interval.getLabel(), seedWaitMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            log.error("❌ Failed to seed {} {} rollup from history: {}", symbol, state.interval.getLabel(),
+                      e.getCause().getMessage());
+        }
+    }
+
+    private RollupState[] statesOf(StreamRoute route) {
+        RollupState[] symbolStates = states.get(route.getUpperSymbol());
+        if (symbolStates == null) {
+            symbolStates = states.computeIfAbsent(route.getUpperSymbol(), symbol -> {
+                RollupState[] created = new RollupState[targets.size()];
+                for (int i = 0; i < created.length; i++) {
+                    KlineInterval target = targets.get(i);
+                    created[i] = new RollupState(target,
+                            streamRouter.routeOf(route.getSymbol() + "@kline_" + target.getLabel()));
+                }
+                return created;
+            });
+        }
+        return symbolStates;
+    }
+
+    /**
+     * Shadow mode: ghi nhận nến đã đóng của Binance để so sánh với nến do engine tạo
+     */
+    private void recordNative(StreamRoute route, String payload, int k) {
+        if (!JsonFields.parseBoolean(payload, JsonFields.valueStart(payload, "\"x\":", k))) {
+            return;
+        }
+        int index = targets.indexOf(KlineInterval.fromLabel(route.getInterval()));
+        if (index < 0) {
+            return;
+        }
+        RollupState state = statesOf(route)[index];
+        MinuteBar bar = bars.get();
+        bar.parse(payload, k);
+        synchronized (state) {
+            state.nativeFinal = new Snapshot(bar.openTime, bar.open, bar.high, bar.low, bar.close,
+                    bar.sums.volume.toBigDecimal());
+            compare(route.getUpperSymbol(), state);
+        }
+    }
+
+    private void compare(String symbol, RollupState state) {
+        Snapshot rollup = state.rollupFinal;
+        Snapshot actual = state.nativeFinal;
+        if (rollup == null || actual == null) {
+            return;
+        }
+        if (rollup.openTime != actual.openTime) {
+            // Hai bên lệch nến -> bỏ bản cũ hơn, chờ bản còn lại đến
+            if (rollup.openTime < actual.openTime) {
+                state.rollupFinal = null;
+            } else {
+                state.nativeFinal = null;
+            }
+            return;
+        }
+
+        boolean match = rollup.matches(actual);
+        metrics.countRollupValidation(state.interval.getLabel(), match);
+        if (!match) {
+            log.warn("⚠️ Rollup mismatch {} {} @{}: rollup={} native={}",
+                     symbol, state.interval.getLabel(), actual.openTime, rollup, actual);
+        }
+        state.rollupFinal = null;
+        state.nativeFinal = null;
+    }
+
+    private String toPayload(StreamRoute route, RollupState state, boolean closed, long eventTime) {
+        KlineInterval interval = state.interval;
+        Sums total = state.total();
+
+        StringBuilder sb = buffers.get();
+        sb.setLength(0);
+        sb.append("{\"stream\":\"").append(state.route.getStream())
+          .append("\",\"data\":{\"e\":\"kline\",\"E\":").append(eventTime)
+          .append(",\"s\":\"").append(route.getUpperSymbol())
+          .append("\",\"k\":{\"t\":").append(state.bucketOpen)
+          .append(",\"T\":").append(state.bucketOpen + interval.getMillis() - 1)
+          .append(",\"s\":\"").append(route.getUpperSymbol())
+          .append("\",\"i\":\"").append(interval.getLabel())
+          .append("\",\"f\":").append(state.firstTradeId)
+          .append(",\"L\":").append(state.lastTradeId)
+          .append(",\"o\":\"");
+        ScaledDecimal.appendTo(sb, state.open).append("\",\"c\":\"");
+        ScaledDecimal.appendTo(sb, state.close).append("\",\"h\":\"");
+        ScaledDecimal.appendTo(sb, state.high).append("\",\"l\":\"");
+        ScaledDecimal.appendTo(sb, state.low).append("\",\"v\":\"");
+        total.volume.appendTo(sb).append("\",\"n\":").append(total.trades)
+          .append(",\"x\":").append(closed)
+          .append(",\"q\":\"");
+        total.quoteVolume.appendTo(sb).append("\",\"V\":\"");
+        total.takerBuyVolume.appendTo(sb).append("\",\"Q\":\"");
+        total.takerBuyQuoteVolume.appendTo(sb).append("\",\"B\":\"0\"}}}");
+        return sb.toString();
+    }
+
+    /**
+     * Gộp các nến 1m từ đầu nến khung lớn tới trước phút đầu tiên nhận được vào nến đang dựng.
+     * Nến 1m lấy từ REST API của Binance (đủ q, V, Q, n); DB chỉ lưu OHLCV nên chỉ được dùng khi backfill
+     * bị tắt (VD: sàn giả lập) hoặc REST lỗi, khi đó q, V, Q, n của nến đầu tiên sau khởi động bị thiếu.
+     */
+    private void seedFromHistory(String symbol, RollupState state, long bucket, long minuteOpen) {
+        Seed seed = null;
+        try {
+            if (backfillService.isEnabled()) {
+                try {
+                    seed = seedFromRest(symbol, bucket, minuteOpen);
+                } catch (Exception e) {
+                    log.warn("⚠️ Failed to read 1m klines of {} from REST, seeding {} rollup from stored OHLCV: {}",
+                             symbol, state.interval.getLabel(), e.getMessage());
+                }
+            }
+            if (seed == null) {
+                seed = seedFromDatabase(symbol, bucket, minuteOpen);
+            }
+        } catch (Exception e) {
+            log.error("❌ Failed to seed {} {} rollup from history: {}", symbol, state.interval.getLabel(), e.getMessage());
+        }
+        synchronized (state) {
+            if (state.seedingBucket != bucket) {
+                return; // Nến đã đóng và được đẩy đi trong lúc đọc lịch sử
+            }
+            state.seedingBucket = -1;
+            if (seed == null || seed.minutes == 0) {
+                return;
+            }
+            state.open = seed.open;
+            state.high = Math.max(state.high, seed.high);
+            state.low = Math.min(state.low, seed.low);
+            state.firstTradeId = seed.firstTradeId;
+            state.closedSums.add(seed.sums);
+        }
+        log.debug("Seeded {} {} rollup from {} 1m klines since {}",
+                  symbol, state.interval.getLabel(), seed.minutes, Kline.convertTime(bucket));
+    }
+
+    private Seed seedFromRest(String symbol, long bucket, long minuteOpen) {
+        Seed seed = new Seed();
+        long from = bucket;
+        while (from < minuteOpen) {
+            JsonNode rows = backfillService.fetchRows(symbol, BASE_INTERVAL, from, minuteOpen - 1);
+            if (rows == null || !rows.isArray() || rows.isEmpty()) {
+                break;
+            }
+            long lastOpen = from;
+            for (JsonNode row : rows) {
+                lastOpen = row.get(0).asLong();
+                if (lastOpen >= minuteOpen) {
+                    break;
+                }
+                seed.add(ScaledDecimal.parse(row.get(1).asText()), ScaledDecimal.parse(row.get(2).asText()),
+                         ScaledDecimal.parse(row.get(3).asText()));
+                seed.sums.volume.add(row.get(5).asText(), 0);
+                seed.sums.quoteVolume.add(row.get(7).asText(), 0);
+                seed.sums.trades += row.get(8).asLong();
+                seed.sums.takerBuyVolume.add(row.get(9).asText(), 0);
+                seed.sums.takerBuyQuoteVolume.add(row.get(10).asText(), 0);
+            }
+            if (rows.size() < KlineBackfillService.PAGE_LIMIT) {
+                break;
+            }
+            from = lastOpen + KlineInterval.M1.getMillis();
+        }
+        if (seed.minutes > 0) {
+            // Dòng kline của REST không có id giao dịch đầu tiên, aggTrades thì có
+            try {
+                seed.firstTradeId = backfillService.fetchFirstTradeId(symbol, bucket, minuteOpen - 1);
+            } catch (Exception e) {
+                log.warn("⚠️ Failed to read the first trade of {} since {} from REST: {}",
+                         symbol, Kline.convertTime(bucket), e.getMessage());
+            }
+        }
+        return seed;
+    }
+
+    private Seed seedFromDatabase(String symbol, long bucket, long minuteOpen) {
+        List<Kline> history = klineRepository.findBySymbolAndIntervalAndOpenTimeBetween(symbol, BASE_INTERVAL,
+                Kline.convertTime(bucket), Kline.convertTime(minuteOpen - 1));
+        history.sort((a, b) -> a.getOpenTime().compareTo(b.getOpenTime()));
+        Seed seed = new Seed();
+        for (Kline kline : history) {
+            seed.add(ScaledDecimal.fromBigDecimal(kline.getOpenPrice()), ScaledDecimal.fromBigDecimal(kline.getHighPrice()),
+                     ScaledDecimal.fromBigDecimal(kline.getLowPrice()));
+            BigDecimal volume = kline.getVolume();
+            int scale = ScaledDecimal.fittingScale(volume);
+            seed.sums.volume.add(ScaledDecimal.fromBigDecimal(volume, scale), scale);
+        }
+        return seed;
+    }
+
+    /**
+     * Phần đầu của nến khung lớn dựng từ các nến 1m trước khi engine bắt đầu nhận
+     */
+    private static final class Seed {
+        final Sums sums = new Sums();
+        long firstTradeId = -1; // Không biết: DB không lưu, aggTrades của REST lỗi hoặc trống
+        long open;
+        long high = Long.MIN_VALUE;
+        long low = Long.MAX_VALUE;
+        int minutes;
+
+        /**
+         * Thêm một nến 1m, theo thứ tự thời gian
+         */
+        void add(long minuteOpen, long minuteHigh, long minuteLow) {
+            if (minutes++ == 0) {
+                open = minuteOpen;
+            }
+            high = Math.max(high, minuteHigh);
+            low = Math.min(low, minuteLow);
+        }
+    }
+
+    /**
+     * Một bản cập nhật của nến (giá là ScaledDecimal); dùng chung cho mọi interval đích của message
+     * và dùng lại giữa các message của cùng một thread
+     */
+    private static final class MinuteBar {
+        final Sums sums = new Sums();
+        long openTime;
+        long closeTime;
+        long open;
+        long high;
+        long low;
+        long close;
+        long firstTradeId;
+        long lastTradeId;
+        boolean closed;
+
+        void parse(String payload, int k) {
+            openTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, "\"t\":", k));
+            closeTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, "\"T\":", k));
+            open = ScaledDecimal.parse(payload, JsonFields.valueStart(payload, "\"o\":", k));
+            high = ScaledDecimal.parse(payload, JsonFields.valueStart(payload, "\"h\":", k));
+            low = ScaledDecimal.parse(payload, JsonFields.valueStart(payload, "\"l\":", k));
+            close = ScaledDecimal.parse(payload, JsonFields.valueStart(payload, "\"c\":", k));
+            sums.clear();
+            sums.volume.add(payload, JsonFields.valueStart(payload, "\"v\":", k));
+            sums.quoteVolume.add(payload, JsonFields.valueStart(payload, "\"q\":", k));
+            sums.takerBuyVolume.add(payload, JsonFields.valueStart(payload, "\"V\":", k));
+            sums.takerBuyQuoteVolume.add(payload, JsonFields.valueStart(payload, "\"Q\":", k));
+            sums.trades = longOr(payload, "\"n\":", k, 0);
+            firstTradeId = longOr(payload, "\"f\":", k, -1);
+            lastTradeId = longOr(payload, "\"L\":", k, -1);
+            closed = JsonFields.parseBoolean(payload, JsonFields.valueStart(payload, "\"x\":", k));
+        }
+
+        private static long longOr(String payload, String key, int k, long missing) {
+            int at = JsonFields.valueStart(payload, key, k);
+            return at < 0 ? missing : JsonFields.parseLong(payload, at);
+        }
+    }
+
+    /**
+     * Các đại lượng cộng dồn của nến, sửa tại chỗ
+     */
+    private static final class Sums {
+        final ScaledAmount volume = new ScaledAmount();
+        final ScaledAmount quoteVolume = new ScaledAmount();
+        final ScaledAmount takerBuyVolume = new ScaledAmount();
+        final ScaledAmount takerBuyQuoteVolume = new ScaledAmount();
+        long trades;
+
+        void clear() {
+            volume.clear();
+            quoteVolume.clear();
+            takerBuyVolume.clear();
+            takerBuyQuoteVolume.clear();
+            trades = 0;
+        }
+
+        void copyFrom(Sums other) {
+            volume.copyFrom(other.volume);
+            quoteVolume.copyFrom(other.quoteVolume);
+            takerBuyVolume.copyFrom(other.takerBuyVolume);
+            takerBuyQuoteVolume.copyFrom(other.takerBuyQuoteVolume);
+            trades = other.trades;
+        }
+
+        void add(Sums other) {
+            volume.add(other.volume);
+            quoteVolume.add(other.quoteVolume);
+            takerBuyVolume.add(other.takerBuyVolume);
+            takerBuyQuoteVolume.add(other.takerBuyQuoteVolume);
+            trades += other.trades;
+        }
+    }
+
+    private static final class Snapshot {
+        final long openTime;
+        final long open;
+        final long high;
+        final long low;
+        final long close;
+        final BigDecimal volume;
+
+        Snapshot(long openTime, long open, long high, long low, long close, BigDecimal volume) {
+            this.openTime = openTime;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+            this.volume = volume;
+        }
+
+        boolean matches(Snapshot other) {
+            return open == other.open && high == other.high && low == other.low && close == other.close
+                    && volume.compareTo(other.volume) == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "[o=" + ScaledDecimal.toString(open) + " h=" + ScaledDecimal.toString(high)
+                    + " l=" + ScaledDecimal.toString(low) + " c=" + ScaledDecimal.toString(close)
+                    + " v=" + volume.toPlainString() + "]";
+        }
+    }
+
+    /**
+     * Nến khung lớn đang dựng cho một (symbol, interval).
+     * Tổng của các phút đã qua được giữ riêng với phút hiện tại, vì mỗi bản cập nhật 1m
+     * thay thế (chứ không cộng thêm vào) giá trị trước đó của cùng phút.
+     */
+    private static final class RollupState {
+        final KlineInterval interval;
+        final StreamRoute route; // btcusdt@kline_5m
+
+        long bucketOpen = -1;
+        long open;
+        long high;
+        long low;
+        long close;
+        long firstTradeId;
+        long lastTradeId;
+
+        // Nến đang chờ dựng lại phần đầu từ lịch sử (-1 = không chờ), chưa được đẩy ra cho tới khi xong
+        long seedingBucket = -1;
+        Future<?> seeding;
+
+        final Sums closedSums = new Sums();
+        final Sums currentSums = new Sums();
+        private final Sums total = new Sums();
+        long currentMinute = -1;
+
+        Snapshot rollupFinal;
+        Snapshot nativeFinal;
+
+        RollupState(KlineInterval interval, StreamRoute route) {
+            this.interval = interval;
+            this.route = route;
+        }
+
+        /**
+         * @return true nếu nến mới bắt đầu giữa chừng và cần dựng lại phần đầu từ DB
+         */
+        boolean apply(MinuteBar bar) {
+            long bucket = interval.alignOpenTime(bar.openTime);
+            boolean seed = false;
+
+            if (bucket != bucketOpen) {
+                bucketOpen = bucket;
+                open = bar.open;
+                high = bar.high;
+                low = bar.low;
+                firstTradeId = bar.firstTradeId;
+                closedSums.clear();
+                seed = bar.openTime > bucket;
+            } else if (bar.openTime != currentMinute) {
+                closedSums.add(currentSums);
+            }
+
+            currentMinute = bar.openTime;
+            currentSums.copyFrom(bar.sums);
+            high = Math.max(high, bar.high);
+            low = Math.min(low, bar.low);
+            close = bar.close;
+            lastTradeId = bar.lastTradeId;
+            return seed;
+        }
+
+        /**
+         * @return true nếu bản cập nhật này đóng nến khung lớn
+         */
+        boolean closes(MinuteBar bar) {
+            return bar.closed && bar.closeTime == bucketOpen + interval.getMillis() - 1;
+        }
+
+        /**
+         * Tổng của các phút đã qua và phút hiện tại; object được dùng lại, chỉ đọc khi giữ lock của state
+         */
+        Sums total() {
+            total.copyFrom(closedSums);
+            total.add(currentSums);
+            return total;
+        }
+
+        Snapshot snapshot() {
+            return new Snapshot(bucketOpen, open, high, low, close, total().volume.toBigDecimal());
+        }
+    }
+}
@@ -2,8 +2,16 @@ package com.crypto.market_service.service;
 
 import com.crypto.market_service.entity.Kline;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 public interface KlineService {
     List<Kline> getKlines(String symbol, String interval, int limit);
+
+    /**
+     * Materialize lại nến interval lớn từ nến 1m trong khoảng [from, to)
+     *
+     * @throws IllegalArgumentException nếu thiếu from/to, from không trước to hoặc khoảng dài hơn giới hạn
+     */
+    void refreshAggregates(LocalDateTime from, LocalDateTime to);
 }
@@ -0,0 +1,241 @@
+package com.crypto.market_service.service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ghi kline vào database từ Redis Stream qua một consumer group chung của cả cluster.
+ *
+ * Mỗi entry chỉ được giao cho một replica (XREADGROUP), nên N replica không còn ghi cùng một dòng N lần;
+ * Pub/Sub vẫn giữ nguyên cho việc đẩy real-time tới mọi replica. Mỗi batch được ghi bằng upsert theo lô
+ * rồi XACK một lần; batch ghi lỗi không được ACK. Nến đang mở chỉ được ghi theo checkpoint của
+ * {@link KlinePersister}. Entry chưa ACK quá {@code claim-min-idle-ms} (replica chết giữa chừng,
+ * DB lỗi) được XCLAIM và ghi lại; việc ghi là upsert theo (symbol, interval, openTime) và bỏ qua bản cũ
+ * hơn bản đã lưu, nên ghi lại không sai.
+ *
+ * Chỉ chạy khi {@code app.redis.persistence-transport=stream}.
+ */
+@Component
+@Slf4j
+public class KlineStreamConsumer {
+
+    static final String PAYLOAD_FIELD = "d";
+    static final byte[] PAYLOAD_FIELD_BYTES = PAYLOAD_FIELD.getBytes(StandardCharsets.UTF_8);
+
+    private static final long FAILURE_BACKOFF_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    @Value("${app.redis.persistence-transport:pubsub}")
+    private String persistenceTransport;
+
+    @Value("${app.redis.stream.key:market_klines}")
+    private String streamKey;
+
+    @Value("${app.redis.stream.group:kline-persistence}")
+    private String groupName;
+
+    @Value("${app.redis.stream.batch-size:200}")
+    private int batchSize;
+
+    @Value("${app.redis.stream.block-ms:1000}")
+    private long blockMs;
+
+    // Entry chưa ACK lâu hơn mốc này được coi là của consumer đã chết
+    @Value("${app.redis.stream.claim-min-idle-ms:60000}")
+    private long claimMinIdleMs;
+
+    @Value("${app.redis.stream.claim-interval-ms:30000}")
+    private long claimIntervalMs;
+
+    // Entry đã giao chừng này lần vẫn lỗi thì bỏ (ACK) để không chặn stream mãi
+    @Value("${app.redis.stream.max-deliveries:5}")
+    private long maxDeliveries;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisSubscriber subscriber;
+
+    @Autowired
+    private KlinePersister persister;
+
+    private StreamOperations<String, Object, Object> streams;
+    private byte[] streamKeyBytes;
+    private Consumer consumer;
+    private Thread thread;
+    private volatile boolean running;
+
+    @PostConstruct
+    void init() {
+        if (!"stream".equalsIgnoreCase(persistenceTransport.trim())) {
+            return;
+        }
+        streams = redisTemplate.opsForStream();
+        streamKeyBytes = streamKey.getBytes(StandardCharsets.UTF_8);
+        // pid@host: mỗi process một consumer, tên ổn định trong suốt vòng đời process
+        consumer = Consumer.from(groupName, ManagementFactory.getRuntimeMXBean().getName());
+
+        running = true;
+        thread = new Thread(this::run, "kline-stream-consumer");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("📥 Persisting klines from stream {} as {} in group {}", streamKey, consumer.getName(), groupName);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.join(blockMs + 5000);
+        }
+    }
+
+    private void run() {
+        boolean groupReady = false;
+        long nextClaimAt = 0;
+        while (running) {
+            try {
+                if (!groupReady) {
+                    createGroup();
+                    groupReady = true;
+                }
+                long now = System.currentTimeMillis();
+                if (now >= nextClaimAt) {
+                    claimAbandoned();
+                    nextClaimAt = now + claimIntervalMs;
+                }
+                readBatch();
+            } catch (Exception e) {
+                log.error("❌ Kline stream consumer error: {}", e.getMessage());
+                // Stream có thể đã bị xóa (VD: FLUSHALL) -> tạo lại group ở vòng sau
+                groupReady = false;
+                LockSupport.parkNanos(FAILURE_BACKOFF_NANOS);
+            }
+        }
+    }
+
+    private void createGroup() {
+        try {
+            // Group mới bắt đầu từ entry mới nhất; MKSTREAM nếu stream chưa có
+            redisTemplate.execute(connection -> connection.streamCommands().xGroupCreate(
+                    streamKeyBytes, groupName, ReadOffset.latest(), true), true);
+        } catch (RedisSystemException e) {
+            if (!isBusyGroup(e)) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Group đã tồn tại (replica khác tạo trước, hoặc lần chạy trước)
+     */
+    private static boolean isBusyGroup(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("BUSYGROUP")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Đọc bytes thô (entry có thể là kline nhị phân, không giải mã qua String serializer)
+     */
+    private void readBatch() {
+        StreamReadOptions options = StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMs));
+        List<ByteRecord> records = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xReadGroup(consumer, options,
+                        StreamOffset.create(streamKeyBytes, ReadOffset.lastConsumed())));
+        if (records != null && !records.isEmpty()) {
+            persistAndAck(records);
+        }
+    }
+
+    /**
+     * Nhận lại các entry đã giao cho consumer khác nhưng không được ACK quá lâu
+     */
+    private void claimAbandoned() {
+        PendingMessages pending = streams.pending(streamKey, groupName, Range.unbounded(), batchSize);
+        List<RecordId> abandoned = new ArrayList<>();
+        List<RecordId> poisoned = new ArrayList<>();
+        Duration minIdle = Duration.ofMillis(claimMinIdleMs);
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            if (message.getTotalDeliveryCount() >= maxDeliveries) {
+                poisoned.add(message.getId());
+            } else {
+                abandoned.add(message.getId());
+            }
+        }
+        if (!poisoned.isEmpty()) {
+            log.error("❌ Dropping {} kline entries from stream {} after {} failed deliveries",
+                      poisoned.size(), streamKey, maxDeliveries);
+            streams.acknowledge(streamKey, groupName, poisoned.toArray(new RecordId[0]));
+        }
+        if (abandoned.isEmpty()) {
+            return;
+        }
+        RecordId[] ids = abandoned.toArray(new RecordId[0]);
+        List<ByteRecord> claimed = redisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(streamKeyBytes, groupName, consumer.getName(), minIdle, ids));
+        if (claimed != null && !claimed.isEmpty()) {
+            log.warn("♻️ Claimed {} abandoned kline entries from stream {}", claimed.size(), streamKey);
+            persistAndAck(claimed);
+        }
+    }
+
+    /**
+     * Ghi cả batch bằng một lần upsert rồi XACK một lần; ghi lỗi thì cả batch nằm lại trong pending list.
+     * Entry không giải mã được vẫn được ACK (ghi lại cũng không thành công).
+     */
+    private void persistAndAck(List<ByteRecord> records) {
+        List<KlineFrame> frames = new ArrayList<>(records.size());
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            ByteRecord record = records.get(i);
+            ids[i] = record.getId();
+            // Entry chỉ có một field là payload
+            for (byte[] payload : record.getValue().values()) {
+                KlineFrame frame = new KlineFrame();
+                if (subscriber.decodeKline(payload, frame) && !persister.deferIfOpen(frame)) {
+                    frames.add(frame);
+                }
+            }
+        }
+        try {
+            persister.write(frames);
+        } catch (Exception e) {
+            log.error("Error persisting {} kline entries: {}", records.size(), e.getMessage());
+            return;
+        }
+        streams.acknowledge(streamKey, groupName, ids);
+    }
+}
@@ -0,0 +1,98 @@
+package com.crypto.market_service.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Nến mới nhất của mỗi (symbol, interval) dùng chung cho mọi replica, trong một Redis hash.
+ *
+ * Leader ghi bản mới nhất của mỗi stream kline (field: btcusdt@kline_1m) trong cùng pipeline với
+ * PUBLISH ({@link RedisPublishPipeline}), nên hash đi cùng rào leader của pipeline. Nến đang mở chỉ
+ * được ghi DB theo checkpoint; API đọc bản ở đây thay cho bộ nhớ của từng replica, nên replica
+ * standby không nghe symbol đó vẫn trả cùng kết quả như leader.
+ */
+@Component
+@Slf4j
+public class LatestKlineStore {
+
+    @Value("${app.redis.latest-klines-key:market_latest_klines}")
+    private String key;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    private byte[] keyBytes;
+
+    @PostConstruct
+    void init() {
+        keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    byte[] keyBytes() {
+        return keyBytes;
+    }
+
+    /**
+     * Nến mới nhất đã publish của series (đang mở hoặc vừa đóng)
+     */
+    public Optional<Kline> latest(String symbol, String interval) {
+        if (KlineInterval.fromLabel(interval) == null) {
+            return Optional.empty();
+        }
+        // Không tra BinanceStreamRouter: symbol từ request không được tạo route mới
+        byte[] field = (symbol.toLowerCase() + "@kline_" + interval).getBytes(StandardCharsets.UTF_8);
+        byte[] body;
+        try {
+            body = redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.hashCommands().hGet(keyBytes, field));
+        } catch (Exception e) {
+            log.warn("⚠️ Failed to read latest kline of {} {}: {}", symbol, interval, e.getMessage());
+            return Optional.empty();
+        }
+        KlineFrame frame = new KlineFrame();
+        if (body == null || !decode(body, symbol.toUpperCase(), frame)) {
+            return Optional.empty();
+        }
+        return Optional.of(Kline.builder()
+                .symbol(frame.symbol)
+                .interval(interval)
+                .openTime(Kline.convertTime(frame.openTime))
+                .closeTime(Kline.convertTime(frame.closeTime()))
+                .openPrice(ScaledDecimal.toBigDecimal(frame.open))
+                .highPrice(ScaledDecimal.toBigDecimal(frame.high))
+                .lowPrice(ScaledDecimal.toBigDecimal(frame.low))
+                .closePrice(ScaledDecimal.toBigDecimal(frame.close))
+                .volume(frame.volumeDecimal())
+                .build());
+    }
+
+    private boolean decode(byte[] body, String symbol, KlineFrame frame) {
+        if (KlineCodec.isBinary(body)) {
+            if (!KlineCodec.decode(body, frame)) {
+                return false;
+            }
+            frame.symbol = symbol;
+            return true;
+        }
+        // Payload JSON do chính pipeline ghi, route của nó đã có sẵn
+        String message = new String(body, StandardCharsets.UTF_8);
+        StreamRoute route = streamRouter.route(message);
+        return route != null && route.getKind() == StreamRoute.Kind.KLINE && KlineCodec.parseJson(message, route, frame);
+    }
+}
@@ -0,0 +1,331 @@
+package com.crypto.market_service.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.util.JsonFields;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Các metrics của luồng dữ liệu thị trường, xem qua /actuator/metrics
+ */
+@Component
+@RequiredArgsConstructor
+public class MarketMetrics {
+
+    private static final String EVENT_TIME = "\"E\":";
+
+    /**
+     * Các điểm đo trên đường đi của một message, tính từ event time (E) của Binance
+     */
+    public enum LatencyStage {
+        RECEIVE,   // shard nhận frame từ Binance
+        PUBLISH,   // batch chứa message đã publish xong lên Redis
+        SUBSCRIBE, // RedisSubscriber nhận message
+        STOMP;     // đã gửi xong tới các client STOMP
+
+        private final String tag = name().toLowerCase();
+    }
+
+    private final MeterRegistry registry;
+
+    private final Timer[] latencyTimers = new Timer[LatencyStage.values().length];
+    private Timer stompSendTimer;
+    private Timer persistTimer;
+    private DistributionSummary persistBatchSize;
+    private Timer publishBatchTimer;
+    private DistributionSummary publishBatchSize;
+    private Counter publishFailureCounter;
+    private Counter publishEncodeFailureCounter;
+    private Counter publishFencedCounter;
+    private Counter depthQuantityClampedCounter;
+    private Counter leadershipAcquiredCounter;
+    private Counter leadershipLostCounter;
+
+    // Meter có tag động được tạo một lần cho mỗi giá trị tag rồi giữ lại, không tra registry mỗi lần
+    // Route được cache nên mỗi stream chỉ tạo counter một lần
+    private final Map<StreamRoute, Counter> messageCounters = new ConcurrentHashMap<>();
+    private final Map<Integer, Timer> reconnectTimers = new ConcurrentHashMap<>();
+    private final Map<Integer, Map<String, Counter>> disconnectCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter[]> rollupValidationCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> depthResyncCounters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        for (LatencyStage stage : LatencyStage.values()) {
+            latencyTimers[stage.ordinal()] = Timer.builder("market.latency")
+                    .description("Time from the Binance event time (E) until the message reaches a pipeline stage")
+                    .tag("stage", stage.tag)
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .register(registry);
+        }
+        stompSendTimer = Timer.builder("market.stomp.send.duration")
+                .description("Time to hand one message to the STOMP broker")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        persistTimer = Timer.builder("market.persist.duration")
+                .description("Time to upsert one batch of kline updates")
+                .publishPercentiles(0.5, 0.99, 0.999)
+                .register(registry);
+        persistBatchSize = DistributionSummary.builder("market.persist.batch.size")
+                .description("Kline rows per batched upsert statement")
+                .register(registry);
+        publishBatchSize = DistributionSummary.builder("market.publish.batch.size")
+                .description("Messages per pipelined Redis publish")
+                .register(registry);
+        publishBatchTimer = Timer.builder("market.publish.batch.duration")
+                .description("Time to publish one pipelined batch to Redis")
+                .publishPercentiles(0.5, 0.99)
+                .register(registry);
+        publishFailureCounter = Counter.builder("market.publish.failures")
+                .description("Messages in pipelined Redis publishes that failed and were retried")
+                .register(registry);
+        leadershipAcquiredCounter = leadershipCounter("acquired");
+        leadershipLostCounter = leadershipCounter("lost");
+        publishEncodeFailureCounter = Counter.builder("market.publish.encode.failures")
+                .description("Messages published as JSON because preparing them for Redis threw an exception")
+                .register(registry);
+        publishFencedCounter = Counter.builder("market.publish.fenced")
+                .description("Messages discarded because this replica lost ingestion leadership before publishing them")
+                .register(registry);
+        depthQuantityClampedCounter = Counter.builder("market.depth.quantity.clamped")
+                .description("Order book quantities too large for the book's scale, stored as the largest representable value")
+                .register(registry);
+    }
+
+    /**
+     * Event time (E) của payload Binance, hoặc -1 nếu không có
+     */
+    public static long eventTimeOf(String payload) {
+        int index = JsonFields.valueStart(payload, EVENT_TIME, 0);
+        return index < 0 ? -1 : JsonFields.parseLong(payload, index);
+    }
+
+    /**
+     * Độ trễ từ event time của Binance tới {@code stage}. Hai đồng hồ không đồng bộ tuyệt đối,
+     * giá trị âm do lệch giờ được tính là 0.
+     */
+    public void recordLatency(LatencyStage stage, long eventTime, long nowMillis) {
+        if (eventTime <= 0) {
+            return;
+        }
+        latencyTimers[stage.ordinal()].record(Math.max(0, nowMillis - eventTime), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Số message nhận từ Binance theo symbol và loại stream (tốc độ = rate của counter)
+     */
+    public void countMessage(StreamRoute route) {
+        Counter counter = messageCounters.get(route);
+        if (counter == null) {
+            counter = messageCounters.computeIfAbsent(route, r -> Counter.builder("market.ingest.messages")
+                    .description("Messages received from Binance per symbol and stream kind")
+                    .tag("symbol", r.getUpperSymbol())
+                    .tag("kind", r.getKind().name().toLowerCase())
+                    .register(registry));
+        }
+        counter.increment();
+    }
+
+    public void recordStompSend(long nanos) {
+        stompSendTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPersist(int rows, long nanos) {
+        persistBatchSize.record(rows);
+        persistTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Thời gian từ lúc một shard mất kết nối đến khi nhận lại được stream
+     */
+    public void recordReconnect(int shard, long nanos) {
+        Timer timer = reconnectTimers.get(shard);
+        if (timer == null) {
+            timer = reconnectTimers.computeIfAbsent(shard, s -> Timer.builder("market.ingest.reconnect.duration")
+                    .description("Time from a Binance disconnect until the shard is streaming again")
+                    .tag("shard", String.valueOf(s))
+                    .publishPercentiles(0.5, 0.99)
+                    .register(registry));
+        }
+        timer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countDisconnect(int shard, String reason) {
+        disconnectCounters.computeIfAbsent(shard, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(reason, r -> Counter.builder("market.ingest.disconnects")
+                        .description("Binance WebSocket disconnects per shard")
+                        .tag("shard", String.valueOf(shard))
+                        .tag("reason", r)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * Shadow mode: nến do rollup engine tạo có khớp với nến của Binance không
+     */
+    public void countRollupValidation(String interval, boolean match) {
+        Counter[] counters = rollupValidationCounters.get(interval);
+        if (counters == null) {
+            counters = rollupValidationCounters.computeIfAbsent(interval, i -> new Counter[] {
+                    rollupValidationCounter(i, "match"), rollupValidationCounter(i, "mismatch")});
+        }
+        counters[match ? 0 : 1].increment();
+    }
+
+    private Counter rollupValidationCounter(String interval, String result) {
+        return Counter.builder("market.rollup.validation")
+                .description("Rolled-up candles compared against Binance native candles")
+                .tag("interval", interval)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Sổ lệnh phải đồng bộ lại từ snapshot (mất diff hoặc snapshot cũ hơn buffer)
+     */
+    public void countDepthResync(String reason) {
+        depthResyncCounters.computeIfAbsent(reason, r -> Counter.builder("market.depth.resyncs")
+                        .description("Order book resynchronisations from a REST snapshot")
+                        .tag("reason", r)
+                        .register(registry))
+                .increment();
+    }
+
+    /**
+     * Khối lượng một mức giá không vừa scale của sổ lệnh, bị kẹp thay vì đồng bộ lại
+     */
+    public void countDepthQuantityClamped() {
+        depthQuantityClampedCounter.increment();
+    }
+
+    public void countLeadershipChange(boolean acquired) {
+        (acquired ? leadershipAcquiredCounter : leadershipLostCounter).increment();
+    }
+
+    private Counter leadershipCounter(String result) {
+        return Counter.builder("market.ingest.leadership.changes")
+                .description("Ingestion leadership acquired or lost by this replica")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * 1 nếu replica này đang là leader ingest, 0 nếu là standby
+     */
+    public void registerLeaderGauge(BooleanSupplier leader) {
+        Gauge.builder("market.ingest.leader", leader, l -> l.getAsBoolean() ? 1 : 0)
+                .description("Whether this replica currently holds the ingestion lease")
+                .register(registry);
+    }
+
+    /**
+     * Độ sâu hàng đợi, số message bị bỏ và bị gom của một ring publish
+     */
+    public void registerPublishRing(String ring, IntSupplier depth, LongSupplier dropped, LongSupplier coalesced) {
+        Gauge.builder("market.publish.queue.depth", depth, IntSupplier::getAsInt)
+                .description("Messages waiting in a publish ring")
+                .tag("ring", ring)
+                .register(registry);
+        FunctionCounter.builder("market.publish.dropped", dropped, LongSupplier::getAsLong)
+                .description("Messages dropped because a publish ring was full")
+                .tag("ring", ring)
+                .register(registry);
+        FunctionCounter.builder("market.publish.coalesced", coalesced, LongSupplier::getAsLong)
+                .description("Messages replaced by a newer one of the same stream while a ring was full")
+                .tag("ring", ring)
+                .register(registry);
+    }
+
+    public void recordPublishBatch(int size, long nanos) {
+        publishBatchSize.record(size);
+        publishBatchTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void countPublishFailure(int messages) {
+        publishFailureCounter.increment(messages);
+    }
+
+    public void countPublishEncodeFailure() {
+        publishEncodeFailureCounter.increment();
+    }
+
+    public void countPublishFenced(int messages) {
+        publishFencedCounter.increment(messages);
+    }
+
+    /**
+     * Số nến đang chờ ghi DB, số cập nhật bị bỏ vì hàng chờ đầy và số lần xả batch lỗi
+     */
+    public void registerPersistQueue(IntSupplier pending, LongSupplier dropped, LongSupplier failed, LongSupplier rejected) {
+        Gauge.builder("market.persist.pending", pending, IntSupplier::getAsInt)
+                .description("Candles waiting to be written to the database")
+                .register(registry);
+        FunctionCounter.builder("market.persist.dropped", dropped, LongSupplier::getAsLong)
+                .description("Kline updates dropped because the persistence queue was full")
+                .register(registry);
+        FunctionCounter.builder("market.persist.failures", failed, LongSupplier::getAsLong)
+                .description("Persistence flushes that failed and were retried")
+                .register(registry);
+        FunctionCounter.builder("market.persist.rejected", rejected, LongSupplier::getAsLong)
+                .description("Kline rows the database kept rejecting, isolated from their batch and dropped")
+                .register(registry);
+    }
+
+    /**
+     * Độ sâu hàng đợi, số task đã chạy và số lần người gửi phải chờ vì hàng đợi đầy của một stripe
+     */
+    public void registerStripe(String executor, int stripe, IntSupplier depth, LongSupplier executed, LongSupplier blocked) {
+        String index = String.valueOf(stripe);
+        Gauge.builder("market.stripe.queue.depth", depth, IntSupplier::getAsInt)
+                .description("Tasks waiting in one stripe of a striped executor")
+                .tag("executor", executor)
+                .tag("stripe", index)
+                .register(registry);
+        FunctionCounter.builder("market.stripe.executed", executed, LongSupplier::getAsLong)
+                .description("Tasks run by one stripe of a striped executor")
+                .tag("executor", executor)
+                .tag("stripe", index)
+                .register(registry);
+        FunctionCounter.builder("market.stripe.blocked", blocked, LongSupplier::getAsLong)
+                .description("Submissions that waited because the stripe queue was full")
+                .tag("executor", executor)
+                .tag("stripe", index)
+                .register(registry);
+    }
+
+    /**
+     * Số kênh Redis đang SUBSCRIBE trên replica này
+     */
+    public void registerRedisSubscriptions(IntSupplier channels) {
+        Gauge.builder("market.redis.subscribed.channels", channels, IntSupplier::getAsInt)
+                .description("Redis pub/sub channels this replica is subscribed to")
+                .register(registry);
+    }
+
+    /**
+     * Cập nhật nến được publish và bị gom (thay bằng bản mới hơn) ở tầng coalescing
+     */
+    public void registerCoalescer(LongSupplier forwarded, LongSupplier coalesced) {
+        FunctionCounter.builder("market.coalesce.forwarded", forwarded, LongSupplier::getAsLong)
+                .description("Kline updates published after coalescing")
+                .register(registry);
+        FunctionCounter.builder("market.coalesce.coalesced", coalesced, LongSupplier::getAsLong)
+                .description("Open kline updates superseded by a newer update within the window")
+                .register(registry);
+    }
+}
@@ -0,0 +1,101 @@
+package com.crypto.market_service.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.KlineInterval;
+
+/**
+ * Trạng thái mới nhất của nến hiện tại cho mỗi (symbol, interval) mà replica này nhận được.
+ *
+ * Nến chưa đóng chỉ được ghi DB theo checkpoint. Nến được đánh dấu "bẩn" khi có cập nhật chưa ghi,
+ * {@link KlinePersister} lấy các nến bẩn ở mỗi checkpoint. Bộ nhớ này khác nhau giữa các replica
+ * (standby chỉ nghe symbol có client xem), nên API đọc nến đang mở từ {@link LatestKlineStore}.
+ */
+@Component
+public class OpenKlineCache {
+
+    private record SeriesKey(String symbol, KlineInterval interval) {
+    }
+
+    private static final class Entry {
+        final KlineFrame frame = new KlineFrame();
+        boolean dirty;
+    }
+
+    private final Map<SeriesKey, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Cập nhật trạng thái của series; bỏ qua cập nhật cũ hơn bản đang giữ
+     *
+     * @param persist đánh dấu bẩn nếu nến còn mở (replica này chịu trách nhiệm ghi DB)
+     * @return bản sao nến trước đó nếu nó còn bẩn mà đã bị nến mới thay thế (cần ghi ngay), hoặc null
+     */
+    KlineFrame update(KlineFrame frame, boolean persist) {
+        Entry entry = entries.computeIfAbsent(new SeriesKey(frame.symbol, frame.interval), key -> new Entry());
+        synchronized (entry) {
+            KlineFrame current = entry.frame;
+            KlineFrame displaced = null;
+            if (current.interval != null) {
+                if (frame.openTime < current.openTime
+                        || (frame.openTime == current.openTime && frame.compareVolume(current) < 0)) {
+                    if (persist && frame.openTime == current.openTime && !current.closed) {
+                        // Bản đang giữ mới hơn (Pub/Sub đi trước Redis Streams) và cũng cần được ghi
+                        entry.dirty = true;
+                    }
+                    return null;
+                }
+                if (entry.dirty && frame.openTime != current.openTime) {
+                    // Mất message nến đóng: ghi trạng thái cuối cùng đã biết của nến cũ
+                    displaced = new KlineFrame();
+                    displaced.copyFrom(current);
+                }
+            }
+            boolean sameCandle = current.interval != null && frame.openTime == current.openTime;
+            current.copyFrom(frame);
+            // Cập nhật từ nguồn không ghi DB (VD: Pub/Sub khi ghi qua Redis Streams) không xóa dấu bẩn
+            entry.dirty = frame.closed ? false : persist || (entry.dirty && sameCandle);
+            return displaced;
+        }
+    }
+
+    /**
+     * Lấy bản sao các nến bẩn và xóa dấu bẩn
+     */
+    void drainDirty(Consumer<KlineFrame> sink) {
+        for (Entry entry : entries.values()) {
+            KlineFrame copy = null;
+            synchronized (entry) {
+                if (entry.dirty) {
+                    entry.dirty = false;
+                    copy = new KlineFrame();
+                    copy.copyFrom(entry.frame);
+                }
+            }
+            if (copy != null) {
+                sink.accept(copy);
+            }
+        }
+    }
+
+    /**
+     * Bỏ mọi dấu bẩn (replica không còn ghi DB, leader mới sẽ checkpoint)
+     *
+     * @return số nến đã bỏ dấu bẩn
+     */
+    int clearDirty() {
+        int cleared = 0;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.dirty) {
+                    entry.dirty = false;
+                    cleared++;
+                }
+            }
+        }
+        return cleared;
+    }
+}
@@ -0,0 +1,169 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import com.crypto.market_service.util.ScaledDecimal;
+
+/**
+ * Sổ lệnh của một symbol, mỗi phía là hai mảng long song song (giá nhân 10^8, khối lượng nhân
+ * 10^quantityScale) sắp xếp theo giá, giới hạn {@code maxLevels} mức giá.
+ *
+ * Mức giá tốt nhất nằm ở cuối mảng, nên các cập nhật gần đỉnh sổ (phần lớn diff của Binance)
+ * chỉ dịch chuyển vài phần tử. Khi đầy, mức giá xa nhất bị bỏ; top-N vẫn chính xác
+ * miễn là N nhỏ hơn nhiều so với {@code maxLevels}.
+ *
+ * Không thread-safe: OrderBookService truy cập dưới lock của chính object này.
+ */
+final class OrderBook {
+
+    final String upperSymbol;
+    final StreamRoute topRoute; // btcusdt@depth20, route của message top-N gửi lên Redis
+    final Side bids;
+    final Side asks;
+
+    long lastUpdateId = -1; // -1: chưa đồng bộ với snapshot
+    long eventTime;
+    boolean snapshotPending;
+
+    // Chọn lại ở mỗi snapshot: 8, hoặc ít hơn với token có mức giá khối lượng rất lớn (PEPE, SHIB)
+    int quantityScale = ScaledDecimal.SCALE;
+
+    // Diffs nhận được trong lúc chờ snapshot
+    final ArrayDeque<String> buffered = new ArrayDeque<>();
+
+    final StringBuilder out = new StringBuilder(2048);
+
+    OrderBook(String upperSymbol, StreamRoute topRoute, int maxLevels) {
+        this.upperSymbol = upperSymbol;
+        this.topRoute = topRoute;
+        this.bids = new Side(true, maxLevels);
+        this.asks = new Side(false, maxLevels);
+    }
+
+    boolean isSynced() {
+        return lastUpdateId >= 0;
+    }
+
+    void reset() {
+        lastUpdateId = -1;
+        bids.clear();
+        asks.clear();
+    }
+
+    /**
+     * Ghi top-N theo định dạng partial depth của Binance:
+     * {"stream":"btcusdt@depth20","data":{"lastUpdateId":..,"E":..,"bids":[["p","q"],..],"asks":[..]}}
+     */
+    String formatTop(int levels) {
+        StringBuilder sb = out;
+        sb.setLength(0);
+        sb.append("{\"stream\":\"").append(topRoute.getStream())
+          .append("\",\"data\":{\"lastUpdateId\":").append(lastUpdateId)
+          .append(",\"E\":").append(eventTime)
+          .append(",\"bids\":");
+        bids.appendTop(sb, levels, quantityScale);
+        sb.append(",\"asks\":");
+        asks.appendTop(sb, levels, quantityScale);
+        sb.append("}}");
+        return sb.toString();
+    }
+
+    /**
+     * Một phía của sổ lệnh. Khóa sắp xếp là giá với bids và -giá với asks,
+     * nên cả hai phía đều tăng dần và mức tốt nhất luôn ở vị trí size - 1.
+     */
+    static final class Side {
+        private final boolean bid;
+        private final long[] keys;
+        private final long[] quantities;
+        private int size;
+
+        Side(boolean bid, int capacity) {
+            this.bid = bid;
+            this.keys = new long[capacity];
+            this.quantities = new long[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Đặt khối lượng tại một mức giá, khối lượng 0 nghĩa là xóa mức giá đó
+         *
+         * @return true nếu thay đổi nằm trong {@code topLevels} mức tốt nhất
+         */
+        boolean update(long price, long quantity, int topLevels) {
+            long key = bid ? price : -price;
+            int index = Arrays.binarySearch(keys, 0, size, key);
+
+            if (index >= 0) {
+                boolean top = size - index <= topLevels;
+                if (quantity == 0) {
+                    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+                    System.arraycopy(quantities, index + 1, quantities, index, size - index - 1);
+                    size--;
+                } else {
+                    quantities[index] = quantity;
+                }
+                return top;
+            }
+            if (quantity == 0) {
+                return false;
+            }
+
+            int insert = -index - 1;
+            boolean top = size - insert < topLevels;
+            if (size == keys.length) {
+                if (insert == 0) {
+                    // Xa hơn mọi mức đang giữ -> nằm ngoài giới hạn, bỏ qua
+                    return false;
+                }
+                // Bỏ mức xa nhất (vị trí 0), dồn các mức phía dưới điểm chèn sang trái
+                insert--;
+                System.arraycopy(keys, 1, keys, 0, insert);
+                System.arraycopy(quantities, 1, quantities, 0, insert);
+            } else {
+                System.arraycopy(keys, insert, keys, insert + 1, size - insert);
+                System.arraycopy(quantities, insert, quantities, insert + 1, size - insert);
+                size++;
+            }
+            keys[insert] = key;
+            quantities[insert] = quantity;
+            return top;
+        }
+
+        /**
+         * @param level 0 là mức giá tốt nhất
+         */
+        long price(int level) {
+            long key = keys[size - 1 - level];
+            return bid ? key : -key;
+        }
+
+        long quantity(int level) {
+            return quantities[size - 1 - level];
+        }
+
+        void appendTop(StringBuilder sb, int levels, int quantityScale) {
+            sb.append('[');
+            int n = Math.min(levels, size);
+            for (int level = 0; level < n; level++) {
+                if (level > 0) {
+                    sb.append(',');
+                }
+                sb.append("[\"");
+                ScaledDecimal.appendTo(sb, price(level));
+                sb.append("\",\"");
+                ScaledDecimal.appendTo(sb, quantity(level), quantityScale);
+                sb.append("\"]");
+            }
+            sb.append(']');
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.crypto.market_service.service;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.crypto.market_service.dto.OrderBookDTO;
+import com.crypto.market_service.util.JsonFields;
+import com.crypto.market_service.util.ScaledDecimal;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Duy trì sổ lệnh trong bộ nhớ cho các symbols ACTIVE từ stream diff @depth@100ms.
+ *
+ * Đồng bộ theo hướng dẫn của Binance: gom diffs vào buffer, lấy snapshot từ REST
+ * /api/v3/depth, bỏ các diff cũ hơn snapshot rồi áp dụng phần còn lại. Mỗi diff phải nối tiếp
+ * diff trước (U = u trước + 1); gặp khoảng trống thì lấy lại snapshot.
+ *
+ * Khối lượng của mỗi sổ lệnh dùng scale riêng, chọn khi nạp snapshot sao cho mức lớn nhất gấp 10 lần vẫn vừa long.
+ * Diff có khối lượng vượt cả mức đó bị kẹp ở giá trị lớn nhất và được đếm, không làm sổ lệnh phải đồng bộ lại.
+ *
+ * Sau mỗi diff làm thay đổi top-N, top-N levels được gửi lên Redis (stream btcusdt@depth20) để RedisSubscriber
+ * đẩy tới /topic/depth/{symbol}; REST đọc trực tiếp từ sổ lệnh.
+ */
+@Service
+@Slf4j
+public class OrderBookService {
+
+    private static final String DIFF_STREAM_SUFFIX = "@depth@100ms";
+
+    // ~100 giây diffs ở tốc độ 100ms, đủ cho hàng đợi snapshot dài nhất
+    private static final int MAX_BUFFERED = 1000;
+
+    private static final String DATA = "\"data\":";
+    private static final String EVENT_TIME = "\"E\":";
+    private static final String FIRST_UPDATE_ID = "\"U\":";
+    private static final String FINAL_UPDATE_ID = "\"u\":";
+    private static final String BIDS = "\"b\":[";
+    private static final String ASKS = "\"a\":[";
+
+    // APPLIED_TOP: diff làm thay đổi top-N, cần gửi lại; APPLIED: chỉ thay đổi phần sâu của sổ
+    private enum ApplyResult { APPLIED_TOP, APPLIED, STALE, GAP }
+
+    @Value("${app.binance.depth.enabled:false}")
+    private boolean enabled;
+
+    // Số levels mỗi phía gửi qua STOMP và REST mặc định
+    @Value("${app.binance.depth.levels:20}")
+    private int levels;
+
+    // Số levels tối đa giữ mỗi phía; bộ nhớ ~ 2 x max-levels x 16 bytes mỗi symbol
+    @Value("${app.binance.depth.max-levels:1000}")
+    private int maxLevels;
+
+    // Weight của /api/v3/depth tăng theo limit, nên snapshot được giãn cách theo ngân sách weight
+    @Value("${app.binance.depth.snapshot-weight-per-minute:3000}")
+    private int snapshotWeightPerMinute;
+
+    @Value("${app.binance.rest-base-url:https://api.binance.com}")
+    private String restBaseUrl;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    // Key là route của stream diff (được cache nên tra theo identity, không cấp phát)
+    private final Map<StreamRoute, OrderBook> booksByRoute = new ConcurrentHashMap<>();
+    private final Map<String, OrderBook> booksBySymbol = new ConcurrentHashMap<>();
+
+    private final Queue<OrderBook> snapshotQueue = new ConcurrentLinkedQueue<>();
+
+    private ScheduledExecutorService snapshotExecutor;
+
+    @PostConstruct
+    void init() {
+        if (!enabled) {
+            return;
+        }
+        long pacingMs = Math.max(1, 60_000L * snapshotWeight(maxLevels) / snapshotWeightPerMinute);
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "depth-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleWithFixedDelay(this::loadNextSnapshot, pacingMs, pacingMs, TimeUnit.MILLISECONDS);
+
+        log.info("📚 Order books enabled: {} levels per side (~{} KB per symbol), one snapshot every {} ms",
+                maxLevels, maxLevels * 2 * 16 / 1024, pacingMs);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String streamOf(String symbol) {
+        return symbol + DIFF_STREAM_SUFFIX;
+    }
+
+    /**
+     * Áp dụng một message depthUpdate, gửi top-N qua {@code publisher} nếu sổ lệnh đã đồng bộ
+     */
+    public void onDiff(StreamRoute route, String payload, BiConsumer<StreamRoute, String> publisher) {
+        OrderBook book = booksByRoute.get(route);
+        if (book == null) {
+            book = booksByRoute.computeIfAbsent(route, this::createBook);
+        }
+
+        String top;
+        synchronized (book) {
+            if (!book.isSynced()) {
+                buffer(book, payload);
+                return;
+            }
+            ApplyResult result;
+            try {
+                result = apply(book, payload);
+            } catch (RuntimeException e) {
+                log.error("Error applying depth diff for {}: {}", book.upperSymbol, e.getMessage());
+                result = ApplyResult.GAP;
+            }
+            if (result == ApplyResult.STALE || result == ApplyResult.APPLIED) {
+                return;
+            }
+            if (result == ApplyResult.GAP) {
+                // Mất diff (VD: kết nối lại) -> sổ lệnh không còn đúng, đồng bộ lại từ đầu
+                metrics.countDepthResync("gap");
+                book.reset();
+                buffer(book, payload);
+                return;
+            }
+            top = book.formatTop(levels);
+        }
+        publisher.accept(book.topRoute, top);
+    }
+
+    /**
+     * Top-N levels hiện tại, null nếu symbol chưa có sổ lệnh đã đồng bộ
+     */
+    public OrderBookDTO getDepth(String symbol, int limit) {
+        OrderBook book = booksBySymbol.get(symbol.toUpperCase());
+        if (book == null) {
+            return null;
+        }
+        synchronized (book) {
+            if (!book.isSynced()) {
+                return null;
+            }
+            return OrderBookDTO.builder()
+                    .symbol(book.upperSymbol)
+                    .lastUpdateId(book.lastUpdateId)
+                    .eventTime(book.eventTime)
+                    .bids(toLevels(book.bids, limit, book.quantityScale))
+                    .asks(toLevels(book.asks, limit, book.quantityScale))
+                    .build();
+        }
+    }
+
+    /**
+     * Bỏ sổ lệnh của các symbols không còn ACTIVE
+     */
+    public void retain(Set<String> upperSymbols) {
+        booksBySymbol.keySet().retainAll(upperSymbols);
+        booksByRoute.values().removeIf(book -> !upperSymbols.contains(book.upperSymbol));
+    }
+
+    private OrderBook createBook(StreamRoute diffRoute) {
+        StreamRoute topRoute = streamRouter.routeOf(diffRoute.getSymbol() + "@depth" + levels);
+        OrderBook book = new OrderBook(diffRoute.getUpperSymbol(), topRoute, maxLevels);
+        booksBySymbol.put(book.upperSymbol, book);
+        return book;
+    }
+
+    private void buffer(OrderBook book, String payload) {
+        if (book.buffered.size() >= MAX_BUFFERED) {
+            book.buffered.pollFirst();
+        }
+        book.buffered.addLast(payload);
+        requestSnapshot(book);
+    }
+
+    private void requestSnapshot(OrderBook book) {
+        if (!book.snapshotPending) {
+            book.snapshotPending = true;
+            snapshotQueue.add(book);
+        }
+    }
+
+    private ApplyResult apply(OrderBook book, String payload) {
+        int data = payload.indexOf(DATA);
+        long firstUpdateId = JsonFields.parseLong(payload, JsonFields.valueStart(payload, FIRST_UPDATE_ID, data));
+        long finalUpdateId = JsonFields.parseLong(payload, JsonFields.valueStart(payload, FINAL_UPDATE_ID, data));
+
+        if (finalUpdateId <= book.lastUpdateId) {
+            return ApplyResult.STALE;
+        }
+        if (firstUpdateId > book.lastUpdateId + 1) {
+            return ApplyResult.GAP;
+        }
+
+        book.eventTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, EVENT_TIME, data));
+        boolean top = applyLevels(book, book.bids, payload, payload.indexOf(BIDS, data) + BIDS.length());
+        top |= applyLevels(book, book.asks, payload, payload.indexOf(ASKS, data) + ASKS.length());
+        book.lastUpdateId = finalUpdateId;
+        return top ? ApplyResult.APPLIED_TOP : ApplyResult.APPLIED;
+    }
+
+    /**
+     * Đọc mảng [["price","qty"],...] bắt đầu tại {@code index} và cập nhật thẳng vào sổ lệnh
+     *
+     * @return true nếu có mức giá trong top-N thay đổi
+     */
+    private boolean applyLevels(OrderBook book, OrderBook.Side side, String payload, int index) {
+        boolean top = false;
+        int i = index;
+        while (payload.charAt(i) == '[') {
+            int priceStart = i + 2;
+            long price = ScaledDecimal.parse(payload, priceStart);
+            int quantityStart = payload.indexOf('"', priceStart) + 3;
+            long quantity = parseQuantity(payload, quantityStart, book.quantityScale);
+            top |= side.update(price, quantity, levels);
+
+            i = payload.indexOf('"', quantityStart) + 2;
+            if (payload.charAt(i) == ',') {
+                i++;
+            }
+        }
+        return top;
+    }
+
+    void loadNextSnapshot() {
+        OrderBook book = snapshotQueue.poll();
+        if (book == null) {
+            return;
+        }
+        if (booksBySymbol.get(book.upperSymbol) != book) {
+            // Symbol đã bị tắt trong lúc chờ
+            return;
+        }
+
+        JsonNode snapshot;
+        try {
+            snapshot = fetchSnapshot(book.upperSymbol);
+        } catch (Exception e) {
+            log.warn("⚠️ Depth snapshot failed for {}: {}", book.upperSymbol, e.getMessage());
+            snapshotQueue.add(book);
+            return;
+        }
+
+        synchronized (book) {
+            book.snapshotPending = false;
+            try {
+                loadSnapshot(book, snapshot);
+            } catch (RuntimeException e) {
+                log.error("Error loading depth snapshot for {}: {}", book.upperSymbol, e.getMessage());
+                book.reset();
+                book.snapshotPending = true;
+                snapshotQueue.add(book);
+            }
+        }
+    }
+
+    private void loadSnapshot(OrderBook book, JsonNode snapshot) {
+        book.reset();
+        // Chừa thêm một chữ số phần nguyên cho các mức lớn hơn đến sau snapshot
+        int scale = ScaledDecimal.SCALE;
+        for (JsonNode level : snapshot.get("bids")) {
+            scale = Math.min(scale, ScaledDecimal.fittingScale(new BigDecimal(level.get(1).asText()).movePointRight(1)));
+        }
+        for (JsonNode level : snapshot.get("asks")) {
+            scale = Math.min(scale, ScaledDecimal.fittingScale(new BigDecimal(level.get(1).asText()).movePointRight(1)));
+        }
+        book.quantityScale = scale;
+        for (JsonNode level : snapshot.get("bids")) {
+            book.bids.update(ScaledDecimal.parse(level.get(0).asText()),
+                    parseQuantity(level.get(1).asText(), 0, scale), 0);
+        }
+        for (JsonNode level : snapshot.get("asks")) {
+            book.asks.update(ScaledDecimal.parse(level.get(0).asText()),
+                    parseQuantity(level.get(1).asText(), 0, scale), 0);
+        }
+        book.lastUpdateId = snapshot.get("lastUpdateId").asLong();
+
+        String payload;
+        while ((payload = book.buffered.pollFirst()) != null) {
+            if (apply(book, payload) == ApplyResult.GAP) {
+                // Snapshot cũ hơn diff đầu tiên còn trong buffer -> lấy snapshot khác.
+                // Diff này cũ hơn mọi diff còn lại nên phải trả về đầu buffer để giữ đúng thứ tự.
+                metrics.countDepthResync("stale_snapshot");
+                book.reset();
+                book.buffered.addFirst(payload);
+                requestSnapshot(book);
+                return;
+            }
+        }
+        log.info("📚 Order book synced for {} at update {}", book.upperSymbol, book.lastUpdateId);
+    }
+
+    /**
+     * Khối lượng ở scale của sổ lệnh: chữ số lẻ vượt scale bị cắt, phần nguyên không vừa thì kẹp ở Long.MAX_VALUE
+     */
+    private long parseQuantity(CharSequence text, int from, int scale) {
+        if (ScaledDecimal.fittingScale(text, from) < scale) {
+            metrics.countDepthQuantityClamped();
+            return Long.MAX_VALUE;
+        }
+        return ScaledDecimal.parseTruncated(text, from, scale);
+    }
+
+    JsonNode fetchSnapshot(String symbol) {
+        String url = UriComponentsBuilder.fromUriString(restBaseUrl)
+                .path("/api/v3/depth")
+                .queryParam("symbol", symbol)
+                .queryParam("limit", Math.min(maxLevels, 5000))
+                .toUriString();
+        return restTemplate.getForObject(url, JsonNode.class);
+    }
+
+    /**
+     * Weight của /api/v3/depth theo limit (tài liệu Binance Spot API)
+     */
+    private static int snapshotWeight(int limit) {
+        if (limit <= 100) {
+            return 5;
+        }
+        if (limit <= 500) {
+            return 25;
+        }
+        if (limit <= 1000) {
+            return 50;
+        }
+        return 250;
+    }
+
+    private static List<OrderBookDTO.PriceLevel> toLevels(OrderBook.Side side, int limit, int quantityScale) {
+        int n = Math.max(0, Math.min(limit, side.size()));
+        List<OrderBookDTO.PriceLevel> result = new ArrayList<>(n);
+        for (int level = 0; level < n; level++) {
+            result.add(new OrderBookDTO.PriceLevel(
+                    ScaledDecimal.toBigDecimal(side.price(level)),
+                    ScaledDecimal.toBigDecimal(side.quantity(level), quantityScale)));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,231 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Ring buffer có giới hạn, một producer một consumer, giữa luồng nhận WebSocket và luồng publish Redis.
+ *
+ * Producer chỉ ghi slot rồi tăng tail (lazySet), consumer đọc một loạt slot rồi tăng head, nên đường
+ * đi bình thường không có lock. Khi ring đầy thì xử lý theo {@link OverflowPolicy}:
+ * <ul>
+ *   <li>BLOCK: producer chờ tới khi có chỗ (đẩy ngược áp lực về socket)</li>
+ *   <li>DROP_OLDEST: producer bỏ message cũ nhất bằng CAS trên head</li>
+ *   <li>COALESCE: message tràn được gom theo stream, chỉ giữ bản mới nhất (trừ nến đã đóng),
+ *       và chỉ được publish sau khi các message cũ hơn của ring đã đi hết để giữ thứ tự mỗi stream</li>
+ * </ul>
+ *
+ * Chỉ đúng khi mỗi lúc có tối đa một thread gọi {@link #accept}; các producer dùng chung phải tự đồng bộ.
+ */
+final class PublishRing implements BiConsumer<StreamRoute, String> {
+
+    enum OverflowPolicy { BLOCK, DROP_OLDEST, COALESCE }
+
+    private static final long BLOCK_PARK_NANOS = 50_000;
+
+    private final String name;
+    private final OverflowPolicy policy;
+    private final Runnable wakeConsumer;
+    private final int mask;
+    private final StreamRoute[] routes;
+    private final String[] payloads;
+
+    // Seq tuyệt đối: slot = seq & mask. head do consumer tăng (và producer khi DROP_OLDEST)
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    // Message tràn theo chính sách COALESCE, key là route (được cache nên so sánh identity)
+    private final Map<StreamRoute, Overflow> overflow = new ConcurrentHashMap<>();
+
+    // Mảng tạm của consumer, dùng lại giữa các lần drain
+    private StreamRoute[] batchRoutes = new StreamRoute[0];
+    private String[] batchPayloads = new String[0];
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    PublishRing(String name, int capacity, OverflowPolicy policy, Runnable wakeConsumer) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.name = name;
+        this.policy = policy;
+        this.wakeConsumer = wakeConsumer;
+        this.mask = size - 1;
+        this.routes = new StreamRoute[size];
+        this.payloads = new String[size];
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int depth() {
+        return (int) (tail.get() - head.get()) + overflow.size();
+    }
+
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Producer: đưa một message vào ring
+     */
+    @Override
+    public void accept(StreamRoute route, String payload) {
+        if (!overflow.isEmpty() && appendOverflow(route, payload)) {
+            // Stream này đang có message tràn chờ -> message mới phải đi sau nó
+            return;
+        }
+
+        long t = tail.get();
+        if (t - head.get() > mask) {
+            switch (policy) {
+                case BLOCK -> {
+                    while (t - head.get() > mask) {
+                        wakeConsumer.run();
+                        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    }
+                }
+                case DROP_OLDEST -> {
+                    // Consumer có thể vừa lấy đi đúng phần tử này; CAS thất bại nghĩa là đã có chỗ
+                    long h = head.get();
+                    if (t - h > mask && head.compareAndSet(h, h + 1)) {
+                        dropped.increment();
+                    }
+                }
+                case COALESCE -> {
+                    Overflow pending = new Overflow(t);
+                    pending.add(route, payload);
+                    overflow.put(route, pending);
+                    wakeConsumer.run();
+                    return;
+                }
+            }
+        }
+
+        int slot = (int) t & mask;
+        routes[slot] = route;
+        payloads[slot] = payload;
+        tail.lazySet(t + 1);
+        wakeConsumer.run();
+    }
+
+    private boolean appendOverflow(StreamRoute route, String payload) {
+        Overflow pending = overflow.get(route);
+        if (pending == null) {
+            return false;
+        }
+        synchronized (pending) {
+            if (pending.drained) {
+                return false;
+            }
+            if (pending.add(route, payload)) {
+                coalesced.increment();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Consumer: lấy tối đa {@code max} message theo thứ tự, gọi {@code sink} cho từng message
+     *
+     * @return số message đã lấy
+     */
+    int drain(int max, BiConsumer<StreamRoute, String> sink) {
+        if (batchRoutes.length < max) {
+            batchRoutes = new StreamRoute[max];
+            batchPayloads = new String[max];
+        }
+        int count = 0;
+        while (count < max) {
+            long h = head.get();
+            long available = tail.get() - h;
+            if (available <= 0) {
+                break;
+            }
+            int n = (int) Math.min(available, max - count);
+
+            // Đọc trước, chỉ xác nhận khi CAS head thành công (producer DROP_OLDEST có thể đã ghi đè)
+            for (int i = 0; i < n; i++) {
+                int slot = (int) (h + i) & mask;
+                batchRoutes[i] = routes[slot];
+                batchPayloads[i] = payloads[slot];
+            }
+            if (!head.compareAndSet(h, h + n)) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                sink.accept(batchRoutes[i], batchPayloads[i]);
+                batchPayloads[i] = null;
+            }
+            count += n;
+        }
+        if (!overflow.isEmpty()) {
+            count += drainOverflow(sink);
+        }
+        return count;
+    }
+
+    /**
+     * Publish các message tràn mà mọi message cũ hơn của ring đã được lấy đi
+     */
+    private int drainOverflow(BiConsumer<StreamRoute, String> sink) {
+        int count = 0;
+        long h = head.get();
+        Iterator<Map.Entry<StreamRoute, Overflow>> it = overflow.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<StreamRoute, Overflow> entry = it.next();
+            Overflow pending = entry.getValue();
+            if (pending.afterSeq > h) {
+                continue;
+            }
+            synchronized (pending) {
+                pending.drained = true;
+            }
+            overflow.remove(entry.getKey(), pending);
+            for (String payload : pending.payloads) {
+                sink.accept(entry.getKey(), payload);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Các message tràn của một stream. Bản chưa đóng mới nhất thay thế bản chưa đóng trước đó;
+     * nến đã đóng (x=true) luôn được giữ vì nó là bản ghi cuối cùng của nến đó.
+     */
+    private static final class Overflow {
+        final long afterSeq; // Chỉ publish khi head đã vượt qua seq này
+        final ArrayDeque<String> payloads = new ArrayDeque<>(2);
+        boolean lastPinned;
+        boolean drained;
+
+        Overflow(long afterSeq) {
+            this.afterSeq = afterSeq;
+        }
+
+        /**
+         * @return true nếu đã thay thế (gom) một message trước đó
+         */
+        boolean add(StreamRoute route, String payload) {
+            boolean replaced = false;
+            if (!payloads.isEmpty() && !lastPinned) {
+                payloads.pollLast();
+                replaced = true;
+            }
+            payloads.addLast(payload);
+            lastPinned = route.getKind() == StreamRoute.Kind.KLINE && payload.contains("\"x\":true");
+            return replaced;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.crypto.market_service.service;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff có jitter cho việc kết nối lại.
+ * Jitter giúp các replica/shard không cùng reconnect một lúc sau khi Binance rớt.
+ */
+class ReconnectBackoff {
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+
+    ReconnectBackoff(long initialDelayMs, long maxDelayMs) {
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * Độ trễ cho lần thử thứ {@code attempt} (bắt đầu từ 0): nằm trong [cap/2, cap],
+     * với cap = min(max, initial * 2^attempt)
+     */
+    long delayFor(int attempt) {
+        long cap = initialDelayMs << Math.min(attempt, 20);
+        if (cap <= 0 || cap > maxDelayMs) {
+            cap = maxDelayMs;
+        }
+        long half = cap / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
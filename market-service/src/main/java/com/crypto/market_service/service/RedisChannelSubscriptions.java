@@ -0,0 +1,243 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import com.crypto.market_service.config.RedisConfig;
+import com.crypto.market_service.config.WebSocketConfig;
+import com.crypto.market_service.event.ActiveSymbolsChangedEvent;
+import com.crypto.market_service.event.IngestionLeadershipChangedEvent;
+import com.crypto.market_service.repository.TradingSymbolRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đăng ký SUBSCRIBE từng kênh market_data:{symbol} thay vì một PSUBSCRIBE market_data:*.
+ *
+ * Leader (phải ghi DB) nghe mọi symbol ACTIVE. Replica standby chỉ nghe các symbol ACTIVE
+ * đang có client STOMP xem trên chính replica đó, nên không nhận traffic của các symbol không ai cần.
+ * Symbol mới được xem thì đăng ký ngay; symbol không còn ai xem, bị tắt hoặc bị xóa thì được
+ * hủy ở lần đồng bộ kế tiếp. Mọi thay đổi chạy tuần tự trên một thread riêng.
+ */
+@Component
+@Slf4j
+public class RedisChannelSubscriptions {
+
+    // channel: SUBSCRIBE từng kênh | pattern: một PSUBSCRIBE market_data:* như trước
+    @Value("${app.redis.subscription-mode:channel}")
+    private String mode;
+
+    // Đồng bộ định kỳ: replica khác có thể đã đổi symbols ACTIVE trong database
+    @Value("${app.redis.subscription-refresh-ms:30000}")
+    private long refreshMs;
+
+    @Autowired
+    private RedisMessageListenerContainer container;
+
+    @Autowired
+    private RedisSubscriber listener;
+
+    @Autowired
+    private TradingSymbolRepository symbolRepository;
+
+    @Autowired
+    private ExchangeAdapter exchange;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    // Số subscription STOMP theo symbol (chữ thường) và theo từng session
+    private final Map<String, Integer> watchers = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, String>> sessions = new ConcurrentHashMap<>();
+
+    // Chỉ truy cập trên thread đồng bộ
+    private final Set<String> subscribed = new HashSet<>();
+    private volatile int subscribedCount;
+
+    private ScheduledExecutorService executor;
+
+    @PostConstruct
+    void init() {
+        if (!isChannelMode()) {
+            container.addMessageListener(listener, new PatternTopic(RedisConfig.MARKET_TOPIC_PATTERN));
+            log.info("📡 Redis subscriptions: pattern {}", RedisConfig.MARKET_TOPIC_PATTERN);
+            return;
+        }
+        metrics.registerRedisSubscriptions(() -> subscribedCount);
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "redis-channel-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::safeRefresh, 0, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onActiveSymbolsChanged(ActiveSymbolsChangedEvent event) {
+        requestRefresh();
+    }
+
+    @EventListener
+    public void onLeadershipChanged(IngestionLeadershipChangedEvent event) {
+        requestRefresh();
+    }
+
+    @EventListener
+    public void onStompSubscribe(SessionSubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        String symbol = symbolOf(headers.getDestination());
+        if (symbol == null || headers.getSessionId() == null || headers.getSubscriptionId() == null) {
+            return;
+        }
+        sessions.computeIfAbsent(headers.getSessionId(), id -> new ConcurrentHashMap<>())
+                .put(headers.getSubscriptionId(), symbol);
+        if (watchers.merge(symbol, 1, Integer::sum) == 1) {
+            // Client đầu tiên xem symbol này: đăng ký ngay, không chờ lần đồng bộ định kỳ
+            requestRefresh();
+        }
+    }
+
+    @EventListener
+    public void onStompUnsubscribe(SessionUnsubscribeEvent event) {
+        StompHeaderAccessor headers = StompHeaderAccessor.wrap(event.getMessage());
+        Map<String, String> subscriptions = headers.getSessionId() == null ? null : sessions.get(headers.getSessionId());
+        if (subscriptions != null && headers.getSubscriptionId() != null) {
+            unwatch(subscriptions.remove(headers.getSubscriptionId()));
+        }
+    }
+
+    @EventListener
+    public void onStompDisconnect(SessionDisconnectEvent event) {
+        Map<String, String> subscriptions = sessions.remove(event.getSessionId());
+        if (subscriptions != null) {
+            subscriptions.values().forEach(this::unwatch);
+        }
+    }
+
+    private void unwatch(String symbol) {
+        if (symbol != null) {
+            // Không hủy ngay: client thường subscribe lại ngay sau đó (đổi biểu đồ, reload trang)
+            watchers.computeIfPresent(symbol, (s, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    private void requestRefresh() {
+        if (executor != null) {
+            executor.execute(this::safeRefresh);
+        }
+    }
+
+    private void safeRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.error("❌ Failed to sync Redis channel subscriptions: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Đưa các kênh đang SUBSCRIBE về đúng tập mong muốn, chỉ gửi phần chênh lệch
+     */
+    private void refresh() {
+        Set<String> desired = desiredChannels();
+
+        List<ChannelTopic> toAdd = new ArrayList<>();
+        for (String channel : desired) {
+            if (!subscribed.contains(channel)) {
+                toAdd.add(new ChannelTopic(channel));
+            }
+        }
+        List<ChannelTopic> toRemove = new ArrayList<>();
+        for (String channel : subscribed) {
+            if (!desired.contains(channel)) {
+                toRemove.add(new ChannelTopic(channel));
+            }
+        }
+        if (toAdd.isEmpty() && toRemove.isEmpty()) {
+            return;
+        }
+
+        if (!toRemove.isEmpty()) {
+            container.removeMessageListener(listener, toRemove);
+            toRemove.forEach(topic -> subscribed.remove(topic.getTopic()));
+        }
+        if (!toAdd.isEmpty()) {
+            container.addMessageListener(listener, toAdd);
+            toAdd.forEach(topic -> subscribed.add(topic.getTopic()));
+        }
+        subscribedCount = subscribed.size();
+        log.info("📡 Redis channel subscriptions updated: +{} -{} (total {})",
+                 toAdd.size(), toRemove.size(), subscribed.size());
+    }
+
+    private Set<String> desiredChannels() {
+        List<String> symbols = exchange.symbols();
+        if (symbols == null) {
+            symbols = symbolRepository.findByActiveTrue().stream().map(s -> s.getSymbol()).toList();
+        }
+        boolean leader = leaderElection.isLeader();
+
+        Set<String> channels = new HashSet<>();
+        for (String symbol : symbols) {
+            String lower = symbol.toLowerCase();
+            if (leader || watchers.containsKey(lower)) {
+                channels.add(RedisConfig.MARKET_TOPIC_PREFIX + lower);
+            }
+        }
+        return channels;
+    }
+
+    private boolean isChannelMode() {
+        return !"pattern".equalsIgnoreCase(mode.trim());
+    }
+
+    /**
+     * /topic/market/btcusdt hoặc /topic/depth/btcusdt -> btcusdt
+     */
+    private static String symbolOf(String destination) {
+        if (destination == null) {
+            return null;
+        }
+        String symbol;
+        if (destination.startsWith(WebSocketConfig.MARKET_TOPIC_PREFIX)) {
+            symbol = destination.substring(WebSocketConfig.MARKET_TOPIC_PREFIX.length());
+        } else if (destination.startsWith(WebSocketConfig.DEPTH_TOPIC_PREFIX)) {
+            symbol = destination.substring(WebSocketConfig.DEPTH_TOPIC_PREFIX.length());
+        } else {
+            return null;
+        }
+        return symbol.isEmpty() ? null : symbol.toLowerCase();
+    }
+}
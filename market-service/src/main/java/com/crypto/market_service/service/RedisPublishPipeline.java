@@ -0,0 +1,374 @@
+package com.crypto.market_service.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.KlineInterval;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tầng publish Redis tách khỏi luồng nhận WebSocket.
+ *
+ * Mỗi shard ghi vào một PublishRing riêng (một producer), các nguồn khác (timer, phát lại journal)
+ * dùng chung một ring có lock. Một thread publisher gom message từ mọi ring thành từng batch và
+ * gửi bằng một lần pipeline Redis, nên Redis chậm hay lỗi chỉ làm ring đầy chứ không chặn socket
+ * (trừ khi chọn chính sách BLOCK).
+ *
+ * Batch gửi lỗi không bị bỏ: thread publisher giữ nguyên batch và gửi lại với backoff tăng dần (có jitter)
+ * chừng nào replica còn là leader, không lấy thêm từ ring trong lúc đó. Ring đầy thì chính sách tràn quyết
+ * định phần mới đến. Lần gửi lỗi giữa chừng có thể đã đi một phần, nên sau khi gửi lại một message có thể
+ * đến hai lần; upsert theo khối lượng của KlinePersister và client (thay nến theo openTime) chịu được điều đó.
+ *
+ * Với {@code app.redis.persistence-transport=stream}, message kline còn được XADD (có MAXLEN) vào
+ * Redis Stream trong cùng pipeline để KlineStreamConsumer ghi DB qua consumer group.
+ *
+ * Message kline còn được HSET vào hash của {@link LatestKlineStore} (bản mới nhất của mỗi stream) để
+ * mọi replica đọc cùng một nến đang mở cho API.
+ *
+ * Mỗi batch chỉ được gửi nếu replica vẫn là leader ngay trước khi gửi: message còn nằm trong ring
+ * (hoặc trong cửa sổ gom) khi mất quyền leader bị bỏ chứ không được publish/XADD muộn.
+ *
+ * Message kline được mã hóa một lần tại đây sang định dạng nhị phân {@link KlineCodec} (trừ khi
+ * {@code app.redis.kline-encoding=json}); symbol chưa có id trong database vẫn đi dạng JSON.
+ */
+@Component
+@Slf4j
+public class RedisPublishPipeline {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long RETRY_INITIAL_BACKOFF_MS = 100;
+    private static final long RETRY_MAX_BACKOFF_MS = 5000;
+
+    @Value("${app.binance.publish.ring-size:8192}")
+    private int ringSize;
+
+    @Value("${app.binance.publish.batch-size:256}")
+    private int batchSize;
+
+    // block | drop-oldest | coalesce
+    @Value("${app.binance.publish.overflow-policy:coalesce}")
+    private String overflowPolicy;
+
+    @Value("${app.redis.persistence-transport:pubsub}")
+    private String persistenceTransport;
+
+    @Value("${app.redis.stream.key:market_klines}")
+    private String streamKey;
+
+    // Trim xấp xỉ (~) để Redis chỉ cắt theo cả node, rẻ hơn trim chính xác
+    @Value("${app.redis.stream.maxlen:100000}")
+    private long streamMaxLen;
+
+    // binary: KlineCodec 68 bytes | json: payload gốc của Binance (tương thích)
+    @Value("${app.redis.kline-encoding:binary}")
+    private String klineEncoding;
+
+    // Nến 1s/5s từ aggTrade không vào stream ghi DB, trừ khi bật
+    @Value("${app.binance.trades.persist-bars:false}")
+    private boolean persistSubMinute;
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private SymbolIdRegistry symbolIds;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
+
+    @Autowired
+    private LatestKlineStore latestKlines;
+
+    @Autowired
+    private MarketMetrics metrics;
+
+    private final List<PublishRing> rings = new CopyOnWriteArrayList<>();
+    private PublishRing.OverflowPolicy policy;
+    private PublishRing sharedRing;
+    private BiConsumer<StreamRoute, String> sharedPublisher;
+
+    private Thread publisher;
+    private volatile boolean running;
+    private volatile boolean idle;
+
+    // Batch đang gom của thread publisher
+    private byte[][] batchChannels;
+    private byte[][] batchPayloads;
+    private long[] batchEventTimes;
+    private boolean[] batchPersist;
+    private byte[][] batchLatestFields;
+    private int batchCount;
+
+    private final ReconnectBackoff retryBackoff = new ReconnectBackoff(RETRY_INITIAL_BACKOFF_MS, RETRY_MAX_BACKOFF_MS);
+    private int failedAttempts; // số lần gửi lỗi liên tiếp của batch hiện tại
+
+    private boolean streamTransport;
+    private boolean binaryKlines;
+    private final KlineFrame encodeFrame = new KlineFrame(); // chỉ dùng trên thread publisher
+    private byte[] streamKeyBytes;
+    private RedisStreamCommands.XAddOptions xAddOptions;
+
+    @PostConstruct
+    void init() {
+        policy = PublishRing.OverflowPolicy.valueOf(overflowPolicy.trim().toUpperCase().replace('-', '_'));
+        batchChannels = new byte[batchSize][];
+        batchPayloads = new byte[batchSize][];
+        batchEventTimes = new long[batchSize];
+        batchPersist = new boolean[batchSize];
+        batchLatestFields = new byte[batchSize][];
+
+        streamTransport = "stream".equalsIgnoreCase(persistenceTransport.trim());
+        binaryKlines = !"json".equalsIgnoreCase(klineEncoding.trim());
+        streamKeyBytes = streamKey.getBytes(StandardCharsets.UTF_8);
+        xAddOptions = RedisStreamCommands.XAddOptions.maxlen(streamMaxLen).approximateTrimming(true);
+
+        sharedRing = newRing("shared");
+        sharedPublisher = (route, payload) -> {
+            synchronized (sharedRing) {
+                sharedRing.accept(route, payload);
+            }
+        };
+
+        running = true;
+        publisher = new Thread(this::run, "redis-publisher");
+        publisher.setDaemon(true);
+        publisher.start();
+        log.info("📤 Redis publish pipeline started: ring {} / batch {} / overflow {}", ringSize, batchSize, policy);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(publisher);
+        publisher.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Ring riêng cho một producer duy nhất (VD: luồng nhận của một shard)
+     */
+    public BiConsumer<StreamRoute, String> newLane(String name) {
+        return newRing(name);
+    }
+
+    /**
+     * Publisher dùng chung cho các nguồn không có ring riêng, an toàn khi gọi từ nhiều thread
+     */
+    public BiConsumer<StreamRoute, String> sharedLane() {
+        return sharedPublisher;
+    }
+
+    private PublishRing newRing(String name) {
+        PublishRing ring = new PublishRing(name, ringSize, policy, this::wake);
+        rings.add(ring);
+        metrics.registerPublishRing(name, ring::depth, ring::droppedCount, ring::coalescedCount);
+        return ring;
+    }
+
+    private void wake() {
+        if (idle) {
+            LockSupport.unpark(publisher);
+        }
+    }
+
+    private void run() {
+        BiConsumer<StreamRoute, String> collector = this::collect;
+        while (running) {
+            try {
+                publishOnce(collector);
+            } catch (Exception e) {
+                // Lỗi không lường trước không được làm chết thread publisher duy nhất
+                idle = false;
+                log.error("❌ Redis publisher loop failed, continuing", e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(RETRY_INITIAL_BACKOFF_MS));
+            }
+        }
+        // Đẩy nốt phần còn lại khi tắt, mỗi batch chỉ thử một lần
+        for (PublishRing ring : rings) {
+            while (ring.drain(batchSize - batchCount, collector) > 0) {
+                flushOnce();
+            }
+        }
+        flushOnce();
+    }
+
+    private void publishOnce(BiConsumer<StreamRoute, String> collector) {
+        if (!flush()) {
+            // Redis vẫn lỗi: gửi lại batch đang giữ trước khi lấy thêm từ ring
+            return;
+        }
+        int drained = 0;
+        for (PublishRing ring : rings) {
+            drained += ring.drain(batchSize - batchCount, collector);
+            if (batchCount == batchSize && !flush()) {
+                return;
+            }
+        }
+        if (!flush()) {
+            return;
+        }
+
+        if (drained == 0) {
+            // Báo cho producer biết cần đánh thức, rồi kiểm tra lại trước khi ngủ;
+            // nếu lỡ một lần đánh thức thì chỉ trễ tối đa IDLE_PARK_NANOS
+            idle = true;
+            if (isEmpty()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            idle = false;
+        }
+    }
+
+    private boolean isEmpty() {
+        for (PublishRing ring : rings) {
+            if (ring.depth() > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void collect(StreamRoute route, String payload) {
+        // Message tràn (COALESCE) được lấy ra ngoài giới hạn của drain, batch có thể đã đầy
+        while (batchCount == batchSize && !flush()) {
+            if (!running) {
+                dropUnsent();
+            }
+        }
+        byte[] bytes = null;
+        long eventTime = -1;
+        try {
+            if (binaryKlines && route.getKind() == StreamRoute.Kind.KLINE) {
+                bytes = encodeKline(route, payload);
+            }
+            eventTime = MarketMetrics.eventTimeOf(payload);
+        } catch (RuntimeException e) {
+            // Payload lạ chỉ mất dạng nhị phân, vẫn được gửi nguyên văn
+            bytes = null;
+            metrics.countPublishEncodeFailure();
+            log.warn("⚠️ Cannot encode message of {}, publishing it as JSON: {}", route.getStream(), e.toString());
+        }
+        batchChannels[batchCount] = route.getChannelBytes();
+        batchPayloads[batchCount] = bytes != null ? bytes : payload.getBytes(StandardCharsets.UTF_8);
+        batchEventTimes[batchCount] = eventTime;
+        batchPersist[batchCount] = streamTransport && route.getKind() == StreamRoute.Kind.KLINE && persists(route);
+        batchLatestFields[batchCount] = route.getKind() == StreamRoute.Kind.KLINE ? route.getStreamBytes() : null;
+        batchCount++;
+    }
+
+    private boolean persists(StreamRoute route) {
+        if (persistSubMinute) {
+            return true;
+        }
+        KlineInterval interval = KlineInterval.fromLabel(route.getInterval());
+        return interval == null || !interval.isSubMinute();
+    }
+
+    /**
+     * @return kline dạng nhị phân, hoặc null nếu phải gửi JSON (symbol chưa có id, interval không hỗ trợ,
+     *         giá không vừa ScaledDecimal, payload thiếu field)
+     */
+    private byte[] encodeKline(StreamRoute route, String payload) {
+        int symbolId = symbolIds.idOf(route.getUpperSymbol());
+        if (symbolId < 0 || !KlineCodec.parseJson(payload, route, encodeFrame)) {
+            return null;
+        }
+        encodeFrame.symbolId = symbolId;
+        return KlineCodec.encode(encodeFrame);
+    }
+
+    /**
+     * Gửi cả batch trong một pipeline: một lần round trip thay vì một lần cho mỗi message
+     *
+     * @return false nếu Redis lỗi: batch được giữ lại để gửi lại, thread đã chờ hết backoff
+     */
+    private boolean flush() {
+        int count = batchCount;
+        if (count == 0) {
+            return true;
+        }
+        if (!leaderElection.isLeader()) {
+            discard(count);
+            return true;
+        }
+        long start = System.nanoTime();
+        try {
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                publishAll(connection, count);
+                return null;
+            });
+        } catch (Exception e) {
+            metrics.countPublishFailure(count);
+            long delay = retryBackoff.delayFor(failedAttempts++);
+            log.error("❌ Redis publish of {} messages failed ({} attempts), retrying in {} ms: {}",
+                      count, failedAttempts, delay, e.getMessage());
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+            return false;
+        }
+        metrics.recordPublishBatch(count, System.nanoTime() - start);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            metrics.recordLatency(MarketMetrics.LatencyStage.PUBLISH, batchEventTimes[i], now);
+        }
+        clear(count);
+        return true;
+    }
+
+    /**
+     * Khi tắt: gửi một lần, lỗi thì bỏ batch (đã được đếm vào market.publish.failures)
+     */
+    private void flushOnce() {
+        if (!flush()) {
+            dropUnsent();
+        }
+    }
+
+    private void dropUnsent() {
+        log.error("❌ {} messages not published on shutdown", batchCount);
+        clear(batchCount);
+    }
+
+    private void discard(int count) {
+        metrics.countPublishFenced(count);
+        clear(count);
+    }
+
+    private void clear(int count) {
+        for (int i = 0; i < count; i++) {
+            batchPayloads[i] = null;
+        }
+        batchCount = 0;
+        failedAttempts = 0;
+    }
+
+    private void publishAll(RedisConnection connection, int count) {
+        byte[] latestKey = latestKlines.keyBytes();
+        for (int i = 0; i < count; i++) {
+            connection.publish(batchChannels[i], batchPayloads[i]);
+            if (batchLatestFields[i] != null) {
+                connection.hashCommands().hSet(latestKey, batchLatestFields[i], batchPayloads[i]);
+            }
+            if (batchPersist[i]) {
+                connection.streamCommands().xAdd(
+                        MapRecord.create(streamKeyBytes, Map.of(KlineStreamConsumer.PAYLOAD_FIELD_BYTES, batchPayloads[i])),
+                        xAddOptions);
+            }
+        }
+    }
+}
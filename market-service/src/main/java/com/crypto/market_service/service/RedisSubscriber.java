@@ -1,79 +1,192 @@
 package com.crypto.market_service.service;
 
-import com.crypto.market_service.entity.Kline;
-import com.crypto.market_service.repository.KlineRepository;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.Optional;
+import java.nio.charset.StandardCharsets;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 @Service
 @Slf4j
-public class RedisSubscriber {
+public class RedisSubscriber implements MessageListener {
 
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
 
     @Autowired
-    private ObjectMapper objectMapper;
+    private KlinePersister persister;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    @Autowired
+    private IngestionLeaderElection leaderElection;
 
     @Autowired
-    private KlineRepository klineRepository; // <--- Inject Repository
+    private MarketMetrics metrics;
+
+    @Autowired
+    private SymbolIdRegistry symbolIds;
+
+    // pubsub: leader ghi DB từ Pub/Sub | stream: KlineStreamConsumer ghi DB từ consumer group
+    @Value("${app.redis.persistence-transport:pubsub}")
+    private String persistenceTransport;
+
+    // Số stripe xử lý song song, message cùng symbol luôn vào cùng stripe nên giữ đúng thứ tự
+    @Value("${app.redis.listener.stripes:0}")
+    private int stripeCount;
+
+    @Value("${app.redis.listener.queue-capacity:4096}")
+    private int queueCapacity;
+
+    private StripedExecutor stripes;
+
+    // Mỗi thread listener giải mã vào frame và buffer riêng, dùng lại giữa các message
+    private final ThreadLocal<KlineFrame> frames = ThreadLocal.withInitial(KlineFrame::new);
+    private final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    @PostConstruct
+    void init() {
+        int count = stripeCount > 0 ? stripeCount : Runtime.getRuntime().availableProcessors();
+        stripes = new StripedExecutor("redis-subscriber", count, queueCapacity, metrics);
+        log.info("📬 Redis subscriber using {} stripes, queue capacity {}", count, queueCapacity);
+    }
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        stripes.shutdown(5000);
+    }
+
+    /**
+     * Message từ Redis: kline nhị phân (byte đầu 0xB1) hoặc JSON của Binance.
+     * Gọi tuần tự trên thread nhận của Redis; chỉ xác định symbol rồi giao cho stripe của symbol đó.
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        byte[] body = message.getBody();
+        try {
+            if (KlineCodec.isBinary(body)) {
+                SymbolIdRegistry.SymbolRef symbol = symbolIds.byId(KlineCodec.symbolIdOf(body));
+                if (symbol == null) {
+                    // Symbol mới chưa có trong bảng id: bỏ frame này thay vì truy vấn DB trên thread nhận,
+                    // các frame sau đọc được khi bảng nạp nền xong
+                    log.warn("Unknown symbol id {} in binary kline, dropped until symbol ids reload",
+                             KlineCodec.symbolIdOf(body));
+                    return;
+                }
+                // Cùng khóa với message JSON của symbol đó, nên đổi định dạng giữa chừng không đảo thứ tự
+                stripes.execute(symbol.symbol().hashCode(), () -> handleBinaryKline(body, symbol));
+            } else {
+                String text = new String(body, StandardCharsets.UTF_8);
+                StreamRoute route = streamRouter.route(text);
+                if (route != null) {
+                    stripes.execute(route.getUpperSymbol().hashCode(), () -> handleMessage(text, route));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
     public void handleMessage(String message) {
+        StreamRoute route = streamRouter.route(message);
+        if (route != null) {
+            handleMessage(message, route);
+        }
+    }
+
+    private void handleMessage(String message, StreamRoute route) {
         try {
-            JsonNode node = objectMapper.readTree(message);
+            long eventTime = MarketMetrics.eventTimeOf(message);
+            metrics.recordLatency(MarketMetrics.LatencyStage.SUBSCRIBE, eventTime, System.currentTimeMillis());
 
-            if (node.has("stream")) {
-                String stream = node.get("stream").asText();
-                String symbol = stream.split("@")[0].toUpperCase();
+            // 1. Gửi WebSocket (Real-time)
+            sendToClients(route.getTopic(), message, eventTime);
 
-                // 1. Gửi WebSocket (Real-time)
-                String wsTopic = "/topic/market/" + symbol.toLowerCase();
-                messagingTemplate.convertAndSend(wsTopic, message);
+            // Sổ lệnh chỉ đẩy real-time, không lưu
+            if (route.getKind() != StreamRoute.Kind.KLINE) {
+                return;
+            }
 
-                // 2. Lưu Database
-                saveKline(node.get("data"), symbol);
+            // 2. Lưu Database (bất đồng bộ); replica không ghi DB vẫn giữ nến hiện tại cho API
+            KlineFrame frame = frames.get();
+            if (KlineCodec.parseJson(message, route, frame)) {
+                persister.record(frame, persistsFromPubSub());
             }
         } catch (Exception e) {
             log.error("Error handling message", e);
         }
     }
 
-    private void saveKline(JsonNode data, String symbol) {
+    private void handleBinaryKline(byte[] body, SymbolIdRegistry.SymbolRef symbol) {
         try {
-            JsonNode k = data.get("k");
-            // k: { t: start, T: end, o: open, c: close, ... }
+            KlineFrame frame = frames.get();
+            if (!decode(body, frame, symbol)) {
+                return;
+            }
+            metrics.recordLatency(MarketMetrics.LatencyStage.SUBSCRIBE, frame.eventTime, System.currentTimeMillis());
 
-            long openTimeLong = k.get("t").asLong();
-            LocalDateTime openTime = Kline.convertTime(openTimeLong);
+            // Client STOMP vẫn nhận định dạng kline của Binance
+            sendToClients(frame.topic, KlineCodec.toJson(frame, buffers.get()), frame.eventTime);
 
-            String interval = k.has("i") ? k.get("i").asText() : "1m";
+            persister.record(frame, persistsFromPubSub());
+        } catch (Exception e) {
+            log.error("Error handling binary kline", e);
+        }
+    }
 
-            // Kiểm tra xem nến này đã tồn tại chưa để update
-            Optional<Kline> existing = klineRepository.findBySymbolAndIntervalAndOpenTime(symbol, interval, openTime);
+    private void sendToClients(String topic, String message, long eventTime) {
+        long sendStart = System.nanoTime();
+        messagingTemplate.convertAndSend(topic, message);
+        metrics.recordStompSend(System.nanoTime() - sendStart);
+        // Đo tới lúc giao cho broker STOMP, phần mạng tới trình duyệt không đo được ở server
+        metrics.recordLatency(MarketMetrics.LatencyStage.STOMP, eventTime, System.currentTimeMillis());
+    }
 
-            Kline kline = existing.orElse(new Kline());
-            kline.setSymbol(symbol);
-            kline.setOpenTime(openTime);
-            kline.setCloseTime(Kline.convertTime(k.get("T").asLong()));
-            kline.setOpenPrice(new BigDecimal(k.get("o").asText()));
-            kline.setHighPrice(new BigDecimal(k.get("h").asText()));
-            kline.setLowPrice(new BigDecimal(k.get("l").asText()));
-            kline.setClosePrice(new BigDecimal(k.get("c").asText()));
-            kline.setVolume(new BigDecimal(k.get("v").asText()));
-            kline.setInterval(interval);
+    /**
+     * Mọi replica đẩy WebSocket cho client của mình, nhưng chỉ leader ghi DB (trừ khi ghi qua Redis Streams)
+     */
+    private boolean persistsFromPubSub() {
+        return leaderElection.isLeader() && !"stream".equalsIgnoreCase(persistenceTransport);
+    }
 
-            klineRepository.save(kline);
+    /**
+     * Giải mã một message kline (nhị phân hoặc JSON) để ghi DB, dùng cho Redis Streams
+     *
+     * @return false nếu không phải kline hợp lệ
+     */
+    boolean decodeKline(byte[] body, KlineFrame frame) {
+        if (KlineCodec.isBinary(body)) {
+            return decode(body, frame, symbolIds.resolveById(KlineCodec.symbolIdOf(body)));
+        }
+        String message = new String(body, StandardCharsets.UTF_8);
+        StreamRoute route = streamRouter.route(message);
+        return route != null && route.getKind() == StreamRoute.Kind.KLINE
+                && KlineCodec.parseJson(message, route, frame);
+    }
 
-        } catch (Exception e) {
-            log.error("Save DB Error: {}", e.getMessage());
+    /**
+     * Giải mã và điền symbol đã tra theo id
+     */
+    private boolean decode(byte[] body, KlineFrame frame, SymbolIdRegistry.SymbolRef symbol) {
+        if (!KlineCodec.decode(body, frame)) {
+            log.warn("Malformed binary kline of {} bytes", body.length);
+            return false;
+        }
+        if (symbol == null) {
+            log.warn("Unknown symbol id {} in binary kline", frame.symbolId);
+            return false;
         }
+        frame.symbol = symbol.symbol();
+        frame.streamSymbol = symbol.streamSymbol();
+        frame.topic = symbol.topic();
+        return true;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,102 @@
+package com.crypto.market_service.service;
+
+import java.math.BigDecimal;
+
+import com.crypto.market_service.util.ScaledDecimal;
+
+/**
+ * Một đại lượng cộng dồn: long nhân 10^scale. Scale bắt đầu từ 8 và chỉ giảm khi tổng không còn vừa long
+ * (khối lượng của token giá rất nhỏ), giống khối lượng trong {@link KlineFrame}.
+ *
+ * Không thread-safe: dùng dưới lock của nến chứa nó.
+ */
+final class ScaledAmount {
+
+    long value;
+    int scale = ScaledDecimal.SCALE;
+
+    void clear() {
+        value = 0;
+        scale = ScaledDecimal.SCALE;
+    }
+
+    void copyFrom(ScaledAmount other) {
+        value = other.value;
+        scale = other.scale;
+    }
+
+    /**
+     * Cộng số thập phân bắt đầu tại {@code at}; không làm gì nếu {@code at} < 0 (field không có)
+     */
+    void add(CharSequence text, int at) {
+        if (at < 0) {
+            return;
+        }
+        int textScale = ScaledDecimal.fittingScale(text, at);
+        add(ScaledDecimal.parse(text, at, textScale), textScale);
+    }
+
+    void add(ScaledAmount other) {
+        add(other.value, other.scale);
+    }
+
+    /**
+     * @throws ArithmeticException nếu tổng không biểu diễn được chính xác bằng long
+     */
+    void add(long otherValue, int otherScale) {
+        int target = Math.min(scale, otherScale);
+        while (true) {
+            long a = ScaledDecimal.rescale(value, scale, target);
+            long b = ScaledDecimal.rescale(otherValue, otherScale, target);
+            long sum = a + b;
+            // Tràn khi hai số cùng dấu mà tổng khác dấu
+            if (((a ^ sum) & (b ^ sum)) >= 0) {
+                value = sum;
+                scale = target;
+                return;
+            }
+            if (target == 0) {
+                throw new ArithmeticException("long overflow");
+            }
+            target--;
+        }
+    }
+
+    /**
+     * Cộng tích a·b (VD: giá x khối lượng = khối lượng quote). Tích được tính đủ 128 bit, chữ số lẻ
+     * vượt quá 8 (hoặc vượt quá số chữ số để vừa long) bị cắt bỏ trước khi cộng, không cấp phát.
+     *
+     * @throws ArithmeticException nếu phần nguyên của tích hoặc của tổng không vừa long
+     */
+    void addProduct(long a, int aScale, long b, int bScale) {
+        boolean negative = (a < 0) != (b < 0);
+        long x = Math.abs(a);
+        long y = Math.abs(b);
+        // x, y < 2^63 nên tích < 2^126: phần cao theo multiplyHigh (có dấu) không âm và đúng
+        long high = Math.multiplyHigh(x, y);
+        long low = x * y;
+        int productScale = aScale + bScale;
+        while (productScale > ScaledDecimal.SCALE || high != 0 || low < 0) {
+            if (productScale == 0) {
+                throw new ArithmeticException("long overflow");
+            }
+            // Chia số 128 bit (high, low) cho 10 theo từng khúc 32 bit, số dư mỗi bước < 10
+            long remainder = high % 10;
+            high /= 10;
+            long upper = (remainder << 32) | (low >>> 32);
+            remainder = upper % 10;
+            long lower = (remainder << 32) | (low & 0xFFFFFFFFL);
+            low = ((upper / 10) << 32) | (lower / 10);
+            productScale--;
+        }
+        add(negative ? -low : low, productScale);
+    }
+
+    StringBuilder appendTo(StringBuilder out) {
+        return ScaledDecimal.appendTo(out, value, scale);
+    }
+
+    BigDecimal toBigDecimal() {
+        return ScaledDecimal.toBigDecimal(value, scale);
+    }
+}
@@ -0,0 +1,451 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.TextMessage;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sàn giả lập trong process để chạy cả pipeline (Redis -> RedisSubscriber -> DB/STOMP) không cần mạng.
+ *
+ * Mỗi kết nối có một thread phát frame kline/aggTrade theo đúng định dạng combined-stream của Binance,
+ * với tổng tốc độ {@code messages-per-second} chia theo số streams của từng kết nối. Giá mỗi symbol đi
+ * theo random walk; mỗi message là một trade mới được cộng vào mọi nến của symbol đó, nên nến các
+ * interval luôn nhất quán với nhau và nến cũ được phát lại một lần với x=true khi sang nến mới.
+ *
+ * Stream sổ lệnh không được giả lập. Không lấp dữ liệu khi kết nối (không có lịch sử để lấp).
+ */
+@Component
+@ConditionalOnProperty(name = "app.exchange.adapter", havingValue = "simulator")
+@Slf4j
+public class SimulatedExchangeAdapter implements ExchangeAdapter {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Bị chậm quá mức này (VD: pipeline nghẽn) thì bỏ qua phần nợ thay vì phát dồn
+    private static final long MAX_CATCH_UP_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final String KLINE_PREFIX = "@kline_";
+    private static final String AGG_TRADE = "@aggTrade";
+
+    // Số symbols tự sinh (SIM0001USDT, ...), 0 = dùng symbols ACTIVE trong database
+    @Value("${app.exchange.simulator.symbols:0}")
+    private int symbolCount;
+
+    // Tổng số message mỗi giây trên mọi kết nối
+    @Value("${app.exchange.simulator.messages-per-second:1000}")
+    private double messagesPerSecond;
+
+    // Độ lệch chuẩn của thay đổi giá mỗi trade (tỉ lệ)
+    @Value("${app.exchange.simulator.volatility:0.0005}")
+    private double volatility;
+
+    // Giá trị trung bình của một trade, tính bằng quote asset
+    @Value("${app.exchange.simulator.mean-trade-notional:500}")
+    private double meanTradeNotional;
+
+    @Value("${app.exchange.simulator.seed:42}")
+    private long seed;
+
+    private List<String> symbols;
+
+    // Tổng số streams của mọi kết nối đang chạy, để chia tốc độ
+    private final AtomicInteger totalStreams = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        if (symbolCount > 0) {
+            symbols = new ArrayList<>(symbolCount);
+            for (int i = 1; i <= symbolCount; i++) {
+                symbols.add(String.format("SIM%04dUSDT", i));
+            }
+        }
+        log.info("🧪 Exchange simulator: {} symbols, {} msg/s",
+                symbolCount > 0 ? symbolCount : "database", messagesPerSecond);
+    }
+
+    @Override
+    public String getName() {
+        return "simulator";
+    }
+
+    @Override
+    public List<String> symbols() {
+        return symbols;
+    }
+
+    @Override
+    public ExchangeConnection newConnection(int index,
+                                            IntFunction<List<String>> streamsForShard,
+                                            Consumer<TextMessage> messageHandler,
+                                            Consumer<List<String>> connectedListener,
+                                            ScheduledExecutorService supervisor) {
+        return new SimulatedConnection(index, streamsForShard, messageHandler);
+    }
+
+    private final class SimulatedConnection implements ExchangeConnection {
+
+        private final int index;
+        private final IntFunction<List<String>> streamsForShard;
+        private final Consumer<TextMessage> messageHandler;
+        private final SplittableRandom random;
+
+        private volatile Thread thread;
+        private volatile boolean running;
+
+        // Danh sách streams mới chờ thread phát áp dụng
+        private volatile List<String> pendingStreams;
+
+        // Các field dưới đây chỉ dùng trên thread phát
+        private final Map<String, SimSymbol> symbolsByName = new HashMap<>();
+        private SimStream[] streams = new SimStream[0];
+        private int streamCount;
+        private int next;
+        private final StringBuilder out = new StringBuilder(512);
+
+        SimulatedConnection(int index, IntFunction<List<String>> streamsForShard, Consumer<TextMessage> messageHandler) {
+            this.index = index;
+            this.streamsForShard = streamsForShard;
+            this.messageHandler = messageHandler;
+            this.random = new SplittableRandom(seed + index);
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public synchronized void start() {
+            if (running) {
+                return;
+            }
+            running = true;
+            pendingStreams = null;
+            thread = new Thread(this::run, "exchange-sim-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public synchronized void stop() {
+            running = false;
+            Thread current = thread;
+            if (current != null) {
+                LockSupport.unpark(current);
+                try {
+                    current.join(TimeUnit.SECONDS.toMillis(5));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                thread = null;
+            }
+        }
+
+        @Override
+        public void checkHealth() {
+            // Không có kết nối mạng để kiểm tra
+        }
+
+        @Override
+        public void updateStreams(List<String> streams) {
+            pendingStreams = List.copyOf(streams);
+        }
+
+        @Override
+        public void reconnect() {
+            updateStreams(streamsForShard.apply(index));
+        }
+
+        private void run() {
+            try {
+                applyStreams(streamsForShard.apply(index));
+            } catch (Exception e) {
+                log.error("❌ Simulator shard {} could not load its streams", index, e);
+            }
+            log.info("✅ Simulator shard {} streaming {} streams", index, streamCount);
+
+            long startNanos = System.nanoTime();
+            long sent = 0;
+            while (running) {
+                List<String> pending = pendingStreams;
+                if (pending != null) {
+                    pendingStreams = null;
+                    applyStreams(pending);
+                }
+
+                int total = totalStreams.get();
+                if (streamCount == 0 || total == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    startNanos = System.nanoTime();
+                    sent = 0;
+                    continue;
+                }
+
+                // Phần tốc độ của kết nối này tỉ lệ với số streams của nó
+                double rate = messagesPerSecond * streamCount / total;
+                long elapsed = System.nanoTime() - startNanos;
+                long due = (long) (elapsed * rate / 1e9);
+                if (due - sent > rate * MAX_CATCH_UP_NANOS / 1e9) {
+                    sent = due;
+                }
+                if (sent >= due) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                while (sent < due && running) {
+                    emitNext(System.currentTimeMillis());
+                    sent++;
+                }
+            }
+            totalStreams.addAndGet(-streamCount);
+            streamCount = 0;
+            log.info("🛑 Simulator shard {} stopped", index);
+        }
+
+        private void applyStreams(List<String> names) {
+            List<SimStream> accepted = new ArrayList<>(names.size());
+            for (String name : names) {
+                int at = name.indexOf('@');
+                if (at <= 0) {
+                    continue;
+                }
+                String symbol = name.substring(0, at).toUpperCase();
+                SimSymbol state = symbolsByName.computeIfAbsent(symbol, s -> new SimSymbol(s, random));
+
+                KlineInterval interval = null;
+                if (name.startsWith(KLINE_PREFIX, at)) {
+                    interval = KlineInterval.fromLabel(name.substring(at + KLINE_PREFIX.length()));
+                    if (interval == null) {
+                        continue;
+                    }
+                } else if (!name.startsWith(AGG_TRADE, at)) {
+                    // Sổ lệnh và các stream khác không được giả lập
+                    continue;
+                }
+                accepted.add(new SimStream(name, state, interval == null ? null : state.candle(interval)));
+            }
+            totalStreams.addAndGet(accepted.size() - streamCount);
+            streams = accepted.toArray(new SimStream[0]);
+            streamCount = streams.length;
+            next = 0;
+        }
+
+        /**
+         * Một trade mới trên symbol của stream kế tiếp, rồi phát message của stream đó
+         */
+        private void emitNext(long now) {
+            SimStream stream = streams[next];
+            next = next + 1 == streamCount ? 0 : next + 1;
+
+            SimSymbol symbol = stream.symbol;
+            symbol.trade(now, random);
+
+            if (stream.candle == null) {
+                formatTrade(stream, symbol, now);
+                messageHandler.accept(new TextMessage(out.toString()));
+                return;
+            }
+            SimCandle candle = stream.candle;
+            if (candle.closedPending) {
+                // Nến trước đã sang kỳ mới: phát bản đóng một lần, đúng như Binance
+                candle.closedPending = false;
+                formatKline(stream, symbol, candle.closed, true, now);
+                messageHandler.accept(new TextMessage(out.toString()));
+            }
+            formatKline(stream, symbol, candle.current, false, now);
+            messageHandler.accept(new TextMessage(out.toString()));
+        }
+
+        private void formatTrade(SimStream stream, SimSymbol symbol, long now) {
+            StringBuilder sb = out;
+            sb.setLength(0);
+            sb.append("{\"stream\":\"").append(stream.name)
+              .append("\",\"data\":{\"e\":\"aggTrade\",\"E\":").append(now)
+              .append(",\"s\":\"").append(symbol.name)
+              .append("\",\"a\":").append(symbol.lastTradeId)
+              .append(",\"p\":\"");
+            ScaledDecimal.appendTo(sb, symbol.price).append("\",\"q\":\"");
+            ScaledDecimal.appendTo(sb, symbol.lastQuantity).append("\",\"f\":").append(symbol.lastTradeId)
+              .append(",\"l\":").append(symbol.lastTradeId)
+              .append(",\"T\":").append(symbol.lastTradeTime)
+              .append(",\"m\":").append(symbol.lastBuyerMaker)
+              .append(",\"M\":true}}");
+        }
+
+        private void formatKline(SimStream stream, SimSymbol symbol, Bar bar, boolean closed, long now) {
+            StringBuilder sb = out;
+            sb.setLength(0);
+            sb.append("{\"stream\":\"").append(stream.name)
+              .append("\",\"data\":{\"e\":\"kline\",\"E\":").append(now)
+              .append(",\"s\":\"").append(symbol.name)
+              .append("\",\"k\":{\"t\":").append(bar.openTime)
+              .append(",\"T\":").append(bar.openTime + stream.candle.interval.getMillis() - 1)
+              .append(",\"s\":\"").append(symbol.name)
+              .append("\",\"i\":\"").append(stream.candle.interval.getLabel())
+              .append("\",\"f\":").append(bar.firstTradeId)
+              .append(",\"L\":").append(bar.lastTradeId)
+              .append(",\"o\":\"");
+            ScaledDecimal.appendTo(sb, bar.open).append("\",\"c\":\"");
+            ScaledDecimal.appendTo(sb, bar.close).append("\",\"h\":\"");
+            ScaledDecimal.appendTo(sb, bar.high).append("\",\"l\":\"");
+            ScaledDecimal.appendTo(sb, bar.low).append("\",\"v\":\"");
+            ScaledDecimal.appendTo(sb, bar.volume).append("\",\"n\":").append(bar.trades)
+              .append(",\"x\":").append(closed)
+              .append(",\"q\":\"");
+            ScaledDecimal.appendTo(sb, bar.quoteVolume).append("\",\"V\":\"");
+            ScaledDecimal.appendTo(sb, bar.takerBuyVolume).append("\",\"Q\":\"");
+            ScaledDecimal.appendTo(sb, bar.takerBuyQuoteVolume).append("\",\"B\":\"0\"}}}");
+        }
+    }
+
+    private record SimStream(String name, SimSymbol symbol, SimCandle candle) {
+    }
+
+    /**
+     * Giá và trade gần nhất của một symbol, cùng các nến đang mở của mọi interval được subscribe
+     */
+    private final class SimSymbol {
+        final String name;
+        final long tick; // Bước giá, khoảng 1/10^5 giá ban đầu
+        final List<SimCandle> candles = new ArrayList<>(4);
+
+        long price;
+        long lastTradeId;
+        long lastTradeTime;
+        long lastQuantity;
+        boolean lastBuyerMaker;
+
+        SimSymbol(String name, SplittableRandom random) {
+            this.name = name;
+            // Giá ban đầu phân bố log-uniform từ 0.01 đến 100000
+            double initial = Math.pow(10, -2 + random.nextDouble() * 7);
+            long scaled = (long) (initial * ScaledDecimal.ONE);
+            long step = 1;
+            while (step * 100_000 < scaled) {
+                step *= 10;
+            }
+            this.tick = step;
+            this.price = scaled / step * step;
+            this.lastTradeId = random.nextLong(1_000_000_000L);
+        }
+
+        SimCandle candle(KlineInterval interval) {
+            for (SimCandle candle : candles) {
+                if (candle.interval == interval) {
+                    return candle;
+                }
+            }
+            SimCandle candle = new SimCandle(interval);
+            candles.add(candle);
+            return candle;
+        }
+
+        void trade(long now, SplittableRandom random) {
+            double move = gaussian(random) * volatility * price;
+            long ticks = Math.round(move / tick);
+            price = Math.max(tick, price + ticks * tick);
+
+            double notional = -Math.log(1 - random.nextDouble()) * meanTradeNotional;
+            long quantity = Math.max(1, (long) (notional / ((double) price / ScaledDecimal.ONE) * 100_000)) * 1_000;
+            lastTradeId++;
+            lastTradeTime = now;
+            lastQuantity = quantity;
+            lastBuyerMaker = random.nextBoolean();
+
+            long quote = (long) ((double) price / ScaledDecimal.ONE * quantity);
+            for (SimCandle candle : candles) {
+                candle.add(now, lastTradeId, price, quantity, quote, !lastBuyerMaker);
+            }
+        }
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller, đủ cho mục đích giả lập
+        double u = 1 - random.nextDouble();
+        return Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    /**
+     * Nến đang mở của một interval và bản đóng của nến trước (chờ được phát với x=true)
+     */
+    private static final class SimCandle {
+        final KlineInterval interval;
+        Bar current = new Bar();
+        Bar closed = new Bar();
+        boolean closedPending;
+
+        SimCandle(KlineInterval interval) {
+            this.interval = interval;
+            current.openTime = Long.MIN_VALUE;
+        }
+
+        void add(long now, long tradeId, long price, long quantity, long quote, boolean takerBuy) {
+            long openTime = interval.alignOpenTime(now);
+            if (openTime != current.openTime) {
+                if (current.openTime != Long.MIN_VALUE) {
+                    Bar previous = closed;
+                    closed = current;
+                    current = previous;
+                    closedPending = true;
+                }
+                current.reset(openTime, tradeId, price);
+            }
+            current.add(tradeId, price, quantity, quote, takerBuy);
+        }
+    }
+
+    private static final class Bar {
+        long openTime;
+        long firstTradeId;
+        long lastTradeId;
+        long open;
+        long high;
+        long low;
+        long close;
+        long volume;
+        long quoteVolume;
+        long takerBuyVolume;
+        long takerBuyQuoteVolume;
+        long trades;
+
+        void reset(long openTime, long tradeId, long price) {
+            this.openTime = openTime;
+            firstTradeId = tradeId;
+            open = high = low = price;
+            volume = quoteVolume = takerBuyVolume = takerBuyQuoteVolume = trades = 0;
+        }
+
+        void add(long tradeId, long price, long quantity, long quote, boolean takerBuy) {
+            lastTradeId = tradeId;
+            close = price;
+            high = Math.max(high, price);
+            low = Math.min(low, price);
+            volume += quantity;
+            quoteVolume += quote;
+            if (takerBuy) {
+                takerBuyVolume += quantity;
+                takerBuyQuoteVolume += quote;
+            }
+            trades++;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.crypto.market_service.service;
+
+import java.nio.charset.StandardCharsets;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Thông tin định tuyến của một Binance stream (VD: btcusdt@kline_1m).
+ * Được tạo một lần cho mỗi stream và dùng lại cho mọi message; chuỗi channel/topic
+ * được dùng chung cho mọi stream của cùng một symbol.
+ */
+@Getter
+@ToString(of = "stream")
+public final class StreamRoute {
+
+    public enum Kind { KLINE, AGG_TRADE, DEPTH, OTHER }
+
+    private final String stream;      // btcusdt@kline_1m
+    private final String symbol;      // btcusdt
+    private final String upperSymbol; // BTCUSDT
+    private final Kind kind;
+    private final String interval;    // 1m (chỉ có với KLINE)
+    private final String channel;     // market_data:btcusdt
+    private final String topic;       // /topic/market/btcusdt (depth: /topic/depth/btcusdt)
+    private final byte[] channelBytes; // channel dạng bytes cho lệnh PUBLISH
+    private final byte[] streamBytes;  // stream dạng bytes, field của nến mới nhất trong LatestKlineStore
+
+    StreamRoute(String stream, String symbol, Kind kind, String interval, String channel, String topic) {
+        this.stream = stream;
+        this.symbol = symbol;
+        this.upperSymbol = symbol.toUpperCase();
+        this.kind = kind;
+        this.interval = interval;
+        this.channel = channel;
+        this.topic = topic;
+        this.channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        this.streamBytes = stream.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,93 @@
+package com.crypto.market_service.service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor chia theo khóa: mỗi stripe là một thread với hàng đợi có giới hạn, task cùng khóa
+ * luôn vào cùng stripe nên chạy tuần tự theo đúng thứ tự gửi; các khóa khác nhau chạy song song.
+ *
+ * Hàng đợi đầy thì {@link #execute} chờ (đẩy ngược áp lực về phía gửi) thay vì bỏ task.
+ */
+@Slf4j
+final class StripedExecutor {
+
+    private final Stripe[] stripes;
+    private volatile boolean running = true;
+
+    StripedExecutor(String name, int stripeCount, int queueCapacity, MarketMetrics metrics) {
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            Stripe stripe = new Stripe(queueCapacity);
+            stripes[i] = stripe;
+            metrics.registerStripe(name, i, stripe.queue::size, stripe.executed::sum, stripe.blocked::sum);
+            Thread thread = new Thread(stripe::run, name + "-" + i);
+            thread.setDaemon(true);
+            stripe.thread = thread;
+            thread.start();
+        }
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * @param key khóa sắp thứ tự (VD: hash của symbol)
+     */
+    void execute(int key, Runnable task) throws InterruptedException {
+        Stripe stripe = stripes[Math.floorMod(key ^ (key >>> 16), stripes.length)];
+        if (!stripe.queue.offer(task)) {
+            stripe.blocked.increment();
+            stripe.queue.put(task);
+        }
+    }
+
+    /**
+     * Chạy nốt các task đã nhận rồi dừng, chờ tối đa {@code timeoutMs}
+     */
+    void shutdown(long timeoutMs) throws InterruptedException {
+        running = false;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (Stripe stripe : stripes) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            stripe.thread.join(Math.max(1, remaining));
+        }
+    }
+
+    private final class Stripe {
+        final BlockingQueue<Runnable> queue;
+        final LongAdder executed = new LongAdder();
+        final LongAdder blocked = new LongAdder();
+        Thread thread;
+
+        Stripe(int capacity) {
+            queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        void run() {
+            while (running || !queue.isEmpty()) {
+                Runnable task;
+                try {
+                    task = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (task == null) {
+                    continue;
+                }
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    log.error("Error in striped task", e);
+                }
+                executed.increment();
+            }
+        }
+    }
+}
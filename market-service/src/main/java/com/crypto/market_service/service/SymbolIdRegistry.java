@@ -0,0 +1,164 @@
+package com.crypto.market_service.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import com.crypto.market_service.config.WebSocketConfig;
+import com.crypto.market_service.entity.TradingSymbol;
+import com.crypto.market_service.event.ActiveSymbolsChangedEvent;
+import com.crypto.market_service.repository.TradingSymbolRepository;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Ánh xạ hai chiều symbol <-> TradingSymbol.id cho định dạng kline nhị phân.
+ *
+ * Bảng là snapshot bất biến, đọc không cần lock. Gặp symbol/id chưa biết thì nạp lại từ database:
+ * phía publish và phía nhận pub/sub nạp nền (message đó đi dạng JSON, hoặc bị bỏ nếu đã là nhị phân)
+ * để không chặn thread nhận của Redis; chỉ đường ghi DB nạp ngay, tối đa một lần mỗi
+ * {@link #RELOAD_INTERVAL_MS}.
+ */
+@Component
+@Slf4j
+public class SymbolIdRegistry {
+
+    private static final long RELOAD_INTERVAL_MS = 5000;
+
+    record SymbolRef(int id, String symbol, String streamSymbol, String topic) {
+    }
+
+    private record Snapshot(Map<String, SymbolRef> byName, SymbolRef[] byId) {
+    }
+
+    @Autowired
+    private TradingSymbolRepository symbolRepository;
+
+    private volatile Snapshot snapshot = new Snapshot(Map.of(), new SymbolRef[0]);
+    private volatile long lastReloadAt;
+
+    private final AtomicBoolean reloadQueued = new AtomicBoolean();
+    private final ExecutorService reloader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "symbol-id-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @PreDestroy
+    void shutdown() {
+        reloader.shutdownNow();
+    }
+
+    /**
+     * @return id của symbol (BTCUSDT), hoặc -1 nếu chưa biết (sẽ được nạp nền)
+     */
+    int idOf(String symbol) {
+        SymbolRef ref = snapshot.byName().get(symbol);
+        if (ref == null) {
+            reloadAsync(false);
+            return -1;
+        }
+        return ref.id();
+    }
+
+    /**
+     * Như {@link #idOf} nhưng nạp lại ngay (tối đa một lần mỗi {@link #RELOAD_INTERVAL_MS}), dùng khi ghi DB
+     *
+     * @return id của symbol, hoặc -1 nếu vẫn không biết sau khi nạp lại
+     */
+    int resolveId(String symbol) {
+        SymbolRef ref = snapshot.byName().get(symbol);
+        if (ref == null && reloadIfDue()) {
+            ref = snapshot.byName().get(symbol);
+        }
+        return ref == null ? -1 : ref.id();
+    }
+
+    /**
+     * Không bao giờ truy vấn database trên thread gọi
+     *
+     * @return symbol của id, hoặc null nếu chưa biết (sẽ được nạp nền)
+     */
+    SymbolRef byId(int id) {
+        SymbolRef ref = lookup(id);
+        if (ref == null) {
+            reloadAsync(false);
+        }
+        return ref;
+    }
+
+    /**
+     * Như {@link #byId} nhưng nạp lại ngay (tối đa một lần mỗi {@link #RELOAD_INTERVAL_MS}), dùng khi ghi DB
+     *
+     * @return symbol của id, hoặc null nếu vẫn không biết sau khi nạp lại
+     */
+    SymbolRef resolveById(int id) {
+        SymbolRef ref = lookup(id);
+        if (ref == null && reloadIfDue()) {
+            ref = lookup(id);
+        }
+        return ref;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onActiveSymbolsChanged(ActiveSymbolsChangedEvent event) {
+        reloadAsync(true);
+    }
+
+    private SymbolRef lookup(int id) {
+        SymbolRef[] byId = snapshot.byId();
+        return id >= 0 && id < byId.length ? byId[id] : null;
+    }
+
+    private void reloadAsync(boolean force) {
+        if ((force || System.currentTimeMillis() - lastReloadAt >= RELOAD_INTERVAL_MS)
+                && reloadQueued.compareAndSet(false, true)) {
+            reloader.execute(() -> {
+                reloadQueued.set(false);
+                reload();
+            });
+        }
+    }
+
+    private synchronized boolean reloadIfDue() {
+        if (System.currentTimeMillis() - lastReloadAt < RELOAD_INTERVAL_MS) {
+            return false;
+        }
+        reload();
+        return true;
+    }
+
+    private synchronized void reload() {
+        lastReloadAt = System.currentTimeMillis();
+        try {
+            List<TradingSymbol> symbols = symbolRepository.findAll();
+            Map<String, SymbolRef> byName = new HashMap<>(symbols.size() * 2);
+            int maxId = 0;
+            for (TradingSymbol symbol : symbols) {
+                if (symbol.getId() == null || symbol.getId() > Integer.MAX_VALUE - 1) {
+                    continue;
+                }
+                int id = symbol.getId().intValue();
+                String lower = symbol.getSymbol().toLowerCase();
+                byName.put(symbol.getSymbol(), new SymbolRef(id, symbol.getSymbol(), lower,
+                        WebSocketConfig.MARKET_TOPIC_PREFIX + lower));
+                maxId = Math.max(maxId, id);
+            }
+            SymbolRef[] byId = new SymbolRef[maxId + 1];
+            for (SymbolRef ref : byName.values()) {
+                byId[ref.id()] = ref;
+            }
+            snapshot = new Snapshot(Map.copyOf(byName), byId);
+        } catch (Exception e) {
+            log.error("❌ Failed to load symbol ids: {}", e.getMessage());
+        }
+    }
+}
@@ -6,6 +6,7 @@ package com.crypto.market_service.service;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -13,6 +14,7 @@ import com.crypto.market_service.dto.CreateSymbolRequest;
 import com.crypto.market_service.dto.SymbolDTO;
 import com.crypto.market_service.dto.UpdateSymbolRequest;
 import com.crypto.market_service.entity.TradingSymbol;
+import com.crypto.market_service.event.ActiveSymbolsChangedEvent;
 import com.crypto.market_service.repository.TradingSymbolRepository;
 
 import lombok.RequiredArgsConstructor;
@@ -24,6 +26,7 @@ import lombok.extern.slf4j.Slf4j;
 public class SymbolManagementService {
 
     private final TradingSymbolRepository symbolRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Lấy tất cả symbols
@@ -97,6 +100,7 @@ public class SymbolManagementService {
         if (request.getDescription() != null) {
             existing.setDescription(request.getDescription());
         }
+        boolean activeChanged = request.getActive() != null && !request.getActive().equals(existing.getActive());
         if (request.getActive() != null) {
             existing.setActive(request.getActive());
         }
@@ -107,6 +111,10 @@ public class SymbolManagementService {
         TradingSymbol saved = symbolRepository.save(existing);
         log.info("Updated symbol: {}", symbol);
 
+        if (activeChanged) {
+            eventPublisher.publishEvent(new ActiveSymbolsChangedEvent(saved.getSymbol(), saved.getActive()));
+        }
+
         return SymbolDTO.fromEntity(saved);
     }
 
@@ -120,6 +128,10 @@ public class SymbolManagementService {
 
         symbolRepository.delete(existing);
         log.info("Deleted symbol: {}", symbol);
+
+        if (existing.getActive()) {
+            eventPublisher.publishEvent(new ActiveSymbolsChangedEvent(existing.getSymbol(), false));
+        }
     }
 
     /**
@@ -135,6 +147,8 @@ public class SymbolManagementService {
 
         log.info("Toggled symbol {}: active={}", symbol, saved.getActive());
 
+        eventPublisher.publishEvent(new ActiveSymbolsChangedEvent(saved.getSymbol(), saved.getActive()));
+
         return SymbolDTO.fromEntity(saved);
     }
 }
\ No newline at end of file
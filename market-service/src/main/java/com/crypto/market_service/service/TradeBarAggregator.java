@@ -0,0 +1,255 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.JsonFields;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Gom các giao dịch từ stream @aggTrade thành nến dưới 1 phút (mặc định 1s và 5s).
+ *
+ * Mỗi giao dịch được đọc thẳng từ payload bằng cách quét ký tự và cộng dồn vào các field
+ * nguyên thủy (giá là long nhân 10^8, khối lượng là long nhân 10^scale với scale vừa long như
+ * {@link KlineFrame}), nên không cấp phát object nào cho mỗi trade.
+ * Nến đã đóng được phát ra với cùng định dạng kline của Binance (VD: btcusdt@kline_1s)
+ * trên channel market_data: của symbol, nên đi tiếp qua RedisSubscriber như mọi nến khác.
+ * Các nến này chỉ để xem real-time: chúng không được ghi DB (và không vào continuous aggregate)
+ * trừ khi bật {@code app.binance.trades.persist-bars}.
+ */
+@Component
+@Slf4j
+public class TradeBarAggregator {
+
+    // Chờ thêm một chút sau khi hết nến để nhận các trade đến trễ
+    private static final long CLOSE_GRACE_MS = 250;
+
+    private static final String DATA = "\"data\":";
+    private static final String PRICE = "\"p\":";
+    private static final String QUANTITY = "\"q\":";
+    private static final String TRADE_ID = "\"a\":";
+    private static final String TRADE_TIME = "\"T\":";
+    private static final String BUYER_MAKER = "\"m\":";
+
+    @Value("${app.binance.trades.enabled:false}")
+    private boolean enabled;
+
+    @Value("${app.binance.trades.bar-intervals:1s,5s}")
+    private List<String> barIntervals;
+
+    @Autowired
+    private BinanceStreamRouter streamRouter;
+
+    private final List<KlineInterval> intervals = new ArrayList<>();
+
+    // Key là route của stream aggTrade (được cache nên tra theo identity, không cấp phát)
+    private final Map<StreamRoute, SymbolBars> bars = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        for (String label : barIntervals) {
+            KlineInterval interval = KlineInterval.fromLabel(label.trim());
+            if (interval == null || interval.getMillis() >= KlineInterval.M1.getMillis()) {
+                log.warn("⚠️ Trade bar interval {} is not a sub-minute interval, ignored", label);
+                continue;
+            }
+            intervals.add(interval);
+        }
+        if (enabled) {
+            log.info("📈 Trade stream ingestion enabled, building {} bars", intervals);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Xử lý một message aggTrade, phát ra các nến vừa đóng qua {@code publisher}
+     */
+    public void onTrade(StreamRoute route, String payload, BiConsumer<StreamRoute, String> publisher) {
+        try {
+            int data = payload.indexOf(DATA);
+            long price = ScaledDecimal.parse(payload, JsonFields.valueStart(payload, PRICE, data));
+            // Lệnh rất lớn của token giá nhỏ (PEPE, SHIB) vượt long nhân 10^8: giữ ít chữ số lẻ hơn
+            int quantityAt = JsonFields.valueStart(payload, QUANTITY, data);
+            int quantityScale = ScaledDecimal.fittingScale(payload, quantityAt);
+            long quantity = ScaledDecimal.parse(payload, quantityAt, quantityScale);
+            long tradeId = JsonFields.parseLong(payload, JsonFields.valueStart(payload, TRADE_ID, data));
+            long tradeTime = JsonFields.parseLong(payload, JsonFields.valueStart(payload, TRADE_TIME, data));
+            boolean buyerMaker = JsonFields.parseBoolean(payload, JsonFields.valueStart(payload, BUYER_MAKER, data));
+
+            SymbolBars symbolBars = bars.get(route);
+            if (symbolBars == null) {
+                symbolBars = bars.computeIfAbsent(route, SymbolBars::new);
+            }
+            symbolBars.onTrade(price, quantity, quantityScale, tradeId, tradeTime, buyerMaker, publisher);
+        } catch (Exception e) {
+            log.error("Error aggregating trade for {}: {}", route, e.getMessage());
+        }
+    }
+
+    /**
+     * Gọi định kỳ: đóng các nến đã hết thời gian mà không có trade mới để kích hoạt
+     */
+    public void flushExpired(long now, BiConsumer<StreamRoute, String> publisher) {
+        for (SymbolBars symbolBars : bars.values()) {
+            symbolBars.flushExpired(now, publisher);
+        }
+    }
+
+    /**
+     * Trạng thái nến đang gom của một symbol, mỗi phần tử mảng ứng với một interval
+     */
+    private final class SymbolBars {
+        final String upperSymbol;
+        final StreamRoute[] routes;
+        final String[] streams;
+
+        final long[] openTime;
+        final long[] open;
+        final long[] high;
+        final long[] low;
+        final long[] close;
+        final ScaledAmount[] volume;
+        final ScaledAmount[] takerBuyVolume;
+        final ScaledAmount[] quoteVolume;
+        final ScaledAmount[] takerBuyQuoteVolume;
+        final long[] trades;
+        final long[] firstTradeId;
+        final long[] lastTradeId;
+        final boolean[] hasData;
+
+        // Khối lượng quote của trade đang xử lý
+        final ScaledAmount quote = new ScaledAmount();
+        final StringBuilder out = new StringBuilder(512);
+
+        SymbolBars(StreamRoute tradeRoute) {
+            int n = intervals.size();
+            upperSymbol = tradeRoute.getUpperSymbol();
+            routes = new StreamRoute[n];
+            streams = new String[n];
+            for (int i = 0; i < n; i++) {
+                streams[i] = tradeRoute.getSymbol() + "@kline_" + intervals.get(i).getLabel();
+                routes[i] = streamRouter.routeOf(streams[i]);
+            }
+            openTime = new long[n];
+            open = new long[n];
+            high = new long[n];
+            low = new long[n];
+            close = new long[n];
+            volume = amounts(n);
+            takerBuyVolume = amounts(n);
+            quoteVolume = amounts(n);
+            takerBuyQuoteVolume = amounts(n);
+            trades = new long[n];
+            firstTradeId = new long[n];
+            lastTradeId = new long[n];
+            hasData = new boolean[n];
+        }
+
+        synchronized void onTrade(long price, long quantity, int quantityScale, long tradeId, long tradeTime,
+                                  boolean buyerMaker, BiConsumer<StreamRoute, String> publisher) {
+            quote.clear();
+            quote.addProduct(price, ScaledDecimal.SCALE, quantity, quantityScale);
+
+            for (int i = 0; i < routes.length; i++) {
+                long millis = intervals.get(i).getMillis();
+                long bucket = tradeTime - Math.floorMod(tradeTime, millis);
+
+                if (hasData[i] && bucket > openTime[i]) {
+                    emit(i, publisher);
+                }
+
+                if (!hasData[i]) {
+                    hasData[i] = true;
+                    openTime[i] = bucket;
+                    open[i] = price;
+                    high[i] = price;
+                    low[i] = price;
+                    volume[i].clear();
+                    takerBuyVolume[i].clear();
+                    quoteVolume[i].clear();
+                    takerBuyQuoteVolume[i].clear();
+                    trades[i] = 0;
+                    firstTradeId[i] = tradeId;
+                }
+
+                // Trade đến trễ (thuộc nến đã đóng) được gộp vào nến hiện tại
+                if (price > high[i]) {
+                    high[i] = price;
+                }
+                if (price < low[i]) {
+                    low[i] = price;
+                }
+                close[i] = price;
+                volume[i].add(quantity, quantityScale);
+                quoteVolume[i].add(quote);
+                if (!buyerMaker) {
+                    takerBuyVolume[i].add(quantity, quantityScale);
+                    takerBuyQuoteVolume[i].add(quote);
+                }
+                trades[i]++;
+                lastTradeId[i] = tradeId;
+            }
+        }
+
+        synchronized void flushExpired(long now, BiConsumer<StreamRoute, String> publisher) {
+            for (int i = 0; i < routes.length; i++) {
+                if (hasData[i] && now >= openTime[i] + intervals.get(i).getMillis() + CLOSE_GRACE_MS) {
+                    emit(i, publisher);
+                }
+            }
+        }
+
+        /**
+         * Phát nến đã đóng ở vị trí i với định dạng kline của Binance, rồi xóa trạng thái
+         */
+        private void emit(int i, BiConsumer<StreamRoute, String> publisher) {
+            long closeTime = openTime[i] + intervals.get(i).getMillis() - 1;
+
+            out.setLength(0);
+            out.append("{\"stream\":\"").append(streams[i])
+               .append("\",\"data\":{\"e\":\"kline\",\"E\":").append(System.currentTimeMillis())
+               .append(",\"s\":\"").append(upperSymbol)
+               .append("\",\"k\":{\"t\":").append(openTime[i])
+               .append(",\"T\":").append(closeTime)
+               .append(",\"s\":\"").append(upperSymbol)
+               .append("\",\"i\":\"").append(intervals.get(i).getLabel())
+               .append("\",\"f\":").append(firstTradeId[i])
+               .append(",\"L\":").append(lastTradeId[i])
+               .append(",\"o\":\"");
+            ScaledDecimal.appendTo(out, open[i]).append("\",\"c\":\"");
+            ScaledDecimal.appendTo(out, close[i]).append("\",\"h\":\"");
+            ScaledDecimal.appendTo(out, high[i]).append("\",\"l\":\"");
+            ScaledDecimal.appendTo(out, low[i]).append("\",\"v\":\"");
+            volume[i].appendTo(out).append("\",\"n\":").append(trades[i])
+               .append(",\"x\":true,\"q\":\"");
+            quoteVolume[i].appendTo(out).append("\",\"V\":\"");
+            takerBuyVolume[i].appendTo(out).append("\",\"Q\":\"");
+            takerBuyQuoteVolume[i].appendTo(out).append("\",\"B\":\"0\"}}}");
+
+            hasData[i] = false;
+            publisher.accept(routes[i], out.toString());
+        }
+    }
+
+    private static ScaledAmount[] amounts(int n) {
+        ScaledAmount[] amounts = new ScaledAmount[n];
+        for (int i = 0; i < n; i++) {
+            amounts[i] = new ScaledAmount();
+        }
+        return amounts;
+    }
+}
@@ -1,8 +1,12 @@
 package com.crypto.market_service.service.impl;
 
 import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineAggregateRepository;
+import com.crypto.market_service.repository.KlineCompactRepository;
 import com.crypto.market_service.repository.KlineRepository;
 import com.crypto.market_service.service.KlineService;
+import com.crypto.market_service.service.LatestKlineStore;
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
 import lombok.experimental.FieldDefaults;
@@ -11,6 +15,8 @@ import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.List;
 
@@ -19,19 +25,73 @@ import java.util.List;
 @FieldDefaults(level = AccessLevel.PRIVATE, makeFinal = true)
 @RequiredArgsConstructor
 public class KlineServiceImpl implements KlineService {
+    // Mỗi lần refresh tính lại mọi interval trong khoảng: giới hạn để một request không materialize lại cả lịch sử
+    static final Duration MAX_REFRESH_WINDOW = Duration.ofDays(31);
+
     KlineRepository klineRepository;
+    KlineAggregateRepository aggregateRepository;
+    KlineCompactRepository compactRepository;
+    LatestKlineStore latestKlines;
 
     @Override
     public List<Kline> getKlines(String symbol, String interval, int limit) {
         // Tạo Pageable để lấy 'limit' dòng đầu tiên
         Pageable pageable = PageRequest.of(0, limit);
 
-        // Lấy dữ liệu từ DB (Đang xếp từ Mới -> Cũ)
-        List<Kline> klines = klineRepository.findBySymbolAndIntervalOrderByCloseTimeDesc(symbol.toUpperCase(), interval, pageable);
+        // Lấy dữ liệu từ DB (Đang xếp từ Mới -> Cũ): bảng gọn nếu đang lưu ở đó, interval lớn đọc từ
+        // continuous aggregate dựng từ nến 1m, còn lại từ bảng klines
+        KlineInterval klineInterval = KlineInterval.fromLabel(interval);
+        List<Kline> klines;
+        if (klineInterval != null && compactRepository.isPrimary()) {
+            klines = compactRepository.findLatest(symbol.toUpperCase(), klineInterval, limit);
+        } else if (klineInterval != null && aggregateRepository.supports(klineInterval)) {
+            klines = aggregateRepository.findLatest(symbol.toUpperCase(), klineInterval, limit);
+        } else {
+            klines = klineRepository.findBySymbolAndIntervalOrderByCloseTimeDesc(symbol.toUpperCase(), interval, pageable);
+        }
 
         // Đảo ngược lại danh sách (thành Cũ -> Mới) để Frontend vẽ từ trái sang phải
         Collections.reverse(klines);
 
+        // Nến đang mở chỉ được ghi DB theo checkpoint: lấy trạng thái mới nhất leader đã publish
+        latestKlines.latest(symbol.toUpperCase(), interval)
+                .ifPresent(live -> mergeLatest(klines, live, limit));
+
         return klines;
     }
+
+    @Override
+    public void refreshAggregates(LocalDateTime from, LocalDateTime to) {
+        if (from == null || to == null || !from.isBefore(to)) {
+            throw new IllegalArgumentException("Both from and to are required and from must be before to");
+        }
+        if (Duration.between(from, to).compareTo(MAX_REFRESH_WINDOW) > 0) {
+            throw new IllegalArgumentException("Refresh window is limited to " + MAX_REFRESH_WINDOW.toDays() + " days");
+        }
+        aggregateRepository.refresh(from, to);
+    }
+
+    private static void mergeLatest(List<Kline> klines, Kline live, int limit) {
+        if (limit <= 0) {
+            return;
+        }
+        if (klines.isEmpty()) {
+            klines.add(live);
+            return;
+        }
+        Kline last = klines.get(klines.size() - 1);
+        int order = live.getOpenTime().compareTo(last.getOpenTime());
+        if (order == 0) {
+            if (last.getVolume() != null && last.getVolume().compareTo(live.getVolume()) > 0) {
+                return; // Bản trong Redis cũ hơn DB (VD: hash bị xóa rồi mới ghi lại một cập nhật muộn)
+            }
+            live.setId(last.getId());
+            klines.set(klines.size() - 1, live);
+        } else if (order > 0) {
+            klines.add(live);
+            if (klines.size() > limit) {
+                klines.remove(0);
+            }
+        }
+    }
 }
@@ -0,0 +1,45 @@
+package com.crypto.market_service.util;
+
+/**
+ * Đọc giá trị field từ JSON phẳng của Binance bằng cách quét ký tự, không parse thành cây.
+ * Chỉ dùng cho payload có cấu trúc cố định mà ta biết tên field là duy nhất.
+ */
+public final class JsonFields {
+
+    private JsonFields() {
+    }
+
+    /**
+     * @param key tên field kèm dấu nháy và dấu hai chấm, VD: "\"p\":"
+     * @return vị trí ký tự đầu tiên của giá trị (đã bỏ dấu nháy mở nếu là chuỗi), hoặc -1
+     */
+    public static int valueStart(String json, String key, int from) {
+        int index = json.indexOf(key, from);
+        if (index < 0) {
+            return -1;
+        }
+        int start = index + key.length();
+        if (start < json.length() && json.charAt(start) == '"') {
+            start++;
+        }
+        return start;
+    }
+
+    public static long parseLong(String json, int index) {
+        boolean negative = json.charAt(index) == '-';
+        int i = negative ? index + 1 : index;
+        long value = 0;
+        for (; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    public static boolean parseBoolean(String json, int index) {
+        return json.charAt(index) == 't';
+    }
+}
@@ -0,0 +1,212 @@
+package com.crypto.market_service.util;
+
+import java.math.BigDecimal;
+
+/**
+ * Số thập phân biểu diễn bằng long đã nhân 10^8 (giá/khối lượng của Binance có tối đa 8 chữ số lẻ).
+ * Parse và format trực tiếp trên chuỗi ký tự, không tạo BigDecimal hay chuỗi trung gian.
+ *
+ * Phạm vi biểu diễn: khoảng ±92,233,720,368 (Long.MAX_VALUE / 10^8). Giá trị lớn hơn (khối lượng
+ * của PEPE, SHIB... ở nến 1h trở lên) dùng các hàm có tham số {@code scale} với số chữ số lẻ ít hơn,
+ * chọn bằng {@link #fittingScale}.
+ */
+public final class ScaledDecimal {
+
+    public static final int SCALE = 8;
+    public static final long ONE = 100_000_000L;
+
+    // Số chữ số phần nguyên + phần lẻ luôn vừa long (Long.MAX_VALUE có 19 chữ số)
+    private static final int MAX_DIGITS = 18;
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L};
+
+    private ScaledDecimal() {
+    }
+
+    /**
+     * Parse số thập phân bắt đầu tại {@code from}, dừng ở ký tự đầu tiên không phải số hoặc dấu chấm
+     *
+     * @throws ArithmeticException nếu giá trị vượt phạm vi hoặc có hơn 8 chữ số lẻ khác 0
+     */
+    public static long parse(CharSequence text, int from) {
+        return parse(text, from, SCALE);
+    }
+
+    /**
+     * Parse với {@code scale} chữ số lẻ (0..8)
+     *
+     * @throws ArithmeticException nếu giá trị vượt phạm vi hoặc có hơn {@code scale} chữ số lẻ khác 0
+     */
+    public static long parse(CharSequence text, int from, int scale) {
+        return parse(text, from, scale, false);
+    }
+
+    /**
+     * Như {@link #parse(CharSequence, int, int)} nhưng cắt bỏ các chữ số lẻ vượt {@code scale} thay vì báo lỗi
+     *
+     * @throws ArithmeticException nếu giá trị vượt phạm vi
+     */
+    public static long parseTruncated(CharSequence text, int from, int scale) {
+        return parse(text, from, scale, true);
+    }
+
+    private static long parse(CharSequence text, int from, int scale, boolean truncate) {
+        int i = from;
+        boolean negative = false;
+        if (i < text.length() && text.charAt(i) == '-') {
+            negative = true;
+            i++;
+        }
+
+        long integer = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            integer = Math.addExact(Math.multiplyExact(integer, 10), c - '0');
+        }
+
+        long fraction = 0;
+        int digits = 0;
+        if (i < text.length() && text.charAt(i) == '.') {
+            for (i++; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                if (digits < scale) {
+                    fraction = fraction * 10 + (c - '0');
+                    digits++;
+                } else if (c != '0' && !truncate) {
+                    throw new ArithmeticException("More than " + scale + " decimal places");
+                }
+            }
+        }
+        for (; digits < scale; digits++) {
+            fraction *= 10;
+        }
+
+        long value = Math.addExact(Math.multiplyExact(integer, POW10[scale]), fraction);
+        return negative ? -value : value;
+    }
+
+    public static long parse(CharSequence text) {
+        return parse(text, 0);
+    }
+
+    /**
+     * Số chữ số lẻ lớn nhất (tối đa 8) để phần nguyên của số bắt đầu tại {@code from} vẫn vừa long
+     *
+     * @throws ArithmeticException nếu phần nguyên quá dài kể cả khi không có chữ số lẻ
+     */
+    public static int fittingScale(CharSequence text, int from) {
+        int i = from;
+        if (i < text.length() && text.charAt(i) == '-') {
+            i++;
+        }
+        while (i < text.length() && text.charAt(i) == '0') {
+            i++;
+        }
+        int digits = 0;
+        for (; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            digits++;
+        }
+        return checkedScale(digits);
+    }
+
+    public static int fittingScale(BigDecimal value) {
+        return checkedScale(Math.max(value.precision() - value.scale(), 0));
+    }
+
+    private static int checkedScale(int integerDigits) {
+        if (integerDigits > MAX_DIGITS) {
+            throw new ArithmeticException("More than " + MAX_DIGITS + " integer digits");
+        }
+        return Math.min(SCALE, MAX_DIGITS - integerDigits);
+    }
+
+    /**
+     * Ghi giá trị dạng "123.45000000" (luôn đủ 8 chữ số lẻ như Binance)
+     */
+    public static StringBuilder appendTo(StringBuilder out, long value) {
+        return appendTo(out, value, SCALE);
+    }
+
+    /**
+     * Ghi giá trị có {@code scale} chữ số lẻ, vẫn đủ 8 chữ số lẻ (phần thiếu là 0)
+     */
+    public static StringBuilder appendTo(StringBuilder out, long value, int scale) {
+        if (value < 0) {
+            out.append('-');
+            value = -value;
+        }
+        out.append(value / POW10[scale]).append('.');
+        long fraction = value % POW10[scale];
+        // Ghi các chữ số lẻ từ phải sang trái, chia cho hằng số 10 rẻ hơn chia cho biến
+        int start = out.length();
+        int end = start + SCALE;
+        out.setLength(end);
+        for (int i = end - 1; i >= start + scale; i--) {
+            out.setCharAt(i, '0');
+        }
+        for (int i = start + scale - 1; i >= start; i--) {
+            out.setCharAt(i, (char) ('0' + fraction % 10));
+            fraction /= 10;
+        }
+        return out;
+    }
+
+    public static String toString(long value) {
+        return appendTo(new StringBuilder(24), value).toString();
+    }
+
+    public static BigDecimal toBigDecimal(long value) {
+        return BigDecimal.valueOf(value, SCALE);
+    }
+
+    public static BigDecimal toBigDecimal(long value, int scale) {
+        return BigDecimal.valueOf(value, scale);
+    }
+
+    /**
+     * @throws ArithmeticException nếu không biểu diễn được chính xác bằng long đã nhân 10^8
+     */
+    public static long fromBigDecimal(BigDecimal value) {
+        return fromBigDecimal(value, SCALE);
+    }
+
+    /**
+     * @throws ArithmeticException nếu không biểu diễn được chính xác bằng long đã nhân 10^scale
+     */
+    public static long fromBigDecimal(BigDecimal value, int scale) {
+        return value.setScale(scale).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Đổi giá trị từ {@code scale} sang {@code newScale} nhỏ hơn hoặc bằng, không cấp phát
+     *
+     * @throws ArithmeticException nếu các chữ số lẻ bị bỏ khác 0
+     */
+    public static long rescale(long value, int scale, int newScale) {
+        long divisor = POW10[scale - newScale];
+        if (value % divisor != 0) {
+            throw new ArithmeticException("More than " + newScale + " decimal places");
+        }
+        return value / divisor;
+    }
+
+    /**
+     * So sánh hai giá trị có thể khác scale; cùng scale thì so sánh thẳng hai long
+     */
+    public static int compare(long a, int aScale, long b, int bScale) {
+        if (aScale == bScale) {
+            return Long.compare(a, b);
+        }
+        return BigDecimal.valueOf(a, aScale).compareTo(BigDecimal.valueOf(b, bScale));
+    }
+}
@@ -0,0 +1,33 @@
+-- Schema như Hibernate (ddl-auto: update) đã tạo trước khi có migration.
+-- Database đã có sẵn các bảng này được baseline ở version 1 (spring.flyway.baseline-on-migrate) và bỏ qua file này.
+
+CREATE TABLE IF NOT EXISTS trading_symbols (
+    id            BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    symbol        VARCHAR(20)  NOT NULL UNIQUE,
+    name          VARCHAR(50)  NOT NULL,
+    icon          VARCHAR(10),
+    description   VARCHAR(255),
+    active        BOOLEAN      NOT NULL,
+    display_order INTEGER      NOT NULL,
+    created_at    TIMESTAMP(6) NOT NULL,
+    updated_at    TIMESTAMP(6) NOT NULL
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_symbol_unique ON trading_symbols (symbol);
+CREATE INDEX IF NOT EXISTS idx_active ON trading_symbols (active);
+CREATE INDEX IF NOT EXISTS idx_display_order ON trading_symbols (display_order);
+
+CREATE TABLE IF NOT EXISTS klines (
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    symbol      VARCHAR(20)    NOT NULL,
+    "interval"  VARCHAR(5)     NOT NULL,
+    open_time   TIMESTAMP(6)   NOT NULL,
+    close_time  TIMESTAMP(6)   NOT NULL,
+    open_price  NUMERIC(20, 8),
+    high_price  NUMERIC(20, 8),
+    low_price   NUMERIC(20, 8),
+    close_price NUMERIC(20, 8),
+    volume      NUMERIC(20, 8)
+);
+
+CREATE UNIQUE INDEX IF NOT EXISTS idx_kline_unique ON klines (symbol, "interval", open_time);
@@ -0,0 +1,38 @@
+-- klines thành hypertable của TimescaleDB: chunk theo open_time, nén chunk cũ theo (symbol, interval).
+--
+-- Unique index trên hypertable phải chứa cột phân vùng, nên khóa chính chuyển từ id sang
+-- (symbol, interval, open_time) (vốn là khóa upsert). Cột id vẫn giữ và vẫn tự sinh cho các service
+-- đọc bảng này (analysis-service), nhưng không còn là khóa.
+--
+-- Placeholder (spring.flyway.placeholders): klinesChunkInterval, klinesCompressAfter.
+-- Trên Postgres không có extension timescaledb (dev local) chỉ đổi khóa chính.
+
+ALTER TABLE klines DROP CONSTRAINT IF EXISTS klines_pkey;
+DROP INDEX IF EXISTS idx_kline_unique;
+ALTER TABLE klines ADD CONSTRAINT klines_pkey PRIMARY KEY (symbol, "interval", open_time);
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_available_extensions WHERE name = 'timescaledb') THEN
+        RAISE NOTICE 'timescaledb extension not available, klines stays a plain table';
+        RETURN;
+    END IF;
+
+    CREATE EXTENSION IF NOT EXISTS timescaledb;
+
+    -- migrate_data: chép dữ liệu sẵn có vào chunk (khóa bảng trong lúc chạy)
+    PERFORM create_hypertable('klines', 'open_time',
+                              chunk_time_interval => INTERVAL '${klinesChunkInterval}',
+                              migrate_data => true,
+                              if_not_exists => true);
+
+    -- Mỗi segment là một series (symbol, interval), trong segment xếp theo thời gian như truy vấn đọc
+    ALTER TABLE klines SET (
+        timescaledb.compress,
+        timescaledb.compress_segmentby = 'symbol, "interval"',
+        timescaledb.compress_orderby = 'open_time DESC'
+    );
+
+    PERFORM add_compression_policy('klines', INTERVAL '${klinesCompressAfter}', if_not_exists => true);
+END
+$$;
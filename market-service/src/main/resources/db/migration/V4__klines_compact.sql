@@ -0,0 +1,46 @@
+-- Bảng kline gọn (app.persistence.storage = compact | dual): mọi cột là số nguyên cố định độ dài.
+--   symbol_id     = trading_symbols.id
+--   interval_code = KlineInterval.code
+--   open_time     = epoch millis UTC (close_time = open_time + độ dài interval - 1, không lưu)
+--   giá, khối lượng = long nhân 10^8 (ScaledDecimal)
+-- Khóa chính tự nhiên, không có cột id hay index phụ.
+
+CREATE TABLE IF NOT EXISTS klines_compact (
+    symbol_id     SMALLINT NOT NULL,
+    interval_code SMALLINT NOT NULL,
+    open_time     BIGINT   NOT NULL,
+    open_price    BIGINT   NOT NULL,
+    high_price    BIGINT   NOT NULL,
+    low_price     BIGINT   NOT NULL,
+    close_price   BIGINT   NOT NULL,
+    volume        BIGINT   NOT NULL,
+    PRIMARY KEY (symbol_id, interval_code, open_time)
+);
+
+DO $$
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM pg_extension WHERE extname = 'timescaledb') THEN
+        RAISE NOTICE 'timescaledb extension not installed, klines_compact stays a plain table';
+        RETURN;
+    END IF;
+
+    -- Cột thời gian là số nguyên: chunk và mốc nén tính bằng millis
+    PERFORM create_hypertable('klines_compact', 'open_time',
+                              chunk_time_interval => (EXTRACT(EPOCH FROM INTERVAL '${klinesChunkInterval}') * 1000)::BIGINT,
+                              if_not_exists => true);
+
+    CREATE OR REPLACE FUNCTION klines_compact_now() RETURNS BIGINT
+        LANGUAGE SQL STABLE AS 'SELECT (EXTRACT(EPOCH FROM now()) * 1000)::BIGINT';
+    PERFORM set_integer_now_func('klines_compact', 'klines_compact_now', replace_if_exists => true);
+
+    ALTER TABLE klines_compact SET (
+        timescaledb.compress,
+        timescaledb.compress_segmentby = 'symbol_id, interval_code',
+        timescaledb.compress_orderby = 'open_time DESC'
+    );
+
+    PERFORM add_compression_policy('klines_compact',
+                                   (EXTRACT(EPOCH FROM INTERVAL '${klinesCompressAfter}') * 1000)::BIGINT,
+                                   if_not_exists => true);
+END
+$$;
@@ -0,0 +1,7 @@
+-- Khối lượng của klines_compact lưu kèm số chữ số lẻ (volume = khối lượng nhân 10^volume_scale).
+--
+-- Với scale cố định 8, BIGINT chỉ chứa khối lượng tới khoảng 9.2e10: nến 1h trở lên của PEPE, SHIB...
+-- vượt mức này. Mỗi dòng giữ scale lớn nhất còn vừa long (ScaledDecimal.fittingScale), dòng cũ là 8.
+-- So sánh khối lượng giữa hai dòng (điều kiện của upsert) phải đưa về cùng đơn vị trước.
+
+ALTER TABLE klines_compact ADD COLUMN IF NOT EXISTS volume_scale SMALLINT NOT NULL DEFAULT 8;
@@ -0,0 +1,63 @@
+package com.crypto.market_service.migration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineAggregateRepository;
+
+class KlineAggregatesMigrationTest {
+
+	// Mốc mặc định của time_bucket (thứ Hai)
+	private static final LocalDateTime ORIGIN = LocalDateTime.of(2000, 1, 3, 0, 0);
+
+	private final TimeZone defaultZone = TimeZone.getDefault();
+
+	@BeforeEach
+	void setUp() {
+		// Server chạy ở múi giờ khác UTC không được làm lệch ranh giới nến
+		TimeZone.setDefault(TimeZone.getTimeZone("Asia/Ho_Chi_Minh"));
+	}
+
+	@AfterEach
+	void tearDown() {
+		TimeZone.setDefault(defaultZone);
+	}
+
+	@Test
+	void bucketsOfStoredOpenTimesMatchBinanceOpenTimes() {
+		// 2024-03-10T01:59:59.999Z (trong ngày chuyển DST ở Mỹ) và 2024-01-04T17:30Z
+		long[] times = {1_710_035_999_999L, 1_704_389_400_000L};
+		for (KlineInterval interval : KlineAggregateRepository.AGGREGATED) {
+			for (long time : times) {
+				long binanceOpen = interval.alignOpenTime(time);
+				LocalDateTime stored = Kline.convertTime(time);
+
+				assertEquals(Kline.convertTime(binanceOpen), timeBucket(interval.getMillis(), stored), interval.getLabel());
+				assertEquals(time, Kline.toEpochMillis(stored));
+			}
+		}
+	}
+
+	@Test
+	void storedOpenTimeIsUtcWallClock() {
+		assertEquals(LocalDateTime.of(2024, 1, 1, 0, 0), Kline.convertTime(1_704_067_200_000L));
+		assertEquals(1_704_067_200_000L, Kline.toEpochMillis(LocalDateTime.of(2024, 1, 1, 0, 0)));
+	}
+
+	/**
+	 * time_bucket(width, ts) của TimescaleDB cho cột TIMESTAMP: chia theo giờ ghi trong cột, neo ở {@link #ORIGIN}
+	 */
+	private static LocalDateTime timeBucket(long widthMillis, LocalDateTime ts) {
+		long sinceOrigin = Duration.between(ORIGIN, ts).toMillis();
+		return ORIGIN.plus(Duration.ofMillis(Math.floorDiv(sinceOrigin, widthMillis) * widthMillis));
+	}
+}
@@ -0,0 +1,122 @@
+package com.crypto.market_service.migration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.flywaydb.core.api.configuration.Configuration;
+import org.flywaydb.core.api.migration.Context;
+import org.junit.jupiter.api.Test;
+
+import com.crypto.market_service.repository.KlineAggregateRepository;
+
+class KlineUtcMigrationTest {
+
+	private final List<String> executed = new ArrayList<>();
+	private final List<Object> zones = new ArrayList<>();
+	private int storedRows = 3;
+	private boolean committed;
+
+	@Test
+	void utcZoneLeavesTheTableAlone() throws Exception {
+		new KlineUtcMigration().migrate(context("UTC"));
+		new KlineUtcMigration().migrate(context("Etc/UTC"));
+
+		assertEquals(List.of(), executed);
+	}
+
+	@Test
+	void legacyZoneRewritesRowsAndRefreshesAggregates() throws Exception {
+		new KlineUtcMigration().migrate(context("Asia/Ho_Chi_Minh"));
+
+		assertEquals(List.of("Asia/Ho_Chi_Minh", "Asia/Ho_Chi_Minh"), zones);
+		assertTrue(committed);
+		assertEquals("CREATE TEMP TABLE klines_utc ON COMMIT DROP AS SELECT * FROM klines", executed.get(0));
+		assertTrue(executed.get(1).startsWith("UPDATE klines_utc SET open_time = (open_time AT TIME ZONE ?)"));
+		assertEquals("TRUNCATE klines", executed.get(2));
+		assertEquals("INSERT INTO klines SELECT * FROM klines_utc", executed.get(3));
+		// Mỗi view: kiểm tra có tồn tại rồi refresh toàn bộ
+		assertEquals(4 + 2 * KlineAggregateRepository.AGGREGATED.size(), executed.size());
+		assertEquals("CALL refresh_continuous_aggregate('"
+				+ KlineAggregateRepository.viewName(KlineAggregateRepository.AGGREGATED.get(0)) + "', NULL, NULL)",
+				executed.get(5));
+	}
+
+	@Test
+	void emptyTableIsNotTruncated() throws Exception {
+		storedRows = 0;
+		new KlineUtcMigration().migrate(context("Europe/Berlin"));
+
+		assertEquals(2, executed.size());
+		assertTrue(committed);
+	}
+
+	@Test
+	void unknownZoneFailsTheMigration() {
+		assertThrows(DateTimeException.class, () -> new KlineUtcMigration().migrate(context("Mars/Olympus")));
+		assertEquals(List.of(), executed);
+	}
+
+	private Context context(String zone) {
+		Configuration configuration = proxy(Configuration.class, (method, args) ->
+				Map.of(KlineUtcMigration.ZONE_PLACEHOLDER, zone));
+		Connection connection = proxy(Connection.class, (method, args) -> switch (method) {
+			case "getAutoCommit" -> true;
+			case "commit" -> committed = true;
+			case "createStatement" -> statement();
+			case "prepareStatement" -> preparedStatement((String) args[0]);
+			default -> null;
+		});
+		return proxy(Context.class, (method, args) ->
+				method.equals("getConfiguration") ? configuration : connection);
+	}
+
+	private Statement statement() {
+		return proxy(Statement.class, (method, args) -> switch (method) {
+			case "execute" -> executed.add((String) args[0]);
+			case "executeQuery" -> {
+				executed.add((String) args[0]);
+				yield proxy(ResultSet.class, (m, a) -> m.equals("next") || m.equals("getBoolean") ? true : null);
+			}
+			default -> null;
+		});
+	}
+
+	private PreparedStatement preparedStatement(String sql) {
+		executed.add(sql);
+		return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+			case "setString" -> zones.add(args[1]);
+			case "executeUpdate" -> storedRows;
+			default -> null;
+		});
+	}
+
+	private interface Handler {
+		Object handle(String method, Object[] args) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(Class<T> type, Handler handler) {
+		return (T) Proxy.newProxyInstance(KlineUtcMigrationTest.class.getClassLoader(), new Class<?>[] {type},
+				(proxy, method, args) -> {
+					Object result = handler.handle(method.getName(), args);
+					if (result == null && method.getReturnType() == boolean.class) {
+						return false;
+					}
+					if (method.getReturnType() == void.class) {
+						return null;
+					}
+					return result;
+				});
+	}
+}
@@ -0,0 +1,124 @@
+package com.crypto.market_service.repository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * Đo truy vấn khoảng thời gian của API nến và dung lượng bảng klines trên một database thật.
+ * Không chạy cùng test (surefire chỉ nhận *Test); để so sánh trước/sau V2 (hypertable + nén),
+ * chạy một lần trên database dừng ở V1 ({@code spring.flyway.target=1}), migrate rồi chạy lại:
+ * {@code java -cp target/test-classes:target/classes:<postgresql.jar> com.crypto.market_service.repository.KlineRangeQueryBenchmark
+ * jdbc:postgresql://localhost:5432/market user password BTCUSDT 1m 7}
+ */
+class KlineRangeQueryBenchmark {
+
+	private static final int WARMUP = 20;
+	private static final int ROUNDS = 200;
+
+	// Cùng điều kiện với KlineRepository (findBySymbolAndIntervalAndOpenTimeBetween,
+	// findBySymbolAndIntervalOrderByCloseTimeDesc)
+	private static final String RANGE = "SELECT * FROM klines WHERE symbol = ? AND \"interval\" = ?"
+			+ " AND open_time BETWEEN ? AND ?";
+	private static final String LATEST = "SELECT * FROM klines WHERE symbol = ? AND \"interval\" = ?"
+			+ " ORDER BY close_time DESC LIMIT 500";
+
+	public static void main(String[] args) throws SQLException {
+		if (args.length < 3) {
+			System.err.println("usage: KlineRangeQueryBenchmark <jdbc-url> <user> <password> [symbol] [interval] [days]");
+			System.exit(2);
+		}
+		String symbol = args.length > 3 ? args[3] : "BTCUSDT";
+		String interval = args.length > 4 ? args[4] : "1m";
+		int days = args.length > 5 ? Integer.parseInt(args[5]) : 7;
+
+		try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+			System.out.printf("klines: %s, %,d rows, %s%n", isHypertable(connection) ? "hypertable" : "plain table",
+					single(connection, "SELECT count(*) FROM klines"), storage(connection));
+
+			Timestamp to;
+			try (PreparedStatement statement = connection.prepareStatement(
+					"SELECT max(open_time) FROM klines WHERE symbol = ? AND \"interval\" = ?")) {
+				statement.setString(1, symbol);
+				statement.setString(2, interval);
+				try (ResultSet rs = statement.executeQuery()) {
+					rs.next();
+					to = rs.getTimestamp(1);
+				}
+			}
+			if (to == null) {
+				throw new IllegalStateException("No " + symbol + " " + interval + " klines");
+			}
+			Timestamp from = new Timestamp(to.getTime() - days * 86_400_000L);
+
+			try (PreparedStatement range = connection.prepareStatement(RANGE);
+				 PreparedStatement latest = connection.prepareStatement(LATEST)) {
+				range.setString(1, symbol);
+				range.setString(2, interval);
+				range.setTimestamp(3, from);
+				range.setTimestamp(4, to);
+				latest.setString(1, symbol);
+				latest.setString(2, interval);
+				report(symbol + " " + interval + " last " + days + "d", range);
+				report(symbol + " " + interval + " latest 500", latest);
+			}
+		}
+	}
+
+	private static void report(String name, PreparedStatement statement) throws SQLException {
+		long[] micros = new long[ROUNDS];
+		int rows = 0;
+		for (int round = 0; round < WARMUP + ROUNDS; round++) {
+			long start = System.nanoTime();
+			rows = 0;
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					rows++;
+				}
+			}
+			if (round >= WARMUP) {
+				micros[round - WARMUP] = (System.nanoTime() - start) / 1000;
+			}
+		}
+		Arrays.sort(micros);
+		System.out.printf("%-28s %,7d rows  p50 %,8d us  p99 %,8d us%n", name, rows, micros[ROUNDS / 2],
+				micros[ROUNDS * 99 / 100]);
+	}
+
+	private static boolean isHypertable(Connection connection) throws SQLException {
+		return single(connection, "SELECT count(*) FROM pg_extension WHERE extname = 'timescaledb'") > 0
+				&& single(connection, "SELECT count(*) FROM timescaledb_information.hypertables"
+						+ " WHERE hypertable_name = 'klines'") > 0;
+	}
+
+	/**
+	 * pg_total_relation_size của hypertable chỉ tính bảng cha rỗng, nên đọc qua hàm của TimescaleDB
+	 */
+	private static String storage(Connection connection) throws SQLException {
+		if (!isHypertable(connection)) {
+			return String.format("%,d bytes", single(connection, "SELECT pg_total_relation_size('klines')"));
+		}
+		String compression = "";
+		try (PreparedStatement statement = connection.prepareStatement(
+				"SELECT before_compression_total_bytes, after_compression_total_bytes"
+						+ " FROM hypertable_compression_stats('klines')");
+			 ResultSet rs = statement.executeQuery()) {
+			if (rs.next() && rs.getObject(1) != null) {
+				compression = String.format(" (compressed chunks: %,d -> %,d bytes)", rs.getLong(1), rs.getLong(2));
+			}
+		}
+		return String.format("%,d bytes%s", single(connection, "SELECT hypertable_size('klines')"), compression);
+	}
+
+	private static long single(Connection connection, String sql) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql);
+			 ResultSet rs = statement.executeQuery()) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package com.crypto.market_service.repository;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * So sánh dung lượng của klines và klines_compact trên một database đã ghi cùng dữ liệu vào cả hai
+ * ({@code app.persistence.storage=dual}). Không chạy cùng test (surefire chỉ nhận *Test); chạy tay:
+ * {@code java -cp target/test-classes:target/classes:<postgresql.jar> com.crypto.market_service.repository.KlineStorageBenchmark
+ * jdbc:postgresql://localhost:5432/market user password}
+ */
+class KlineStorageBenchmark {
+
+	public static void main(String[] args) throws SQLException {
+		if (args.length < 3) {
+			System.err.println("usage: KlineStorageBenchmark <jdbc-url> <user> <password>");
+			System.exit(2);
+		}
+		try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+			boolean timescale = single(connection,
+					"SELECT count(*) FROM pg_extension WHERE extname = 'timescaledb'") > 0;
+			report(connection, "klines", timescale);
+			report(connection, "klines_compact", timescale);
+		}
+	}
+
+	private static void report(Connection connection, String table, boolean timescale) throws SQLException {
+		long rows = single(connection, "SELECT count(*) FROM " + table);
+		// Độ rộng dữ liệu của một dòng, chưa gồm header tuple (~24 bytes) và line pointer (4 bytes)
+		long rowWidth = single(connection, "SELECT coalesce(avg(pg_column_size(t.*)), 0)::BIGINT FROM " + table + " t");
+		long total;
+		long indexes;
+		if (timescale && single(connection, "SELECT count(*) FROM timescaledb_information.hypertables"
+				+ " WHERE hypertable_name = '" + table + "'") > 0) {
+			// pg_total_relation_size của hypertable chỉ tính bảng cha rỗng
+			total = single(connection, "SELECT hypertable_size('" + table + "')");
+			indexes = single(connection, "SELECT index_bytes FROM hypertable_detailed_size('" + table + "')");
+		} else {
+			total = single(connection, "SELECT pg_total_relation_size('" + table + "')");
+			indexes = single(connection, "SELECT pg_indexes_size('" + table + "')");
+		}
+		System.out.printf("%-15s %,12d rows  row %4d bytes  total %,15d bytes (%6.1f/row)  indexes %,15d bytes%n",
+				table, rows, rowWidth, total, rows == 0 ? 0.0 : (double) total / rows, indexes);
+	}
+
+	private static long single(Connection connection, String sql) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql);
+			 ResultSet rs = statement.executeQuery()) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+}
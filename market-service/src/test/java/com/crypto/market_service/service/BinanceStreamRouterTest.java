@@ -0,0 +1,67 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.jupiter.api.Test;
+
+class BinanceStreamRouterTest {
+
+	private static final int SYMBOLS = 600;
+	private static final String[] INTERVALS = {"1m", "5m", "15m", "1h", "4h", "1d"};
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+
+	@Test
+	void routesByTheStreamField() {
+		StreamRoute route = router.route(message("btcusdt@kline_1m"));
+
+		assertEquals("btcusdt", route.getSymbol());
+		assertEquals(StreamRoute.Kind.KLINE, route.getKind());
+		assertEquals("1m", route.getInterval());
+		assertSame(route, router.routeOf("btcusdt@kline_1m"));
+		assertSame(route.getChannel(), router.route(message("btcusdt@aggTrade")).getChannel());
+		assertNull(router.route("{\"result\":null,\"id\":1}"));
+	}
+
+	@Test
+	void knownStreamsAreRoutedWithoutAllocating() {
+		assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		// Đủ nhiều stream để bảng băm phải mở rộng vài lần
+		String[] messages = new String[SYMBOLS * INTERVALS.length];
+		for (int i = 0; i < messages.length; i++) {
+			messages[i] = message("sym" + (i / INTERVALS.length) + "usdt@kline_" + INTERVALS[i % INTERVALS.length]);
+		}
+		int routed = 0;
+		for (int round = 0; round < 20; round++) { // Lần đầu tạo route, các vòng sau để JIT biên dịch
+			for (String message : messages) {
+				routed += router.route(message) != null ? 1 : 0;
+			}
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int round = 0; round < 20; round++) {
+			for (String message : messages) {
+				routed += router.route(message) != null ? 1 : 0;
+			}
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		assertEquals(40 * messages.length, routed);
+		// Chừa chỗ cho vài object của chính phép đo; một object mỗi message đã là hàng trăm KB
+		assertTrue(allocated < 4096, allocated + " bytes for " + 20 * messages.length + " messages");
+	}
+
+	private static String message(String stream) {
+		return "{\"stream\":\"" + stream + "\",\"data\":{\"e\":\"kline\",\"E\":1704067200005,\"s\":\"BTCUSDT\"}}";
+	}
+}
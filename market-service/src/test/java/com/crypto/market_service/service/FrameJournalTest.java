@@ -0,0 +1,124 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class FrameJournalTest {
+
+	// 2026-10-16T14:00:00Z
+	private static final long HOUR = 1_792_159_200_000L;
+	private static final int SHARDS = 4;
+	private static final int FRAMES_PER_SHARD = 5000;
+
+	private Path directory;
+	private FrameJournal journal;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		directory = Files.createTempDirectory("journal");
+		journal = new FrameJournal();
+		ReflectionTestUtils.setField(journal, "enabled", true);
+		ReflectionTestUtils.setField(journal, "directory", directory.toString());
+		ReflectionTestUtils.setField(journal, "segmentSizeMb", 1);
+		ReflectionTestUtils.setField(journal, "flushIntervalMs", 1000L);
+		journal.init();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		journal.close();
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Test
+	void concurrentShardsLoseNoFrameAndKeepTheirOwnOrder() throws Exception {
+		// ~100 bytes mỗi frame: 20000 frame vượt 1 MB nên file phải được thay trong lúc các shard đang ghi
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> shards = new ArrayList<>();
+		for (int shard = 0; shard < SHARDS; shard++) {
+			int id = shard;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < FRAMES_PER_SHARD; i++) {
+					journal.append(frame(id, i), HOUR + i);
+				}
+			});
+			thread.start();
+			shards.add(thread);
+		}
+		start.countDown();
+		for (Thread thread : shards) {
+			thread.join();
+		}
+
+		List<Path> segments = journal.segments(null, null);
+		assertTrue(segments.size() > 1, segments.size() + " segment(s)");
+
+		List<String> replayed = read(segments);
+		assertEquals(SHARDS * FRAMES_PER_SHARD, replayed.size());
+		int[] next = new int[SHARDS];
+		for (String frame : replayed) {
+			int shard = frame.charAt(frame.indexOf("shard") + 5) - '0';
+			assertEquals(frame(shard, next[shard]), frame);
+			next[shard]++;
+		}
+	}
+
+	@Test
+	void newHourStartsANewSegment() throws Exception {
+		journal.append(frame(0, 0), HOUR);
+		journal.append(frame(0, 1), HOUR + 3_600_000L);
+
+		List<Path> segments = journal.segments(null, null);
+		assertEquals(List.of("frames-2026101614-000.journal", "frames-2026101615-000.journal"),
+				segments.stream().map(path -> path.getFileName().toString()).toList());
+		assertEquals(List.of(frame(0, 0), frame(0, 1)), read(segments));
+		assertEquals(List.of(frame(0, 1)), read(journal.segments("2026101615", null)));
+	}
+
+	/**
+	 * Đọc lại các record như JournalReplayService: dừng ở độ dài 0 đầu tiên của mỗi file
+	 */
+	private static List<String> read(List<Path> segments) throws IOException {
+		List<String> replayed = new ArrayList<>();
+		for (Path segment : segments) {
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+			int position = 0;
+			while (position + FrameJournal.HEADER_BYTES <= buffer.limit()) {
+				int length = buffer.getInt(position);
+				if (length <= 0) {
+					break;
+				}
+				replayed.add(new String(buffer.array(), position + FrameJournal.HEADER_BYTES, length, StandardCharsets.UTF_8));
+				position += FrameJournal.HEADER_BYTES + length;
+			}
+		}
+		return replayed;
+	}
+
+	private static String frame(int shard, int sequence) {
+		return "{\"stream\":\"shard" + shard + "usdt@kline_1m\",\"data\":{\"e\":\"kline\",\"E\":" + sequence + ",\"pad\":\"x\"}}";
+	}
+}
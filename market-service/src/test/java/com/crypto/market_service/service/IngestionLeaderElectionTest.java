@@ -0,0 +1,177 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.event.IngestionLeadershipChangedEvent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class IngestionLeaderElectionTest {
+
+	private final FakeRedis redis = new FakeRedis();
+	private final List<IngestionLeadershipChangedEvent> events = new ArrayList<>();
+	private IngestionLeaderElection election;
+
+	@BeforeEach
+	void setUp() {
+		MarketMetrics metrics = new MarketMetrics(new SimpleMeterRegistry());
+		metrics.init();
+		election = new IngestionLeaderElection();
+		ReflectionTestUtils.setField(election, "redisTemplate", redis);
+		ApplicationEventPublisher publisher = event -> events.add((IngestionLeadershipChangedEvent) event);
+		ReflectionTestUtils.setField(election, "eventPublisher", publisher);
+		ReflectionTestUtils.setField(election, "metrics", metrics);
+		ReflectionTestUtils.setField(election, "leaseTtlMs", 10_000L);
+		ReflectionTestUtils.setField(election, "safetyMarginMs", 1000L);
+	}
+
+	@Test
+	void acquiresTheLeaseAndRenewsItWithItsOwnToken() {
+		tick();
+
+		assertTrue(election.isLeader());
+		assertEquals(1, election.getFencingToken());
+		assertEquals(1, events.size());
+		assertTrue(events.get(0).isLeader());
+		String lease = redis.values.get(IngestionLeaderElection.LEASE_KEY);
+		assertTrue(lease.endsWith(":1"), lease);
+
+		tick();
+		tick();
+
+		assertTrue(election.isLeader());
+		assertEquals(2, redis.renewals);
+		assertEquals(lease, redis.values.get(IngestionLeaderElection.LEASE_KEY));
+		assertEquals(1, events.size());
+	}
+
+	@Test
+	void standbyDoesNotTakeALeaseHeldByAnotherReplica() {
+		redis.values.put(IngestionLeaderElection.LEASE_KEY, "other:7");
+
+		tick();
+
+		assertFalse(election.isLeader());
+		assertTrue(events.isEmpty());
+		assertNull(redis.values.get(IngestionLeaderElection.FENCING_KEY));
+	}
+
+	@Test
+	void leaseTakenOverByAnotherReplicaDemotesOnTheNextRenewal() {
+		tick();
+		// Lease hết hạn trên Redis (VD: GC pause dài) và replica khác đã giành với token mới
+		redis.values.put(IngestionLeaderElection.LEASE_KEY, "other:2");
+
+		tick();
+
+		assertFalse(election.isLeader());
+		assertEquals(2, events.size());
+		assertFalse(events.get(1).isLeader());
+		assertEquals(1, events.get(1).getFencingToken());
+		assertEquals("other:2", redis.values.get(IngestionLeaderElection.LEASE_KEY));
+	}
+
+	@Test
+	void leaderStepsDownLocallyWhenRedisIsUnreachablePastTheDeadline() throws Exception {
+		ReflectionTestUtils.setField(election, "leaseTtlMs", 60L);
+		ReflectionTestUtils.setField(election, "safetyMarginMs", 20L);
+		tick();
+		assertTrue(election.isLeader());
+
+		redis.down = true;
+		Thread.sleep(60);
+
+		// Hết hạn tính từ lần gia hạn cuối, không cần chờ tick
+		assertFalse(election.isLeader());
+		tick();
+		assertEquals(2, events.size());
+		assertFalse(events.get(1).isLeader());
+
+		// Redis trở lại, lease cũ đã hết hạn: giành lại với token mới
+		redis.down = false;
+		redis.values.remove(IngestionLeaderElection.LEASE_KEY);
+		tick();
+		assertTrue(election.isLeader());
+		assertEquals(2, election.getFencingToken());
+	}
+
+	private void tick() {
+		ReflectionTestUtils.invokeMethod(election, "tick");
+	}
+
+	/**
+	 * Redis trong bộ nhớ với đủ các lệnh mà lease dùng: EXISTS, INCR, SET NX PX và hai script so khớp giá trị.
+	 * TTL không được mô phỏng: test tự xóa hoặc thay lease để giả lập hết hạn.
+	 */
+	private static final class FakeRedis extends StringRedisTemplate {
+		final Map<String, String> values = new HashMap<>();
+		int renewals;
+		boolean down;
+
+		@Override
+		public Boolean hasKey(String key) {
+			check();
+			return values.containsKey(key);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public ValueOperations<String, String> opsForValue() {
+			return (ValueOperations<String, String>) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {ValueOperations.class}, (proxy, method, args) -> {
+						check();
+						String key = (String) args[0];
+						switch (method.getName()) {
+							case "increment" -> {
+								long next = Long.parseLong(values.getOrDefault(key, "0")) + 1;
+								values.put(key, String.valueOf(next));
+								return next;
+							}
+							case "setIfAbsent" -> {
+								return values.putIfAbsent(key, (String) args[1]) == null;
+							}
+							default -> throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+			check();
+			String key = keys.get(0);
+			if (!args[0].equals(values.get(key))) {
+				return (T) Long.valueOf(0);
+			}
+			if (script.getScriptAsString().contains("pexpire")) {
+				renewals++;
+			} else {
+				values.remove(key);
+			}
+			return (T) Long.valueOf(1);
+		}
+
+		private void check() {
+			if (down) {
+				throw new IllegalStateException("Redis connection refused");
+			}
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class KlineBackfillServiceTest {
+
+	private static final long DAY = 86_400_000L;
+
+	private final List<Long> requestedFrom = new ArrayList<>();
+	private final List<KlineFrame> written = new ArrayList<>();
+	// openTime của nến 1d hiện tại (đang mở), tính lúc chạy
+	private long today;
+	private KlineBackfillService service;
+
+	@BeforeEach
+	void setUp() {
+		today = System.currentTimeMillis() / DAY * DAY;
+		service = new KlineBackfillService(null) {
+			@Override
+			JsonNode fetchRows(String symbol, String interval, long startTime, long endTime) {
+				requestedFrom.add(startTime);
+				// Như Binance: các nến từ startTime, dòng cuối là nến hiện tại chưa đóng
+				StringBuilder rows = new StringBuilder("[");
+				for (long open = startTime; open <= today; open += DAY) {
+					rows.append(rows.length() > 1 ? "," : "").append("[").append(open)
+							.append(",\"100.0\",\"110.0\",\"90.0\",\"105.0\",\"12.5\",").append(open + DAY - 1)
+							.append(",\"1312.5\",42,\"6.0\",\"630.0\",\"0\"]");
+				}
+				try {
+					return new ObjectMapper().readTree(rows.append("]").toString());
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+		ReflectionTestUtils.setField(service, "enabled", true);
+		ReflectionTestUtils.setField(service, "maxLookbackHours", 24 * 7L);
+		ReflectionTestUtils.setField(service, "persister", new KlinePersister() {
+			@Override
+			void write(List<KlineFrame> frames) {
+				written.addAll(frames);
+			}
+		});
+	}
+
+	@Test
+	void refetchesTheLastStoredCandleAndKeepsTheCurrentOneOpen() {
+		// Nến lưu cuối cùng là hôm kia, lúc mất kết nối nó có thể chưa đóng
+		service.recordPersisted("BTCUSDT", "1d", today - 2 * DAY);
+
+		ReflectionTestUtils.invokeMethod(service, "backfill", "BTCUSDT", "1d");
+
+		assertEquals(List.of(today - 2 * DAY), requestedFrom);
+		assertEquals(3, written.size());
+		assertEquals(today - 2 * DAY, written.get(0).openTime);
+		assertTrue(written.get(0).closed);
+		assertTrue(written.get(1).closed);
+		// Dòng cuối của REST là nến hiện tại: ghi như nến đang mở để nến đóng sau đó của stream live ghi đè
+		assertEquals(today, written.get(2).openTime);
+		assertFalse(written.get(2).closed);
+		assertEquals("BTCUSDT", written.get(2).symbol);
+	}
+
+	@Test
+	void currentCandleAlreadyStoredNeedsNoBackfill() {
+		service.recordPersisted("BTCUSDT", "1d", today);
+
+		ReflectionTestUtils.invokeMethod(service, "backfill", "BTCUSDT", "1d");
+
+		assertTrue(requestedFrom.isEmpty());
+		assertTrue(written.isEmpty());
+	}
+
+	@Test
+	void gapIsCappedByTheLookback() {
+		ReflectionTestUtils.setField(service, "maxLookbackHours", 48L);
+		service.recordPersisted("BTCUSDT", "1d", today - 30 * DAY);
+
+		ReflectionTestUtils.invokeMethod(service, "backfill", "BTCUSDT", "1d");
+
+		assertEquals(1, requestedFrom.size());
+		assertTrue(requestedFrom.get(0) >= System.currentTimeMillis() - 2 * DAY - 1000, "from " + requestedFrom.get(0));
+	}
+}
@@ -0,0 +1,64 @@
+package com.crypto.market_service.service;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.crypto.market_service.entity.KlineInterval;
+
+/**
+ * Đo phía client của bulk load: CSV -> tuple COPY nhị phân, không có database.
+ * Không chạy cùng test (surefire chỉ nhận *Test); chạy tay:
+ * {@code java -cp target/test-classes:target/classes:... com.crypto.market_service.service.KlineBulkLoaderBenchmark}
+ *
+ * <p>Tốc độ COPY/merge phía PostgreSQL không được đo ở đây, giới hạn thực tế của một lần nạp nằm ở đó.
+ */
+class KlineBulkLoaderBenchmark {
+
+	private static final int ROWS = 1_000_000;
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		String[] lines = new String[ROWS];
+		long openTime = 1_704_067_200_000L;
+		for (int i = 0; i < ROWS; i++) {
+			long open = openTime + i * 60_000L;
+			lines[i] = open + ",42000.10000000,42100.00000000,41900.50000000,42050.01000000," + (12 + i % 1000) + ".12345678,"
+					+ (open + 59_999) + ",525000.12345678,1234,6.1,256000.5,0";
+		}
+		byte[] symbol = "BTCUSDT".getBytes(StandardCharsets.UTF_8);
+		byte[] interval = KlineInterval.M1.getLabel().getBytes(StandardCharsets.UTF_8);
+
+		for (int round = 0; round < ROUNDS + 2; round++) {
+			CountingStream bytes = new CountingStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			long start = System.nanoTime();
+			KlineBulkLoader.writeHeader(out);
+			for (String line : lines) {
+				KlineBulkLoader.writeRow(out, line, KlineInterval.M1, symbol, interval);
+			}
+			KlineBulkLoader.writeTrailer(out);
+			long elapsed = System.nanoTime() - start;
+			if (round >= 2) { // 2 vòng đầu là warm-up
+				System.out.printf("round %d: %,.0f rows/s, %.1f ns/row, %.1f bytes/row%n", round - 1,
+						ROWS * 1e9 / elapsed, (double) elapsed / ROWS, (double) bytes.count / ROWS);
+			}
+		}
+	}
+
+	private static final class CountingStream extends OutputStream {
+
+		private long count;
+
+		@Override
+		public void write(int b) {
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.util.ScaledDecimal;
+
+class KlineBulkLoaderTest {
+
+	// 2024-01-01T00:00:00Z
+	private static final long OPEN_TIME = 1_704_067_200_000L;
+	private static final Instant PG_EPOCH = Instant.parse("2000-01-01T00:00:00Z");
+
+	@TempDir
+	Path temp;
+
+	private final KlineBulkLoader loader = new KlineBulkLoader();
+	private Path root;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		root = Files.createDirectories(temp.resolve("klines"));
+		Files.createDirectories(root.resolve("2024"));
+		Files.createDirectories(temp.resolve("secret"));
+		ReflectionTestUtils.setField(loader, "importRoot", root.toString());
+	}
+
+	@Test
+	void resolvesDirectoriesUnderTheImportRoot() throws Exception {
+		assertEquals(root.resolve("2024").toRealPath(), loader.resolveImportDir("2024"));
+		assertEquals(root.resolve("2024").toRealPath(), loader.resolveImportDir(root.resolve("2024").toString()));
+	}
+
+	@Test
+	void rejectsPathsOutsideTheImportRoot() throws Exception {
+		assertThrows(IllegalArgumentException.class, () -> loader.resolveImportDir("../secret"));
+		assertThrows(IllegalArgumentException.class, () -> loader.resolveImportDir(temp.resolve("secret").toString()));
+		assertThrows(IllegalArgumentException.class, () -> loader.resolveImportDir("missing"));
+
+		// Symlink trong thư mục gốc trỏ ra ngoài cũng bị chặn
+		Files.createSymbolicLink(root.resolve("link"), temp.resolve("secret"));
+		assertThrows(IllegalArgumentException.class, () -> loader.resolveImportDir("link"));
+	}
+
+	@Test
+	void importIsDisabledWithoutARoot() {
+		ReflectionTestUtils.setField(loader, "importRoot", "");
+		assertThrows(IllegalStateException.class, () -> loader.resolveImportDir("2024"));
+	}
+
+	@Test
+	void copyStreamRoundTripsEveryStagingColumn() throws Exception {
+		byte[] copy = encode(KlineInterval.H1,
+				"open_time,open,high,low,close,volume,close_time",
+				"",
+				OPEN_TIME + ",42000.10,42100.00000000,41900.5,42050.01,12.5," + (OPEN_TIME + 3_599_999) + ",0,0,0,0,0",
+				// Dump spot từ 2025 dùng micro giây; khối lượng lớn hơn long nhân 10^8
+				(OPEN_TIME + 3_600_000) * 1000 + ",0.00001234,0.00001240,0.00001200,0.00001230,123456789012.125,0");
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(copy));
+		byte[] signature = new byte[11];
+		in.readFully(signature);
+		assertEquals("PGCOPY\n\377\r\n\0", new String(signature, StandardCharsets.ISO_8859_1));
+		assertEquals(0, in.readInt()); // flags
+		assertEquals(0, in.readInt()); // header extension
+
+		List<Object> first = readTuple(in);
+		assertEquals(List.of("PEPEUSDT", "1h", (short) KlineInterval.H1.getCode(), OPEN_TIME,
+				micros(OPEN_TIME), micros(OPEN_TIME + 3_599_999),
+				4_200_010_000_000L, 4_210_000_000_000L, 4_190_050_000_000L, 4_205_001_000_000L,
+				1_250_000_000L, (short) 8), first);
+
+		List<Object> second = readTuple(in);
+		assertEquals(OPEN_TIME + 3_600_000, second.get(3));
+		assertEquals(1234L, second.get(6));
+		assertEquals(123_456_789_012_125_000L, second.get(10));
+		assertEquals((short) 6, second.get(11));
+		assertEquals(ScaledDecimal.toBigDecimal(123_456_789_012_125_000L, 6),
+				new java.math.BigDecimal("123456789012.125000"));
+
+		assertEquals(-1, in.readShort()); // trailer
+		assertEquals(-1, in.read());
+	}
+
+	@Test
+	void malformedLineIsRejected() {
+		assertThrows(IOException.class, () -> encode(KlineInterval.M1, OPEN_TIME + ",1,2,3"));
+	}
+
+	@Test
+	void stagingColumnsMatchTheEncoderAndFeedTheMerges() {
+		String ddl = KlineBulkLoader.CREATE_STAGING;
+		String[] columns = ddl.substring(ddl.indexOf('(') + 1, ddl.lastIndexOf(')')).split(",");
+		assertEquals(KlineBulkLoader.FIELDS, columns.length);
+		String merges = KlineBulkLoader.MERGE_STANDARD + KlineBulkLoader.MERGE_COMPACT;
+		for (String column : columns) {
+			String name = column.trim().split(" ")[0];
+			assertTrue(merges.contains(name), name + " is never merged");
+		}
+		// Khối lượng được đưa về cùng đơn vị trước khi so sánh hoặc ghi vào NUMERIC
+		assertTrue(KlineBulkLoader.MERGE_STANDARD.contains("volume * power(10::numeric, -volume_scale)"));
+		assertTrue(KlineBulkLoader.MERGE_COMPACT.contains("s.volume_scale"));
+	}
+
+	private static byte[] encode(KlineInterval interval, String... lines) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		KlineBulkLoader.writeHeader(out);
+		byte[] symbol = "PEPEUSDT".getBytes(StandardCharsets.UTF_8);
+		byte[] label = interval.getLabel().getBytes(StandardCharsets.UTF_8);
+		for (String line : lines) {
+			KlineBulkLoader.writeRow(out, line, interval, symbol, label);
+		}
+		KlineBulkLoader.writeTrailer(out);
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Đọc một tuple theo định dạng COPY nhị phân: số cột, rồi mỗi cột (độ dài, bytes); độ dài -1 là NULL
+	 */
+	private static List<Object> readTuple(DataInputStream in) throws IOException {
+		assertEquals(KlineBulkLoader.FIELDS, in.readShort());
+		List<Object> values = new ArrayList<>();
+		for (int i = 0; i < KlineBulkLoader.FIELDS; i++) {
+			int length = in.readInt();
+			assertTrue(length >= 0, "column " + i + " is NULL");
+			byte[] value = new byte[length];
+			in.readFully(value);
+			DataInputStream field = new DataInputStream(new ByteArrayInputStream(value));
+			values.add(switch (i) {
+				case 0, 1 -> new String(value, StandardCharsets.UTF_8);
+				case 2, 11 -> {
+					assertEquals(2, length);
+					yield field.readShort();
+				}
+				default -> {
+					assertEquals(8, length, Arrays.toString(value));
+					yield field.readLong();
+				}
+			});
+		}
+		return values;
+	}
+
+	private static long micros(long epochMillis) {
+		return Duration.between(PG_EPOCH, Instant.ofEpochMilli(epochMillis)).toNanos() / 1000;
+	}
+}
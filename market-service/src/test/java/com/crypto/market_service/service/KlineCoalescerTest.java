@@ -0,0 +1,93 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class KlineCoalescerTest {
+
+	private static final long WINDOW = 1_000;
+	private static final long MINUTE = 60_000L;
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final StreamRoute btc = router.routeOf("btcusdt@kline_1m");
+	private final StreamRoute eth = router.routeOf("ethusdt@kline_1m");
+	private final List<String> published = new ArrayList<>();
+	private KlineCoalescer coalescer;
+	private KlineCoalescer.Lane lane;
+
+	@BeforeEach
+	void setUp() {
+		coalescer = new KlineCoalescer();
+		ReflectionTestUtils.setField(coalescer, "windowMs", WINDOW);
+		lane = coalescer.newLane((route, payload) -> published.add(payload));
+	}
+
+	@Test
+	void keepsOnlyTheLatestUpdateUntilTheWindowEnds() {
+		long start = System.currentTimeMillis();
+		lane.accept(btc, kline("BTCUSDT", 0, 1, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 2, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 3, false));
+		assertEquals(List.of(kline("BTCUSDT", 0, 1, false)), published);
+
+		// Stream không nhận thêm frame: nhịp của supervisor xả bản đang chờ
+		coalescer.flushDue(start - 1);
+		assertEquals(1, published.size());
+		coalescer.flushDue(System.currentTimeMillis() + WINDOW);
+		assertEquals(List.of(kline("BTCUSDT", 0, 1, false), kline("BTCUSDT", 0, 3, false)), published);
+	}
+
+	@Test
+	void closedCandleGoesAtOnceAndReplacesThePendingUpdate() {
+		lane.accept(btc, kline("BTCUSDT", 0, 1, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 2, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 3, true));
+		lane.flushDue(System.currentTimeMillis() + WINDOW);
+
+		assertEquals(List.of(kline("BTCUSDT", 0, 1, false), kline("BTCUSDT", 0, 3, true)), published);
+	}
+
+	@Test
+	void pendingUpdateOfThePreviousCandleGoesBeforeTheNewCandle() {
+		lane.accept(btc, kline("BTCUSDT", 0, 1, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 2, false));
+		lane.accept(btc, kline("BTCUSDT", MINUTE, 3, false));
+
+		assertEquals(List.of(kline("BTCUSDT", 0, 1, false), kline("BTCUSDT", 0, 2, false),
+				kline("BTCUSDT", MINUTE, 3, false)), published);
+	}
+
+	@Test
+	void laterWindowOfOneStreamDoesNotHoldBackAnother() throws Exception {
+		lane.accept(btc, kline("BTCUSDT", 0, 1, false));
+		lane.accept(eth, kline("ETHUSDT", 0, 1, false));
+		lane.accept(btc, kline("BTCUSDT", 0, 2, false));
+		lane.accept(eth, kline("ETHUSDT", 0, 2, false));
+		long ethQueuedBy = System.currentTimeMillis();
+		Thread.sleep(20);
+
+		// btc vẫn ở đầu hàng đợi với hạn cũ nhưng cửa sổ của nó bắt đầu lại muộn hơn eth
+		lane.accept(btc, kline("BTCUSDT", MINUTE, 3, false));
+		lane.accept(btc, kline("BTCUSDT", MINUTE, 4, false));
+		published.clear();
+
+		lane.flushDue(ethQueuedBy + WINDOW);
+		assertEquals(List.of(kline("ETHUSDT", 0, 2, false)), published);
+
+		lane.flushDue(System.currentTimeMillis() + WINDOW);
+		assertEquals(List.of(kline("ETHUSDT", 0, 2, false), kline("BTCUSDT", MINUTE, 4, false)), published);
+	}
+
+	private static String kline(String symbol, long openTime, int trades, boolean closed) {
+		String stream = symbol.toLowerCase() + "@kline_1m";
+		return "{\"stream\":\"" + stream + "\",\"data\":{\"e\":\"kline\",\"E\":" + (openTime + trades)
+				+ ",\"s\":\"" + symbol + "\",\"k\":{\"t\":" + openTime + ",\"T\":" + (openTime + MINUTE - 1)
+				+ ",\"s\":\"" + symbol + "\",\"i\":\"1m\",\"n\":" + trades + ",\"x\":" + closed + "}}}";
+	}
+}
@@ -0,0 +1,83 @@
+package com.crypto.market_service.service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * So sánh phía nhận một message kline từ Redis: Jackson readTree (cách đọc trước khi có KlineCodec),
+ * quét JSON của KlineCodec.parseJson và giải mã nhị phân 68 bytes.
+ * Không chạy cùng test (surefire chỉ nhận *Test); chạy tay:
+ * {@code java -cp target/test-classes:target/classes:... com.crypto.market_service.service.KlineCodecBenchmark}
+ */
+class KlineCodecBenchmark {
+
+	private static final long OPEN_TIME = 1_704_067_200_000L;
+	private static final int MESSAGES = 2_000_000;
+	private static final int ROUNDS = 5;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static long sink;
+
+	public static void main(String[] args) throws Exception {
+		BinanceStreamRouter router = new BinanceStreamRouter();
+		StreamRoute route = router.routeOf("btcusdt@kline_1h");
+		ObjectMapper mapper = new ObjectMapper();
+
+		String json = "{\"stream\":\"btcusdt@kline_1h\",\"data\":{\"e\":\"kline\",\"E\":" + (OPEN_TIME + 5)
+				+ ",\"s\":\"BTCUSDT\",\"k\":{\"t\":" + OPEN_TIME + ",\"T\":" + (OPEN_TIME + 3_599_999L)
+				+ ",\"s\":\"BTCUSDT\",\"i\":\"1h\",\"o\":\"42000.10000000\",\"c\":\"42050.01000000\""
+				+ ",\"h\":\"42100.00000000\",\"l\":\"41900.50000000\",\"v\":\"123.45678900\""
+				+ ",\"n\":42,\"x\":false}}}";
+		KlineFrame frame = new KlineFrame();
+		if (!KlineCodec.parseJson(json, route, frame)) {
+			throw new IllegalStateException("payload rejected");
+		}
+		frame.symbolId = 1;
+		byte[] binary = KlineCodec.encode(frame);
+		System.out.printf("wire: json %d bytes/message, binary %d bytes/message%n",
+				json.getBytes(StandardCharsets.UTF_8).length, binary.length);
+
+		for (int round = 0; round < ROUNDS + 2; round++) {
+			boolean report = round >= 2; // 2 vòng đầu là warm-up
+			measure("readTree", report, () -> {
+				JsonNode kline = mapper.readTree(json).get("data").get("k");
+				sink += kline.get("t").asLong() + kline.get("o").asText().length() + kline.get("c").asText().length()
+						+ kline.get("h").asText().length() + kline.get("l").asText().length()
+						+ kline.get("v").asText().length() + kline.get("n").asLong() + (kline.get("x").asBoolean() ? 1 : 0);
+			});
+			measure("parseJson", report, () -> {
+				KlineCodec.parseJson(json, route, frame);
+				sink += frame.open + frame.volume;
+			});
+			measure("decode", report, () -> {
+				KlineCodec.decode(binary, frame);
+				sink += frame.open + frame.volume;
+			});
+		}
+		System.out.println("(sink " + (sink & 1) + ")");
+	}
+
+	private interface Decoder {
+		void decode() throws Exception;
+	}
+
+	private static void measure(String name, boolean report, Decoder decoder) throws Exception {
+		long thread = Thread.currentThread().getId();
+		long allocated = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			decoder.decode();
+		}
+		long elapsed = System.nanoTime() - start;
+		allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+		if (report) {
+			System.out.printf("%-10s %7.1f ns/message %8.1f allocated bytes/message%n", name,
+					(double) elapsed / MESSAGES, (double) allocated / MESSAGES);
+		}
+	}
+}
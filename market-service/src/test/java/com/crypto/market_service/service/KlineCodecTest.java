@@ -0,0 +1,71 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.crypto.market_service.entity.KlineInterval;
+
+class KlineCodecTest {
+
+	private static final long OPEN_TIME = 1_704_067_200_000L;
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final StreamRoute route = router.routeOf("btcusdt@kline_1h");
+
+	@Test
+	void binaryRoundTripRestoresTheBinanceKline() {
+		String payload = kline("42000.10000000", "123.45678900", true);
+		KlineFrame parsed = new KlineFrame();
+		assertTrue(KlineCodec.parseJson(payload, route, parsed));
+		parsed.symbolId = 7;
+
+		byte[] encoded = KlineCodec.encode(parsed);
+		assertEquals(KlineCodec.SIZE, encoded.length);
+		assertTrue(KlineCodec.isBinary(encoded));
+		assertEquals(7, KlineCodec.symbolIdOf(encoded));
+
+		KlineFrame decoded = new KlineFrame();
+		assertTrue(KlineCodec.decode(encoded, decoded));
+		decoded.symbol = "BTCUSDT";
+		decoded.streamSymbol = "btcusdt";
+		assertEquals(KlineInterval.H1, decoded.interval);
+		assertEquals(OPEN_TIME + 3_600_000L - 1, decoded.closeTime());
+		assertEquals(payload, KlineCodec.toJson(decoded, new StringBuilder()));
+	}
+
+	@Test
+	void volumeBeyondScaledLongRangeKeepsAFittingScale() {
+		String payload = kline("0.00001000", "1000000000000.50000000", false);
+		KlineFrame parsed = new KlineFrame();
+		assertTrue(KlineCodec.parseJson(payload, route, parsed));
+		parsed.symbolId = 1;
+
+		KlineFrame decoded = new KlineFrame();
+		assertTrue(KlineCodec.decode(KlineCodec.encode(parsed), decoded));
+		assertEquals(5, decoded.volumeScale);
+		assertEquals("1000000000000.50000", decoded.volumeDecimal().toPlainString());
+	}
+
+	@Test
+	void missingOrTruncatedFieldsFallBackToJson() {
+		String payload = kline("42000.10000000", "1.00000000", false);
+		KlineFrame frame = new KlineFrame();
+
+		assertFalse(KlineCodec.parseJson(payload.replace("\"E\":", "\"e2\":"), route, frame));
+		assertFalse(KlineCodec.parseJson(payload.replace("\"n\":", "\"m\":"), route, frame));
+		assertFalse(KlineCodec.parseJson(payload.replace("\"x\":", "\"y\":"), route, frame));
+		assertFalse(KlineCodec.parseJson(payload.substring(0, payload.indexOf("\"x\":") + 4), route, frame));
+		assertFalse(KlineCodec.parseJson(kline("0.000000001", "1.00000000", false), route, frame));
+	}
+
+	private static String kline(String price, String volume, boolean closed) {
+		return "{\"stream\":\"btcusdt@kline_1h\",\"data\":{\"e\":\"kline\",\"E\":" + (OPEN_TIME + 5)
+				+ ",\"s\":\"BTCUSDT\",\"k\":{\"t\":" + OPEN_TIME + ",\"T\":" + (OPEN_TIME + 3_599_999L)
+				+ ",\"s\":\"BTCUSDT\",\"i\":\"1h\",\"o\":\"" + price + "\",\"c\":\"" + price
+				+ "\",\"h\":\"" + price + "\",\"l\":\"" + price + "\",\"v\":\"" + volume
+				+ "\",\"n\":42,\"x\":" + closed + "}}}";
+	}
+}
@@ -0,0 +1,252 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.entity.Kline;
+import com.crypto.market_service.entity.KlineInterval;
+import com.crypto.market_service.repository.KlineCompactRepository;
+import com.crypto.market_service.util.ScaledDecimal;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class KlinePersisterTest {
+
+	private static final long OPEN_TIME = 1_704_067_200_000L;
+	private static final int COLUMNS = 9;
+	private static final int COMPACT_COLUMNS = 9;
+
+	private final Database database = new Database();
+	private KlinePersister persister;
+
+	@BeforeEach
+	void setUp() {
+		MarketMetrics metrics = new MarketMetrics(new SimpleMeterRegistry());
+		metrics.init();
+		persister = new KlinePersister();
+		ReflectionTestUtils.setField(persister, "storage", "standard");
+		ReflectionTestUtils.setField(persister, "batchSize", 8);
+		ReflectionTestUtils.setField(persister, "flushIntervalMs", 10L);
+		ReflectionTestUtils.setField(persister, "maxPending", 1000);
+		ReflectionTestUtils.setField(persister, "retryBackoffMs", 10L);
+		ReflectionTestUtils.setField(persister, "maxRetries", 2);
+		ReflectionTestUtils.setField(persister, "openCheckpointMs", 0L);
+		ReflectionTestUtils.setField(persister, "persistenceTransport", "stream");
+		ReflectionTestUtils.setField(persister, "openKlines", new OpenKlineCache());
+		ReflectionTestUtils.setField(persister, "jdbcTemplate", database);
+		ReflectionTestUtils.setField(persister, "backfillService", new KlineBackfillService(null));
+		ReflectionTestUtils.setField(persister, "metrics", metrics);
+		persister.init();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		persister.shutdown();
+	}
+
+	@Test
+	void rejectedBatchIsBisectedAndOnlyTheBadRowDropped() {
+		database.rejected = Set.of("BAD");
+		List<KlineFrame> frames = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			frames.add(frame(i == 5 ? "BAD" : "SYM" + i));
+		}
+
+		persister.write(frames);
+
+		assertEquals(List.of("SYM0", "SYM1", "SYM2", "SYM3", "SYM4", "SYM6", "SYM7"), database.sorted());
+		assertEquals(1L, rejectedCount());
+		// 1 batch + 2 nửa + 2 phần tư + 2 dòng cuối
+		assertEquals(7, database.statements);
+	}
+
+	@Test
+	void compactRowKeepsTheScaleOfAVolumeBeyondScaledLongRange() throws Exception {
+		persister.shutdown();
+		ReflectionTestUtils.setField(persister, "storage", "compact");
+		persister.init();
+		KlineFrame frame = frame("PEPEUSDT");
+		frame.symbolId = 12;
+		frame.setVolume(new BigDecimal("1000000000000.12345"));
+
+		persister.write(List.of(frame));
+
+		assertEquals(List.of((short) 12, (short) KlineInterval.M1.getCode(), OPEN_TIME, ScaledDecimal.ONE,
+				ScaledDecimal.ONE, ScaledDecimal.ONE, ScaledDecimal.ONE, 100_000_000_000_012_345L, (short) 5),
+				database.compactRow);
+		KlineCompactRepository repository = new KlineCompactRepository(database);
+		Kline stored = repository.findLatest("PEPEUSDT", KlineInterval.M1, 1).get(0);
+		assertEquals(new BigDecimal("1000000000000.12345"), stored.getVolume());
+		assertEquals(ScaledDecimal.toBigDecimal(ScaledDecimal.ONE), stored.getClosePrice());
+	}
+
+	@Test
+	void transientErrorIsRethrownWithoutIsolating() {
+		database.unavailable = true;
+
+		assertThrows(QueryTimeoutException.class, () -> persister.write(List.of(frame("SYM0"), frame("SYM1"))));
+		assertEquals(1, database.statements);
+		assertEquals(0L, rejectedCount());
+	}
+
+	@Test
+	void queuedBatchIsIsolatedAfterMaxRetries() throws Exception {
+		database.rejected = Set.of("BAD");
+		persister.submit(frame("SYM0"));
+		persister.submit(frame("BAD"));
+		persister.submit(frame("SYM1"));
+
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (database.sorted().size() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1L, rejectedCount());
+		assertEquals(List.of("SYM0", "SYM1"), database.sorted());
+	}
+
+	@Test
+	void burstOfUpdatesIsWrittenInFullBatches() throws Exception {
+		persister.shutdown();
+		ReflectionTestUtils.setField(persister, "batchSize", 500);
+		ReflectionTestUtils.setField(persister, "flushIntervalMs", 1000L);
+		persister.init();
+		KlineInterval[] intervals = {KlineInterval.M1, KlineInterval.M5, KlineInterval.M15, KlineInterval.H1,
+				KlineInterval.H4, KlineInterval.D1};
+
+		// Một giây ở 5000 msg/s trên 300 symbols x 6 interval: mỗi nến nhận vài cập nhật
+		int updates = 5000;
+		for (int i = 0; i < updates; i++) {
+			KlineFrame frame = frame("SYM" + (i % 300));
+			frame.interval = intervals[(i / 300) % intervals.length];
+			frame.closed = false;
+			frame.volume = ScaledDecimal.ONE + i;
+			persister.submit(frame);
+		}
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (database.sorted().size() < 300 * intervals.length && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		// Mỗi nến được ghi ít nhất một lần (có thể hơn nếu cập nhật đến sau khi batch trước đã xả)
+		assertTrue(database.sorted().size() >= 300 * intervals.length);
+		assertEquals(300, database.written.stream().distinct().count());
+		// Đường cũ: một SELECT + một INSERT/UPDATE mỗi cập nhật = 10000 câu lệnh
+		assertTrue(database.statements <= 2 * updates / 500, database.statements + " statements");
+	}
+
+	private long rejectedCount() {
+		return ((LongAdder) ReflectionTestUtils.getField(persister, "rejected")).sum();
+	}
+
+	private static KlineFrame frame(String symbol) {
+		KlineFrame frame = new KlineFrame();
+		frame.symbol = symbol;
+		frame.interval = KlineInterval.M1;
+		frame.openTime = OPEN_TIME;
+		frame.closed = true;
+		frame.open = ScaledDecimal.ONE;
+		frame.high = ScaledDecimal.ONE;
+		frame.low = ScaledDecimal.ONE;
+		frame.close = ScaledDecimal.ONE;
+		frame.volume = ScaledDecimal.ONE;
+		frame.volumeScale = ScaledDecimal.SCALE;
+		return frame;
+	}
+
+	/**
+	 * Bảng klines giả: cả câu lệnh bị từ chối nếu có một dòng thuộc {@code rejected}
+	 */
+	private static final class Database extends JdbcTemplate {
+		final List<String> written = new ArrayList<>();
+		List<Object> compactRow;
+		Set<String> rejected = Set.of();
+		boolean unavailable;
+		int statements;
+
+		@Override
+		public synchronized int update(String sql, Object... args) {
+			statements++;
+			if (unavailable) {
+				throw new QueryTimeoutException("timeout");
+			}
+			List<String> symbols = new ArrayList<>();
+			for (int i = 0; i < args.length; i += COLUMNS) {
+				if (rejected.contains((String) args[i])) {
+					throw new DataIntegrityViolationException("numeric field overflow");
+				}
+				symbols.add((String) args[i]);
+			}
+			written.addAll(symbols);
+			return symbols.size();
+		}
+
+		@Override
+		public synchronized int update(String sql, PreparedStatementSetter setter) {
+			statements++;
+			Object[] params = new Object[COMPACT_COLUMNS];
+			try {
+				setter.setValues((PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+						new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+							params[(Integer) args[0] - 1] = args[1];
+							return null;
+						}));
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+			compactRow = Arrays.asList(params);
+			return 1;
+		}
+
+		/**
+		 * Đọc lại dòng klines_compact vừa ghi
+		 */
+		@Override
+		public <T> List<T> query(String sql, RowMapper<T> mapper, Object... args) {
+			Map<String, Object> columns = new HashMap<>();
+			String[] names = {"symbol_id", "interval_code", "open_time", "open_price", "high_price", "low_price",
+					"close_price", "volume", "volume_scale"};
+			for (int i = 0; i < names.length; i++) {
+				columns.put(names[i], compactRow.get(i));
+			}
+			ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {ResultSet.class}, (proxy, method, methodArgs) -> {
+						Number value = (Number) columns.get((String) methodArgs[0]);
+						return method.getName().equals("getInt") ? (Object) value.intValue() : (Object) value.longValue();
+					});
+			try {
+				return List.of(mapper.mapRow(rs, 0));
+			} catch (SQLException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		synchronized List<String> sorted() {
+			return written.stream().sorted().toList();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.util.JsonFields;
+import com.crypto.market_service.util.ScaledDecimal;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class KlineRollupEngineTest {
+
+	// 2024-01-01T00:00:00Z, đầu của mọi nến tới 1d
+	private static final long DAY = 1_704_067_200_000L;
+	private static final long MINUTE = 60_000L;
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final RestHistory backfill = new RestHistory();
+	private final List<String> published = new ArrayList<>();
+	private KlineRollupEngine engine;
+
+	@BeforeEach
+	void setUp() {
+		engine = new KlineRollupEngine();
+		ReflectionTestUtils.setField(engine, "source", "rollup");
+		ReflectionTestUtils.setField(engine, "intervals", List.of("1m", "5m", "1h"));
+		ReflectionTestUtils.setField(engine, "streamRouter", router);
+		ReflectionTestUtils.setField(engine, "backfillService", backfill);
+		engine.init();
+	}
+
+	@Test
+	void rollsUpFiveMinutesIntoOneCandle() {
+		for (int i = 0; i < 5; i++) {
+			send(minute(DAY + i * MINUTE, "10" + i, "2.00000000", "20.00000000", "1.00000000", "10.00000000", 3, true));
+		}
+
+		String last = lastOf("btcusdt@kline_5m");
+		assertEquals(DAY, field(last, "\"t\":"));
+		assertEquals("100.00000000", text(last, "\"o\":"));
+		assertEquals("104.00000000", text(last, "\"c\":"));
+		assertEquals("10.00000000", text(last, "\"v\":"));
+		assertEquals("100.00000000", text(last, "\"q\":"));
+		assertEquals("5.00000000", text(last, "\"V\":"));
+		assertEquals("50.00000000", text(last, "\"Q\":"));
+		assertEquals(15, field(last, "\"n\":"));
+		assertTrue(last.contains("\"x\":true"));
+	}
+
+	@Test
+	void laterUpdateOfTheSameMinuteReplacesItsSums() {
+		send(minute(DAY, "100", "1.00000000", "100.00000000", "0.50000000", "50.00000000", 1, false));
+		send(minute(DAY, "101", "3.00000000", "300.00000000", "1.50000000", "150.00000000", 4, false));
+
+		String last = lastOf("btcusdt@kline_5m");
+		assertEquals("3.00000000", text(last, "\"v\":"));
+		assertEquals("300.00000000", text(last, "\"q\":"));
+		assertEquals(4, field(last, "\"n\":"));
+		assertTrue(last.contains("\"x\":false"));
+	}
+
+	@Test
+	void volumeBeyondScaledLongRangeLowersTheScale() {
+		// Mỗi phút 9e10 (đọc với 7 chữ số lẻ): tổng 11 phút 9.9e11 không còn vừa long nhân 10^7
+		for (int i = 0; i < 11; i++) {
+			send(minute(DAY + i * MINUTE, "0.00001", "90000000000.00000000", "900000.00000000", "0", "0", 1, true));
+		}
+
+		String last = lastOf("btcusdt@kline_1h");
+		assertEquals("990000000000.00000000", text(last, "\"v\":"));
+		assertEquals("9900000.00000000", text(last, "\"q\":"));
+		assertEquals(11, field(last, "\"n\":"));
+	}
+
+	@Test
+	void seedsEveryFieldFromRestWhenStartingMidCandle() throws Exception {
+		backfill.rows = new ObjectMapper().readTree(
+				"[[" + DAY + ",\"90.0\",\"120.0\",\"80.0\",\"95.0\",\"4.0\"," + (DAY + MINUTE - 1)
+						+ ",\"380.0\",7,\"1.0\",\"95.0\",\"0\"],"
+						+ "[" + (DAY + MINUTE) + ",\"95.0\",\"96.0\",\"94.0\",\"100.0\",\"6.0\"," + (DAY + 2 * MINUTE - 1)
+						+ ",\"600.0\",9,\"2.0\",\"200.0\",\"0\"]]");
+
+		send(minute(DAY + 2 * MINUTE, "100", "1.00000000", "100.00000000", "0.50000000", "50.00000000", 2, false));
+		assertTrue(published.isEmpty(), "candles published before their history was seeded");
+		seeder().submit(() -> { }).get();
+		send(minute(DAY + 2 * MINUTE, "100", "1.00000000", "100.00000000", "0.50000000", "50.00000000", 2, false));
+
+		String last = lastOf("btcusdt@kline_5m");
+		assertEquals(1001, field(last, "\"f\":"));
+		assertEquals("90.00000000", text(last, "\"o\":"));
+		assertEquals("120.00000000", text(last, "\"h\":"));
+		assertEquals("11.00000000", text(last, "\"v\":"));
+		assertEquals("1080.00000000", text(last, "\"q\":"));
+		assertEquals("3.50000000", text(last, "\"V\":"));
+		assertEquals("345.00000000", text(last, "\"Q\":"));
+		assertEquals(18, field(last, "\"n\":"));
+	}
+
+	@Test
+	void closingUpdateWaitsForTheSeed() throws Exception {
+		ReflectionTestUtils.setField(engine, "seedWaitMillis", 5000L);
+		backfill.rows = new ObjectMapper().readTree(
+				"[[" + DAY + ",\"90.0\",\"120.0\",\"80.0\",\"95.0\",\"4.0\"," + (DAY + 4 * MINUTE - 1)
+						+ ",\"380.0\",7,\"1.0\",\"95.0\",\"0\"]]");
+		// Seeder bận: bản đóng nến đến trước khi phần đầu nến được dựng xong
+		CountDownLatch release = new CountDownLatch(1);
+		seeder().execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		timer.schedule(release::countDown, 100, TimeUnit.MILLISECONDS);
+
+		send(minute(DAY + 4 * MINUTE, "100", "1.00000000", "100.00000000", "0.50000000", "50.00000000", 2, true));
+		timer.shutdown();
+
+		String last = lastOf("btcusdt@kline_5m");
+		assertTrue(last.contains("\"x\":true"));
+		assertEquals(1001, field(last, "\"f\":"));
+		assertEquals("90.00000000", text(last, "\"o\":"));
+		assertEquals("5.00000000", text(last, "\"v\":"));
+		assertEquals(9, field(last, "\"n\":"));
+	}
+
+	@Test
+	void closedCandleIsPublishedWithoutHistoryWhenTheSeedIsTooSlow() {
+		ReflectionTestUtils.setField(engine, "seedWaitMillis", 10L);
+		CountDownLatch release = new CountDownLatch(1);
+		seeder().execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		send(minute(DAY + 4 * MINUTE, "100", "1.00000000", "100.00000000", "0.50000000", "50.00000000", 2, true));
+		release.countDown();
+
+		String last = lastOf("btcusdt@kline_5m");
+		assertTrue(last.contains("\"x\":true"));
+		assertEquals("100.00000000", text(last, "\"o\":"));
+		assertEquals("1.00000000", text(last, "\"v\":"));
+	}
+
+	private ExecutorService seeder() {
+		return (ExecutorService) ReflectionTestUtils.getField(engine, "seeder");
+	}
+
+	private String lastOf(String stream) {
+		for (int i = published.size() - 1; i >= 0; i--) {
+			if (published.get(i).startsWith("{\"stream\":\"" + stream + "\"")) {
+				return published.get(i);
+			}
+		}
+		throw new AssertionError("Nothing published on " + stream);
+	}
+
+	private void send(String payload) {
+		engine.onKline(router.route(payload), payload, (route, derived) -> published.add(derived));
+	}
+
+	/**
+	 * Nến 1m của BTCUSDT, giá cao/thấp lệch 1 so với giá mở/đóng
+	 */
+	private static String minute(long openTime, String price, String volume, String quoteVolume,
+								 String takerBuyVolume, String takerBuyQuoteVolume, int trades, boolean closed) {
+		long base = ScaledDecimal.parse(price);
+		return "{\"stream\":\"btcusdt@kline_1m\",\"data\":{\"e\":\"kline\",\"E\":" + (openTime + 1)
+				+ ",\"s\":\"BTCUSDT\",\"k\":{\"t\":" + openTime + ",\"T\":" + (openTime + MINUTE - 1)
+				+ ",\"s\":\"BTCUSDT\",\"i\":\"1m\",\"f\":1,\"L\":2,\"o\":\"" + price + "\",\"c\":\"" + price
+				+ "\",\"h\":\"" + ScaledDecimal.toString(base + 1) + "\",\"l\":\"" + ScaledDecimal.toString(base - 1)
+				+ "\",\"v\":\"" + volume
+				+ "\",\"n\":" + trades + ",\"x\":" + closed + ",\"q\":\"" + quoteVolume + "\",\"V\":\"" + takerBuyVolume
+				+ "\",\"Q\":\"" + takerBuyQuoteVolume + "\",\"B\":\"0\"}}}";
+	}
+
+	private static long field(String json, String key) {
+		return JsonFields.parseLong(json, JsonFields.valueStart(json, key, json.indexOf("\"k\":")));
+	}
+
+	private static String text(String json, String key) {
+		int start = JsonFields.valueStart(json, key, json.indexOf("\"k\":"));
+		return json.substring(start, json.indexOf('"', start));
+	}
+
+	/**
+	 * Trả các nến 1m cố định thay cho REST API của Binance
+	 */
+	private static final class RestHistory extends KlineBackfillService {
+		JsonNode rows;
+
+		RestHistory() {
+			super(null);
+		}
+
+		@Override
+		boolean isEnabled() {
+			return rows != null;
+		}
+
+		@Override
+		JsonNode fetchRows(String symbol, String interval, long startTime, long endTime) {
+			return "BTCUSDT".equals(symbol) && "1m".equals(interval) ? rows : null;
+		}
+
+		@Override
+		long fetchFirstTradeId(String symbol, long startTime, long endTime) {
+			return "BTCUSDT".equals(symbol) && startTime == DAY ? 1001 : -1;
+		}
+	}
+}
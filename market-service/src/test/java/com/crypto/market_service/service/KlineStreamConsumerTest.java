@@ -0,0 +1,192 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class KlineStreamConsumerTest {
+
+	// 2024-01-01T00:00:00Z
+	private static final long OPEN_TIME = 1_704_067_200_000L;
+	private static final String STREAM = "market_klines";
+	private static final String GROUP = "kline-persistence";
+
+	private final FakeStreams redis = new FakeStreams();
+	private final List<String> written = new ArrayList<>();
+	private final List<String> deferred = new ArrayList<>();
+	private boolean databaseDown;
+	private KlineStreamConsumer consumer;
+
+	@BeforeEach
+	void setUp() {
+		RedisSubscriber subscriber = new RedisSubscriber();
+		ReflectionTestUtils.setField(subscriber, "streamRouter", new BinanceStreamRouter());
+		KlinePersister persister = new KlinePersister() {
+			@Override
+			boolean deferIfOpen(KlineFrame frame) {
+				if (frame.closed) {
+					return false;
+				}
+				deferred.add(frame.symbol + "@" + frame.openTime);
+				return true;
+			}
+
+			@Override
+			void write(List<KlineFrame> frames) {
+				if (databaseDown) {
+					throw new QueryTimeoutException("timeout");
+				}
+				frames.forEach(frame -> written.add(frame.symbol + "@" + frame.openTime));
+			}
+		};
+
+		consumer = new KlineStreamConsumer();
+		ReflectionTestUtils.setField(consumer, "redisTemplate", redis);
+		ReflectionTestUtils.setField(consumer, "subscriber", subscriber);
+		ReflectionTestUtils.setField(consumer, "persister", persister);
+		ReflectionTestUtils.setField(consumer, "streamKey", STREAM);
+		ReflectionTestUtils.setField(consumer, "groupName", GROUP);
+		ReflectionTestUtils.setField(consumer, "batchSize", 200);
+		ReflectionTestUtils.setField(consumer, "blockMs", 10L);
+		ReflectionTestUtils.setField(consumer, "claimMinIdleMs", 60_000L);
+		ReflectionTestUtils.setField(consumer, "maxDeliveries", 5L);
+		// Những gì init() chuẩn bị, không khởi động thread đọc
+		ReflectionTestUtils.setField(consumer, "streams", redis.streams());
+		ReflectionTestUtils.setField(consumer, "streamKeyBytes", STREAM.getBytes(StandardCharsets.UTF_8));
+		ReflectionTestUtils.setField(consumer, "consumer", Consumer.from(GROUP, "replica-1"));
+	}
+
+	@Test
+	void batchIsWrittenOnceAndAcknowledgedOnce() {
+		redis.read = List.of(
+				record("1-0", kline("BTCUSDT", OPEN_TIME, true)),
+				record("1-1", kline("ETHUSDT", OPEN_TIME, false)),
+				record("1-2", "{\"result\":null,\"id\":1}"),
+				record("1-3", kline("ETHUSDT", OPEN_TIME - 3_600_000L, true)));
+
+		ReflectionTestUtils.invokeMethod(consumer, "readBatch");
+
+		assertEquals(List.of("BTCUSDT@" + OPEN_TIME, "ETHUSDT@" + (OPEN_TIME - 3_600_000L)), written);
+		// Nến đang mở đi theo checkpoint của KlinePersister, không vào batch
+		assertEquals(List.of("ETHUSDT@" + OPEN_TIME), deferred);
+		// Entry không giải mã được cũng được ACK: giao lại cũng không ghi được
+		assertEquals(List.of(List.of("1-0", "1-1", "1-2", "1-3")), redis.acknowledged);
+	}
+
+	@Test
+	void failedWriteLeavesTheBatchPending() {
+		redis.read = List.of(record("1-0", kline("BTCUSDT", OPEN_TIME, true)));
+		databaseDown = true;
+
+		ReflectionTestUtils.invokeMethod(consumer, "readBatch");
+
+		assertTrue(written.isEmpty());
+		assertTrue(redis.acknowledged.isEmpty());
+	}
+
+	@Test
+	void abandonedEntriesAreClaimedAndPoisonedOnesDropped() {
+		Consumer dead = Consumer.from(GROUP, "replica-2");
+		redis.pending = List.of(
+				new PendingMessage(RecordId.of("1-0"), dead, Duration.ofSeconds(1), 1),
+				new PendingMessage(RecordId.of("1-1"), dead, Duration.ofSeconds(90), 2),
+				new PendingMessage(RecordId.of("1-2"), dead, Duration.ofSeconds(90), 5));
+		redis.claimable = List.of(record("1-1", kline("BTCUSDT", OPEN_TIME, true)));
+
+		ReflectionTestUtils.invokeMethod(consumer, "claimAbandoned");
+
+		// Entry còn mới (consumer kia có thể vẫn đang ghi) không bị lấy
+		assertEquals(List.of("1-1"), redis.claimedIds);
+		assertEquals("replica-1", redis.claimedBy);
+		assertEquals(Duration.ofSeconds(60), redis.claimMinIdle);
+		assertEquals(List.of("BTCUSDT@" + OPEN_TIME), written);
+		// Entry đã giao đủ max-deliveries lần được ACK bỏ, entry nhận lại được ACK sau khi ghi
+		assertEquals(List.of(List.of("1-2"), List.of("1-1")), redis.acknowledged);
+	}
+
+	private static ByteRecord record(String id, String payload) {
+		Map<byte[], byte[]> fields = Map.of(KlineStreamConsumer.PAYLOAD_FIELD_BYTES, payload.getBytes(StandardCharsets.UTF_8));
+		return StreamRecords.rawBytes(fields)
+				.withStreamKey(STREAM.getBytes(StandardCharsets.UTF_8))
+				.withId(RecordId.of(id));
+	}
+
+	private static String kline(String symbol, long openTime, boolean closed) {
+		return "{\"stream\":\"" + symbol.toLowerCase() + "@kline_1h\",\"data\":{\"e\":\"kline\",\"E\":" + (openTime + 5)
+				+ ",\"s\":\"" + symbol + "\",\"k\":{\"t\":" + openTime + ",\"T\":" + (openTime + 3_599_999L)
+				+ ",\"s\":\"" + symbol + "\",\"i\":\"1h\",\"o\":\"100.00000000\",\"c\":\"101.00000000\""
+				+ ",\"h\":\"102.00000000\",\"l\":\"99.00000000\",\"v\":\"1.50000000\",\"n\":42,\"x\":" + closed + "}}}";
+	}
+
+	/**
+	 * Redis Stream trong bộ nhớ cho XREADGROUP, XPENDING, XCLAIM và XACK của một consumer group
+	 */
+	private static final class FakeStreams extends StringRedisTemplate {
+		List<ByteRecord> read = List.of();
+		List<PendingMessage> pending = List.of();
+		List<ByteRecord> claimable = List.of();
+		final List<List<String>> acknowledged = new ArrayList<>();
+		List<String> claimedIds;
+		String claimedBy;
+		Duration claimMinIdle;
+
+		@Override
+		public <T> T execute(RedisCallback<T> action) {
+			RedisStreamCommands commands = (RedisStreamCommands) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {RedisStreamCommands.class}, (proxy, method, args) -> switch (method.getName()) {
+						case "xReadGroup" -> read;
+						case "xClaim" -> {
+							claimedBy = (String) args[2];
+							claimMinIdle = (Duration) args[3];
+							claimedIds = Arrays.stream((RecordId[]) args[4]).map(RecordId::getValue).toList();
+							yield claimable;
+						}
+						default -> throw new UnsupportedOperationException(method.getName());
+					});
+			RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {RedisConnection.class}, (proxy, method, args) -> {
+						if (!method.getName().equals("streamCommands")) {
+							throw new UnsupportedOperationException(method.getName());
+						}
+						return commands;
+					});
+			return action.doInRedis(connection);
+		}
+
+		@SuppressWarnings("unchecked")
+		StreamOperations<String, Object, Object> streams() {
+			return (StreamOperations<String, Object, Object>) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] {StreamOperations.class}, (proxy, method, args) -> switch (method.getName()) {
+						case "pending" -> new PendingMessages(GROUP, pending);
+						case "acknowledge" -> {
+							acknowledged.add(Arrays.stream((RecordId[]) args[2]).map(RecordId::getValue).toList());
+							yield (long) ((RecordId[]) args[2]).length;
+						}
+						default -> throw new UnsupportedOperationException(method.getName());
+					});
+		}
+	}
+}
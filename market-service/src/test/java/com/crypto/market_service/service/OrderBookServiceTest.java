@@ -0,0 +1,149 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.dto.OrderBookDTO;
+import com.crypto.market_service.util.ScaledDecimal;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class OrderBookServiceTest {
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final StreamRoute diffRoute = router.routeOf("btcusdt@depth@100ms");
+	private final List<String> resyncs = new ArrayList<>();
+	private int clamped;
+	private final List<String> published = new ArrayList<>();
+	private final Snapshots snapshots = new Snapshots();
+
+	@BeforeEach
+	void setUp() {
+		ReflectionTestUtils.setField(snapshots, "levels", 5);
+		ReflectionTestUtils.setField(snapshots, "maxLevels", 100);
+		ReflectionTestUtils.setField(snapshots, "streamRouter", router);
+		ReflectionTestUtils.setField(snapshots, "metrics", new MarketMetrics(new SimpleMeterRegistry()) {
+			@Override
+			public void countDepthResync(String reason) {
+				resyncs.add(reason);
+			}
+
+			@Override
+			public void countDepthQuantityClamped() {
+				clamped++;
+			}
+		});
+	}
+
+	@Test
+	void buffersDiffsUntilTheSnapshotAndSkipsOlderOnes() throws Exception {
+		diff(95, 99, "[[\"99.0\",\"9.0\"]]", "[]");
+		diff(100, 102, "[[\"100.0\",\"1.0\"]]", "[]");
+		diff(103, 105, "[]", "[[\"101.0\",\"2.0\"]]");
+		assertNull(snapshots.getDepth("btcusdt", 5));
+
+		snapshots.load(100, "[[\"99.0\",\"5.0\"]]", "[[\"101.0\",\"3.0\"]]");
+
+		OrderBookDTO depth = snapshots.getDepth("BTCUSDT", 5);
+		assertEquals(105L, (long) depth.getLastUpdateId());
+		assertEquals(List.of(level("100.0", "1.0"), level("99.0", "5.0")), depth.getBids());
+		assertEquals(List.of(level("101.0", "2.0")), depth.getAsks());
+		assertTrue(resyncs.isEmpty());
+
+		diff(106, 106, "[[\"100.0\",\"0\"]]", "[]");
+		assertEquals(List.of(level("99.0", "5.0")), snapshots.getDepth("BTCUSDT", 5).getBids());
+		assertEquals(1, published.size());
+		assertTrue(published.get(0).startsWith("{\"stream\":\"btcusdt@depth5\""));
+	}
+
+	@Test
+	void gapResyncsFromANewSnapshot() throws Exception {
+		diff(101, 102, "[[\"98.0\",\"1.0\"]]", "[]");
+		snapshots.load(100, "[[\"99.0\",\"5.0\"]]", "[]");
+		assertEquals(102L, (long) snapshots.getDepth("BTCUSDT", 5).getLastUpdateId());
+
+		diff(110, 113, "[[\"97.0\",\"1.0\"]]", "[]");
+		assertEquals(List.of("gap"), resyncs);
+		assertNull(snapshots.getDepth("BTCUSDT", 5));
+
+		snapshots.load(112, "[[\"99.0\",\"4.0\"]]", "[]");
+		OrderBookDTO depth = snapshots.getDepth("BTCUSDT", 5);
+		assertEquals(113L, (long) depth.getLastUpdateId());
+		assertEquals(List.of(level("99.0", "4.0"), level("97.0", "1.0")), depth.getBids());
+	}
+
+	@Test
+	void snapshotOlderThanTheBufferIsFetchedAgain() throws Exception {
+		diff(100, 102, "[[\"100.0\",\"1.0\"]]", "[]");
+
+		snapshots.load(50, "[[\"99.0\",\"5.0\"]]", "[]");
+		assertEquals(List.of("stale_snapshot"), resyncs);
+		assertNull(snapshots.getDepth("BTCUSDT", 5));
+
+		snapshots.load(101, "[[\"99.0\",\"5.0\"]]", "[]");
+		assertEquals(102L, (long) snapshots.getDepth("BTCUSDT", 5).getLastUpdateId());
+	}
+
+	@Test
+	void hugeQuantitiesUseThePerBookScaleInsteadOfResyncing() throws Exception {
+		diff(101, 101, "[[\"0.00001233\",\"200000000000.12345678\"]]", "[]");
+		// 5e10 x 10 cần 12 chữ số phần nguyên -> sổ lệnh này giữ 6 chữ số lẻ
+		snapshots.load(100, "[[\"0.00001234\",\"50000000000.00\"]]", "[[\"0.00001235\",\"1.5\"]]");
+
+		OrderBookDTO depth = snapshots.getDepth("BTCUSDT", 5);
+		assertEquals(101L, (long) depth.getLastUpdateId());
+		assertEquals(new BigDecimal("200000000000.123456"), depth.getBids().get(1).getQuantity());
+		assertEquals(new BigDecimal("1.500000"), depth.getAsks().get(0).getQuantity());
+
+		// Vượt cả phần chừa thêm: kẹp và đếm, sổ lệnh vẫn đồng bộ
+		diff(102, 102, "[[\"0.00001232\",\"100000000000000\"]]", "[]");
+		assertTrue(published.get(0).contains("[\"0.00001233\",\"200000000000.12345600\"]"));
+		assertEquals(1, clamped);
+		assertEquals(102L, (long) snapshots.getDepth("BTCUSDT", 5).getLastUpdateId());
+		assertEquals(ScaledDecimal.toBigDecimal(Long.MAX_VALUE, 6),
+				snapshots.getDepth("BTCUSDT", 5).getBids().get(2).getQuantity());
+		assertTrue(resyncs.isEmpty());
+	}
+
+	private void diff(long firstUpdateId, long finalUpdateId, String bids, String asks) {
+		String payload = "{\"stream\":\"btcusdt@depth@100ms\",\"data\":{\"e\":\"depthUpdate\",\"E\":" + finalUpdateId
+				+ ",\"s\":\"BTCUSDT\",\"U\":" + firstUpdateId + ",\"u\":" + finalUpdateId
+				+ ",\"b\":" + bids + ",\"a\":" + asks + "}}";
+		snapshots.onDiff(diffRoute, payload, (route, top) -> published.add(top));
+	}
+
+	private static OrderBookDTO.PriceLevel level(String price, String quantity) {
+		return new OrderBookDTO.PriceLevel(new BigDecimal(price).setScale(8), new BigDecimal(quantity).setScale(8));
+	}
+
+	/**
+	 * Trả snapshot cố định thay cho REST /api/v3/depth
+	 */
+	private static final class Snapshots extends OrderBookService {
+		final Queue<JsonNode> next = new ArrayDeque<>();
+
+		void load(long lastUpdateId, String bids, String asks) throws Exception {
+			next.add(new ObjectMapper().readTree(
+					"{\"lastUpdateId\":" + lastUpdateId + ",\"bids\":" + bids + ",\"asks\":" + asks + "}"));
+			loadNextSnapshot();
+		}
+
+		@Override
+		JsonNode fetchSnapshot(String symbol) {
+			return next.poll();
+		}
+	}
+}
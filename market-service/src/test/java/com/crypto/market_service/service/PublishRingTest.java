@@ -0,0 +1,107 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class PublishRingTest {
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final StreamRoute btc = router.routeOf("btcusdt@kline_1m");
+	private final StreamRoute eth = router.routeOf("ethusdt@kline_1m");
+
+	@Test
+	void dropOldestKeepsTheNewestMessages() {
+		PublishRing ring = new PublishRing("test", 4, PublishRing.OverflowPolicy.DROP_OLDEST, () -> { });
+		for (int i = 0; i < 6; i++) {
+			ring.accept(btc, kline(i, false));
+		}
+
+		assertEquals(2, ring.droppedCount());
+		assertEquals(List.of(kline(2, false), kline(3, false), kline(4, false), kline(5, false)), drainAll(ring));
+	}
+
+	@Test
+	void coalesceKeepsOnlyTheLatestOpenCandleAfterTheRing() {
+		PublishRing ring = new PublishRing("test", 4, PublishRing.OverflowPolicy.COALESCE, () -> { });
+		for (int i = 0; i < 7; i++) {
+			ring.accept(btc, kline(i, false));
+		}
+
+		assertEquals(2, ring.coalescedCount());
+		assertEquals(5, ring.depth());
+		assertEquals(List.of(kline(0, false), kline(1, false), kline(2, false), kline(3, false), kline(6, false)),
+				drainAll(ring));
+		assertEquals(0, ring.depth());
+	}
+
+	@Test
+	void coalesceNeverReplacesAClosedCandle() {
+		PublishRing ring = new PublishRing("test", 4, PublishRing.OverflowPolicy.COALESCE, () -> { });
+		for (int i = 0; i < 4; i++) {
+			ring.accept(btc, kline(i, false));
+		}
+		ring.accept(btc, kline(4, true));
+		ring.accept(btc, kline(5, false));
+		ring.accept(btc, kline(6, false));
+
+		assertEquals(1, ring.coalescedCount());
+		assertEquals(List.of(kline(0, false), kline(1, false), kline(2, false), kline(3, false), kline(4, true),
+				kline(6, false)), drainAll(ring));
+	}
+
+	@Test
+	void coalescedStreamStaysBehindItsOverflow() {
+		PublishRing ring = new PublishRing("test", 4, PublishRing.OverflowPolicy.COALESCE, () -> { });
+		for (int i = 0; i < 4; i++) {
+			ring.accept(btc, kline(i, false));
+		}
+		ring.accept(btc, kline(4, false));
+
+		// Ring có chỗ lại: eth (không tràn) vào ring, btc vẫn phải đi sau bản tràn của nó
+		List<String> first = new ArrayList<>();
+		ring.drain(2, (route, payload) -> first.add(payload));
+		ring.accept(eth, kline(5, false));
+		ring.accept(btc, kline(6, false));
+
+		assertEquals(List.of(kline(0, false), kline(1, false)), first);
+		assertEquals(List.of(kline(2, false), kline(3, false), kline(5, false), kline(6, false)), drainAll(ring));
+	}
+
+	@Test
+	void blockWaitsForTheConsumer() throws Exception {
+		PublishRing ring = new PublishRing("test", 4, PublishRing.OverflowPolicy.BLOCK, () -> { });
+		for (int i = 0; i < 4; i++) {
+			ring.accept(btc, kline(i, false));
+		}
+
+		Thread producer = new Thread(() -> ring.accept(btc, kline(4, false)));
+		producer.start();
+		producer.join(100);
+		assertTrue(producer.isAlive());
+
+		List<String> first = new ArrayList<>();
+		ring.drain(1, (route, payload) -> first.add(payload));
+		producer.join(TimeUnit.SECONDS.toMillis(5));
+
+		assertEquals(0, ring.droppedCount());
+		assertEquals(List.of(kline(0, false)), first);
+		assertEquals(List.of(kline(1, false), kline(2, false), kline(3, false), kline(4, false)), drainAll(ring));
+	}
+
+	private static List<String> drainAll(PublishRing ring) {
+		List<String> out = new ArrayList<>();
+		while (ring.drain(16, (route, payload) -> out.add(payload)) > 0) {
+		}
+		return out;
+	}
+
+	private static String kline(int seq, boolean closed) {
+		return "{\"n\":" + seq + ",\"x\":" + closed + "}";
+	}
+}
@@ -0,0 +1,49 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class ReconnectBackoffTest {
+
+	private final ReconnectBackoff backoff = new ReconnectBackoff(1000, 60_000);
+
+	@Test
+	void delayDoublesUpToTheMaximumWithinHalfJitter() {
+		long[] caps = {1000, 2000, 4000, 8000, 16_000, 32_000, 60_000, 60_000};
+		for (int attempt = 0; attempt < caps.length; attempt++) {
+			for (int i = 0; i < 1000; i++) {
+				long delay = backoff.delayFor(attempt);
+				assertTrue(delay >= caps[attempt] / 2 && delay <= caps[attempt],
+						"attempt " + attempt + ": " + delay + " outside [" + caps[attempt] / 2 + ", " + caps[attempt] + "]");
+			}
+		}
+	}
+
+	@Test
+	void manyAttemptsNeverOverflowPastTheMaximum() {
+		// Số mũ được chặn ở 20: không có chặn thì initial << attempt tràn long và ra delay âm
+		for (int attempt : new int[] {20, 21, 54, 63, 64, Integer.MAX_VALUE}) {
+			long delay = backoff.delayFor(attempt);
+			assertTrue(delay >= 30_000 && delay <= 60_000, "attempt " + attempt + ": " + delay);
+		}
+	}
+
+	@Test
+	void shardsReconnectingTogetherAreSpreadOut() {
+		Set<Long> delays = new HashSet<>();
+		for (int shard = 0; shard < 16; shard++) {
+			delays.add(backoff.delayFor(3));
+		}
+		assertTrue(delays.size() > 8, delays.size() + " distinct delays for 16 shards");
+	}
+
+	@Test
+	void zeroInitialDelayReconnectsImmediately() {
+		assertEquals(0, new ReconnectBackoff(0, 0).delayFor(0));
+	}
+}
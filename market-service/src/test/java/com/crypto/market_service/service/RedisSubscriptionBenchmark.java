@@ -0,0 +1,133 @@
+package com.crypto.market_service.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.crypto.market_service.config.RedisConfig;
+
+import io.lettuce.core.LettuceFutures;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisFuture;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.pubsub.RedisPubSubAdapter;
+import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
+
+/**
+ * So sánh hai chế độ app.redis.subscription-mode trên một Redis thật: PSUBSCRIBE market_data:*
+ * (pattern) và SUBSCRIBE từng kênh market_data:{symbol} (channel), với nhiều symbol nhưng subscriber
+ * chỉ cần một phần (replica standby có client xem vài symbol). Không chạy cùng test (surefire chỉ nhận *Test);
+ * chạy tay:
+ * {@code java -cp target/test-classes:target/classes:<lettuce + netty + reactor jars> com.crypto.market_service.service.RedisSubscriptionBenchmark
+ * redis://localhost:6379 600 20}
+ */
+class RedisSubscriptionBenchmark {
+
+	private static final int MESSAGES_PER_SYMBOL = 1000;
+	private static final int PIPELINE = 1000;
+	// Cùng cỡ message kline nhị phân (KlineCodec.SIZE)
+	private static final String PAYLOAD = "x".repeat(KlineCodec.SIZE);
+
+	public static void main(String[] args) throws Exception {
+		String uri = args.length > 0 ? args[0] : "redis://localhost:6379";
+		int symbols = args.length > 1 ? Integer.parseInt(args[1]) : 600;
+		int watched = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+		RedisClient client = RedisClient.create(uri);
+		try (StatefulRedisConnection<String, String> publisher = client.connect()) {
+			String[] channels = new String[symbols];
+			for (int i = 0; i < symbols; i++) {
+				channels[i] = RedisConfig.MARKET_TOPIC_PREFIX + "bench" + i + "usdt";
+			}
+			for (boolean pattern : new boolean[] {true, false, true, false}) { // Lượt đầu mỗi chế độ là warm-up
+				run(client, publisher, channels, watched, pattern);
+			}
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	private static void run(RedisClient client, StatefulRedisConnection<String, String> publisher, String[] channels,
+							int watched, boolean pattern) throws Exception {
+		AtomicLong delivered = new AtomicLong();
+		AtomicLong wanted = new AtomicLong();
+		try (StatefulRedisPubSubConnection<String, String> subscriber = client.connectPubSub()) {
+			subscriber.addListener(new RedisPubSubAdapter<>() {
+				@Override
+				public void message(String channel, String message) {
+					count(channel);
+				}
+
+				@Override
+				public void message(String subscribedPattern, String channel, String message) {
+					count(channel);
+				}
+
+				// Như RedisSubscriber: message của symbol không ai xem bị bỏ phía client
+				private void count(String channel) {
+					delivered.incrementAndGet();
+					if (isWatched(channel, watched)) {
+						wanted.incrementAndGet();
+					}
+				}
+			});
+			if (pattern) {
+				subscriber.sync().psubscribe(RedisConfig.MARKET_TOPIC_PREFIX + "*");
+			} else {
+				subscriber.sync().subscribe(Arrays.copyOf(channels, Math.min(watched, channels.length)));
+			}
+
+			double cpuBefore = serverCpu(publisher);
+			long total = (long) channels.length * MESSAGES_PER_SYMBOL;
+			long expected = (long) Math.min(watched, channels.length) * MESSAGES_PER_SYMBOL;
+			long start = System.nanoTime();
+			publisher.setAutoFlushCommands(false);
+			List<RedisFuture<Long>> futures = new ArrayList<>(PIPELINE);
+			for (long i = 0; i < total; i++) {
+				futures.add(publisher.async().publish(channels[(int) (i % channels.length)], PAYLOAD));
+				if (futures.size() == PIPELINE) {
+					publisher.flushCommands();
+					LettuceFutures.awaitAll(30, TimeUnit.SECONDS, futures.toArray(new RedisFuture[0]));
+					futures.clear();
+				}
+			}
+			publisher.flushCommands();
+			LettuceFutures.awaitAll(30, TimeUnit.SECONDS, futures.toArray(new RedisFuture[0]));
+			publisher.setAutoFlushCommands(true);
+			long published = System.nanoTime() - start;
+
+			long deadline = System.currentTimeMillis() + 30_000;
+			while (wanted.get() < expected && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			long received = System.nanoTime() - start;
+			double cpu = serverCpu(publisher) - cpuBefore;
+
+			System.out.printf("%-7s symbols %d watched %d: publish %,.0f msg/s, all wanted received after %,d ms,"
+							+ " delivered %,d (wanted %,d), redis cpu %.2f s%n",
+					pattern ? "pattern" : "channel", channels.length, watched, total * 1e9 / published,
+					received / 1_000_000, delivered.get(), wanted.get(), cpu);
+		}
+	}
+
+	private static boolean isWatched(String channel, int watched) {
+		int from = RedisConfig.MARKET_TOPIC_PREFIX.length() + "bench".length();
+		int index = Integer.parseInt(channel, from, channel.length() - "usdt".length(), 10);
+		return index < watched;
+	}
+
+	/**
+	 * used_cpu_sys + used_cpu_user của tiến trình Redis (INFO cpu)
+	 */
+	private static double serverCpu(StatefulRedisConnection<String, String> connection) {
+		double cpu = 0;
+		for (String line : connection.sync().info("cpu").split("\r?\n")) {
+			if (line.startsWith("used_cpu_sys:") || line.startsWith("used_cpu_user:")) {
+				cpu += Double.parseDouble(line.substring(line.indexOf(':') + 1).trim());
+			}
+		}
+		return cpu;
+	}
+}
@@ -0,0 +1,60 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class ScaledAmountTest {
+
+	@Test
+	void sumDropsDecimalsOnlyWhenItNoLongerFits() {
+		ScaledAmount amount = new ScaledAmount();
+		amount.add("90000000000.5", 0);
+		amount.add("10000000000.25", 0);
+
+		assertEquals(7, amount.scale);
+		assertEquals(new BigDecimal("100000000000.7500000"), amount.toBigDecimal());
+		assertEquals("100000000000.75000000", amount.appendTo(new StringBuilder()).toString());
+	}
+
+	@Test
+	void productMatchesBigDecimalTruncatedToTheResultScale() {
+		Random random = new Random(42);
+		for (int i = 0; i < 10_000; i++) {
+			long a = random.nextLong() >>> random.nextInt(64);
+			long b = random.nextLong() >>> random.nextInt(64);
+			int aScale = random.nextInt(9);
+			int bScale = random.nextInt(9);
+			BigDecimal exact = BigDecimal.valueOf(a, aScale).multiply(BigDecimal.valueOf(b, bScale));
+			ScaledAmount amount = new ScaledAmount();
+			try {
+				amount.addProduct(a, aScale, b, bScale);
+			} catch (ArithmeticException e) {
+				// Chỉ được từ chối khi phần nguyên không vừa long
+				assertEquals(1, exact.abs().setScale(0, RoundingMode.DOWN).compareTo(BigDecimal.valueOf(Long.MAX_VALUE)));
+				continue;
+			}
+			assertEquals(exact.setScale(amount.scale, RoundingMode.DOWN), amount.toBigDecimal(), a + "e-" + aScale
+					+ " x " + b + "e-" + bScale);
+		}
+	}
+
+	@Test
+	void negativeFactorGivesANegativeProduct() {
+		ScaledAmount amount = new ScaledAmount();
+		amount.addProduct(-150_000_000L, 8, 3, 0);
+
+		assertEquals(new BigDecimal("-4.50000000"), amount.toBigDecimal());
+	}
+
+	@Test
+	void productTooLargeForALongIsRejected() {
+		ScaledAmount amount = new ScaledAmount();
+		assertThrows(ArithmeticException.class, () -> amount.addProduct(Long.MAX_VALUE, 0, 10, 0));
+	}
+}
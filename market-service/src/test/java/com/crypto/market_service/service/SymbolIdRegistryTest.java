@@ -0,0 +1,75 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.entity.TradingSymbol;
+import com.crypto.market_service.repository.TradingSymbolRepository;
+
+class SymbolIdRegistryTest {
+
+	private final Set<String> queriedOn = ConcurrentHashMap.newKeySet();
+	private final CountDownLatch loaded = new CountDownLatch(1);
+	private SymbolIdRegistry registry;
+
+	@BeforeEach
+	void setUp() {
+		TradingSymbolRepository repository = (TradingSymbolRepository) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class<?>[] {TradingSymbolRepository.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("findAll")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					queriedOn.add(Thread.currentThread().getName());
+					loaded.countDown();
+					return List.of(TradingSymbol.builder().id(3L).symbol("BTCUSDT").build());
+				});
+		registry = new SymbolIdRegistry();
+		ReflectionTestUtils.setField(registry, "symbolRepository", repository);
+	}
+
+	@AfterEach
+	void tearDown() {
+		registry.shutdown();
+	}
+
+	@Test
+	void unknownIdReloadsInTheBackground() throws Exception {
+		assertNull(registry.byId(3));
+		assertTrue(loaded.await(5, TimeUnit.SECONDS));
+		assertEquals(Set.of("symbol-id-reload"), queriedOn);
+
+		assertEquals("BTCUSDT", waitForId(3).symbol());
+		assertEquals("btcusdt", registry.byId(3).streamSymbol());
+	}
+
+	@Test
+	void resolveByIdLoadsOnTheCallingThread() {
+		SymbolIdRegistry.SymbolRef ref = registry.resolveById(3);
+
+		assertEquals("BTCUSDT", ref.symbol());
+		assertEquals(Set.of(Thread.currentThread().getName()), queriedOn);
+		assertEquals(3, registry.idOf("BTCUSDT"));
+	}
+
+	private SymbolIdRegistry.SymbolRef waitForId(int id) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		SymbolIdRegistry.SymbolRef ref;
+		while ((ref = registry.byId(id)) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return ref;
+	}
+}
@@ -0,0 +1,140 @@
+package com.crypto.market_service.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.crypto.market_service.util.JsonFields;
+
+class TradeBarAggregatorTest {
+
+	// 2024-01-01T00:00:00Z
+	private static final long START = 1_704_067_200_000L;
+
+	private final BinanceStreamRouter router = new BinanceStreamRouter();
+	private final StreamRoute trades = router.routeOf("btcusdt@aggTrade");
+	private final List<String> published = new ArrayList<>();
+	private TradeBarAggregator aggregator;
+
+	@BeforeEach
+	void setUp() {
+		aggregator = new TradeBarAggregator();
+		ReflectionTestUtils.setField(aggregator, "enabled", true);
+		ReflectionTestUtils.setField(aggregator, "barIntervals", List.of("1s", "5s"));
+		ReflectionTestUtils.setField(aggregator, "streamRouter", router);
+		aggregator.init();
+	}
+
+	@Test
+	void tradeInTheNextBucketClosesTheBar() {
+		trade(1, START + 100, "100.0", "1.0", false);
+		trade(2, START + 900, "102.0", "2.0", true);
+		trade(3, START + 999, "99.0", "1.0", false);
+		assertTrue(published.isEmpty());
+
+		trade(4, START + 1_000, "101.0", "1.0", false);
+
+		assertEquals(1, published.size());
+		String bar = published.get(0);
+		assertTrue(bar.startsWith("{\"stream\":\"btcusdt@kline_1s\""));
+		assertEquals(START, field(bar, "\"t\":"));
+		assertEquals(START + 999, field(bar, "\"T\":"));
+		assertEquals(1, field(bar, "\"f\":"));
+		assertEquals(3, field(bar, "\"L\":"));
+		assertEquals(3, field(bar, "\"n\":"));
+		assertEquals("100.00000000", text(bar, "\"o\":"));
+		assertEquals("102.00000000", text(bar, "\"h\":"));
+		assertEquals("99.00000000", text(bar, "\"l\":"));
+		assertEquals("99.00000000", text(bar, "\"c\":"));
+		assertEquals("4.00000000", text(bar, "\"v\":"));
+		assertEquals("403.00000000", text(bar, "\"q\":"));
+		assertEquals("2.00000000", text(bar, "\"V\":"));
+		assertEquals("199.00000000", text(bar, "\"Q\":"));
+	}
+
+	@Test
+	void bucketsAlignToEpochMultiplesOfTheInterval() {
+		trade(1, START + 4_999, "100.0", "1.0", false);
+		trade(2, START + 5_000, "100.0", "1.0", false);
+
+		assertEquals(List.of(START + 4_000, START), List.of(field(published.get(0), "\"t\":"),
+				field(published.get(1), "\"t\":")));
+		assertTrue(published.get(1).startsWith("{\"stream\":\"btcusdt@kline_5s\""));
+		assertEquals(START + 4_999, field(published.get(1), "\"T\":"));
+	}
+
+	@Test
+	void flushClosesQuietBarsOnlyAfterTheGracePeriod() {
+		trade(1, START + 100, "100.0", "1.0", false);
+
+		aggregator.flushExpired(START + 1_000, (route, bar) -> published.add(bar));
+		assertTrue(published.isEmpty());
+
+		aggregator.flushExpired(START + 1_250, (route, bar) -> published.add(bar));
+		assertEquals(1, published.size());
+		assertTrue(published.get(0).startsWith("{\"stream\":\"btcusdt@kline_1s\""));
+
+		aggregator.flushExpired(START + 5_250, (route, bar) -> published.add(bar));
+		assertEquals(2, published.size());
+		assertTrue(published.get(1).startsWith("{\"stream\":\"btcusdt@kline_5s\""));
+	}
+
+	@Test
+	void lateTradeIsMergedIntoTheCurrentBar() {
+		trade(1, START + 1_100, "100.0", "1.0", false);
+		trade(2, START + 900, "90.0", "1.0", false);
+		aggregator.flushExpired(START + 2_250, (route, bar) -> published.add(bar));
+
+		String bar = published.get(0);
+		assertEquals(START + 1_000, field(bar, "\"t\":"));
+		assertEquals("90.00000000", text(bar, "\"l\":"));
+		assertEquals(2, field(bar, "\"n\":"));
+	}
+
+	@Test
+	void quoteVolumeIsTheExactSumOfPriceTimesQuantity() {
+		// Với double, tích này chỉ còn 16 chữ số có nghĩa: 828684645.00480390
+		trade(1, START + 100, "67123.45678912", "12345.67891234", false);
+		trade(2, START + 1_000, "1.0", "1.0", false);
+
+		assertEquals("828684645.00480399", text(published.get(0), "\"q\":"));
+		assertEquals("828684645.00480399", text(published.get(0), "\"Q\":"));
+	}
+
+	@Test
+	void hugeQuantityOfALowPricedTokenIsKept() {
+		// 2e11 PEPE vượt long nhân 10^8 (~9.2e10)
+		trade(1, START + 100, "0.00001234", "200000000000.00", true);
+		trade(2, START + 200, "0.00001235", "100000000000.00", false);
+		trade(3, START + 1_000, "0.00001235", "1.00", false);
+
+		String bar = published.get(0);
+		assertEquals(2, field(bar, "\"n\":"));
+		assertEquals("300000000000.00000000", text(bar, "\"v\":"));
+		assertEquals("3703000.00000000", text(bar, "\"q\":"));
+		assertEquals("100000000000.00000000", text(bar, "\"V\":"));
+		assertEquals("1235000.00000000", text(bar, "\"Q\":"));
+	}
+
+	private void trade(long id, long time, String price, String quantity, boolean buyerMaker) {
+		String payload = "{\"stream\":\"btcusdt@aggTrade\",\"data\":{\"e\":\"aggTrade\",\"E\":" + time
+				+ ",\"s\":\"BTCUSDT\",\"a\":" + id + ",\"p\":\"" + price + "\",\"q\":\"" + quantity
+				+ "\",\"f\":" + id + ",\"l\":" + id + ",\"T\":" + time + ",\"m\":" + buyerMaker + ",\"M\":true}}";
+		aggregator.onTrade(trades, payload, (route, bar) -> published.add(bar));
+	}
+
+	private static long field(String json, String key) {
+		return JsonFields.parseLong(json, JsonFields.valueStart(json, key, json.indexOf("\"k\":")));
+	}
+
+	private static String text(String json, String key) {
+		int start = JsonFields.valueStart(json, key, json.indexOf("\"k\":"));
+		return json.substring(start, json.indexOf('"', start));
+	}
+}
@@ -0,0 +1,42 @@
+package com.crypto.market_service.service.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.crypto.market_service.repository.KlineAggregateRepository;
+
+class KlineServiceImplTest {
+
+	private static final LocalDateTime FROM = LocalDateTime.of(2026, 10, 1, 0, 0);
+
+	private final List<LocalDateTime[]> refreshed = new ArrayList<>();
+	private final KlineServiceImpl service = new KlineServiceImpl(null, new KlineAggregateRepository(null) {
+		@Override
+		public void refresh(LocalDateTime from, LocalDateTime to) {
+			refreshed.add(new LocalDateTime[] {from, to});
+		}
+	}, null, null);
+
+	@Test
+	void refreshNeedsBothBounds() {
+		assertThrows(IllegalArgumentException.class, () -> service.refreshAggregates(null, null));
+		assertThrows(IllegalArgumentException.class, () -> service.refreshAggregates(FROM, null));
+		assertThrows(IllegalArgumentException.class, () -> service.refreshAggregates(FROM, FROM));
+		assertEquals(0, refreshed.size());
+	}
+
+	@Test
+	void refreshWindowIsCapped() {
+		assertThrows(IllegalArgumentException.class,
+				() -> service.refreshAggregates(FROM, FROM.plus(KlineServiceImpl.MAX_REFRESH_WINDOW).plusSeconds(1)));
+
+		service.refreshAggregates(FROM, FROM.plus(KlineServiceImpl.MAX_REFRESH_WINDOW));
+		assertEquals(1, refreshed.size());
+	}
+}
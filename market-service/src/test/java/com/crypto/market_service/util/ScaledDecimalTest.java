@@ -0,0 +1,70 @@
+package com.crypto.market_service.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigDecimal;
+
+import org.junit.jupiter.api.Test;
+
+class ScaledDecimalTest {
+
+	@Test
+	void parsesAndFormatsEightDecimalPlaces() {
+		assertEquals(4_231_050_000_000L, ScaledDecimal.parse("42310.50000000"));
+		assertEquals(-150_000_000L, ScaledDecimal.parse("-1.5"));
+		assertEquals(1L, ScaledDecimal.parse("0.00000001"));
+		assertEquals("42310.50000000", ScaledDecimal.toString(4_231_050_000_000L));
+		assertEquals("-0.00000001", ScaledDecimal.toString(-1L));
+	}
+
+	@Test
+	void parseStopsAtTheClosingQuote() {
+		String json = "{\"p\":\"12.34\",\"q\":\"5\"}";
+		assertEquals(1_234_000_000L, ScaledDecimal.parse(json, JsonFields.valueStart(json, "\"p\":", 0)));
+	}
+
+	@Test
+	void rejectsValuesThatDoNotFit() {
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.parse("0.000000001"));
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.parse("100000000000"));
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.fromBigDecimal(new BigDecimal("1.123456789")));
+	}
+
+	@Test
+	void fittingScaleLowersTheScaleForLargeIntegers() {
+		assertEquals(8, ScaledDecimal.fittingScale("9223372036.5", 0));
+		assertEquals(7, ScaledDecimal.fittingScale("92233720368.5", 0));
+		assertEquals(6, ScaledDecimal.fittingScale("123456789012.0", 0));
+		assertEquals(0, ScaledDecimal.fittingScale("123456789012345678", 0));
+		assertEquals(8, ScaledDecimal.fittingScale("000001.5", 0));
+		assertEquals(6, ScaledDecimal.fittingScale(new BigDecimal("123456789012.00000000")));
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.fittingScale("1234567890123456789", 0));
+	}
+
+	@Test
+	void largeVolumeRoundTripsAtItsFittingScale() {
+		String volume = "1000000000000.12345000";
+		int scale = ScaledDecimal.fittingScale(volume, 0);
+		long value = ScaledDecimal.parse(volume, 0, scale);
+
+		assertEquals(5, scale);
+		assertEquals(volume, ScaledDecimal.appendTo(new StringBuilder(), value, scale).toString());
+		assertEquals(new BigDecimal("1000000000000.12345"), ScaledDecimal.toBigDecimal(value, scale));
+		assertEquals(value, ScaledDecimal.fromBigDecimal(ScaledDecimal.toBigDecimal(value, scale), scale));
+	}
+
+	@Test
+	void parseTruncatedDropsExtraDecimals() {
+		assertEquals(123_456_789_012_123_456L, ScaledDecimal.parseTruncated("123456789012.12345678", 0, 6));
+		assertEquals(-15L, ScaledDecimal.parseTruncated("-1.59", 0, 1));
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.parse("1.59", 0, 1));
+	}
+
+	@Test
+	void rescaleKeepsExactValuesOnly() {
+		assertEquals(15L, ScaledDecimal.rescale(150_000_000L, 8, 1));
+		assertThrows(ArithmeticException.class, () -> ScaledDecimal.rescale(150_000_001L, 8, 1));
+		assertEquals(-1, ScaledDecimal.compare(15L, 1, 150_000_001L, 8));
+	}
+}